@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.codec.BinaryReportDecoder;
+import com.ivkos.gpsd4j.codec.BinaryReportEncoder;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares the binary encoding of {@link BinaryReportEncoder} with the JSON form of {@link SerializationHelper}, for
+ * a track of TPV reports of a moving receiver. Each operation encodes or decodes one report. The average size of a
+ * report in each form is printed before the measurements.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CodecBenchmark
+{
+   private static final int TRACK_LENGTH = 1000;
+
+   private final List<TPVReport> track = new ArrayList<>();
+   private final List<String> json = new ArrayList<>();
+   private final ByteBuffer out = ByteBuffer.allocate(1024);
+   private ByteBuffer encoded;
+
+   private final BinaryReportEncoder encoder = new BinaryReportEncoder();
+   private final BinaryReportDecoder decoder = new BinaryReportDecoder();
+   private int next;
+
+   @Setup
+   public void setUp()
+   {
+      for (int i = 0; i < TRACK_LENGTH; i++) {
+         String report = String.format(Locale.ROOT, "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+                     "\"time\":\"2017-09-01T%02d:%02d:%02d.000Z\",\"ept\":0.005,\"lat\":%.9f,\"lon\":%.9f," +
+                     "\"alt\":%.3f,\"epx\":%.3f,\"epy\":%.3f,\"epv\":7.900,\"track\":%.4f,\"speed\":%.3f," +
+                     "\"climb\":%.3f,\"eps\":0.600}",
+               10 + i / 3600, i / 60 % 60, i % 60,
+               42.697708 + i * 0.000091, 23.321868 - i * 0.000127 + Math.sin(i / 30.0) * 0.0001,
+               550.2 + Math.sin(i / 50.0) * 3, 3 + i % 5 * 0.1, 3.4 - i % 3 * 0.1,
+               121.4 + Math.cos(i / 30.0) * 10, 12.3 + Math.sin(i / 10.0), Math.cos(i / 50.0) * 0.2);
+
+         track.add(SerializationHelper.deserialize(report));
+         json.add(report);
+      }
+
+      // with a separate encoder, so that the decoder sees the whole stream from the start
+      BinaryReportEncoder streamEncoder = new BinaryReportEncoder();
+      encoded = ByteBuffer.allocate(TRACK_LENGTH * 256);
+      long jsonBytes = 0;
+
+      for (int i = 0; i < TRACK_LENGTH; i++) {
+         streamEncoder.encode(track.get(i), encoded);
+         jsonBytes += SerializationHelper.serialize(track.get(i)).getBytes(UTF_8).length;
+      }
+
+      encoded.flip();
+
+      System.out.printf("%nAverage size of a report: binary %.1f B, JSON %.1f B%n",
+            (double) encoded.remaining() / TRACK_LENGTH, (double) jsonBytes / TRACK_LENGTH);
+   }
+
+   @Benchmark
+   public int encodeBinary()
+   {
+      out.clear();
+      return encoder.encode(nextReport(), out);
+   }
+
+   @Benchmark
+   public GpsdMessage decodeBinary()
+   {
+      if (!encoded.hasRemaining()) {
+         encoded.rewind();
+         decoder.reset();
+      }
+
+      return decoder.decode(encoded);
+   }
+
+   @Benchmark
+   public byte[] encodeJson()
+   {
+      return SerializationHelper.serialize(nextReport()).getBytes(UTF_8);
+   }
+
+   @Benchmark
+   public GpsdMessage decodeJson()
+   {
+      String report = json.get(next);
+      next = (next + 1) % TRACK_LENGTH;
+
+      return SerializationHelper.deserialize(report);
+   }
+
+   private TPVReport nextReport()
+   {
+      TPVReport report = track.get(next);
+      next = (next + 1) % TRACK_LENGTH;
+
+      return report;
+   }
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link SerializationHelper#deserialize(String)} for each type of message, using payloads as gpsd sends
+ * them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeserializeBenchmark
+{
+   static final Map<String, String> PAYLOADS = new HashMap<>();
+
+   static {
+      PAYLOADS.put("TPV", "{\"class\":\"TPV\",\"device\":\"/dev/pts/1\",\"time\":\"2005-06-08T10:34:48.283Z\"," +
+            "\"ept\":0.005,\"lat\":46.498293369,\"lon\":7.567411672,\"alt\":1343.127,\"eph\":36.000," +
+            "\"epv\":32.321,\"track\":10.3788,\"speed\":0.091,\"climb\":-0.085,\"mode\":3}");
+
+      PAYLOADS.put("SKY", "{\"class\":\"SKY\",\"device\":\"/dev/pts/1\",\"time\":\"2005-07-08T11:28:07.114Z\"," +
+            "\"xdop\":1.55,\"hdop\":1.24,\"pdop\":1.99,\"satellites\":[" +
+            "{\"PRN\":23,\"el\":6,\"az\":84,\"ss\":0,\"used\":false}," +
+            "{\"PRN\":28,\"el\":7,\"az\":160,\"ss\":0,\"used\":false}," +
+            "{\"PRN\":8,\"el\":66,\"az\":189,\"ss\":44,\"used\":true}," +
+            "{\"PRN\":29,\"el\":13,\"az\":273,\"ss\":0,\"used\":false}," +
+            "{\"PRN\":10,\"el\":51,\"az\":304,\"ss\":29,\"used\":true}," +
+            "{\"PRN\":4,\"el\":15,\"az\":199,\"ss\":36,\"used\":true}," +
+            "{\"PRN\":2,\"el\":34,\"az\":241,\"ss\":43,\"used\":true}," +
+            "{\"PRN\":27,\"el\":71,\"az\":76,\"ss\":43,\"used\":true}]}");
+
+      PAYLOADS.put("ATT", "{\"class\":\"ATT\",\"device\":\"/dev/pts/1\",\"time\":\"2005-07-08T11:28:07.114Z\"," +
+            "\"heading\":14223.00,\"mag_st\":\"N\",\"pitch\":169.00,\"pitch_st\":\"N\",\"roll\":-43.00," +
+            "\"roll_st\":\"N\",\"dip\":13641.000,\"mag_x\":2454.000}");
+
+      PAYLOADS.put("GST", "{\"class\":\"GST\",\"device\":\"/dev/ttyUSB0\",\"time\":\"2010-12-07T10:23:07.096Z\"," +
+            "\"rms\":2.440,\"major\":1.660,\"minor\":1.120,\"orient\":68.989,\"lat\":1.600,\"lon\":1.200," +
+            "\"alt\":2.520}");
+
+      PAYLOADS.put("TOFF", "{\"class\":\"TOFF\",\"device\":\"/dev/ttyUSB0\",\"real_sec\":1330212592," +
+            "\"real_nsec\":343182,\"clock_sec\":1330212592,\"clock_nsec\":343184}");
+
+      PAYLOADS.put("VERSION", "{\"class\":\"VERSION\",\"release\":\"3.16\",\"rev\":\"3.16\"," +
+            "\"proto_major\":3,\"proto_minor\":11}");
+
+      PAYLOADS.put("DEVICES", "{\"class\":\"DEVICES\",\"devices\":[{\"class\":\"DEVICE\"," +
+            "\"path\":\"/dev/pts/1\",\"activated\":\"2017-09-01T10:00:00.000Z\",\"driver\":\"u-blox\"," +
+            "\"bps\":4800,\"parity\":\"N\",\"stopbits\":1,\"native\":0,\"cycle\":1.00,\"mincycle\":0.25}]}");
+
+      PAYLOADS.put("WATCH", "{\"class\":\"WATCH\",\"enable\":true,\"json\":true,\"nmea\":false,\"raw\":0," +
+            "\"scaled\":false,\"timing\":false,\"split24\":false,\"pps\":false}");
+
+      PAYLOADS.put("POLL", "{\"class\":\"POLL\",\"time\":\"2010-06-04T10:31:00.289Z\",\"active\":1," +
+            "\"tpv\":[" + PAYLOADS.get("TPV") + "],\"gst\":[" + PAYLOADS.get("GST") + "]," +
+            "\"sky\":[" + PAYLOADS.get("SKY") + "]}");
+
+      PAYLOADS.put("ERROR", "{\"class\":\"ERROR\",\"message\":\"Unrecognized request '?FOO'\"}");
+   }
+
+   @Param({ "TPV", "SKY", "ATT", "GST", "TOFF", "VERSION", "DEVICES", "WATCH", "POLL", "ERROR" })
+   public String type;
+
+   private String payload;
+
+   @Setup
+   public void setUp()
+   {
+      payload = PAYLOADS.get(type);
+   }
+
+   @Benchmark
+   public GpsdMessage deserialize()
+   {
+      return SerializationHelper.deserialize(payload);
+   }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.client.GpsdClient;
+import com.ivkos.gpsd4j.client.NioGpsdClient;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Measures the latency from the moment a report is written to the socket by a stand-in gpsd server until a handler
+ * of the client receives it, for both {@link GpsdClient} and {@link NioGpsdClient}. Sample time mode reports the
+ * percentiles of the distribution.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EndToEndBenchmark
+{
+   private static final byte[] TPV = ("{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+         "\"time\":\"2017-09-01T10:00:00.000Z\",\"ept\":0.005,\"lat\":42.697708,\"lon\":23.321868,\"alt\":550.2," +
+         "\"epx\":3.1,\"epy\":3.4,\"epv\":7.9,\"track\":121.4,\"speed\":12.3,\"climb\":0.1,\"eps\":0.6}\n")
+         .getBytes(UTF_8);
+
+   @Param({ "vertx", "nio" })
+   public String client;
+
+   private final AtomicLong handled = new AtomicLong();
+
+   private ServerSocket server;
+   private Socket socket;
+   private OutputStream out;
+   private Runnable stop;
+
+   @Setup
+   public void setUp() throws IOException
+   {
+      server = new ServerSocket(0);
+
+      if (client.equals("vertx")) {
+         GpsdClient c = new GpsdClient("localhost", server.getLocalPort())
+               .addHandler(TPVReport.class, tpv -> handled.incrementAndGet())
+               .start();
+         stop = c::stop;
+      } else {
+         NioGpsdClient c = new NioGpsdClient("localhost", server.getLocalPort())
+               .addHandler(TPVReport.class, tpv -> handled.incrementAndGet())
+               .start();
+         stop = c::stop;
+      }
+
+      socket = server.accept();
+      socket.setTcpNoDelay(true);
+      out = socket.getOutputStream();
+   }
+
+   @TearDown
+   public void tearDown() throws IOException
+   {
+      stop.run();
+      socket.close();
+      server.close();
+   }
+
+   @Benchmark
+   public long report() throws IOException
+   {
+      long expected = handled.get() + 1;
+
+      out.write(TPV);
+      out.flush();
+
+      long received;
+      while ((received = handled.get()) < expected) {
+         Thread.yield();
+      }
+
+      return received;
+   }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.fleet.FleetRow;
+import com.ivkos.gpsd4j.fleet.FleetStateTable;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures a {@link FleetStateTable} of many devices: a full scan that averages the speed of the devices that report one,
+ * and single updates and reads of random rows. Run with {@code -t} to see updates and reads contend.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FleetStateBenchmark
+{
+   @Param({ "10000", "1000000" })
+   public int devices;
+
+   private FleetStateTable table;
+   private TPVReport report;
+
+   @Setup
+   public void setUp()
+   {
+      table = new FleetStateTable(devices);
+
+      for (int deviceId = 0; deviceId < devices; deviceId++) {
+         table.update(deviceId, SerializationHelper.<TPVReport>deserialize(String.format(Locale.ROOT,
+               "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":%d,\"time\":\"2017-09-01T10:00:00.000Z\"," +
+                     "\"lat\":42.697708,\"lon\":23.321868,\"speed\":%.1f}", deviceId % 4, deviceId % 30 * 1.0)));
+      }
+
+      report = SerializationHelper.deserialize("{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+            "\"time\":\"2017-09-01T10:00:01.000Z\",\"lat\":42.697709,\"lon\":23.321869,\"speed\":12.3}");
+   }
+
+   @State(Scope.Thread)
+   public static class Reader
+   {
+      final FleetRow row = new FleetRow();
+      int next;
+   }
+
+   @Benchmark
+   @OutputTimeUnit(TimeUnit.MICROSECONDS)
+   public double scan()
+   {
+      double[] sum = new double[2];
+
+      table.scan(row -> {
+         if (row.getSpeed() == row.getSpeed()) {
+            sum[0] += row.getSpeed();
+            sum[1]++;
+         }
+      });
+
+      return sum[0] / sum[1];
+   }
+
+   @Benchmark
+   public void update(Reader reader)
+   {
+      reader.next = (reader.next * 31 + 7) % devices;
+      table.update(reader.next, report);
+   }
+
+   @Benchmark
+   public double read(Reader reader)
+   {
+      reader.next = (reader.next * 31 + 7) % devices;
+      table.read(reader.next, reader.row);
+
+      return reader.row.getLatitude();
+   }
+}
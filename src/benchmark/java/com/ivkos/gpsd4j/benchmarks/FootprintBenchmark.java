@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.client.GpsdClient;
+import com.ivkos.gpsd4j.client.NioGpsdClient;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Compares the footprint of {@link GpsdClient} and {@link NioGpsdClient}: the time from construction until the first
+ * report is handled, the number of live threads, the used heap and the resident set size of the process.
+ * <p>
+ * Each client is measured in a fresh JVM, so that class loading and JIT state of one does not affect the other. The
+ * parent process acts as a stand-in gpsd server that streams TPV reports to the children.
+ * <p>
+ * Run with: {@code mvn -Pbenchmark test-compile exec:exec -Dbenchmark.mainClass=com.ivkos.gpsd4j.benchmarks.FootprintBenchmark
+ * -Dbenchmark.args=}
+ */
+public class FootprintBenchmark
+{
+   private static final String TPV = "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+         "\"time\":\"2017-09-01T10:00:00.000Z\",\"ept\":0.005,\"lat\":42.697708,\"lon\":23.321868,\"alt\":550.2," +
+         "\"epx\":3.1,\"epy\":3.4,\"epv\":7.9,\"track\":121.4,\"speed\":12.3,\"climb\":0.1,\"eps\":0.6}\n";
+
+   private static final int RUNS = 5;
+   private static final String[] CLIENTS = { "vertx", "nio" };
+
+   public static void main(String[] args) throws Exception
+   {
+      if (args.length == 2) {
+         measure(args[0], Integer.parseInt(args[1]));
+         return;
+      }
+
+      try (ServerSocket server = new ServerSocket(0)) {
+         Thread serverThread = new Thread(() -> serve(server), "stand-in-gpsd");
+         serverThread.setDaemon(true);
+         serverThread.start();
+
+         System.out.printf("%-6s %14s %8s %12s %12s%n", "client", "startup (ms)", "threads", "heap (KiB)", "rss (KiB)");
+
+         for (String client : CLIENTS) {
+            List<Map<String, Long>> results = new ArrayList<>();
+            for (int i = 0; i < RUNS; i++) results.add(fork(client, server.getLocalPort()));
+
+            System.out.printf("%-6s %14d %8d %12d %12d%n", client,
+                  median(results, "startup"), median(results, "threads"),
+                  median(results, "heap"), median(results, "rss"));
+         }
+      }
+   }
+
+   private static Map<String, Long> fork(String client, int port) throws Exception
+   {
+      String java = Paths.get(System.getProperty("java.home"), "bin", "java").toString();
+
+      Process process = new ProcessBuilder(java,
+            "-cp", System.getProperty("java.class.path"),
+            FootprintBenchmark.class.getName(), client, String.valueOf(port))
+            .redirectError(ProcessBuilder.Redirect.INHERIT)
+            .start();
+
+      Map<String, Long> result = new HashMap<>();
+
+      try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), UTF_8))) {
+         String line;
+         while ((line = reader.readLine()) != null) {
+            String[] kv = line.split("=", 2);
+            if (kv.length == 2) result.put(kv[0], Long.parseLong(kv[1]));
+         }
+      }
+
+      if (!process.waitFor(30, TimeUnit.SECONDS) || process.exitValue() != 0) {
+         throw new IllegalStateException("Measurement of " + client + " client failed");
+      }
+
+      return result;
+   }
+
+   private static void measure(String client, int port) throws Exception
+   {
+      CountDownLatch firstReport = new CountDownLatch(1);
+      Runnable stop;
+
+      long start = System.nanoTime();
+
+      if (client.equals("vertx")) {
+         GpsdClient c = new GpsdClient("localhost", port)
+               .addHandler(TPVReport.class, tpv -> firstReport.countDown())
+               .setSuccessfulConnectionHandler(GpsdClient::watch)
+               .start();
+         stop = c::stop;
+      } else {
+         NioGpsdClient c = new NioGpsdClient("localhost", port)
+               .addHandler(TPVReport.class, tpv -> firstReport.countDown())
+               .setSuccessfulConnectionHandler(NioGpsdClient::watch)
+               .start();
+         stop = c::stop;
+      }
+
+      if (!firstReport.await(20, TimeUnit.SECONDS)) throw new IllegalStateException("No report received");
+
+      long startup = System.nanoTime() - start;
+
+      // let the client settle in its steady state before sampling
+      Thread.sleep(1000);
+      System.gc();
+
+      Runtime runtime = Runtime.getRuntime();
+
+      System.out.println("startup=" + TimeUnit.NANOSECONDS.toMillis(startup));
+      System.out.println("threads=" + ManagementFactory.getThreadMXBean().getThreadCount());
+      System.out.println("heap=" + (runtime.totalMemory() - runtime.freeMemory()) / 1024);
+      System.out.println("rss=" + residentSetSize());
+
+      stop.run();
+      System.exit(0);
+   }
+
+   private static long residentSetSize() throws IOException
+   {
+      for (String line : Files.readAllLines(Paths.get("/proc/self/status"), UTF_8)) {
+         if (line.startsWith("VmRSS:")) {
+            return Long.parseLong(line.replaceAll("\\D", ""));
+         }
+      }
+
+      return -1;
+   }
+
+   private static void serve(ServerSocket server)
+   {
+      while (!server.isClosed()) {
+         try {
+            Socket socket = server.accept();
+
+            Thread t = new Thread(() -> {
+               try (OutputStream out = socket.getOutputStream()) {
+                  while (true) {
+                     out.write(TPV.getBytes(UTF_8));
+                     out.flush();
+                     Thread.sleep(100);
+                  }
+               } catch (IOException | InterruptedException ignored) {
+               }
+            });
+            t.setDaemon(true);
+            t.start();
+         } catch (IOException ignored) {
+         }
+      }
+   }
+
+   private static long median(List<Map<String, Long>> results, String key)
+   {
+      long[] values = results.stream().mapToLong(r -> r.getOrDefault(key, -1L)).sorted().toArray();
+      return values[values.length / 2];
+   }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.tools.CoordinateConverter;
+import com.ivkos.gpsd4j.tools.Geodesy;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the batch methods of {@link Geodesy} and {@link CoordinateConverter} over a track of
+ * {@value #POINTS} points around a city, in points per second.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeodesyBenchmark
+{
+   private static final int POINTS = 100_000;
+
+   private final double[] latitudes = new double[POINTS];
+   private final double[] longitudes = new double[POINTS];
+   private final double[] altitudes = new double[POINTS];
+   private final double[] nextLatitudes = new double[POINTS];
+   private final double[] nextLongitudes = new double[POINTS];
+
+   private final double[] a = new double[POINTS];
+   private final double[] b = new double[POINTS];
+   private final double[] c = new double[POINTS];
+
+   @Setup
+   public void setUp()
+   {
+      Random random = new Random(42);
+
+      for (int i = 0; i < POINTS; i++) {
+         latitudes[i] = 42.5 + random.nextDouble() * 0.45;
+         longitudes[i] = 23.1 + random.nextDouble() * 0.6;
+         altitudes[i] = 500 + random.nextDouble() * 500;
+      }
+
+      System.arraycopy(latitudes, 1, nextLatitudes, 0, POINTS - 1);
+      System.arraycopy(longitudes, 1, nextLongitudes, 0, POINTS - 1);
+      nextLatitudes[POINTS - 1] = latitudes[0];
+      nextLongitudes[POINTS - 1] = longitudes[0];
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(POINTS)
+   public double[] haversineDistances()
+   {
+      Geodesy.haversineDistances(latitudes, longitudes, nextLatitudes, nextLongitudes, a);
+      return a;
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(POINTS)
+   public double[] vincentyDistances()
+   {
+      Geodesy.vincentyDistances(latitudes, longitudes, nextLatitudes, nextLongitudes, a);
+      return a;
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(POINTS)
+   public double[] toEcef()
+   {
+      CoordinateConverter.toEcef(latitudes, longitudes, altitudes, a, b, c);
+      return a;
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(POINTS)
+   public double[] toEnu()
+   {
+      CoordinateConverter.toEnu(latitudes, longitudes, altitudes, 42.697708, 23.321868, 550, a, b, c);
+      return a;
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(POINTS)
+   public double[] toUtm()
+   {
+      CoordinateConverter.toUtm(latitudes, longitudes, 34, a, b);
+      return a;
+   }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.geofence.Geofence;
+import com.ivkos.gpsd4j.geofence.GeofenceEngine;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the fixes per second that a {@link GeofenceEngine} handles against thousands of geofences of 100 m to 1 km
+ * over a city, compared with testing each fix against every geofence. The fixes come from a thousand devices at random
+ * positions in the city, so some of them enter and exit geofences.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeofenceBenchmark
+{
+   private static final int FIXES = 4096;
+
+   @Param({ "10000" })
+   public int fences;
+
+   private final Random random = new Random(42);
+   private final List<Geofence> fenceList = new ArrayList<>();
+   private final TPVReport[] fixes = new TPVReport[FIXES];
+
+   private GeofenceEngine engine;
+   private int next;
+
+   @Setup
+   public void setUp(Blackhole blackhole)
+   {
+      engine = new GeofenceEngine(blackhole::consume);
+
+      for (int i = 0; i < fences; i++) {
+         double latitude = 42.5 + random.nextDouble() * 0.4;
+         double longitude = 23.1 + random.nextDouble() * 0.4;
+         double size = 0.001 + random.nextDouble() * 0.009;
+         int vertices = 4 + random.nextInt(12);
+
+         double[] latitudes = new double[vertices];
+         double[] longitudes = new double[vertices];
+         for (int v = 0; v < vertices; v++) {
+            double angle = 2 * Math.PI * v / vertices;
+            double radius = size * (0.5 + random.nextDouble() * 0.5);
+            latitudes[v] = latitude + radius * Math.sin(angle);
+            longitudes[v] = longitude + radius * Math.cos(angle);
+         }
+
+         Geofence fence = new Geofence("fence-" + i, latitudes, longitudes);
+         fenceList.add(fence);
+         engine.addFence(fence);
+      }
+
+      for (int i = 0; i < FIXES; i++) {
+         fixes[i] = SerializationHelper.deserialize(String.format(Locale.ROOT, "{\"class\":\"TPV\"," +
+                     "\"device\":\"device-%d\",\"mode\":2,\"lat\":%.7f,\"lon\":%.7f}", random.nextInt(1000),
+               42.5 + random.nextDouble() * 0.4, 23.1 + random.nextDouble() * 0.4));
+      }
+   }
+
+   @Benchmark
+   public void engine()
+   {
+      engine.accept(nextFix());
+   }
+
+   @Benchmark
+   public int linearScan()
+   {
+      TPVReport fix = nextFix();
+      int inside = 0;
+
+      for (Geofence fence : fenceList) {
+         if (fence.contains(fix.getLatitude(), fix.getLongitude())) inside++;
+      }
+
+      return inside;
+   }
+
+   private TPVReport nextFix()
+   {
+      TPVReport fix = fixes[next];
+      next = (next + 1) % FIXES;
+
+      return fix;
+   }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.filter.KalmanFilterStage;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures the time a {@link KalmanFilterStage} takes to filter a fix, with the fixes spread over many devices. Run
+ * with {@code -prof gc} to see that filtering allocates nothing but the smoothed reports.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KalmanFilterBenchmark
+{
+   private static final int FIXES_PER_DEVICE = 64;
+   private static final DateTimeFormatter ISO = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+   @Param({ "1", "10000" })
+   public int devices;
+
+   private KalmanFilterStage stage;
+   private TPVReport[] fixes;
+   private int next;
+   private Consumer<GpsdMessage> sink;
+
+   @Setup
+   public void setUp(Blackhole blackhole)
+   {
+      Random random = new Random(42);
+      LocalDateTime start = LocalDateTime.of(2017, 9, 1, 10, 0);
+
+      // the fixes of each device one second apart, the devices taking turns
+      fixes = new TPVReport[devices * FIXES_PER_DEVICE];
+      for (int i = 0; i < fixes.length; i++) {
+         fixes[i] = SerializationHelper.deserialize(String.format(Locale.ROOT, "{\"class\":\"TPV\"," +
+                     "\"device\":\"device-%d\",\"mode\":3,\"time\":\"%s\",\"lat\":%.7f,\"lon\":%.7f,\"alt\":%.1f," +
+                     "\"epx\":8.5,\"epy\":9.1,\"epv\":20.3,\"speed\":%.2f,\"track\":%.1f,\"climb\":0.1,\"eps\":0.6," +
+                     "\"epd\":4.2}", i % devices, ISO.format(start.plusSeconds(i / devices)),
+               42.5 + random.nextDouble() * 0.001, 23.1 + random.nextDouble() * 0.001, 550 + random.nextDouble(),
+               10 + random.nextDouble(), random.nextDouble() * 360));
+      }
+
+      sink = blackhole::consume;
+   }
+
+   @Setup(Level.Iteration)
+   public void resetStage()
+   {
+      // a fresh filter each iteration, as the fixes are replayed from the start
+      stage = new KalmanFilterStage().setMaxGap(Long.MAX_VALUE);
+      next = 0;
+   }
+
+   @Benchmark
+   public void process()
+   {
+      stage.process(fixes[next], sink);
+      if (++next == fixes.length) resetStage();
+   }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.spatial.SpatialIndex;
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the queries and updates of a {@link SpatialIndex} of devices spread over a city of about 50 by 50 km, to
+ * show that they do not slow down as the number of devices grows.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SpatialIndexBenchmark
+{
+   private static final int MOVES = 1024;
+
+   @Param({ "1000", "100000" })
+   public int devices;
+
+   private final SpatialIndex index = new SpatialIndex(250);
+   private final Random random = new Random(42);
+   private TPVReport[] moves;
+   private int next;
+
+   @Setup
+   public void setUp()
+   {
+      for (int i = 0; i < devices; i++) index.accept(tpv("device-" + i));
+
+      moves = new TPVReport[MOVES];
+      for (int i = 0; i < MOVES; i++) moves[i] = tpv("device-" + random.nextInt(devices));
+   }
+
+   @Benchmark
+   public List<TPVReport> withinRadius()
+   {
+      return index.withinRadius(latitude(), longitude(), 500);
+   }
+
+   @Benchmark
+   public List<TPVReport> nearest()
+   {
+      return index.nearest(latitude(), longitude(), 10);
+   }
+
+   @Benchmark
+   public void update()
+   {
+      index.accept(moves[next]);
+      next = (next + 1) % MOVES;
+   }
+
+   private TPVReport tpv(String device)
+   {
+      return SerializationHelper.deserialize(String.format(Locale.ROOT, "{\"class\":\"TPV\",\"device\":\"%s\"," +
+            "\"mode\":2,\"lat\":%.7f,\"lon\":%.7f}", device, latitude(), longitude()));
+   }
+
+   private double latitude()
+   {
+      return 42.5 + random.nextDouble() * 0.45;
+   }
+
+   private double longitude()
+   {
+      return 23.1 + random.nextDouble() * 0.6;
+   }
+}
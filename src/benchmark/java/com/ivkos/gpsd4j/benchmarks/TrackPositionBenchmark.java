@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import com.ivkos.gpsd4j.track.Track;
+import com.ivkos.gpsd4j.track.TrackPosition;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time it takes to work out the position of a device at the frames of a 60 Hz camera, from a track of
+ * an hour of fixes at 10 Hz, between the fixes and after the latest one. Run with {@code -prof gc} to see that it
+ * does not allocate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackPositionBenchmark
+{
+   private static final int FIXES = 36_000;
+   private static final DateTimeFormatter ISO = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+   private final TrackPosition position = new TrackPosition();
+
+   private Track track;
+   private long start;
+   private long end;
+   private long frame;
+
+   @Setup
+   public void setUp()
+   {
+      LocalDateTime time = LocalDateTime.of(2017, 9, 1, 10, 0);
+      start = time.toInstant(ZoneOffset.UTC).toEpochMilli();
+      end = start + FIXES * 100L;
+
+      track = new Track(FIXES);
+      for (int i = 0; i < FIXES; i++) {
+         track.add(SerializationHelper.deserialize(String.format(Locale.ROOT, "{\"class\":\"TPV\"," +
+                     "\"device\":\"car\",\"mode\":3,\"time\":\"%s\",\"lat\":%.7f,\"lon\":23.3,\"alt\":550.0," +
+                     "\"speed\":11.1,\"track\":0.0,\"climb\":0.1}", ISO.format(time.plusNanos(i * 100_000_000L)),
+               42.6 + i * 0.00001)));
+      }
+   }
+
+   @Benchmark
+   public double interpolate()
+   {
+      // 60 Hz frames spread over the track
+      frame = frame + 16 < end - start ? frame + 16 : 0;
+
+      track.positionAt(start + frame, position);
+      return position.getLatitude();
+   }
+
+   @Benchmark
+   public double extrapolate()
+   {
+      // the frames of the second after the latest fix
+      frame = frame + 16 < 1000 ? frame + 16 : 0;
+
+      track.positionAt(end + frame, position);
+      return position.getLatitude();
+   }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.benchmarks;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.SerializationHelper;
+import com.ivkos.gpsd4j.track.TrackSimplificationStage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Measures the time a {@link TrackSimplificationStage} takes to check a fix, and prints the share of the fixes it
+ * keeps. The fixes are those of a session recorded with a {@code SessionRecorder}, given with
+ * {@code -p trace=path/to/session}, or else of an hour of a simulated drive through a city: straight streets, turns,
+ * traffic lights and stops, with the slowly wandering error of a consumer receiver.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrackSimplificationBenchmark
+{
+   private static final DateTimeFormatter ISO = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+   @Param({ "2", "10" })
+   public double tolerance;
+
+   @Param({ "" })
+   public String trace;
+
+   private TrackSimplificationStage stage;
+   private TPVReport[] fixes;
+   private int next;
+   private Consumer<GpsdMessage> sink;
+
+   @Setup
+   public void setUp(Blackhole blackhole) throws IOException
+   {
+      fixes = trace.isEmpty() ? simulateDrive() : readTrace();
+
+      int[] kept = { 0 };
+      TrackSimplificationStage counting = new TrackSimplificationStage().setTolerance(tolerance);
+      for (TPVReport fix : fixes) counting.process(fix, __ -> kept[0]++);
+
+      System.out.printf(Locale.ROOT, "%nKept %d of %d fixes (%.1f%%) within %.0f m%n", kept[0], fixes.length,
+            100.0 * kept[0] / fixes.length, tolerance);
+
+      sink = blackhole::consume;
+   }
+
+   @Setup(Level.Iteration)
+   public void resetStage()
+   {
+      // a fresh stage each iteration, as the fixes are replayed from the start
+      stage = new TrackSimplificationStage().setTolerance(tolerance);
+      next = 0;
+   }
+
+   @Benchmark
+   public void process()
+   {
+      stage.process(fixes[next], sink);
+      if (++next == fixes.length) resetStage();
+   }
+
+   private TPVReport[] readTrace() throws IOException
+   {
+      List<TPVReport> tpvs = new ArrayList<>();
+      for (String line : Files.readAllLines(Paths.get(trace))) {
+         int separator = line.indexOf(' ');
+         if (separator <= 0) continue;
+
+         GpsdMessage message = SerializationHelper.deserialize(line.substring(separator + 1));
+         if (message instanceof TPVReport && ((TPVReport) message).getLatitude() != null) {
+            tpvs.add((TPVReport) message);
+         }
+      }
+
+      return tpvs.toArray(new TPVReport[0]);
+   }
+
+   private static TPVReport[] simulateDrive()
+   {
+      Random random = new Random(42);
+      LocalDateTime start = LocalDateTime.of(2017, 9, 1, 10, 0);
+
+      TPVReport[] fixes = new TPVReport[3600];
+      double east = 0, north = 0, course = 0, speed = 0, errorEast = 0, errorNorth = 0;
+      int block = 0, stopped = 0;
+
+      for (int t = 0; t < fixes.length; t++) {
+         if (stopped > 0) {
+            stopped--;
+            speed = 0;
+         } else if (--block <= 0) {
+            // the end of a block: a turn, and sometimes a traffic light
+            block = 15 + random.nextInt(45);
+            course += (random.nextInt(3) - 1) * Math.PI / 2;
+            if (random.nextInt(3) == 0) stopped = 5 + random.nextInt(40);
+            speed = Math.min(speed, 5);
+         } else {
+            speed = Math.min(14, speed + 1.5);
+         }
+
+         east += speed * Math.sin(course);
+         north += speed * Math.cos(course);
+
+         // the error of a fix drifts rather than jumping from one fix to the next
+         errorEast = 0.95 * errorEast + random.nextGaussian() * 0.5;
+         errorNorth = 0.95 * errorNorth + random.nextGaussian() * 0.5;
+
+         fixes[t] = SerializationHelper.deserialize(String.format(Locale.ROOT, "{\"class\":\"TPV\"," +
+                     "\"device\":\"car\",\"mode\":3,\"time\":\"%s\",\"lat\":%.7f,\"lon\":%.7f,\"speed\":%.2f}",
+               ISO.format(start.plusSeconds(t)), 42.6 + (north + errorNorth) / 111_100,
+               23.3 + (east + errorEast) / 81_900, speed));
+      }
+
+      return fixes;
+   }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+
+/**
+ * Measures how {@link GpsdClient} finds and invokes the handlers of a message, with 1 to 1000 handlers registered. The
+ * handlers are spread over the concrete type of the message, its supertype, and an unrelated type, as they would be in
+ * an application. The hop to the worker pool is left out, the end-to-end benchmark covers it.
+ * <p>
+ * Lives in the client package, since the handler registry is not public.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DispatchBenchmark
+{
+   @Param({ "1", "10", "100", "1000" })
+   public int handlerCount;
+
+   private HandlerRegistry handlers;
+   private GpsdMessage tpv;
+   private long handled;
+
+   @Setup
+   public void setUp()
+   {
+      handlers = new HandlerRegistry();
+      tpv = deserialize("{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+            "\"time\":\"2017-09-01T10:00:00.000Z\",\"lat\":42.697708,\"lon\":23.321868}");
+
+      for (int i = 0; i < handlerCount; i++) {
+         switch (i % 3) {
+            case 0:
+               handlers.add(TPVReport.class, message -> handled++);
+               break;
+            case 1:
+               handlers.add(GpsdMessage.class, message -> handled++);
+               break;
+            default:
+               handlers.add(SKYReport.class, message -> handled++);
+         }
+      }
+   }
+
+   @Benchmark
+   public long dispatch()
+   {
+      GpsdMessage message = this.tpv;
+      handlers.forEachHandler(message, handler -> handler.accept(message));
+
+      return handled;
+   }
+}
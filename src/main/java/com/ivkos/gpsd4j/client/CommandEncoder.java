@@ -0,0 +1,86 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdCommandMessage;
+import com.ivkos.gpsd4j.messages.PollMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import com.ivkos.gpsd4j.messages.WatchMessage;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.serialize;
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes commands into the bytes that are written to the gpsd server.
+ * <p>
+ * Commands that carry no state of their own, like POLL and VERSION, always encode to the same bytes, so those are
+ * encoded once and cached. The same goes for the WATCH commands sent by {@code watch(boolean, boolean)}. The returned
+ * arrays are shared and must not be modified.
+ */
+final class CommandEncoder
+{
+   private static final Map<Class<?>, byte[]> statelessCommands = new ConcurrentHashMap<>();
+   private static final byte[][] watchCommands = new byte[4][];
+
+   static {
+      statelessCommands.put(PollMessage.class, encode("?" + PollMessage.CLASS + ";\n"));
+      statelessCommands.put(VersionMessage.class, encode("?" + VersionMessage.CLASS + ";\n"));
+
+      for (int i = 0; i < watchCommands.length; i++) {
+         WatchMessage watch = new WatchMessage();
+         watch.setEnabled((i & 2) != 0);
+         watch.setDumpJson((i & 1) != 0);
+
+         watchCommands[i] = encodeUncached(watch);
+      }
+   }
+
+   private CommandEncoder() {}
+
+   static byte[] encode(String rawCommand)
+   {
+      return rawCommand.getBytes(UTF_8);
+   }
+
+   static byte[] encode(GpsdCommandMessage command)
+   {
+      byte[] cached = statelessCommands.get(command.getClass());
+      if (cached != null) return cached;
+
+      return encodeUncached(command);
+   }
+
+   static byte[] encodeWatch(boolean enable, boolean reportMessages)
+   {
+      return watchCommands[(enable ? 2 : 0) | (reportMessages ? 1 : 0)];
+   }
+
+   private static byte[] encodeUncached(GpsdCommandMessage command)
+   {
+      String json = serialize(command);
+
+      return new StringBuilder(json.length() + 16)
+            .append('?').append(command.getGpsdClass()).append('=')
+            .append(json)
+            .append(";\n")
+            .toString()
+            .getBytes(UTF_8);
+   }
+}
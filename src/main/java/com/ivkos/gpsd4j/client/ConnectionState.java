@@ -0,0 +1,50 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+/**
+ * The state of a {@link GpsdClient}'s connection to the gpsd server.
+ *
+ * @see GpsdClient#setConnectionStateHandler(java.util.function.Consumer)
+ */
+public enum ConnectionState
+{
+   /**
+    * The client has not been started, or it has been stopped completely.
+    */
+   STOPPED,
+
+   /**
+    * A connection attempt is in progress.
+    */
+   CONNECTING,
+
+   /**
+    * The client is connected and commands can be sent.
+    */
+   CONNECTED,
+
+   /**
+    * The connection was lost or a connection attempt failed, and the client is waiting before the next attempt.
+    */
+   BACKING_OFF,
+
+   /**
+    * The client is shutting down.
+    */
+   STOPPING
+}
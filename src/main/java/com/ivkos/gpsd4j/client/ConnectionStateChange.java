@@ -0,0 +1,78 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+/**
+ * Describes a transition of a client's {@link ConnectionState}.
+ *
+ * @see GpsdClient#setConnectionStateHandler(java.util.function.Consumer)
+ */
+public final class ConnectionStateChange
+{
+   private final ConnectionState previous;
+   private final ConnectionState current;
+   private final int attempt;
+   private final long delay;
+
+   ConnectionStateChange(ConnectionState previous, ConnectionState current, int attempt, long delay)
+   {
+      this.previous = previous;
+      this.current = current;
+      this.attempt = attempt;
+      this.delay = delay;
+   }
+
+   /**
+    * @return The state before the transition
+    */
+   public ConnectionState getPrevious()
+   {
+      return previous;
+   }
+
+   /**
+    * @return The state after the transition
+    */
+   public ConnectionState getCurrent()
+   {
+      return current;
+   }
+
+   /**
+    * @return Number of consecutive connection attempts that have failed since the client was last connected
+    */
+   public int getAttempt()
+   {
+      return attempt;
+   }
+
+   /**
+    * @return Time until the next connection attempt, in ms, if the client is {@link ConnectionState#BACKING_OFF
+    * backing off}, otherwise 0
+    */
+   public long getDelay()
+   {
+      return delay;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "ConnectionStateChange(previous=" + previous + ", current=" + current +
+            ", attempt=" + attempt + ", delay=" + delay + ")";
+   }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.DeviceMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import com.ivkos.gpsd4j.messages.reports.ATTReport;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+/**
+ * The latest state of a device as received from the gpsd server. Snapshots are immutable: a new one is created for
+ * every update, so a snapshot is always consistent and can be read from any thread without locking. The messages it
+ * refers to are shared and must not be modified.
+ *
+ * @see GpsdClient#getSnapshot(String)
+ */
+public final class DeviceSnapshot
+{
+   private final String device;
+   private final TPVReport tpv;
+   private final SKYReport sky;
+   private final ATTReport att;
+   private final DeviceMessage deviceInfo;
+   private final VersionMessage version;
+
+   private DeviceSnapshot(String device, TPVReport tpv, SKYReport sky, ATTReport att, DeviceMessage deviceInfo,
+                          VersionMessage version)
+   {
+      this.device = device;
+      this.tpv = tpv;
+      this.sky = sky;
+      this.att = att;
+      this.deviceInfo = deviceInfo;
+      this.version = version;
+   }
+
+   static DeviceSnapshot empty(String device, VersionMessage version)
+   {
+      return new DeviceSnapshot(device, null, null, null, null, version);
+   }
+
+   DeviceSnapshot withTPV(TPVReport tpv)
+   {
+      return new DeviceSnapshot(device, tpv, sky, att, deviceInfo, version);
+   }
+
+   DeviceSnapshot withSKY(SKYReport sky)
+   {
+      return new DeviceSnapshot(device, tpv, sky, att, deviceInfo, version);
+   }
+
+   DeviceSnapshot withATT(ATTReport att)
+   {
+      return new DeviceSnapshot(device, tpv, sky, att, deviceInfo, version);
+   }
+
+   DeviceSnapshot withDeviceInfo(DeviceMessage deviceInfo)
+   {
+      return new DeviceSnapshot(device, tpv, sky, att, deviceInfo, version);
+   }
+
+   DeviceSnapshot withVersion(VersionMessage version)
+   {
+      return new DeviceSnapshot(device, tpv, sky, att, deviceInfo, version);
+   }
+
+   /**
+    * @return Name of the device
+    */
+   public String getDevice()
+   {
+      return device;
+   }
+
+   /**
+    * @return The latest TPV report from the device, or null if none has been received
+    */
+   public TPVReport getTPV()
+   {
+      return tpv;
+   }
+
+   /**
+    * @return The latest SKY report from the device, or null if none has been received
+    */
+   public SKYReport getSKY()
+   {
+      return sky;
+   }
+
+   /**
+    * @return The latest ATT report from the device, or null if none has been received
+    */
+   public ATTReport getATT()
+   {
+      return att;
+   }
+
+   /**
+    * @return The latest DEVICE message about the device, or null if none has been received
+    */
+   public DeviceMessage getDeviceInfo()
+   {
+      return deviceInfo;
+   }
+
+   /**
+    * @return The VERSION of the gpsd server the device is attached to, or null if none has been received
+    */
+   public VersionMessage getVersion()
+   {
+      return version;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "DeviceSnapshot(device=" + device + ", tpv=" + tpv + ", sky=" + sky + ", att=" + att +
+            ", deviceInfo=" + deviceInfo + ", version=" + version + ")";
+   }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.*;
+import com.ivkos.gpsd4j.messages.reports.ATTReport;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.UnaryOperator;
+
+import static java.util.Collections.unmodifiableMap;
+
+/**
+ * Keeps the latest {@link DeviceSnapshot} of each device. Updates only happen on the event loop, so there is a single
+ * writer and each update simply replaces the snapshot of its device. Readers get whatever snapshot was published last
+ * without locking.
+ */
+final class DeviceSnapshots
+{
+   private final Map<String, DeviceSnapshot> snapshots = new ConcurrentHashMap<>();
+   private final Map<String, DeviceSnapshot> view = unmodifiableMap(snapshots);
+   private volatile VersionMessage version;
+
+   DeviceSnapshot get(String device)
+   {
+      return this.snapshots.get(device);
+   }
+
+   Map<String, DeviceSnapshot> getAll()
+   {
+      return this.view;
+   }
+
+   void update(GpsdMessage message)
+   {
+      if (message instanceof TPVReport) {
+         TPVReport tpv = (TPVReport) message;
+         update(tpv.getDevice(), snapshot -> snapshot.withTPV(tpv));
+      } else if (message instanceof SKYReport) {
+         SKYReport sky = (SKYReport) message;
+         update(sky.getDevice(), snapshot -> snapshot.withSKY(sky));
+      } else if (message instanceof ATTReport) {
+         ATTReport att = (ATTReport) message;
+         update(att.getDevice(), snapshot -> snapshot.withATT(att));
+      } else if (message instanceof DeviceMessage) {
+         DeviceMessage device = (DeviceMessage) message;
+         update(device.getPath(), snapshot -> snapshot.withDeviceInfo(device));
+      } else if (message instanceof DevicesMessage) {
+         for (DeviceMessage device : ((DevicesMessage) message).getDevices()) {
+            update(device.getPath(), snapshot -> snapshot.withDeviceInfo(device));
+         }
+      } else if (message instanceof VersionMessage) {
+         VersionMessage newVersion = (VersionMessage) message;
+         this.version = newVersion;
+         this.snapshots.replaceAll((__, snapshot) -> snapshot.withVersion(newVersion));
+      } else if (message instanceof PollMessage) {
+         PollMessage poll = (PollMessage) message;
+         poll.getTPVList().forEach(this::update);
+         poll.getSKYList().forEach(this::update);
+      }
+   }
+
+   private void update(String device, UnaryOperator<DeviceSnapshot> change)
+   {
+      if (device == null) return;
+
+      DeviceSnapshot current = this.snapshots.get(device);
+      if (current == null) current = DeviceSnapshot.empty(device, this.version);
+
+      this.snapshots.put(device, change.apply(current));
+   }
+}
@@ -0,0 +1,726 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.*;
+import com.ivkos.gpsd4j.messages.reports.ATTReport;
+import com.ivkos.gpsd4j.messages.reports.GSTReport;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * A client for redundant gpsd servers that fails over between them.
+ * <p>
+ * The client is given an ordered list of endpoints and delivers messages from one of them, the active one, to its
+ * handlers. When the active connection is lost or stalls (see {@link GpsdClientOptions#setStallTimeout(int)}), the
+ * client switches to the next endpoint in the list.
+ * <p>
+ * With hot standby enabled, a connection to the next endpoint is kept open and configured at all times, so a switch
+ * only changes which connection's messages are delivered, and takes effect immediately. WATCH flags and device
+ * settings are set on every connection, and sent again right after each reconnection. A standby that is not
+ * connected itself when it is needed, e.g. because it is backing off, is passed over for the endpoint after it. Without
+ * hot standby, the next endpoint is only connected to when it is needed.
+ * <p>
+ * Around a switch, both servers may report the same fixes. For a while after a switch (see {@link
+ * #setDeduplicationWindow(int)}), reports that are timestamped are therefore only delivered if they are newer than the
+ * last report of the same type from the same device. Outside of that window, reports are delivered regardless of their
+ * time, so a clock that is set back, or a new active server that lags behind for longer, does not hold them back.
+ */
+public class FailoverGpsdClient
+{
+   private static final Logger log = LoggerFactory.getLogger(FailoverGpsdClient.class);
+
+   private final HandlerRegistry handlers = new HandlerRegistry();
+   private final ProcessingPipeline pipeline = new ProcessingPipeline(this::deliver);
+
+   // the time of the last delivered report by report type and device, guarded by the pipeline's lock
+   private final Map<Class<?>, Map<String, LocalDateTime>> lastDeliveredTimes = new HashMap<>();
+   private int deduplicationWindow = 5000;
+   private volatile long deduplicateUntil;
+
+   private final List<GpsdEndpoint> endpoints;
+   private final GpsdClientOptions options;
+
+   private final GpsdClient[] clients;
+   private boolean hotStandby = false;
+
+   // session state applied to every connection, guarded by this
+   private WatchMessage watch;
+   private final Map<String, DeviceMessage> deviceSettings = new LinkedHashMap<>();
+
+   private boolean running = false;
+   private volatile int active = -1;
+   private int standby = -1;
+
+   private Consumer<GpsdClient> successfulConnectionHandler = __ -> {};
+   private Consumer<GpsdEndpoint> failoverHandler = __ -> {};
+
+   /**
+    * Creates a new instance
+    *
+    * @param endpoints the endpoints of the gpsd servers, in order of preference
+    * @param options   options for the connections to each server
+    *
+    * @throws NullPointerException     if endpoints, any of its elements, or options is null
+    * @throws IllegalArgumentException if endpoints is empty
+    */
+   public FailoverGpsdClient(List<GpsdEndpoint> endpoints, GpsdClientOptions options)
+   {
+      requireNonNull(endpoints, "endpoints must not be null");
+      if (endpoints.isEmpty()) throw new IllegalArgumentException("endpoints must not be empty");
+      endpoints.forEach(endpoint -> requireNonNull(endpoint, "endpoints must not contain null"));
+
+      this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+      this.options = requireNonNull(options, "options must not be null");
+      this.clients = new GpsdClient[endpoints.size()];
+   }
+
+   /**
+    * Creates a new instance
+    *
+    * @param endpoints the endpoints of the gpsd servers, in order of preference
+    *
+    * @throws NullPointerException     if endpoints or any of its elements is null
+    * @throws IllegalArgumentException if endpoints is empty
+    */
+   public FailoverGpsdClient(List<GpsdEndpoint> endpoints)
+   {
+      this(endpoints, new GpsdClientOptions());
+   }
+
+   /**
+    * Enables or disables hot standby. Must be called before the client is started.
+    *
+    * @param hotStandby whether to keep a connection to the next endpoint open at all times
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is running
+    */
+   public synchronized FailoverGpsdClient setHotStandby(boolean hotStandby)
+   {
+      if (running) throw new IllegalStateException("Client is already running");
+
+      this.hotStandby = hotStandby;
+      return this;
+   }
+
+   /**
+    * Sets for how long after a switch reports that are not newer than those already delivered are dropped. Must be
+    * called before the client is started.
+    *
+    * @param deduplicationWindow the time in milliseconds, or 0 to deliver all reports
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if deduplicationWindow is negative
+    * @throws IllegalStateException    if the client is running
+    */
+   public synchronized FailoverGpsdClient setDeduplicationWindow(int deduplicationWindow)
+   {
+      if (deduplicationWindow < 0) throw new IllegalArgumentException("deduplicationWindow must not be negative");
+      if (running) throw new IllegalStateException("Client is already running");
+
+      this.deduplicationWindow = deduplicationWindow;
+      return this;
+   }
+
+   /**
+    * Starts the client, connecting to the first endpoint and, with hot standby, to the second one.
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is already running
+    */
+   public synchronized FailoverGpsdClient start()
+   {
+      if (running) throw new IllegalStateException("Client is already running");
+
+      this.running = true;
+
+      synchronized (this.pipeline) {
+         this.lastDeliveredTimes.clear();
+      }
+
+      this.deduplicateUntil = System.nanoTime();
+
+      this.active = 0;
+      startClient(0);
+
+      if (hotStandby && endpoints.size() > 1) {
+         this.standby = 1;
+         startClient(1);
+      }
+
+      return this;
+   }
+
+   /**
+    * Shuts down all connections.
+    */
+   public synchronized void stop()
+   {
+      this.running = false;
+      this.active = -1;
+      this.standby = -1;
+
+      for (int i = 0; i < clients.length; i++) {
+         stopClient(i);
+      }
+   }
+
+   /**
+    * @return the endpoint whose messages are currently delivered, or null if the client is not running
+    */
+   public GpsdEndpoint getActiveEndpoint()
+   {
+      int current = this.active;
+      return current >= 0 ? endpoints.get(current) : null;
+   }
+
+   /**
+    * Sends a raw command to the active gpsd server. See {@link GpsdClient#sendCommand(String)}.
+    *
+    * @param rawCommand the command
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not running or the active connection is not established
+    * @throws NullPointerException  if {@code rawCommand} is null
+    */
+   public FailoverGpsdClient sendCommand(String rawCommand)
+   {
+      activeClient().sendCommand(rawCommand);
+      return this;
+   }
+
+   /**
+    * Sends a command to the active gpsd server. See {@link GpsdClient#sendCommand(GpsdCommandMessage)}.
+    *
+    * @param command the command to send
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not running or the active connection is not established
+    * @throws NullPointerException  if {@code command} is null
+    */
+   public FailoverGpsdClient sendCommand(GpsdCommandMessage command)
+   {
+      activeClient().sendCommand(command);
+      return this;
+   }
+
+   /**
+    * Sends a command to the active gpsd server and binds a handler for the response. See {@link
+    * GpsdClient#sendCommand(GpsdCommandMessage, Consumer)}.
+    *
+    * @param command         the command to send
+    * @param responseHandler the handler for the server's response to the command
+    * @param <T>             the type of the command and the response
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not running or the active connection is not established
+    * @throws NullPointerException  if {@code command} or {@code responseHandler} is null
+    */
+   public <T extends GpsdCommandMessage> FailoverGpsdClient sendCommand(T command, Consumer<T> responseHandler)
+   {
+      activeClient().sendCommand(command, responseHandler);
+      return this;
+   }
+
+   /**
+    * Enables/disables watch mode and reporting of messages on every connection, including the standby and those
+    * established after a switch. See {@link #setWatch(WatchMessage)}.
+    *
+    * @param enable         whether to enable watch mode
+    * @param reportMessages whether to report
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public FailoverGpsdClient watch(boolean enable, boolean reportMessages)
+   {
+      WatchMessage watch = new WatchMessage();
+      watch.setEnabled(enable);
+      watch.setDumpJson(reportMessages);
+
+      return this.setWatch(watch);
+   }
+
+   /**
+    * The effect of this call is equivalent to that of calling {@link #watch(boolean, boolean) watch(true, true)}.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public FailoverGpsdClient watch()
+   {
+      return this.watch(true, true);
+   }
+
+   /**
+    * Sets the WATCH flags every connection should have on its server. The flags are set on the connections that are
+    * open, and on each one opened later, e.g. after a switch. See {@link GpsdClient#setWatch(WatchMessage)}.
+    * <p>
+    * Connections opened later are given the same message, so it should not be changed after it has been set.
+    *
+    * @param watch the WATCH flags
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code watch} is null
+    */
+   public synchronized FailoverGpsdClient setWatch(WatchMessage watch)
+   {
+      this.watch = requireNonNull(watch, "watch must not be null");
+
+      for (GpsdClient client : clients) {
+         if (client != null) client.setWatch(watch);
+      }
+
+      return this;
+   }
+
+   /**
+    * Sets the settings a device should have on every server. The settings are set on the connections that are open,
+    * and on each one opened later, e.g. after a switch. See {@link GpsdClient#setDeviceSettings(DeviceMessage)}.
+    * <p>
+    * Connections opened later are given the same message, so it should not be changed after it has been set.
+    *
+    * @param device the device settings
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException     if {@code device} is null
+    * @throws IllegalArgumentException if the path of the device is not set
+    */
+   public synchronized FailoverGpsdClient setDeviceSettings(DeviceMessage device)
+   {
+      requireNonNull(device, "device must not be null");
+      if (device.getPath() == null) throw new IllegalArgumentException("The path of the device must be set");
+
+      this.deviceSettings.put(device.getPath(), device);
+
+      for (GpsdClient client : clients) {
+         if (client != null) client.setDeviceSettings(device);
+      }
+
+      return this;
+   }
+
+   /**
+    * Stops sending the settings of a device after connecting. Settings already applied on the servers are not
+    * reverted.
+    *
+    * @param path the path of the device
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code path} is null
+    */
+   public synchronized FailoverGpsdClient removeDeviceSettings(String path)
+   {
+      requireNonNull(path, "path must not be null");
+
+      this.deviceSettings.remove(path);
+
+      for (GpsdClient client : clients) {
+         if (client != null) client.removeDeviceSettings(path);
+      }
+
+      return this;
+   }
+
+   /**
+    * Adds a handler for a type of messages. See {@link GpsdClient#addHandler(Class, Consumer)}.
+    *
+    * @param messageType the type of the messages to register the handler for
+    * @param handler     the handler that gets passed the message object
+    * @param <T>         the type of the message
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code messageType} or {@code handler} is null
+    */
+   public <T extends GpsdMessage> FailoverGpsdClient addHandler(Class<T> messageType, Consumer<T> handler)
+   {
+      requireNonNull(messageType, "messageType must not be null");
+      requireNonNull(handler, "handler must not be null");
+
+      this.handlers.add(messageType, handler);
+
+      return this;
+   }
+
+   /**
+    * Adds a handler for a type of messages that only handles messages from one device. See {@link
+    * GpsdClient#addHandler(Class, String, Consumer)}.
+    *
+    * @param messageType the type of the messages to register the handler for
+    * @param device      the device whose messages to handle
+    * @param handler     the handler that gets passed the message object
+    * @param <T>         the type of the message
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code messageType}, {@code device} or {@code handler} is null
+    */
+   public <T extends GpsdMessage> FailoverGpsdClient addHandler(Class<T> messageType, String device,
+                                                                Consumer<T> handler)
+   {
+      requireNonNull(messageType, "messageType must not be null");
+      requireNonNull(device, "device must not be null");
+      requireNonNull(handler, "handler must not be null");
+
+      this.handlers.add(messageType, device, handler);
+
+      return this;
+   }
+
+   /**
+    * Adds a generic handler that handles all types of gpsd messages, including ERRORs.
+    *
+    * @param handler the handler that gets passed an object of subtype of {@link GpsdMessage}
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public FailoverGpsdClient addHandler(Consumer<GpsdMessage> handler)
+   {
+      return this.addHandler(GpsdMessage.class, handler);
+   }
+
+   /**
+    * Adds a handler that handles gpsd ERROR messages ({@link ErrorMessage}).
+    *
+    * @param handler the handler that gets passed an {@link ErrorMessage} object
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public FailoverGpsdClient addErrorHandler(Consumer<ErrorMessage> handler)
+   {
+      return this.addHandler(ErrorMessage.class, handler);
+   }
+
+   /**
+    * Removes the handler from the message type (a subtype of {@link GpsdMessage}) it was registered for.
+    *
+    * @param messageType the message type the handler was registered for
+    * @param handler     the handler to remove
+    * @param <T>         the type of the message
+    *
+    * @return <tt>true</tt> if the handler was removed, or <tt>false</tt> if it has not been registered for this message
+    * type before
+    *
+    * @throws NullPointerException if {@code messageType} or {@code handler} is null
+    */
+   public <T extends GpsdMessage> boolean removeHandler(Class<T> messageType, Consumer<T> handler)
+   {
+      requireNonNull(messageType, "messageType must not be null");
+      requireNonNull(handler, "handler must not be null");
+
+      return this.handlers.remove(messageType, handler);
+   }
+
+   /**
+    * Removes the handler from all types of messages it was registered for.
+    *
+    * @param handler the handler to remove
+    * @param <T>     the type of the message
+    *
+    * @return <tt>true</tt> if the handler was removed, or <tt>false</tt> if it has not been registered before
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public <T extends GpsdMessage> boolean removeHandler(Consumer<T> handler)
+   {
+      requireNonNull(handler, "handler must not be null");
+
+      return this.handlers.remove(handler);
+   }
+
+   /**
+    * Adds a stage to the end of the processing pipeline. The messages of the active connection pass through the stages
+    * before they reach the handlers. See {@link GpsdClient#addStage(ProcessingStage)}.
+    *
+    * @param stage the stage
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code stage} is null
+    */
+   public FailoverGpsdClient addStage(ProcessingStage stage)
+   {
+      requireNonNull(stage, "stage must not be null");
+
+      this.pipeline.add(stage);
+
+      return this;
+   }
+
+   /**
+    * Removes a stage from the processing pipeline.
+    *
+    * @param stage the stage to remove
+    *
+    * @return <tt>true</tt> if the stage was removed, or <tt>false</tt> if it has not been added before
+    *
+    * @throws NullPointerException if {@code stage} is null
+    */
+   public boolean removeStage(ProcessingStage stage)
+   {
+      requireNonNull(stage, "stage must not be null");
+
+      return this.pipeline.remove(stage);
+   }
+
+   /**
+    * Passes a message to the handlers as if it had been received from the active gpsd server. See {@link
+    * GpsdClient#publish(GpsdMessage)}.
+    *
+    * @param message the message
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not running or the active connection is not established
+    * @throws NullPointerException  if {@code message} is null
+    */
+   public FailoverGpsdClient publish(GpsdMessage message)
+   {
+      activeClient().publish(message);
+      return this;
+   }
+
+   /**
+    * Sets a handler that is executed upon each successful connection to any of the gpsd servers, including the
+    * standby. The handler gets passed the client of that particular connection. To configure devices and watch mode
+    * on every connection, use {@link #setDeviceSettings(DeviceMessage)} and {@link #setWatch(WatchMessage)} instead.
+    * See {@link GpsdClient#setSuccessfulConnectionHandler(Consumer)}.
+    *
+    * @param handler the handler
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public FailoverGpsdClient setSuccessfulConnectionHandler(Consumer<GpsdClient> handler)
+   {
+      this.successfulConnectionHandler = requireNonNull(handler, "handler must not be null");
+      return this;
+   }
+
+   /**
+    * Sets a handler that is executed after the client has switched to another endpoint. The handler gets passed the
+    * new active endpoint.
+    *
+    * @param handler the handler
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public FailoverGpsdClient setFailoverHandler(Consumer<GpsdEndpoint> handler)
+   {
+      this.failoverHandler = requireNonNull(handler, "handler must not be null");
+      return this;
+   }
+
+   private GpsdClient activeClient()
+   {
+      int current = this.active;
+      if (current < 0) throw new IllegalStateException("Client is not running");
+
+      GpsdClient client = clients[current];
+      if (client == null) throw new IllegalStateException("Client is not running");
+
+      return client;
+   }
+
+   private void startClient(int index)
+   {
+      GpsdClient client = new GpsdClient(endpoints.get(index), options)
+            .addHandler(message -> this.handleMessage(index, message))
+            .setSuccessfulConnectionHandler(c -> this.successfulConnectionHandler.accept(c))
+            .setStallHandler(stall -> {
+               if (stall.isConnectionStall()) this.handleConnectionLost(index, true);
+            });
+
+      // replayed by the client right after it connects, before any of its messages are handled
+      if (watch != null) client.setWatch(watch);
+      deviceSettings.values().forEach(client::setDeviceSettings);
+
+      client.setConnectionStateListener(change -> {
+         ConnectionState previous = change.getPrevious();
+         ConnectionState current = change.getCurrent();
+
+         // an established connection was lost, or an attempt to establish one failed
+         if ((previous == ConnectionState.CONNECTED || previous == ConnectionState.CONNECTING)
+               && current != ConnectionState.CONNECTED) {
+            this.handleConnectionLost(index, current == ConnectionState.BACKING_OFF);
+         }
+      });
+
+      clients[index] = client;
+      client.start();
+   }
+
+   private void ensureClientStarted(int index)
+   {
+      if (clients[index] == null) startClient(index);
+   }
+
+   private void stopClient(int index)
+   {
+      GpsdClient client = clients[index];
+      if (client == null) return;
+
+      clients[index] = null;
+      client.stop();
+   }
+
+   private synchronized void handleConnectionLost(int index, boolean reconnecting)
+   {
+      // a client that does not reconnect has stopped itself
+      if (!reconnecting && clients[index] != null) clients[index] = null;
+
+      if (!running) return;
+
+      if (index == standby) {
+         log.warn("Lost standby connection to gpsd server {}", endpoints.get(index));
+         ensureClientStarted(index);
+         return;
+      }
+
+      if (index == active) failOver(index);
+   }
+
+   private void failOver(int failed)
+   {
+      int count = endpoints.size();
+
+      if (count == 1) {
+         // nothing to fail over to, just keep trying the only endpoint
+         ensureClientStarted(failed);
+         return;
+      }
+
+      int next = (failed + 1) % count;
+
+      if (hotStandby && standby >= 0) {
+         // a standby that is backing off itself is no better than the endpoint after it
+         next = isConnected(standby) ? standby : (standby + 1) % count;
+
+         // unless there is no other endpoint, in which case it is still the best bet
+         if (next == failed) next = standby;
+      }
+
+      int nextStandby = hotStandby ? (next + 1) % count : -1;
+
+      log.warn("Failing over from gpsd server {} to {}", endpoints.get(failed), endpoints.get(next));
+
+      this.deduplicateUntil = System.nanoTime() + MILLISECONDS.toNanos(deduplicationWindow);
+      this.active = next;
+      this.standby = nextStandby;
+
+      // drop the connections that are no longer needed; with two endpoints, the failed one becomes the standby and
+      // keeps reconnecting on its own
+      for (int i = 0; i < count; i++) {
+         if (i != next && i != nextStandby) stopClient(i);
+      }
+
+      ensureClientStarted(next);
+      if (nextStandby >= 0) ensureClientStarted(nextStandby);
+
+      try {
+         this.failoverHandler.accept(endpoints.get(next));
+      } catch (Throwable t) {
+         log.error("Exception thrown in handler", t);
+      }
+   }
+
+   private boolean isConnected(int index)
+   {
+      GpsdClient client = clients[index];
+      return client != null && client.getConnectionState() == ConnectionState.CONNECTED;
+   }
+
+   private void handleMessage(int source, GpsdMessage message)
+   {
+      if (source != active) return;
+
+      // around a switch, the previous connection may still be delivering its last message
+      synchronized (this.pipeline) {
+         if (isNewer(message)) this.pipeline.accept(message);
+      }
+   }
+
+   private void deliver(GpsdMessage message)
+   {
+      this.handlers.forEachHandler(message, handler -> {
+         try {
+            handler.accept(message);
+         } catch (Throwable t) {
+            log.error("Exception thrown in handler", t);
+         }
+      });
+   }
+
+   /**
+    * @return false if the deduplication window of a switch is open and the message is a timestamped report that is not
+    * newer than the last one of its type delivered from the same device. Must be called with the pipeline's lock held.
+    */
+   private boolean isNewer(GpsdMessage message)
+   {
+      LocalDateTime time = timeOf(message);
+      if (time == null) return true;
+
+      Map<String, LocalDateTime> byDevice = lastDeliveredTimes.get(message.getClass());
+      if (byDevice == null) {
+         byDevice = new HashMap<>();
+         lastDeliveredTimes.put(message.getClass(), byDevice);
+      }
+
+      String device = ((DeviceReport) message).getDevice();
+
+      LocalDateTime last = byDevice.get(device);
+      if (last != null && !time.isAfter(last) && System.nanoTime() - deduplicateUntil < 0) return false;
+
+      byDevice.put(device, time);
+      return true;
+   }
+
+   private static LocalDateTime timeOf(GpsdMessage message)
+   {
+      if (message instanceof TPVReport) return ((TPVReport) message).getTime();
+      if (message instanceof SKYReport) return ((SKYReport) message).getTime();
+      if (message instanceof ATTReport) return ((ATTReport) message).getTime();
+      if (message instanceof GSTReport) return ((GSTReport) message).getTime();
+
+      return null;
+   }
+}
@@ -17,25 +17,35 @@
 package com.ivkos.gpsd4j.client;
 
 import com.ivkos.gpsd4j.messages.*;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
 import com.ivkos.gpsd4j.support.GpsdParseException;
 import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
 import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
 import io.vertx.core.net.NetClient;
 import io.vertx.core.net.NetClientOptions;
 import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.concurrent.locks.StampedLock;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
-import static com.ivkos.gpsd4j.support.SerializationHelper.*;
+import static com.ivkos.gpsd4j.client.ConnectionState.*;
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
 import static java.lang.String.format;
-import static java.util.Collections.*;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Collections.emptySet;
 import static java.util.Objects.requireNonNull;
 
 public class GpsdClient
@@ -44,24 +54,37 @@ public class GpsdClient
 
    private static final int BUFFER_SIZE = 4 * 1024;
 
-   private final Map<Class<? extends GpsdMessage>, List<Consumer<GpsdMessage>>> handlers =
-         synchronizedMap(new HashMap<>());
+   private final HandlerRegistry handlers = new HandlerRegistry();
+   private final ProcessingPipeline pipeline = new ProcessingPipeline(this::deliver);
+   private final PendingResponses pendingResponses = new PendingResponses();
+   private final SessionState session = new SessionState();
+   private final DeviceSnapshots snapshots = new DeviceSnapshots();
 
-   private final StampedLock startingLock = new StampedLock();
-   private final StampedLock stoppingLock = new StampedLock();
+   private final Queue<byte[]> pendingWrites = new ConcurrentLinkedQueue<>();
+   private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
 
-   private final String serverHost;
-   private final int serverPort;
-   private final GpsdClientOptions options;
+   private final AtomicReference<ConnectionState> state = new AtomicReference<>(STOPPED);
+   private volatile CompletableFuture<Void> stopped = CompletableFuture.completedFuture(null);
+   private int failedAttempts = 0;
 
-   private boolean running = false;
-   private boolean stopping = false;
-   private long startingLockStamp;
+   private final GpsdEndpoint endpoint;
+   private final GpsdClientOptions options;
+   private final ReconnectBackoff backoff;
 
-   private Vertx vertx;
-   private NetClient netClient;
+   private volatile Vertx vertx;
+   private volatile NetClient netClient;
    private NetSocket clientSocket;
+   private volatile Context socketContext;
    private Consumer<GpsdClient> successfulConnectionHandler = __ -> {};
+   private Consumer<StallEvent> stallHandler = __ -> {};
+   private Consumer<ConnectionStateChange> connectionStateHandler = __ -> {};
+   private Consumer<ConnectionStateChange> connectionStateListener = __ -> {};
+   private final Consumer<PollMessage> pollFanOut = this::fanOut;
+   private final Consumer<PollMessage> snapshotWarmUp = __ -> {};
+   private volatile int reportInterval;
+   private volatile SessionRecorder recorder;
+   private long pollTimerId = -1;
+   private final StallWatchdog watchdog;
 
    /**
     * Creates a new instance
@@ -70,13 +93,11 @@ public class GpsdClient
     * @param serverPort the gpsd server's port
     * @param options    options for the client
     *
-    * @throws NullPointerException if options is null
+    * @throws NullPointerException if serverHost or options is null
     */
    public GpsdClient(String serverHost, int serverPort, GpsdClientOptions options)
    {
-      this.serverHost = serverHost;
-      this.serverPort = serverPort;
-      this.options = requireNonNull(options, "options must not be null");
+      this(GpsdEndpoint.tcp(serverHost, serverPort), options);
    }
 
    /**
@@ -91,17 +112,62 @@ public class GpsdClient
    }
 
    /**
-    * Starts the client.
+    * Creates a new instance
+    *
+    * @param endpoint the gpsd server's endpoint, either TCP or a Unix domain socket
+    * @param options  options for the client
+    *
+    * @throws NullPointerException if endpoint or options is null
+    */
+   public GpsdClient(GpsdEndpoint endpoint, GpsdClientOptions options)
+   {
+      this.endpoint = requireNonNull(endpoint, "endpoint must not be null");
+      this.options = requireNonNull(options, "options must not be null");
+      this.backoff = new ReconnectBackoff(options);
+      this.reportInterval = options.getReportInterval();
+      this.watchdog = new StallWatchdog(this, options);
+
+      this.updateWatch();
+   }
+
+   /**
+    * Creates a new instance
+    *
+    * @param endpoint the gpsd server's endpoint, either TCP or a Unix domain socket
+    *
+    * @throws NullPointerException if endpoint is null
+    */
+   public GpsdClient(GpsdEndpoint endpoint)
+   {
+      this(endpoint, new GpsdClientOptions());
+   }
+
+   /**
+    * Starts the client. If the client is still shutting down after a call to {@link #stop()}, this waits until it has
+    * stopped.
     *
     * @return a reference to this, so the API can be used fluently
     *
-    * @throws IllegalStateException if start() is called and the client is already running
+    * @throws IllegalStateException if start() is called and the client is already running, or if the endpoint is a
+    *                               Unix domain socket and the native transport is not available
     */
    public GpsdClient start()
    {
-      if (isRunning()) throw new IllegalStateException("Client is already running");
+      if (this.state.get() == STOPPING) this.stopped.join();
+
+      this.failedAttempts = 0;
+      if (!this.transition(STOPPED, CONNECTING, 0)) throw new IllegalStateException("Client is already running");
+
+      this.stopped = new CompletableFuture<>();
+
+      try {
+         createVertx();
+      } catch (IllegalStateException e) {
+         this.transition(CONNECTING, STOPPED, 0);
+         this.stopped.complete(null);
+         throw e;
+      }
 
-      createVertx();
       createNetClient();
 
       connectToGpsd();
@@ -111,6 +177,9 @@ public class GpsdClient
 
    /**
     * Sends a raw command to the gpsd server in the form of a string.
+    * <p>
+    * Commands are not written to the socket right away. Instead, all commands sent during the same event loop tick
+    * are coalesced and written with a single write.
     *
     * @param rawCommand the command
     *
@@ -121,13 +190,9 @@ public class GpsdClient
     */
    public GpsdClient sendCommand(String rawCommand)
    {
-      if (!isRunning()) throw new IllegalStateException("Client is not running");
       requireNonNull(rawCommand, "rawCommand must not be null");
 
-      this.clientSocket.write(rawCommand);
-      log.debug("Wrote: {}", rawCommand);
-
-      return this;
+      return this.enqueue(CommandEncoder.encode(rawCommand));
    }
 
    /**
@@ -144,15 +209,16 @@ public class GpsdClient
    {
       requireNonNull(command, "command must not be null");
 
-      return this.sendCommand(format(
-            "?%s=%s;\n",
-            command.getGpsdClass(), serialize(command)
-      ));
+      return this.enqueue(CommandEncoder.encode(command));
    }
 
    /**
     * Sends a command to the gpsd server and binds a handler that will be executed exactly once when the server
     * responds to the command.
+    * <p>
+    * Commands can be pipelined, i.e. many commands may be sent without waiting for the responses to the previous
+    * ones. Since gpsd responds in order, each response is passed to the handler of the earliest command of the same
+    * type that is still awaiting a response.
     *
     * @param command         the command to send
     * @param responseHandler the handler for the server's response to the command
@@ -163,30 +229,20 @@ public class GpsdClient
     * @throws IllegalStateException if the client has not been started or it was stopped
     * @throws NullPointerException  if {@code command} or {@code responseHandler} is null
     */
-   @SuppressWarnings("unchecked")
    public <T extends GpsdCommandMessage> GpsdClient sendCommand(T command, Consumer<T> responseHandler)
    {
       requireNonNull(command, "command must not be null");
       requireNonNull(responseHandler, "responseHandler must not be null");
 
-      this.addHandler((Class<T>) command.getClass(), new Consumer<T>()
-      {
-         // ensures this consumer doesn't get executed more than once
-         private volatile boolean done = false;
-
-         @Override
-         public void accept(T t)
-         {
-            if (done) return;
-
-            done = true;
-            GpsdClient.this.removeHandler(this);
+      if (!isRunning()) throw new IllegalStateException("Client is not running");
 
-            responseHandler.accept(t);
-         }
-      });
+      byte[] encoded = CommandEncoder.encode(command);
 
-      return this.sendCommand(command);
+      // the response handler must be queued in the same order as the command itself
+      synchronized (this.pendingResponses) {
+         this.pendingResponses.expect(command.getClass(), responseHandler);
+         return this.enqueue(encoded);
+      }
    }
 
    /**
@@ -201,11 +257,7 @@ public class GpsdClient
     */
    public GpsdClient watch(boolean enable, boolean reportMessages)
    {
-      WatchMessage watch = new WatchMessage();
-      watch.setEnabled(enable);
-      watch.setDumpJson(reportMessages);
-
-      return this.sendCommand(watch);
+      return this.enqueue(CommandEncoder.encodeWatch(enable, reportMessages));
    }
 
    /**
@@ -222,6 +274,82 @@ public class GpsdClient
       return this.watch(true, true);
    }
 
+   /**
+    * Sets the WATCH flags the client should have on the server. Unlike {@link #watch(boolean, boolean)}, the flags are
+    * remembered and sent again right after each reconnection, before any handler sees data from the new connection.
+    * If the client is connected, the command is also sent right away, unless the same flags have already been sent.
+    * <p>
+    * The message is encoded immediately, so changing it afterwards has no effect unless it is set again. With
+    * {@link GpsdClientOptions#setAutoWatch(boolean) auto-watch} enabled, the flags are replaced whenever handlers are
+    * added or removed.
+    *
+    * @param watch the WATCH flags
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code watch} is null
+    */
+   public GpsdClient setWatch(WatchMessage watch)
+   {
+      requireNonNull(watch, "watch must not be null");
+
+      synchronized (this.session) {
+         byte[] command = this.session.setWatch(watch);
+         if (command != null && isRunning()) this.enqueue(command);
+      }
+
+      return this;
+   }
+
+   /**
+    * Sets the settings a device should have on the server. The settings are remembered per device path and sent
+    * again right after each reconnection, before any handler sees data from the new connection. Setting them again
+    * for the same path replaces the previous ones. If the client is connected, the command is also sent right away,
+    * unless the same settings have already been sent.
+    * <p>
+    * The message is encoded immediately, so changing it afterwards has no effect unless it is set again.
+    *
+    * @param device the device settings
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException     if {@code device} is null
+    * @throws IllegalArgumentException if the path of the device is not set
+    */
+   public GpsdClient setDeviceSettings(DeviceMessage device)
+   {
+      requireNonNull(device, "device must not be null");
+      if (device.getPath() == null) throw new IllegalArgumentException("The path of the device must be set");
+
+      synchronized (this.session) {
+         byte[] command = this.session.setDevice(device);
+         if (command != null && isRunning()) this.enqueue(command);
+      }
+
+      return this;
+   }
+
+   /**
+    * Stops sending the settings of a device after reconnections. Settings already applied on the server are not
+    * reverted.
+    *
+    * @param path the path of the device
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code path} is null
+    */
+   public GpsdClient removeDeviceSettings(String path)
+   {
+      requireNonNull(path, "path must not be null");
+
+      synchronized (this.session) {
+         this.session.removeDevice(path);
+      }
+
+      return this;
+   }
+
    /**
     * Adds a handler for a type of messages. The handler is executed upon
     * receiving that type of message and gets passed the message object itself.
@@ -239,15 +367,41 @@ public class GpsdClient
     *
     * @throws NullPointerException if {@code messageType} or {@code handler} is null
     */
-   @SuppressWarnings("unchecked")
    public <T extends GpsdMessage> GpsdClient addHandler(Class<T> messageType, Consumer<T> handler)
    {
       requireNonNull(messageType, "messageType must not be null");
       requireNonNull(handler, "handler must not be null");
 
-      List<Consumer<GpsdMessage>> list = this.handlers.getOrDefault(messageType, synchronizedList(new ArrayList<>()));
-      list.add((Consumer<GpsdMessage>) handler);
-      this.handlers.putIfAbsent(messageType, list);
+      this.handlers.add(messageType, handler);
+      this.updateWatch();
+
+      return this;
+   }
+
+   /**
+    * Adds a handler for a type of messages that only handles messages from one device, e.g. TPV reports from
+    * {@code /dev/ttyAMA0}. Messages that do not come from a device, such as VERSION, are not passed to it.
+    * <p>
+    * With {@link GpsdClientOptions#setAutoWatch(boolean) auto-watch} enabled, gpsd is asked to only report from this
+    * device, as long as no handler needs reports from other devices.
+    *
+    * @param messageType the type of the messages to register the handler for
+    * @param device      the device whose messages to handle
+    * @param handler     the handler that gets passed the message object
+    * @param <T>         the type of the message
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code messageType}, {@code device} or {@code handler} is null
+    */
+   public <T extends GpsdMessage> GpsdClient addHandler(Class<T> messageType, String device, Consumer<T> handler)
+   {
+      requireNonNull(messageType, "messageType must not be null");
+      requireNonNull(device, "device must not be null");
+      requireNonNull(handler, "handler must not be null");
+
+      this.handlers.add(messageType, device, handler);
+      this.updateWatch();
 
       return this;
    }
@@ -290,17 +444,13 @@ public class GpsdClient
     * Sets a handler that is executed upon successful connection the gpsd server. Note that this includes reconnections
     * as well. The handler gets passed the current {@link GpsdClient}.
     * <p>
-    * Setting such a handler may be useful for configuring device parameters and watch mode settings that may be
-    * otherwise lost if the connection drops or the gpsd server restarts. For example:
+    * The handler runs on a worker thread, so reports may already be arriving while it runs. To restore device
+    * parameters and watch mode settings before that, use {@link #setDeviceSettings(DeviceMessage)} and {@link
+    * #setWatch(WatchMessage)} instead. The handler may still be useful for other commands, for example:
     * <pre>{@code
     * new GpsdClient(...)
     *    .setSuccessfulConnectionHandler(client -> {
-    *       DeviceMessage device = new DeviceMessage();
-    *       device.setPath("/dev/ttyAMA0");
-    *       device.setNative(true);
-    *
-    *       client.sendCommand(device);
-    *       client.watch();
+    *       client.sendCommand(new VersionMessage(), version -> log.info("Connected to gpsd {}", version.getRelease()));
     *    })
     *    .addHandler(TPVReport.class, tpv -> { ... })
     *    .start();
@@ -328,6 +478,47 @@ public class GpsdClient
       return this.setSuccessfulConnectionHandler(__ -> {});
    }
 
+   /**
+    * Sets a handler that is executed when the watchdog detects a stall, i.e. a device that has not reported anything
+    * or a connection on which nothing has been received within the stall timeout. Stall detection must be enabled with
+    * {@link GpsdClientOptions#setStallTimeout(int)}.
+    * <p>
+    * If {@link GpsdClientOptions#getReconnectOnStall()} is true, a stalled connection is also dropped and
+    * re-established after the handler is scheduled.
+    *
+    * @param handler the handler
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public GpsdClient setStallHandler(Consumer<StallEvent> handler)
+   {
+      this.stallHandler = requireNonNull(handler, "handler must not be null");
+      return this;
+   }
+
+   /**
+    * Removes the stall handler.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClient removeStallHandler()
+   {
+      return this.setStallHandler(__ -> {});
+   }
+
+   /**
+    * Returns the round-trip latency of the last liveness probe that was answered. Probes are only sent when stall
+    * detection is enabled.
+    *
+    * @return the latency in µs, or -1 if no probe has been answered yet
+    */
+   public long getLastProbeLatency()
+   {
+      return this.watchdog.getLastProbeLatency();
+   }
+
    /**
     * Removes the handler from the message type (a subtype of {@link GpsdMessage}) it was registered for.
     *
@@ -345,7 +536,10 @@ public class GpsdClient
       requireNonNull(messageType, "messageType must not be null");
       requireNonNull(handler, "handler must not be null");
 
-      return this.handlers.getOrDefault(messageType, emptyList()).remove(handler);
+      boolean removed = this.handlers.remove(messageType, handler);
+      if (removed) this.updateWatch();
+
+      return removed;
    }
 
    /**
@@ -362,116 +556,379 @@ public class GpsdClient
    {
       requireNonNull(handler, "handler must not be null");
 
-      final boolean[] removed = { false };
+      boolean removed = this.handlers.remove(handler);
+      if (removed) this.updateWatch();
 
-      this.handlers.forEach((key, consumersList) -> {
-         if (consumersList.remove(handler)) {
-            removed[0] = true;
-         }
-      });
+      return removed;
+   }
 
-      return removed[0];
+   /**
+    * Adds a stage to the end of the processing pipeline. Every message received, polled or published passes through
+    * the stages, in the order they were added, before it reaches the handlers. A stage can drop messages, e.g.
+    * implausible fixes, so that no handler spends work on them, or derive messages from them, e.g. smoothed fixes,
+    * that handlers can be added for like for any other message.
+    * <p>
+    * The stages are executed on the event loop and must not block. An exception thrown by a stage is logged and the
+    * message is dropped.
+    *
+    * @param stage the stage
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code stage} is null
+    */
+   public GpsdClient addStage(ProcessingStage stage)
+   {
+      requireNonNull(stage, "stage must not be null");
+
+      this.pipeline.add(stage);
+
+      return this;
    }
 
    /**
-    * Shuts down the client.
+    * Removes a stage from the processing pipeline.
+    *
+    * @param stage the stage to remove
+    *
+    * @return <tt>true</tt> if the stage was removed, or <tt>false</tt> if it has not been added before
+    *
+    * @throws NullPointerException if {@code stage} is null
+    */
+   public boolean removeStage(ProcessingStage stage)
+   {
+      requireNonNull(stage, "stage must not be null");
+
+      return this.pipeline.remove(stage);
+   }
+
+   /**
+    * Passes a message to the handlers as if it had been received from the server. This lets a handler derive events
+    * from the messages it handles, e.g. a geofence being entered, and pass them on to the handlers registered for
+    * them. The message is handled by the same ordered executor as the received messages, after those received before
+    * it is published. Like them, it passes through the {@link #addStage(ProcessingStage) processing stages} first.
+    *
+    * @param message the message
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not running
+    * @throws NullPointerException  if {@code message} is null
+    */
+   public GpsdClient publish(GpsdMessage message)
+   {
+      requireNonNull(message, "message must not be null");
+
+      Context context = this.socketContext;
+      if (context == null || !isRunning()) throw new IllegalStateException("Client is not running");
+
+      context.runOnContext(__ -> this.dispatch(message));
+
+      return this;
+   }
+
+   /**
+    * Sets the interval at which reports are needed. If it is at least the {@link
+    * GpsdClientOptions#setPollingThreshold(int) polling threshold}, the client enables watch mode without streaming
+    * and sends a POLL at that interval instead. The TPV and SKY reports in each POLL response are passed to the
+    * handlers as if they had been streamed. Below the threshold, every report is streamed. The interval can be changed
+    * at any time and the client switches between polling and streaming as needed.
+    * <p>
+    * While the interval is non-zero, the client manages WATCH itself, like with {@link
+    * GpsdClientOptions#setAutoWatch(boolean) auto-watch}.
+    *
+    * @param reportInterval the interval, in ms, or zero for every report gpsd produces
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code reportInterval} is negative
+    */
+   public GpsdClient setReportInterval(int reportInterval)
+   {
+      if (reportInterval < 0) throw new IllegalArgumentException("reportInterval must not be negative");
+
+      this.reportInterval = reportInterval;
+      this.updateWatch();
+
+      Context context = this.socketContext;
+      if (context != null && isRunning()) context.runOnContext(__ -> this.schedulePolling());
+
+      return this;
+   }
+
+   /**
+    * @return the interval at which reports are needed, in ms, or zero for every report gpsd produces
+    */
+   public int getReportInterval()
+   {
+      return this.reportInterval;
+   }
+
+   /**
+    * Returns the latest state of a device: its latest TPV, SKY and ATT reports, DEVICE message and the server's VERSION.
+    * The snapshot is kept current from the messages received, and is warmed with a POLL right after connecting. Reading
+    * it does not block and it can be done from any thread.
+    *
+    * @param device the name of the device
+    *
+    * @return the latest snapshot, or null if nothing has been received about the device
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public DeviceSnapshot getSnapshot(String device)
+   {
+      requireNonNull(device, "device must not be null");
+
+      return this.snapshots.get(device);
+   }
+
+   /**
+    * Returns the latest snapshots of all devices the client has received anything about. See {@link
+    * #getSnapshot(String)}.
+    *
+    * @return an unmodifiable live view of the snapshots, keyed by device name
+    */
+   public Map<String, DeviceSnapshot> getSnapshots()
+   {
+      return this.snapshots.getAll();
+   }
+
+   /**
+    * Returns the current state of the connection to the gpsd server.
+    *
+    * @return the connection state
+    */
+   public ConnectionState getConnectionState()
+   {
+      return this.state.get();
+   }
+
+   /**
+    * Sets a handler that is executed on each transition of the {@link ConnectionState connection state}, e.g. when
+    * the connection is lost and the client starts backing off before reconnecting. The handler is executed on the
+    * thread that caused the transition, usually the event loop, so it must not block.
+    *
+    * @param handler the handler
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public GpsdClient setConnectionStateHandler(Consumer<ConnectionStateChange> handler)
+   {
+      this.connectionStateHandler = requireNonNull(handler, "handler must not be null");
+      return this;
+   }
+
+   /**
+    * Removes the connection state handler.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClient removeConnectionStateHandler()
+   {
+      return this.setConnectionStateHandler(__ -> {});
+   }
+
+   /**
+    * Sets a recorder that appends every line received from gpsd to a file, so that the session can be played back
+    * later with a {@link SessionReplayer}. Closing the recorder is up to the caller.
+    *
+    * @param recorder the recorder
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code recorder} is null
+    */
+   public GpsdClient setSessionRecorder(SessionRecorder recorder)
+   {
+      this.recorder = requireNonNull(recorder, "recorder must not be null");
+      return this;
+   }
+
+   /**
+    * Removes the session recorder. The recorder itself is not closed.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClient removeSessionRecorder()
+   {
+      this.recorder = null;
+      return this;
+   }
+
+   /**
+    * Shuts down the client. Pending connection attempts are cancelled.
     */
    public void stop()
    {
-      {
-         long stamp = this.stoppingLock.writeLock();
-         this.stopping = true;
-         this.stoppingLock.unlockWrite(stamp);
-      }
+      ConnectionState current;
+      do {
+         current = this.state.get();
 
-      long startingStamp = this.startingLock.writeLock();
+         // another call is already shutting the client down
+         if (current == STOPPED || current == STOPPING) return;
+      } while (!this.transition(current, STOPPING, 0));
 
-      if (netClient != null) {
-         netClient.close();
-         netClient = null;
-      }
+      NetClient currentNetClient = this.netClient;
+      Vertx currentVertx = this.vertx;
+
+      this.netClient = null;
+      this.vertx = null;
+
+      if (currentNetClient != null) currentNetClient.close();
 
-      if (vertx != null) {
-         vertx.close(__ -> {
-            this.running = false;
-            this.startingLock.unlockWrite(startingStamp);
-
-            {
-               long stoppingStamp = this.stoppingLock.writeLock();
-               this.stopping = false;
-               this.stoppingLock.unlockWrite(stoppingStamp);
-            }
-         });
-         vertx = null;
+      // closing Vert.x also cancels the timer of a pending reconnect attempt
+      if (currentVertx != null) {
+         currentVertx.close(__ -> this.finishStop());
       } else {
-         this.running = false;
-         this.startingLock.unlockWrite(startingStamp);
+         this.finishStop();
       }
    }
 
+   private void finishStop()
+   {
+      this.transition(STOPPING, STOPPED, 0);
+      this.stopped.complete(null);
+   }
+
    private void connectToGpsd()
    {
-      log.info("Connecting to gpsd server {}:{}...", serverHost, serverPort);
+      NetClient currentNetClient = this.netClient;
+      if (currentNetClient == null) return;
 
-      this.startingLockStamp = this.startingLock.writeLock();
+      log.info("Connecting to gpsd server {}...", endpoint);
 
-      this.netClient.connect(this.serverPort, this.serverHost, this::handleConnectResult);
+      currentNetClient.connect(this.endpoint.toSocketAddress(), this::handleConnectResult);
    }
 
    private void handleConnectResult(AsyncResult<NetSocket> res)
    {
+      if (this.state.get() != CONNECTING) {
+         // the client has been stopped while connecting
+         if (res.succeeded()) res.result().close();
+         return;
+      }
+
       if (res.failed()) {
-         log.error(format("Connection to gpsd server %s:%d failed", serverHost, serverPort), res.cause());
+         log.error(format("Connection to gpsd server %s failed", endpoint), res.cause());
 
-         this.startingLock.unlockWrite(this.startingLockStamp);
-         this.stop();
+         if (++this.failedAttempts > options.getReconnectAttempts()) {
+            log.error("Giving up connecting to gpsd server {} after {} attempts", endpoint, this.failedAttempts);
+            this.stop();
+            return;
+         }
 
+         this.scheduleReconnect(CONNECTING);
          return;
       }
 
+      this.socketContext = Vertx.currentContext();
       this.clientSocket = res.result()
             .closeHandler(__ -> handleClose())
-            .handler(buf -> {
-               // Split new lines in case the buffer contains multiple JSON objects
-               String[] split = buf.toString().split("(\\r\\n|\\r|\\n)+");
-               for (String s : split) handleJsonString(s);
-            });
+            // A buffer may contain several JSON objects, and an object may be split across buffers
+            .handler(RecordParser.newDelimited("\n", line -> {
+               String json = line.toString().trim();
+               if (!json.isEmpty()) handleLine(json);
+            }));
+
+      this.failedAttempts = 0;
+
+      // Restore the session before returning to the event loop, so that no data from the new connection is handled
+      // before it. Holding the lock until the transition ensures that state set concurrently is either replayed here
+      // or sent afterwards.
+      synchronized (this.session) {
+         Buffer replay = this.session.replay();
+         if (replay.length() > 0) {
+            this.clientSocket.write(replay);
+            log.debug("Restored session in {} bytes", replay.length());
+         }
 
-      this.running = true;
-      this.startingLock.unlockWrite(this.startingLockStamp);
+         if (!this.transition(CONNECTING, CONNECTED, 0)) {
+            // stopped in the meantime
+            this.clientSocket.close();
+            return;
+         }
+      }
 
-      log.info("Successfully connected to gpsd server {}:{}", serverHost, serverPort);
+      this.watchdog.start(this.vertx);
+
+      // polling mode polls right away, which warms the snapshots as well
+      if (isPolling()) {
+         this.schedulePolling();
+      } else {
+         this.sendCommand(new PollMessage(), this.snapshotWarmUp);
+      }
+
+      log.info("Successfully connected to gpsd server {}", endpoint);
 
       this.executeBlockingHandler(this.successfulConnectionHandler, this, false);
    }
 
    private void handleClose()
    {
-      long stamp = this.stoppingLock.tryOptimisticRead();
-      boolean currentStopping = this.stopping;
+      this.watchdog.stop();
+      this.cancelPolling();
+      this.pendingWrites.clear();
 
-      if (!stoppingLock.validate(stamp)) {
-         stamp = this.stoppingLock.readLock();
-         try {
-            currentStopping = this.stopping;
-         } finally {
-            this.stoppingLock.unlockRead(stamp);
-         }
-      }
+      int lostResponses = this.pendingResponses.clear();
+      if (lostResponses > 0) log.debug("Connection closed while awaiting {} responses", lostResponses);
 
-      if (currentStopping) {
+      if (this.state.get() != CONNECTED) {
          log.info("Client is shutting down...");
          return;
       }
 
       if (options.getReconnectOnDisconnect()) {
-         log.warn("Disconnected from gpsd server {}:{}. Will now try to reconnect...", serverHost, serverPort);
-         this.connectToGpsd();
+         log.warn("Disconnected from gpsd server {}. Will now try to reconnect...", endpoint);
+         this.scheduleReconnect(CONNECTED);
       } else {
-         log.info("Disconnected from gpsd server {}:{}", serverHost, serverPort);
+         log.info("Disconnected from gpsd server {}", endpoint);
          this.stop();
       }
+   }
+
+   /**
+    * Waits for the backoff delay and then tries to connect again, unless the client is stopped in the meantime.
+    */
+   private void scheduleReconnect(ConnectionState from)
+   {
+      Vertx currentVertx = this.vertx;
+      if (currentVertx == null) return;
+
+      long delay = this.backoff.delay(this.failedAttempts);
+      if (!this.transition(from, BACKING_OFF, delay)) return;
+
+      log.debug("Reconnecting to gpsd server {} in {} ms", endpoint, delay);
+
+      currentVertx.setTimer(delay, __ -> {
+         if (this.transition(BACKING_OFF, CONNECTING, 0)) this.connectToGpsd();
+      });
+   }
+
+   private boolean transition(ConnectionState from, ConnectionState to, long delay)
+   {
+      if (!this.state.compareAndSet(from, to)) return false;
+
+      ConnectionStateChange change = new ConnectionStateChange(from, to, this.failedAttempts, delay);
+      log.debug("Connection to gpsd server {}: {} -> {}", endpoint, from, to);
+
+      try {
+         this.connectionStateListener.accept(change);
+         this.connectionStateHandler.accept(change);
+      } catch (Throwable t) {
+         log.error("Exception thrown in handler", t);
+      }
+
+      return true;
+   }
+
+   private void handleLine(String line)
+   {
+      SessionRecorder currentRecorder = this.recorder;
+      if (currentRecorder != null) currentRecorder.record(System.currentTimeMillis(), line);
 
+      this.handleJsonString(line);
    }
 
    private void handleJsonString(String jsonString)
@@ -484,15 +941,238 @@ public class GpsdClient
          return;
       }
 
-      getClassHierarchy(obj).forEach(clazz -> this.handlers
-            .getOrDefault(clazz, emptyList())
-            .forEach(handler -> this.executeBlockingHandler(handler, obj, true))
-      );
+      this.watchdog.onMessage(obj);
+      this.snapshots.update(obj);
+
+      Consumer<GpsdMessage> responseHandler = this.pendingResponses.poll(obj);
+
+      // responses to the client's own POLLs are not passed to the handlers
+      if (isLivenessProbe(responseHandler) || responseHandler == (Object) this.pollFanOut ||
+            responseHandler == (Object) this.snapshotWarmUp) {
+         responseHandler.accept(obj);
+         return;
+      }
+
+      if (responseHandler != null) this.executeBlockingHandler(responseHandler, obj, true);
+
+      this.dispatch(obj);
+   }
+
+   private void dispatch(GpsdMessage message)
+   {
+      this.pipeline.accept(message);
+   }
+
+   private void deliver(GpsdMessage message)
+   {
+      this.handlers.forEachHandler(message, handler -> this.executeBlockingHandler(handler, message, true));
+   }
+
+   private boolean isPolling()
+   {
+      int interval = this.reportInterval;
+      return interval > 0 && interval >= options.getPollingThreshold();
+   }
+
+   /**
+    * Starts, restarts or stops sending POLLs as the current report interval requires. Runs on the event loop.
+    */
+   private void schedulePolling()
+   {
+      this.cancelPolling();
+
+      Vertx currentVertx = this.vertx;
+      if (currentVertx == null || !isRunning() || !isPolling()) return;
+
+      this.poll();
+      this.pollTimerId = currentVertx.setPeriodic(this.reportInterval, __ -> this.poll());
+   }
+
+   private void cancelPolling()
+   {
+      Vertx currentVertx = this.vertx;
+      if (this.pollTimerId >= 0 && currentVertx != null) currentVertx.cancelTimer(this.pollTimerId);
+
+      this.pollTimerId = -1;
+   }
+
+   private void poll()
+   {
+      if (!isRunning()) return;
+
+      // nobody needs the reports
+      if (options.getAutoWatch() && this.handlers.subscribedDevices() == null) return;
+
+      this.sendCommand(new PollMessage(), this.pollFanOut);
+   }
+
+   /**
+    * Passes the reports in a POLL response to the handlers as if they had been streamed. Runs on the event loop.
+    */
+   private void fanOut(PollMessage poll)
+   {
+      for (TPVReport tpv : poll.getTPVList()) {
+         this.watchdog.onMessage(tpv);
+         this.dispatch(tpv);
+      }
+
+      for (SKYReport sky : poll.getSKYList()) {
+         this.watchdog.onMessage(sky);
+         this.dispatch(sky);
+      }
+   }
+
+   /**
+    * Sets a listener for connection state transitions that is executed before the public connection state handler.
+    * Used by clients built on top of this one, so that they do not take the handler away from the user.
+    */
+   void setConnectionStateListener(Consumer<ConnectionStateChange> listener)
+   {
+      this.connectionStateListener = requireNonNull(listener);
+   }
+
+   /**
+    * Starts the client without connecting, so that a {@link SessionReplayer} can feed it recorded lines with {@link
+    * #replayLine(String)}. There is no socket, so commands are dropped, and the watchdog and polling are not started.
+    */
+   void startReplay()
+   {
+      if (this.state.get() == STOPPING) this.stopped.join();
+
+      if (!this.transition(STOPPED, CONNECTING, 0)) throw new IllegalStateException("Client is already running");
+
+      this.stopped = new CompletableFuture<>();
+      this.vertx = Vertx.vertx();
+      this.socketContext = this.vertx.getOrCreateContext();
+      this.clientSocket = null;
+
+      this.transition(CONNECTING, CONNECTED, 0);
+   }
+
+   /**
+    * Stops a client started with {@link #startReplay()} and waits until it has stopped.
+    */
+   void stopReplay()
+   {
+      this.stop();
+      this.stopped.join();
+   }
+
+   /**
+    * Handles a line as if it had been received from gpsd. Lines are handled on the event loop in the order they were
+    * fed.
+    */
+   void replayLine(String line)
+   {
+      this.socketContext.runOnContext(__ -> this.handleLine(line));
+   }
+
+   /**
+    * @return a future that completes once the handlers have handled everything received or replayed so far
+    */
+   CompletableFuture<Void> awaitHandlers()
+   {
+      CompletableFuture<Void> handled = new CompletableFuture<>();
+
+      // nothing is handled after the client has stopped
+      this.stopped.thenRun(() -> handled.complete(null));
+
+      // ordered blocking handlers run one after another, so this one runs after those already queued
+      this.socketContext.runOnContext(__ -> this.executeBlockingHandler(___ -> handled.complete(null), null, true));
+
+      return handled;
+   }
+
+   void handleStall(StallEvent event)
+   {
+      if (event.isConnectionStall()) {
+         log.warn("Nothing received from gpsd server {} for {} ms", endpoint, event.getSilentFor());
+      } else {
+         log.warn("Device {} has not reported for {} ms", event.getDevice(), event.getSilentFor());
+      }
+
+      this.executeBlockingHandler(this.stallHandler, event, false);
+
+      if (event.isConnectionStall() && options.getReconnectOnStall()) {
+         this.clientSocket.close();
+      }
+   }
+
+   /**
+    * With auto-watch enabled, derives the WATCH flags from the registered handlers: watching is enabled as long as
+    * some handler receives reports, and narrowed to a device if all of them were added for that single device. gpsd
+    * can only narrow WATCH to one device, so handlers for several devices watch all of them.
+    * <p>
+    * With a report interval, watching is enabled, but reports are only streamed if the client does not poll.
+    */
+   private void updateWatch()
+   {
+      if (!options.getAutoWatch() && this.reportInterval == 0) return;
+
+      // computed under the lock, so that concurrent changes are sent in the order they were computed
+      synchronized (this.session) {
+         Set<String> devices = options.getAutoWatch() ? this.handlers.subscribedDevices() : emptySet();
+
+         WatchMessage watch = new WatchMessage();
+         watch.setEnabled(devices != null);
+         watch.setDumpJson(devices != null && !isPolling());
+
+         // an empty device widens a previously narrowed WATCH back to all devices
+         watch.setDevice(devices != null && devices.size() == 1 ? devices.iterator().next() : "");
+
+         this.setWatch(watch);
+      }
+   }
+
+   private GpsdClient enqueue(byte[] command)
+   {
+      if (!isRunning()) throw new IllegalStateException("Client is not running");
+
+      this.pendingWrites.add(command);
+      if (log.isDebugEnabled()) log.debug("Queued: {}", new String(command, UTF_8));
+
+      if (this.flushScheduled.compareAndSet(false, true)) {
+         this.socketContext.runOnContext(__ -> this.flushPendingWrites());
+      }
+
+      return this;
+   }
+
+   private void flushPendingWrites()
+   {
+      this.flushScheduled.set(false);
+
+      Buffer batch = Buffer.buffer(BUFFER_SIZE);
+      int count = 0;
+
+      byte[] command;
+      while ((command = this.pendingWrites.poll()) != null) {
+         batch.appendBytes(command);
+         count++;
+      }
+
+      if (count == 0) return;
+
+      if (this.clientSocket == null) {
+         log.debug("Dropped {} command(s) sent while replaying", count);
+         return;
+      }
+
+      this.clientSocket.write(batch);
+      log.debug("Wrote {} command(s) in {} bytes", count, batch.length());
+   }
+
+   private static boolean isLivenessProbe(Consumer<?> responseHandler)
+   {
+      return responseHandler instanceof StallWatchdog.Probe;
    }
 
    private <T> void executeBlockingHandler(Consumer<T> handler, T handlerInput, boolean ordered)
    {
-      this.vertx.executeBlocking(future -> {
+      Vertx currentVertx = this.vertx;
+      if (currentVertx == null) return;
+
+      currentVertx.executeBlocking(future -> {
          try {
             handler.accept(handlerInput);
             future.complete();
@@ -508,25 +1188,24 @@ public class GpsdClient
 
    private boolean isRunning()
    {
-      long stamp = this.startingLock.tryOptimisticRead();
-
-      boolean currentRunning = this.running;
-
-      if (!this.startingLock.validate(stamp)) {
-         stamp = this.startingLock.readLock();
-         try {
-            currentRunning = this.running;
-         } finally {
-            this.startingLock.unlockRead(stamp);
-         }
-      }
-
-      return currentRunning;
+      return this.state.get() == CONNECTED;
    }
 
    private void createVertx()
    {
-      this.vertx = Vertx.vertx();
+      // Domain sockets are only supported by the native transport
+      VertxOptions vertxOptions = new VertxOptions()
+            .setPreferNativeTransport(endpoint.isDomainSocket());
+
+      this.vertx = Vertx.vertx(vertxOptions);
+
+      if (endpoint.isDomainSocket() && !this.vertx.isNativeTransportEnabled()) {
+         this.vertx.close();
+         this.vertx = null;
+
+         throw new IllegalStateException("Connecting to a Unix domain socket requires the native transport. " +
+               "Make sure io.netty:netty-transport-native-epoll is on the classpath.");
+      }
    }
 
    private void createNetClient()
@@ -534,8 +1213,6 @@ public class GpsdClient
       NetClientOptions netClientOptions = new NetClientOptions()
             .setConnectTimeout(options.getConnectTimeout())
             .setIdleTimeout(options.getIdleTimeout())
-            .setReconnectAttempts(options.getReconnectAttempts())
-            .setReconnectInterval(options.getReconnectInterval())
             .setReceiveBufferSize(BUFFER_SIZE);
 
       this.netClient = this.vertx.createNetClient(netClientOptions);
@@ -23,12 +23,30 @@ public class GpsdClientOptions
    public static final int DEFAULT_IDLE_TIMEOUT = 120;
    public static final int DEFAULT_RECONNECT_ATTEMPTS = Integer.MAX_VALUE;
    public static final int DEFAULT_RECONNECT_INTERVAL = 3000;
+   public static final int DEFAULT_MAX_RECONNECT_INTERVAL = 60000;
+   public static final double DEFAULT_RECONNECT_BACKOFF_MULTIPLIER = 2;
+   public static final boolean DEFAULT_RECONNECT_JITTER = true;
+   public static final int DEFAULT_STALL_TIMEOUT = 0;
+   public static final int DEFAULT_PROBE_INTERVAL = 1000;
+   public static final boolean DEFAULT_RECONNECT_ON_STALL = true;
+   public static final boolean DEFAULT_AUTO_WATCH = false;
+   public static final int DEFAULT_REPORT_INTERVAL = 0;
+   public static final int DEFAULT_POLLING_THRESHOLD = 5000;
 
    private boolean reconnectOnDisconnect = DEFAULT_RECONNECT_ON_DISCONNECT;
    private int connectTimeout = DEFAULT_CONNECT_TIMEOUT;
    private int idleTimeout = DEFAULT_IDLE_TIMEOUT;
    private int reconnectAttempts = DEFAULT_RECONNECT_ATTEMPTS;
    private int reconnectInterval = DEFAULT_RECONNECT_INTERVAL;
+   private int maxReconnectInterval = DEFAULT_MAX_RECONNECT_INTERVAL;
+   private double reconnectBackoffMultiplier = DEFAULT_RECONNECT_BACKOFF_MULTIPLIER;
+   private boolean reconnectJitter = DEFAULT_RECONNECT_JITTER;
+   private int stallTimeout = DEFAULT_STALL_TIMEOUT;
+   private int probeInterval = DEFAULT_PROBE_INTERVAL;
+   private boolean reconnectOnStall = DEFAULT_RECONNECT_ON_STALL;
+   private boolean autoWatch = DEFAULT_AUTO_WATCH;
+   private int reportInterval = DEFAULT_REPORT_INTERVAL;
+   private int pollingThreshold = DEFAULT_POLLING_THRESHOLD;
 
    /**
     * @return Whether to reconnect when the connection to gpsd is lost.
@@ -109,7 +127,8 @@ public class GpsdClientOptions
    }
 
    /**
-    * @return The reconnect interval, in ms.
+    * @return The reconnect interval, in ms. This is the delay before the first reconnect attempt, which is multiplied
+    * by the backoff multiplier after each failed attempt.
     */
    public int getReconnectInterval()
    {
@@ -117,7 +136,8 @@ public class GpsdClientOptions
    }
 
    /**
-    * @param reconnectInterval The reconnect interval, in ms.
+    * @param reconnectInterval The reconnect interval, in ms. This is the delay before the first reconnect attempt,
+    *                          which is multiplied by the backoff multiplier after each failed attempt.
     *
     * @return a reference to this, so the API can be used fluently
     */
@@ -126,4 +146,194 @@ public class GpsdClientOptions
       this.reconnectInterval = reconnectInterval;
       return this;
    }
+
+   /**
+    * @return The maximum reconnect interval, in ms. The delay between reconnect attempts never grows beyond it.
+    */
+   public int getMaxReconnectInterval()
+   {
+      return maxReconnectInterval;
+   }
+
+   /**
+    * @param maxReconnectInterval The maximum reconnect interval, in ms. The delay between reconnect attempts never
+    *                             grows beyond it.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setMaxReconnectInterval(int maxReconnectInterval)
+   {
+      this.maxReconnectInterval = maxReconnectInterval;
+      return this;
+   }
+
+   /**
+    * @return The factor by which the reconnect interval grows after each failed attempt. 1 means a fixed interval.
+    */
+   public double getReconnectBackoffMultiplier()
+   {
+      return reconnectBackoffMultiplier;
+   }
+
+   /**
+    * @param reconnectBackoffMultiplier The factor by which the reconnect interval grows after each failed attempt. 1
+    *                                   means a fixed interval.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setReconnectBackoffMultiplier(double reconnectBackoffMultiplier)
+   {
+      this.reconnectBackoffMultiplier = reconnectBackoffMultiplier;
+      return this;
+   }
+
+   /**
+    * @return Whether to wait a random time between zero and the current reconnect interval, instead of the whole
+    * interval. This spreads the reconnect attempts of many clients that lost their connection at the same time.
+    */
+   public boolean getReconnectJitter()
+   {
+      return reconnectJitter;
+   }
+
+   /**
+    * @param reconnectJitter Whether to wait a random time between zero and the current reconnect interval, instead of
+    *                        the whole interval. This spreads the reconnect attempts of many clients that lost their
+    *                        connection at the same time.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setReconnectJitter(boolean reconnectJitter)
+   {
+      this.reconnectJitter = reconnectJitter;
+      return this;
+   }
+
+   /**
+    * @return The stall timeout, in ms. Zero means stall detection is disabled. A device is considered stalled if it has
+    * not reported anything within the timeout, and the connection is considered stalled if nothing at all has been
+    * received within the timeout, including responses to liveness probes.
+    */
+   public int getStallTimeout()
+   {
+      return stallTimeout;
+   }
+
+   /**
+    * @param stallTimeout The stall timeout, in ms. Zero means stall detection is disabled. A device is considered
+    *                     stalled if it has not reported anything within the timeout, and the connection is considered
+    *                     stalled if nothing at all has been received within the timeout, including responses to
+    *                     liveness probes.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setStallTimeout(int stallTimeout)
+   {
+      this.stallTimeout = stallTimeout;
+      return this;
+   }
+
+   /**
+    * @return The interval between liveness probes (POLL commands), in ms. Zero means no probes are sent. Probes are
+    * only sent if stall detection is enabled.
+    */
+   public int getProbeInterval()
+   {
+      return probeInterval;
+   }
+
+   /**
+    * @param probeInterval The interval between liveness probes (POLL commands), in ms. Zero means no probes are sent.
+    *                      Probes are only sent if stall detection is enabled.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setProbeInterval(int probeInterval)
+   {
+      this.probeInterval = probeInterval;
+      return this;
+   }
+
+   /**
+    * @return Whether to drop the connection and reconnect when the connection is stalled.
+    */
+   public boolean getReconnectOnStall()
+   {
+      return reconnectOnStall;
+   }
+
+   /**
+    * @param reconnectOnStall Whether to drop the connection and reconnect when the connection is stalled.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setReconnectOnStall(boolean reconnectOnStall)
+   {
+      this.reconnectOnStall = reconnectOnStall;
+      return this;
+   }
+
+   /**
+    * @return Whether to enable watch mode only while there are handlers for reports, and only for the devices they
+    * were added for.
+    */
+   public boolean getAutoWatch()
+   {
+      return autoWatch;
+   }
+
+   /**
+    * @param autoWatch Whether to enable watch mode only while there are handlers for reports, and only for the devices
+    *                  they were added for.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setAutoWatch(boolean autoWatch)
+   {
+      this.autoWatch = autoWatch;
+      return this;
+   }
+
+   /**
+    * @return The interval at which reports are needed, in ms. Zero means every report gpsd produces. If the interval is
+    * at least the polling threshold, the client polls gpsd at that interval instead of streaming every report.
+    */
+   public int getReportInterval()
+   {
+      return reportInterval;
+   }
+
+   /**
+    * @param reportInterval The interval at which reports are needed, in ms. Zero means every report gpsd produces. If
+    *                       the interval is at least the polling threshold, the client polls gpsd at that interval
+    *                       instead of streaming every report.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setReportInterval(int reportInterval)
+   {
+      this.reportInterval = reportInterval;
+      return this;
+   }
+
+   /**
+    * @return The shortest report interval, in ms, at which the client polls instead of streaming. For shorter
+    * intervals, streaming every report is cheaper than polling.
+    */
+   public int getPollingThreshold()
+   {
+      return pollingThreshold;
+   }
+
+   /**
+    * @param pollingThreshold The shortest report interval, in ms, at which the client polls instead of streaming. For
+    *                         shorter intervals, streaming every report is cheaper than polling.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdClientOptions setPollingThreshold(int pollingThreshold)
+   {
+      this.pollingThreshold = pollingThreshold;
+      return this;
+   }
 }
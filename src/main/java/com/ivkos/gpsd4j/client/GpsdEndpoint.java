@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import io.vertx.core.net.SocketAddress;
+
+import java.util.Objects;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Represents the address of a gpsd server. A server can be reached either over TCP or over a Unix domain socket, when
+ * gpsd runs on the same host as the client.
+ */
+public final class GpsdEndpoint
+{
+   /**
+    * The default port gpsd listens on
+    */
+   public static final int DEFAULT_PORT = 2947;
+
+   /**
+    * The default path of the Unix domain socket gpsd listens on
+    */
+   public static final String DEFAULT_SOCKET_PATH = "/var/run/gpsd.sock";
+
+   private final String host;
+   private final int port;
+   private final String path;
+
+   private GpsdEndpoint(String host, int port, String path)
+   {
+      this.host = host;
+      this.port = port;
+      this.path = path;
+   }
+
+   /**
+    * Creates an endpoint for a gpsd server reachable over TCP
+    *
+    * @param host the gpsd server's hostname
+    * @param port the gpsd server's port
+    *
+    * @return the endpoint
+    *
+    * @throws NullPointerException if {@code host} is null
+    */
+   public static GpsdEndpoint tcp(String host, int port)
+   {
+      return new GpsdEndpoint(requireNonNull(host, "host must not be null"), port, null);
+   }
+
+   /**
+    * Creates an endpoint for a gpsd server reachable over a Unix domain socket.
+    * <p>
+    * Domain sockets require Vert.x's native transport, so {@code io.netty:netty-transport-native-epoll} must be
+    * present on the classpath.
+    *
+    * @param path the path of the socket, e.g. {@value #DEFAULT_SOCKET_PATH}
+    *
+    * @return the endpoint
+    *
+    * @throws NullPointerException if {@code path} is null
+    */
+   public static GpsdEndpoint domainSocket(String path)
+   {
+      return new GpsdEndpoint(null, -1, requireNonNull(path, "path must not be null"));
+   }
+
+   /**
+    * @return true if this endpoint is a Unix domain socket, false if it is a TCP endpoint
+    */
+   public boolean isDomainSocket()
+   {
+      return path != null;
+   }
+
+   /**
+    * @return the hostname of a TCP endpoint, or null for a domain socket
+    */
+   public String getHost()
+   {
+      return host;
+   }
+
+   /**
+    * @return the port of a TCP endpoint, or -1 for a domain socket
+    */
+   public int getPort()
+   {
+      return port;
+   }
+
+   /**
+    * @return the path of a domain socket, or null for a TCP endpoint
+    */
+   public String getPath()
+   {
+      return path;
+   }
+
+   SocketAddress toSocketAddress()
+   {
+      return isDomainSocket()
+            ? SocketAddress.domainSocketAddress(path)
+            : SocketAddress.inetSocketAddress(port, host);
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {
+      if (this == o) return true;
+      if (o == null || getClass() != o.getClass()) return false;
+
+      GpsdEndpoint that = (GpsdEndpoint) o;
+      return port == that.port && Objects.equals(host, that.host) && Objects.equals(path, that.path);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return Objects.hash(host, port, path);
+   }
+
+   @Override
+   public String toString()
+   {
+      return isDomainSocket() ? "unix:" + path : host + ":" + port;
+   }
+}
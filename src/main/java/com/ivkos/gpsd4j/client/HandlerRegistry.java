@@ -0,0 +1,166 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.DeviceReport;
+import com.ivkos.gpsd4j.messages.GpsdCommandMessage;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.getClassHierarchy;
+import static java.util.Collections.emptyList;
+import static java.util.Collections.emptySet;
+
+/**
+ * Keeps the message handlers of a client, keyed by the type of message they were registered for.
+ * <p>
+ * Handlers are added and removed far less often than messages are dispatched, so each list of handlers is
+ * copy-on-write. This allows dispatching without locking, and allows handlers to remove themselves while being
+ * executed.
+ */
+class HandlerRegistry
+{
+   private final Map<Class<? extends GpsdMessage>, List<Consumer<GpsdMessage>>> handlers = new ConcurrentHashMap<>();
+
+   @SuppressWarnings("unchecked")
+   <T extends GpsdMessage> void add(Class<T> messageType, Consumer<T> handler)
+   {
+      this.handlers
+            .computeIfAbsent(messageType, __ -> new CopyOnWriteArrayList<>())
+            .add((Consumer<GpsdMessage>) handler);
+   }
+
+   /**
+    * Adds a handler that only handles messages from one device. Messages that do not come from a device are not
+    * passed to it.
+    */
+   <T extends GpsdMessage> void add(Class<T> messageType, String device, Consumer<T> handler)
+   {
+      this.handlers
+            .computeIfAbsent(messageType, __ -> new CopyOnWriteArrayList<>())
+            .add(new DeviceFilter<>(device, handler));
+   }
+
+   <T extends GpsdMessage> boolean remove(Class<T> messageType, Consumer<T> handler)
+   {
+      return remove(this.handlers.getOrDefault(messageType, emptyList()), handler);
+   }
+
+   <T extends GpsdMessage> boolean remove(Consumer<T> handler)
+   {
+      boolean removed = false;
+
+      for (List<Consumer<GpsdMessage>> consumersList : this.handlers.values()) {
+         if (remove(consumersList, handler)) {
+            removed = true;
+         }
+      }
+
+      return removed;
+   }
+
+   /**
+    * Returns the devices whose reports are handled by at least one handler.
+    *
+    * @return null if no handler handles reports, an empty set if some handler handles reports from all devices, or
+    * otherwise the devices that handlers were added for
+    */
+   Set<String> subscribedDevices()
+   {
+      Set<String> devices = null;
+
+      for (Map.Entry<Class<? extends GpsdMessage>, List<Consumer<GpsdMessage>>> entry : this.handlers.entrySet()) {
+         if (!isReportType(entry.getKey())) continue;
+
+         for (Consumer<GpsdMessage> handler : entry.getValue()) {
+            if (!(handler instanceof DeviceFilter)) return emptySet();
+
+            if (devices == null) devices = new TreeSet<>();
+            devices.add(((DeviceFilter<?>) handler).device);
+         }
+      }
+
+      return devices;
+   }
+
+   /**
+    * Passes each handler that should handle the message to the action, from the handlers registered for the most
+    * concrete type of the message to the ones registered for the most abstract type.
+    *
+    * @param message the message
+    * @param action  the action to perform on each handler
+    */
+   void forEachHandler(GpsdMessage message, Consumer<Consumer<GpsdMessage>> action)
+   {
+      for (Class<?> clazz : getClassHierarchy(message)) {
+         List<Consumer<GpsdMessage>> list = this.handlers.get(clazz);
+         if (list == null) continue;
+
+         for (Consumer<GpsdMessage> handler : list) {
+            action.accept(handler);
+         }
+      }
+   }
+
+   /**
+    * Removes the first occurrence of the handler, whether it was added for all devices or for a single one.
+    */
+   private static boolean remove(List<Consumer<GpsdMessage>> list, Consumer<?> handler)
+   {
+      for (Consumer<GpsdMessage> element : list) {
+         if (element == handler || element instanceof DeviceFilter && ((DeviceFilter<?>) element).handler == handler) {
+            return list.remove(element);
+         }
+      }
+
+      return false;
+   }
+
+   /**
+    * @return true if handlers for this type receive reports, i.e. messages that are only streamed in watch mode
+    */
+   private static boolean isReportType(Class<?> messageType)
+   {
+      return messageType == GpsdMessage.class ||
+            DeviceReport.class.isAssignableFrom(messageType) && !GpsdCommandMessage.class.isAssignableFrom(messageType);
+   }
+
+   private static final class DeviceFilter<T extends GpsdMessage> implements Consumer<GpsdMessage>
+   {
+      private final String device;
+      private final Consumer<T> handler;
+
+      DeviceFilter(String device, Consumer<T> handler)
+      {
+         this.device = device;
+         this.handler = handler;
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      public void accept(GpsdMessage message)
+      {
+         if (message instanceof DeviceReport && device.equals(((DeviceReport) message).getDevice())) {
+            handler.accept((T) message);
+         }
+      }
+   }
+}
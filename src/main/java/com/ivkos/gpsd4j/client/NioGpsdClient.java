@@ -0,0 +1,650 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.*;
+import com.ivkos.gpsd4j.support.GpsdParseException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A lightweight gpsd client that does not depend on the Vert.x runtime. It is built on a single non-blocking {@link
+ * SocketChannel} that is serviced by one thread, which makes it suitable for constrained devices where the footprint of
+ * event loops, worker pools and Netty is undesirable.
+ * <p>
+ * The API mirrors that of {@link GpsdClient}. The main difference is that handlers are executed on the client's I/O
+ * thread, in the order the messages were received, rather than on a worker pool. Handlers should therefore return
+ * quickly and must not block, or they will delay the processing of subsequent messages.
+ * <p>
+ * Only TCP endpoints are supported, since Java 8 NIO has no support for Unix domain sockets.
+ */
+public class NioGpsdClient
+{
+   private static final Logger log = LoggerFactory.getLogger(NioGpsdClient.class);
+
+   private static final int BUFFER_SIZE = 4 * 1024;
+
+   private static final ByteBuffer[] EMPTY = new ByteBuffer[0];
+
+   private final HandlerRegistry handlers = new HandlerRegistry();
+   private final PendingResponses pendingResponses = new PendingResponses();
+
+   private final Queue<ByteBuffer> pendingWrites = new ConcurrentLinkedQueue<>();
+   private final ArrayDeque<ByteBuffer> inflightWrites = new ArrayDeque<>();
+
+   private final GpsdEndpoint endpoint;
+   private final GpsdClientOptions options;
+   private final ReconnectBackoff backoff;
+
+   // a heap buffer, so complete lines can be decoded straight from its backing array
+   private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+   // holds the start of a line that has not been terminated by the end of a read
+   private byte[] partialLine = new byte[BUFFER_SIZE];
+   private int partialLength = 0;
+
+   private volatile boolean running = false;
+   private volatile boolean connected = false;
+
+   private volatile Thread ioThread;
+   private volatile Selector selector;
+   private SocketChannel channel;
+   private volatile Consumer<NioGpsdClient> successfulConnectionHandler = __ -> {};
+
+   /**
+    * Creates a new instance
+    *
+    * @param serverHost the gpsd server's hostname
+    * @param serverPort the gpsd server's port
+    * @param options    options for the client
+    *
+    * @throws NullPointerException if serverHost or options is null
+    */
+   public NioGpsdClient(String serverHost, int serverPort, GpsdClientOptions options)
+   {
+      this(GpsdEndpoint.tcp(serverHost, serverPort), options);
+   }
+
+   /**
+    * Creates a new instance
+    *
+    * @param serverHost the gpsd server's hostname
+    * @param serverPort the gpsd server's port
+    */
+   public NioGpsdClient(String serverHost, int serverPort)
+   {
+      this(serverHost, serverPort, new GpsdClientOptions());
+   }
+
+   /**
+    * Creates a new instance
+    *
+    * @param endpoint the gpsd server's endpoint, must be a TCP endpoint
+    * @param options  options for the client
+    *
+    * @throws NullPointerException     if endpoint or options is null
+    * @throws IllegalArgumentException if endpoint is a Unix domain socket
+    */
+   public NioGpsdClient(GpsdEndpoint endpoint, GpsdClientOptions options)
+   {
+      this.endpoint = requireNonNull(endpoint, "endpoint must not be null");
+      this.options = requireNonNull(options, "options must not be null");
+      this.backoff = new ReconnectBackoff(options);
+
+      if (endpoint.isDomainSocket()) {
+         throw new IllegalArgumentException("Unix domain sockets are not supported by " + getClass().getSimpleName());
+      }
+   }
+
+   /**
+    * Starts the client. The client connects to the gpsd server on its own I/O thread, so this method returns
+    * immediately.
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if start() is called and the client is already running
+    */
+   public synchronized NioGpsdClient start()
+   {
+      if (running) throw new IllegalStateException("Client is already running");
+
+      this.running = true;
+
+      this.ioThread = new Thread(this::run, "gpsd4j-nio-" + endpoint);
+      this.ioThread.start();
+
+      return this;
+   }
+
+   /**
+    * Sends a raw command to the gpsd server in the form of a string.
+    * <p>
+    * Commands are queued and written by the I/O thread, which coalesces all queued commands into a single write.
+    *
+    * @param rawCommand the command
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not connected
+    * @throws NullPointerException  if {@code rawCommand} is null
+    */
+   public NioGpsdClient sendCommand(String rawCommand)
+   {
+      requireNonNull(rawCommand, "rawCommand must not be null");
+
+      return this.enqueue(CommandEncoder.encode(rawCommand));
+   }
+
+   /**
+    * Sends a command to the server.
+    *
+    * @param command the command to send
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not connected
+    * @throws NullPointerException  if {@code command} is null
+    */
+   public NioGpsdClient sendCommand(GpsdCommandMessage command)
+   {
+      requireNonNull(command, "command must not be null");
+
+      return this.enqueue(CommandEncoder.encode(command));
+   }
+
+   /**
+    * Sends a command to the gpsd server and binds a handler that will be executed exactly once when the server
+    * responds to the command. Commands can be pipelined, see {@link GpsdClient#sendCommand(GpsdCommandMessage,
+    * Consumer)}.
+    *
+    * @param command         the command to send
+    * @param responseHandler the handler for the server's response to the command
+    * @param <T>             the type of the command and the response
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not connected
+    * @throws NullPointerException  if {@code command} or {@code responseHandler} is null
+    */
+   public <T extends GpsdCommandMessage> NioGpsdClient sendCommand(T command, Consumer<T> responseHandler)
+   {
+      requireNonNull(command, "command must not be null");
+      requireNonNull(responseHandler, "responseHandler must not be null");
+
+      if (!connected) throw new IllegalStateException("Client is not connected");
+
+      byte[] encoded = CommandEncoder.encode(command);
+
+      // the response handler must be queued in the same order as the command itself
+      synchronized (this.pendingResponses) {
+         this.pendingResponses.expect(command.getClass(), responseHandler);
+         return this.enqueue(encoded);
+      }
+   }
+
+   /**
+    * Sends a WATCH command to the gpsd server to enable/disable watch mode and enable/disable reporting of messages.
+    *
+    * @param enable         whether to enable watch mode
+    * @param reportMessages whether to report
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not connected
+    */
+   public NioGpsdClient watch(boolean enable, boolean reportMessages)
+   {
+      return this.enqueue(CommandEncoder.encodeWatch(enable, reportMessages));
+   }
+
+   /**
+    * Sends a WATCH command to the gpsd server to enable watch mode and start reporting messages.
+    * <p>
+    * The effect of this call is equivalent to that of calling {@link #watch(boolean, boolean) watch(true, true)}.
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalStateException if the client is not connected
+    */
+   public NioGpsdClient watch()
+   {
+      return this.watch(true, true);
+   }
+
+   /**
+    * Adds a handler for a type of messages. See {@link GpsdClient#addHandler(Class, Consumer)}.
+    *
+    * @param messageType the type of the messages to register the handler for
+    * @param handler     the handler that gets passed the message object
+    * @param <T>         the type of the message
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code messageType} or {@code handler} is null
+    */
+   public <T extends GpsdMessage> NioGpsdClient addHandler(Class<T> messageType, Consumer<T> handler)
+   {
+      requireNonNull(messageType, "messageType must not be null");
+      requireNonNull(handler, "handler must not be null");
+
+      this.handlers.add(messageType, handler);
+
+      return this;
+   }
+
+   /**
+    * Adds a generic handler that handles all types of gpsd messages, including ERRORs.
+    *
+    * @param handler the handler that gets passed an object of subtype of {@link GpsdMessage}
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public NioGpsdClient addHandler(Consumer<GpsdMessage> handler)
+   {
+      return this.addHandler(GpsdMessage.class, handler);
+   }
+
+   /**
+    * Adds a handler that handles gpsd ERROR messages ({@link ErrorMessage}).
+    *
+    * @param handler the handler that gets passed an {@link ErrorMessage} object
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public NioGpsdClient addErrorHandler(Consumer<ErrorMessage> handler)
+   {
+      return this.addHandler(ErrorMessage.class, handler);
+   }
+
+   /**
+    * Sets a handler that is executed upon successful connection the gpsd server, including reconnections. See {@link
+    * GpsdClient#setSuccessfulConnectionHandler(Consumer)}.
+    *
+    * @param handler the handler
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public NioGpsdClient setSuccessfulConnectionHandler(Consumer<NioGpsdClient> handler)
+   {
+      this.successfulConnectionHandler = requireNonNull(handler, "handler must not be null");
+      return this;
+   }
+
+   /**
+    * Removes the successful connection handler.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public NioGpsdClient removeSuccessfulConnectionHandler()
+   {
+      return this.setSuccessfulConnectionHandler(__ -> {});
+   }
+
+   /**
+    * Removes the handler from the message type (a subtype of {@link GpsdMessage}) it was registered for.
+    *
+    * @param messageType the message type the handler was registered for
+    * @param handler     the handler to remove
+    * @param <T>         the type of the message
+    *
+    * @return <tt>true</tt> if the handler was removed, or <tt>false</tt> if it has not been registered for this message
+    * type before
+    *
+    * @throws NullPointerException if {@code messageType} or {@code handler} is null
+    */
+   public <T extends GpsdMessage> boolean removeHandler(Class<T> messageType, Consumer<T> handler)
+   {
+      requireNonNull(messageType, "messageType must not be null");
+      requireNonNull(handler, "handler must not be null");
+
+      return this.handlers.remove(messageType, handler);
+   }
+
+   /**
+    * Removes the handler from all types of messages it was registered for.
+    *
+    * @param handler the handler to remove
+    * @param <T>     the type of the message
+    *
+    * @return <tt>true</tt> if the handler was removed, or <tt>false</tt> if it has not been registered before
+    *
+    * @throws NullPointerException if {@code handler} is null
+    */
+   public <T extends GpsdMessage> boolean removeHandler(Consumer<T> handler)
+   {
+      requireNonNull(handler, "handler must not be null");
+
+      return this.handlers.remove(handler);
+   }
+
+   /**
+    * Shuts down the client and waits for its I/O thread to terminate.
+    */
+   public void stop()
+   {
+      Thread thread;
+
+      synchronized (this) {
+         if (!running) return;
+
+         this.running = false;
+         thread = this.ioThread;
+         this.ioThread = null;
+      }
+
+      log.info("Client is shutting down...");
+
+      Selector currentSelector = this.selector;
+      if (currentSelector != null) currentSelector.wakeup();
+
+      if (thread != null && thread != Thread.currentThread()) {
+         thread.interrupt();
+
+         try {
+            thread.join();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }
+      }
+   }
+
+   private void run()
+   {
+      try (Selector sel = Selector.open()) {
+         this.selector = sel;
+
+         boolean reconnecting = false;
+
+         while (running) {
+            if (!connectToGpsd(reconnecting)) {
+               if (running) log.error("Connection to gpsd server {} failed", endpoint);
+               break;
+            }
+
+            try {
+               serviceConnection();
+            } catch (IOException e) {
+               if (running) log.warn("I/O error on connection to gpsd server " + endpoint, e);
+            } finally {
+               closeChannel();
+            }
+
+            if (!running) break;
+
+            if (!options.getReconnectOnDisconnect()) {
+               log.info("Disconnected from gpsd server {}", endpoint);
+               break;
+            }
+
+            log.warn("Disconnected from gpsd server {}. Will now try to reconnect...", endpoint);
+            reconnecting = true;
+         }
+      } catch (IOException e) {
+         log.error("Could not open selector", e);
+      } finally {
+         this.selector = null;
+         this.running = false;
+      }
+   }
+
+   private boolean connectToGpsd(boolean reconnecting)
+   {
+      if (reconnecting && !backOff(0)) return false;
+
+      for (int attempt = 0; running; attempt++) {
+         log.info("Connecting to gpsd server {}...", endpoint);
+
+         try {
+            if (tryConnect()) {
+               onConnected();
+               return true;
+            }
+
+            log.warn("Timed out connecting to gpsd server {}", endpoint);
+         } catch (IOException e) {
+            log.warn(format("Could not connect to gpsd server %s", endpoint), e);
+         }
+
+         closeChannel();
+
+         if (attempt >= options.getReconnectAttempts()) return false;
+         if (!backOff(attempt + 1)) return false;
+      }
+
+      return false;
+   }
+
+   private boolean backOff(int failedAttempts)
+   {
+      long delay = backoff.delay(failedAttempts);
+      log.debug("Reconnecting to gpsd server {} in {} ms", endpoint, delay);
+
+      try {
+         Thread.sleep(delay);
+         return true;
+      } catch (InterruptedException e) {
+         return false;
+      }
+   }
+
+   private boolean tryConnect() throws IOException
+   {
+      this.channel = SocketChannel.open();
+      this.channel.configureBlocking(false);
+      this.channel.socket().setReceiveBufferSize(BUFFER_SIZE);
+
+      if (!this.channel.connect(new InetSocketAddress(endpoint.getHost(), endpoint.getPort()))) {
+         SelectionKey key = this.channel.register(selector, SelectionKey.OP_CONNECT);
+
+         long deadline = System.currentTimeMillis() + options.getConnectTimeout();
+         while (running && !this.channel.finishConnect()) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+
+            selector.select(remaining);
+            selector.selectedKeys().clear();
+         }
+
+         key.interestOps(0);
+      }
+
+      return running;
+   }
+
+   private void onConnected()
+   {
+      this.pendingWrites.clear();
+      this.inflightWrites.clear();
+      this.pendingResponses.clear();
+      this.partialLength = 0;
+      this.connected = true;
+
+      log.info("Successfully connected to gpsd server {}", endpoint);
+
+      this.executeHandler(this.successfulConnectionHandler, this);
+   }
+
+   private void serviceConnection() throws IOException
+   {
+      SelectionKey key = this.channel.register(selector, SelectionKey.OP_READ);
+
+      long idleTimeoutMillis = options.getIdleTimeout() * 1000L;
+      long lastReadAt = System.currentTimeMillis();
+
+      while (running) {
+         flushPendingWrites(key);
+
+         selector.select(idleTimeoutMillis > 0 ? idleTimeoutMillis : 0);
+         selector.selectedKeys().clear();
+
+         if (!running) return;
+
+         if (key.isValid() && key.isWritable()) flushPendingWrites(key);
+
+         if (key.isValid() && key.isReadable()) {
+            if (!readAvailable()) return;
+            lastReadAt = System.currentTimeMillis();
+         } else if (idleTimeoutMillis > 0 && System.currentTimeMillis() - lastReadAt >= idleTimeoutMillis) {
+            log.warn("No data received from gpsd server {} for {} s", endpoint, options.getIdleTimeout());
+            return;
+         }
+      }
+   }
+
+   private NioGpsdClient enqueue(byte[] command)
+   {
+      if (!connected) throw new IllegalStateException("Client is not connected");
+
+      this.pendingWrites.add(ByteBuffer.wrap(command));
+      if (log.isDebugEnabled()) log.debug("Queued: {}", new String(command, UTF_8));
+
+      Selector currentSelector = this.selector;
+      if (currentSelector != null && Thread.currentThread() != ioThread) currentSelector.wakeup();
+
+      return this;
+   }
+
+   private void flushPendingWrites(SelectionKey key) throws IOException
+   {
+      ByteBuffer buf;
+      while ((buf = pendingWrites.poll()) != null) inflightWrites.add(buf);
+
+      if (!inflightWrites.isEmpty()) {
+         // a single gathering write for everything queued since the last flush
+         long written = channel.write(inflightWrites.toArray(EMPTY));
+         log.debug("Wrote {} bytes", written);
+
+         while (!inflightWrites.isEmpty() && !inflightWrites.peek().hasRemaining()) inflightWrites.poll();
+      }
+
+      // if the socket buffer is full, wait until it becomes writable
+      key.interestOps(inflightWrites.isEmpty()
+            ? SelectionKey.OP_READ
+            : SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+   }
+
+   /**
+    * Reads whatever is available from the channel and handles each complete line. Lines that fit in the read buffer
+    * are decoded directly from it; only the unterminated tail of a read is copied, so it can be joined with the next.
+    *
+    * @return false if the server closed the connection
+    */
+   private boolean readAvailable() throws IOException
+   {
+      byte[] bytes = readBuffer.array();
+
+      int read;
+      while ((read = channel.read(readBuffer)) > 0) {
+         int limit = readBuffer.position();
+         int lineStart = 0;
+
+         for (int i = 0; i < limit; i++) {
+            byte b = bytes[i];
+            if (b != '\n' && b != '\r') continue;
+
+            if (partialLength > 0) {
+               appendPartial(bytes, lineStart, i - lineStart);
+               handleJsonString(new String(partialLine, 0, partialLength, UTF_8));
+               partialLength = 0;
+            } else if (i > lineStart) {
+               handleJsonString(new String(bytes, lineStart, i - lineStart, UTF_8));
+            }
+
+            lineStart = i + 1;
+         }
+
+         if (lineStart < limit) appendPartial(bytes, lineStart, limit - lineStart);
+
+         readBuffer.clear();
+      }
+
+      return read >= 0;
+   }
+
+   private void appendPartial(byte[] bytes, int offset, int length)
+   {
+      if (partialLength + length > partialLine.length) {
+         partialLine = Arrays.copyOf(partialLine, Math.max(partialLine.length * 2, partialLength + length));
+      }
+
+      System.arraycopy(bytes, offset, partialLine, partialLength, length);
+      partialLength += length;
+   }
+
+   private void handleJsonString(String jsonString)
+   {
+      GpsdMessage obj;
+      try {
+         obj = deserialize(jsonString);
+      } catch (GpsdParseException e) {
+         log.warn("Cannot parse JSON", e);
+         return;
+      }
+
+      Consumer<GpsdMessage> responseHandler = this.pendingResponses.poll(obj);
+      if (responseHandler != null) this.executeHandler(responseHandler, obj);
+
+      this.handlers.forEachHandler(obj, handler -> this.executeHandler(handler, obj));
+   }
+
+   private <T> void executeHandler(Consumer<T> handler, T handlerInput)
+   {
+      try {
+         handler.accept(handlerInput);
+      } catch (Throwable t) {
+         log.error("Exception thrown in handler", t);
+      }
+   }
+
+   private void closeChannel()
+   {
+      this.connected = false;
+
+      if (this.channel == null) return;
+
+      try {
+         this.channel.close();
+      } catch (IOException e) {
+         log.debug("Could not close channel", e);
+      }
+
+      this.channel = null;
+   }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.function.Consumer;
+
+/**
+ * Correlates responses with the commands that were sent to the gpsd server.
+ * <p>
+ * gpsd answers commands in the order it receives them, so the handlers awaiting a response are kept in a FIFO queue
+ * per response type. When a message of that type arrives, it is passed to the handler at the head of the queue. This
+ * allows many commands, including several of the same type, to be in flight at once.
+ */
+class PendingResponses
+{
+   private final Map<Class<?>, Queue<Consumer<GpsdMessage>>> pending = new HashMap<>();
+
+   // allows skipping the lock when nothing is awaited, which is the common case
+   private volatile int size = 0;
+
+   @SuppressWarnings("unchecked")
+   synchronized void expect(Class<?> responseType, Consumer<?> handler)
+   {
+      pending.computeIfAbsent(responseType, __ -> new ArrayDeque<>()).add((Consumer<GpsdMessage>) handler);
+      size++;
+   }
+
+   /**
+    * @param message a message received from the server
+    *
+    * @return the handler awaiting this message, or null if there is none
+    */
+   Consumer<GpsdMessage> poll(GpsdMessage message)
+   {
+      if (size == 0) return null;
+
+      synchronized (this) {
+         Queue<Consumer<GpsdMessage>> queue = pending.get(message.getClass());
+         if (queue == null) return null;
+
+         Consumer<GpsdMessage> handler = queue.poll();
+         if (handler != null) size--;
+
+         return handler;
+      }
+   }
+
+   /**
+    * Forgets about all awaited responses, e.g. when the connection is lost and they will never arrive.
+    *
+    * @return the number of responses that were awaited
+    */
+   synchronized int clear()
+   {
+      int cleared = size;
+
+      pending.clear();
+      size = 0;
+
+      return cleared;
+   }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Passes messages through the processing stages of a client, and then to its handlers.
+ * <p>
+ * Like the handlers, the stages change far less often than messages are passed through them, so the chain of stages
+ * is rebuilt on each change and replaced as a whole. Passing a message through it neither locks nor allocates.
+ */
+class ProcessingPipeline implements Consumer<GpsdMessage>
+{
+   private static final Logger log = LoggerFactory.getLogger(ProcessingPipeline.class);
+
+   private final List<ProcessingStage> stages = new ArrayList<>();
+   private final Consumer<GpsdMessage> handlers;
+   private volatile Consumer<GpsdMessage> head;
+
+   ProcessingPipeline(Consumer<GpsdMessage> handlers)
+   {
+      this.handlers = handlers;
+      this.head = handlers;
+   }
+
+   synchronized void add(ProcessingStage stage)
+   {
+      this.stages.add(stage);
+      this.rebuild();
+   }
+
+   synchronized boolean remove(ProcessingStage stage)
+   {
+      boolean removed = this.stages.remove(stage);
+      if (removed) this.rebuild();
+
+      return removed;
+   }
+
+   @Override
+   public void accept(GpsdMessage message)
+   {
+      this.head.accept(message);
+   }
+
+   private void rebuild()
+   {
+      Consumer<GpsdMessage> next = this.handlers;
+      for (int i = this.stages.size() - 1; i >= 0; i--) next = new Link(this.stages.get(i), next);
+
+      this.head = next;
+   }
+
+   private static class Link implements Consumer<GpsdMessage>
+   {
+      private final ProcessingStage stage;
+      private final Consumer<GpsdMessage> next;
+
+      Link(ProcessingStage stage, Consumer<GpsdMessage> next)
+      {
+         this.stage = stage;
+         this.next = next;
+      }
+
+      @Override
+      public void accept(GpsdMessage message)
+      {
+         try {
+            this.stage.process(message, this.next);
+         } catch (Throwable t) {
+            log.error("Exception thrown in processing stage", t);
+         }
+      }
+   }
+}
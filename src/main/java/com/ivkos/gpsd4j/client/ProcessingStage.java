@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+
+import java.util.function.Consumer;
+
+/**
+ * A stage of the processing pipeline of a client. The stages see each message before any handler does, in the order
+ * they were added, and decide what the next stage gets: they can pass the message on, drop it, replace it with
+ * another one, or pass on messages they derive from it.
+ * <p>
+ * The stages of a client are executed one message at a time, so they need no synchronization for the state they
+ * keep, but they must not block, as they hold up all messages after the one being processed.
+ *
+ * @see GpsdClient#addStage(ProcessingStage)
+ */
+@FunctionalInterface
+public interface ProcessingStage
+{
+   /**
+    * Processes a message.
+    *
+    * @param message the message
+    * @param next    passes a message to the next stage, or to the handlers after the last stage
+    */
+   void process(GpsdMessage message, Consumer<GpsdMessage> next);
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Computes the delay before a reconnection attempt. The delay grows exponentially with each failed attempt up to a
+ * cap, and with jitter enabled a random delay between zero and that value is picked, so that many clients which lost
+ * their connection at the same time do not all reconnect at the same time.
+ */
+final class ReconnectBackoff
+{
+   private final long initialInterval;
+   private final long maxInterval;
+   private final double multiplier;
+   private final boolean jitter;
+
+   ReconnectBackoff(GpsdClientOptions options)
+   {
+      this.initialInterval = Math.max(1, options.getReconnectInterval());
+      this.maxInterval = Math.max(initialInterval, options.getMaxReconnectInterval());
+      this.multiplier = Math.max(1, options.getReconnectBackoffMultiplier());
+      this.jitter = options.getReconnectJitter();
+   }
+
+   /**
+    * @param attempt number of consecutive failed attempts so far, starting from 0
+    *
+    * @return the delay before the next attempt, in ms, at least 1
+    */
+   long delay(int attempt)
+   {
+      double ceiling = Math.min(maxInterval, initialInterval * Math.pow(multiplier, attempt));
+      long delay = jitter ? (long) (ThreadLocalRandom.current().nextDouble() * ceiling) : (long) ceiling;
+
+      return Math.max(1, delay);
+   }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Records the lines a {@link GpsdClient} receives from gpsd to a file, so that the session can be played back later
+ * with a {@link SessionReplayer}. The file is only ever appended to. Each line of it holds the time the line was
+ * received, in milliseconds since the epoch, a space, and the JSON exactly as gpsd sent it, e.g.:
+ * <pre>
+ * 1504260000123 {"class":"TPV","device":"/dev/ttyAMA0","mode":3,...}
+ * </pre>
+ * Writes are buffered and flushed at most once a second, so about a second of lines may be lost if the process dies.
+ * Closing the recorder flushes everything.
+ *
+ * @see GpsdClient#setSessionRecorder(SessionRecorder)
+ */
+public class SessionRecorder implements Closeable
+{
+   private static final Logger log = LoggerFactory.getLogger(SessionRecorder.class);
+
+   private static final long FLUSH_INTERVAL = 1000;
+
+   private final Path file;
+   private final BufferedWriter writer;
+   private long lastFlush = System.currentTimeMillis();
+   private long recorded = 0;
+   private boolean closed = false;
+
+   /**
+    * Creates a recorder that appends to a file, creating the file if it does not exist.
+    *
+    * @param file the file to record to
+    *
+    * @throws IOException          if the file cannot be opened
+    * @throws NullPointerException if {@code file} is null
+    */
+   public SessionRecorder(Path file) throws IOException
+   {
+      this.file = requireNonNull(file, "file must not be null");
+      this.writer = Files.newBufferedWriter(file, UTF_8, CREATE, WRITE, APPEND);
+   }
+
+   /**
+    * @return the file the recorder appends to
+    */
+   public Path getFile()
+   {
+      return file;
+   }
+
+   /**
+    * @return the number of lines recorded so far
+    */
+   public synchronized long getRecordedCount()
+   {
+      return recorded;
+   }
+
+   /**
+    * Appends a line received at the given time. Lines received after the recorder was closed are dropped.
+    */
+   synchronized void record(long timestamp, String line)
+   {
+      if (closed) return;
+
+      try {
+         writer.write(Long.toString(timestamp));
+         writer.write(' ');
+         writer.write(line);
+         writer.newLine();
+         recorded++;
+
+         if (timestamp - lastFlush >= FLUSH_INTERVAL) {
+            writer.flush();
+            lastFlush = timestamp;
+         }
+      } catch (IOException e) {
+         log.error(format("Cannot record to %s", file), e);
+      }
+   }
+
+   /**
+    * Flushes the lines recorded so far to the file.
+    *
+    * @throws IOException if writing fails
+    */
+   public synchronized void flush() throws IOException
+   {
+      if (!closed) writer.flush();
+   }
+
+   /**
+    * Flushes and closes the file. Lines received afterwards are no longer recorded.
+    *
+    * @throws IOException if writing fails
+    */
+   @Override
+   public synchronized void close() throws IOException
+   {
+      if (closed) return;
+
+      closed = true;
+      writer.close();
+   }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Plays back a session recorded by a {@link SessionRecorder}. The recorded lines are fed to a {@link GpsdClient} in
+ * place of a connection, so they are decoded and passed to the handlers exactly as if they had been received from
+ * gpsd. This makes it possible to reproduce a session in a test, or to find out how many reports the handlers can keep
+ * up with.
+ * <p>
+ * Lines are played back with the timing they were recorded with, divided by the speed. At the default speed of 1 a
+ * session takes as long as it did when it was recorded, at 10 it takes a tenth of that, and at {@link
+ * #AS_FAST_AS_POSSIBLE} lines are fed as soon as the client has handled the previous ones.
+ * <pre>
+ * long lines = new SessionReplayer(Paths.get("field.gpsd"))
+ *       .setSpeed(10)
+ *       .replay(client);
+ * </pre>
+ */
+public class SessionReplayer
+{
+   /**
+    * The speed at which lines are fed without waiting between them.
+    */
+   public static final double AS_FAST_AS_POSSIBLE = Double.POSITIVE_INFINITY;
+
+   /**
+    * The number of lines after which the replayer waits for the client to handle what it has been fed, so that a fast
+    * replay does not queue up the whole file in memory.
+    */
+   private static final int BATCH_SIZE = 1024;
+
+   private final Path file;
+   private double speed = 1;
+
+   /**
+    * Creates a replayer for a recorded session.
+    *
+    * @param file the file written by a {@link SessionRecorder}
+    *
+    * @throws NullPointerException if {@code file} is null
+    */
+   public SessionReplayer(Path file)
+   {
+      this.file = requireNonNull(file, "file must not be null");
+   }
+
+   /**
+    * @return the speed relative to the recorded timing
+    */
+   public double getSpeed()
+   {
+      return speed;
+   }
+
+   /**
+    * @param speed the speed relative to the recorded timing, e.g. 1 for the recorded timing, 10 for ten times faster,
+    *              or {@link #AS_FAST_AS_POSSIBLE}
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code speed} is not positive
+    */
+   public SessionReplayer setSpeed(double speed)
+   {
+      if (!(speed > 0)) throw new IllegalArgumentException("speed must be positive");
+
+      this.speed = speed;
+      return this;
+   }
+
+   /**
+    * Plays back the session to a client and blocks until all handlers have handled it. The client is started without
+    * connecting to gpsd and is stopped when the playback ends. Commands sent to it in the meantime are dropped, since
+    * there is no server to answer them.
+    *
+    * @param client a client that is not running
+    *
+    * @return the number of lines played back
+    *
+    * @throws IOException           if the file cannot be read or is not a recorded session
+    * @throws InterruptedException  if the thread is interrupted while waiting between lines
+    * @throws IllegalStateException if the client is already running
+    * @throws NullPointerException  if {@code client} is null
+    */
+   public long replay(GpsdClient client) throws IOException, InterruptedException
+   {
+      requireNonNull(client, "client must not be null");
+
+      try (BufferedReader reader = Files.newBufferedReader(file, UTF_8)) {
+         client.startReplay();
+
+         try {
+            return this.feed(reader, client);
+         } finally {
+            client.stopReplay();
+         }
+      }
+   }
+
+   private long feed(BufferedReader reader, GpsdClient client) throws IOException, InterruptedException
+   {
+      long start = System.nanoTime();
+      long firstTimestamp = -1;
+      long count = 0;
+
+      String line;
+      while ((line = reader.readLine()) != null) {
+         if (line.isEmpty()) continue;
+
+         int separator = line.indexOf(' ');
+         long timestamp;
+         try {
+            if (separator <= 0) throw new NumberFormatException("No timestamp");
+            timestamp = Long.parseLong(line.substring(0, separator));
+         } catch (NumberFormatException e) {
+            throw new IOException(format("%s is not a recorded session, malformed line: %s", file, line), e);
+         }
+
+         if (firstTimestamp < 0) firstTimestamp = timestamp;
+
+         if (speed != AS_FAST_AS_POSSIBLE) {
+            long due = start + (long) (TimeUnit.MILLISECONDS.toNanos(timestamp - firstTimestamp) / speed);
+            long wait = due - System.nanoTime();
+            if (wait > 0) TimeUnit.NANOSECONDS.sleep(wait);
+         }
+
+         client.replayLine(line.substring(separator + 1));
+
+         if (++count % BATCH_SIZE == 0) client.awaitHandlers().join();
+      }
+
+      client.awaitHandlers().join();
+
+      return count;
+   }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.DeviceMessage;
+import com.ivkos.gpsd4j.messages.WatchMessage;
+import io.vertx.core.buffer.Buffer;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Holds the session state the client should have on the gpsd server, i.e. the WATCH flags and the settings of each
+ * device, and what has been sent on the current connection. Commands are encoded when the state is set, so that later
+ * changes to the message objects have no effect, and so that redundant commands can be detected by comparing bytes.
+ * <p>
+ * Callers must synchronize on the instance.
+ */
+final class SessionState
+{
+   private byte[] watch;
+   private boolean watchEnabled;
+   private final Map<String, byte[]> devices = new LinkedHashMap<>();
+
+   private byte[] sentWatch;
+   private final Map<String, byte[]> sentDevices = new HashMap<>();
+
+   /**
+    * @return the command to send on the current connection, or null if the same one has already been sent
+    */
+   byte[] setWatch(WatchMessage message)
+   {
+      this.watch = CommandEncoder.encode(message);
+      this.watchEnabled = message.isEnabled();
+
+      if (Arrays.equals(this.watch, this.sentWatch)) return null;
+
+      this.sentWatch = this.watch;
+      return this.watch;
+   }
+
+   /**
+    * @return the command to send on the current connection, or null if the same one has already been sent
+    */
+   byte[] setDevice(DeviceMessage message)
+   {
+      String path = message.getPath();
+      byte[] command = CommandEncoder.encode(message);
+
+      this.devices.put(path, command);
+
+      if (Arrays.equals(command, this.sentDevices.get(path))) return null;
+
+      this.sentDevices.put(path, command);
+      return command;
+   }
+
+   void removeDevice(String path)
+   {
+      this.devices.remove(path);
+      this.sentDevices.remove(path);
+   }
+
+   /**
+    * Builds the commands that restore the session on a new connection: first the settings of each device, so that
+    * reports are produced with them right away, and then WATCH. A WATCH that does not enable watching is skipped,
+    * since that is what a new connection starts with anyway.
+    *
+    * @return the commands to write, possibly empty
+    */
+   Buffer replay()
+   {
+      this.sentDevices.clear();
+      this.sentWatch = null;
+
+      Buffer batch = Buffer.buffer();
+
+      for (Map.Entry<String, byte[]> device : this.devices.entrySet()) {
+         batch.appendBytes(device.getValue());
+         this.sentDevices.put(device.getKey(), device.getValue());
+      }
+
+      if (this.watch != null && this.watchEnabled) {
+         batch.appendBytes(this.watch);
+         this.sentWatch = this.watch;
+      }
+
+      return batch;
+   }
+}
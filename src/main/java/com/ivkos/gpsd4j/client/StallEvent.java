@@ -0,0 +1,76 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+/**
+ * Describes a stall detected by the client's watchdog: either a device that stopped reporting, or a connection on which
+ * nothing is received anymore, not even responses to liveness probes.
+ *
+ * @see GpsdClientOptions#setStallTimeout(int)
+ */
+public final class StallEvent
+{
+   private final String device;
+   private final long silentFor;
+   private final long lastProbeLatency;
+
+   StallEvent(String device, long silentFor, long lastProbeLatency)
+   {
+      this.device = device;
+      this.silentFor = silentFor;
+      this.lastProbeLatency = lastProbeLatency;
+   }
+
+   /**
+    * @return true if the whole connection is stalled, false if a single device is
+    */
+   public boolean isConnectionStall()
+   {
+      return device == null;
+   }
+
+   /**
+    * @return Name of the stalled device, or null if the whole connection is stalled
+    */
+   public String getDevice()
+   {
+      return device;
+   }
+
+   /**
+    * @return Time since the last message from the device or on the connection, in ms
+    */
+   public long getSilentFor()
+   {
+      return silentFor;
+   }
+
+   /**
+    * @return Round-trip latency of the last answered liveness probe, in µs, or -1 if none has been answered yet
+    */
+   public long getLastProbeLatency()
+   {
+      return lastProbeLatency;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "StallEvent(device=" + device + ", silentFor=" + silentFor +
+            ", lastProbeLatency=" + lastProbeLatency + ")";
+   }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.DeviceMessage;
+import com.ivkos.gpsd4j.messages.DeviceReport;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.PollMessage;
+import io.vertx.core.Vertx;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * Detects stalled devices and connections much sooner than the idle timeout would.
+ * <p>
+ * The watchdog keeps the time of the last message received on the connection and from each device. While connected,
+ * it periodically sends POLL commands as liveness probes, so that a healthy gpsd always has something to answer with,
+ * even when its devices have gone quiet. A device that reports nothing within the stall timeout is reported as
+ * stalled, and so is the connection if nothing at all is received within the timeout.
+ * <p>
+ * Apart from the round-trip latency, all state is only accessed from the event loop of the connection.
+ */
+class StallWatchdog
+{
+   private static final Logger log = LoggerFactory.getLogger(StallWatchdog.class);
+
+   private static final long MIN_CHECK_PERIOD = 10;
+
+   private final GpsdClient client;
+   private final GpsdClientOptions options;
+
+   private final Map<String, Long> lastSeenByDevice = new HashMap<>();
+   private final Set<String> stalledDevices = new HashSet<>();
+
+   private Vertx vertx;
+   private long checkTimerId = -1;
+   private long probeTimerId = -1;
+
+   private long lastMessageAt;
+   private boolean connectionStalled;
+   private Probe probeInFlight;
+
+   private volatile long lastProbeLatency = -1;
+
+   StallWatchdog(GpsdClient client, GpsdClientOptions options)
+   {
+      this.client = client;
+      this.options = options;
+   }
+
+   /**
+    * Starts watching a newly established connection. Must be called from the connection's event loop.
+    */
+   void start(Vertx vertx)
+   {
+      if (options.getStallTimeout() <= 0) return;
+
+      this.vertx = vertx;
+      this.lastMessageAt = now();
+      this.connectionStalled = false;
+      this.probeInFlight = null;
+      this.lastSeenByDevice.clear();
+      this.stalledDevices.clear();
+
+      long checkPeriod = Math.max(options.getStallTimeout() / 4, MIN_CHECK_PERIOD);
+      this.checkTimerId = vertx.setPeriodic(checkPeriod, __ -> this.check());
+
+      if (options.getProbeInterval() > 0) {
+         this.probeTimerId = vertx.setPeriodic(options.getProbeInterval(), __ -> this.probe());
+      }
+   }
+
+   void stop()
+   {
+      if (vertx == null) return;
+
+      vertx.cancelTimer(checkTimerId);
+      vertx.cancelTimer(probeTimerId);
+
+      this.vertx = null;
+   }
+
+   void onMessage(GpsdMessage message)
+   {
+      if (vertx == null) return;
+
+      long now = now();
+      this.lastMessageAt = now;
+
+      if (connectionStalled) {
+         connectionStalled = false;
+         log.info("Connection resumed receiving messages");
+      }
+
+      if (!(message instanceof DeviceReport) || message instanceof DeviceMessage) return;
+
+      String device = ((DeviceReport) message).getDevice();
+      if (device == null) return;
+
+      lastSeenByDevice.put(device, now);
+
+      if (stalledDevices.remove(device)) {
+         log.info("Device {} resumed reporting", device);
+      }
+   }
+
+   /**
+    * @return round-trip latency of the last answered probe, in µs, or -1 if none has been answered yet
+    */
+   long getLastProbeLatency()
+   {
+      return lastProbeLatency;
+   }
+
+   private void check()
+   {
+      long now = now();
+      long timeout = options.getStallTimeout();
+
+      lastSeenByDevice.forEach((device, lastSeen) -> {
+         long silentFor = now - lastSeen;
+
+         if (silentFor >= timeout && stalledDevices.add(device)) {
+            client.handleStall(new StallEvent(device, silentFor, lastProbeLatency));
+         }
+      });
+
+      long silentFor = now - lastMessageAt;
+
+      if (silentFor >= timeout && !connectionStalled) {
+         connectionStalled = true;
+         client.handleStall(new StallEvent(null, silentFor, lastProbeLatency));
+      }
+   }
+
+   private void probe()
+   {
+      // don't pile up probes on a connection that does not answer them
+      if (probeInFlight != null) return;
+
+      probeInFlight = new Probe();
+
+      try {
+         client.sendCommand(new PollMessage(), probeInFlight);
+      } catch (IllegalStateException e) {
+         probeInFlight = null;
+      }
+   }
+
+   private static long now()
+   {
+      return System.nanoTime() / 1_000_000;
+   }
+
+   /**
+    * Handles the response to a liveness probe. The client executes it on the event loop as soon as the response is
+    * received, and does not pass the response on to the regular handlers.
+    */
+   final class Probe implements Consumer<PollMessage>
+   {
+      private final long sentAt = System.nanoTime();
+
+      @Override
+      public void accept(PollMessage response)
+      {
+         lastProbeLatency = (System.nanoTime() - sentAt) / 1000;
+
+         if (probeInFlight == this) probeInFlight = null;
+
+         log.trace("Liveness probe answered in {} µs", lastProbeLatency);
+      }
+   }
+}
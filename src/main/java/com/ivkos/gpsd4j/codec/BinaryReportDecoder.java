@@ -0,0 +1,66 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.codec;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.support.GpsdParseException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Decodes reports encoded by a {@link BinaryReportEncoder}. See the encoder for the format, and for how the two of
+ * them form a stream. A decoder is not thread-safe.
+ */
+public class BinaryReportDecoder
+{
+   private final StreamState state = new StreamState();
+
+   /**
+    * Decodes a report at the current position of a buffer, and advances the position past it.
+    *
+    * @param in  the buffer
+    * @param <T> the type of report
+    *
+    * @return the report
+    *
+    * @throws GpsdParseException   if the buffer does not hold a whole encoded report. The decoder may have lost track
+    *                              of the stream, so both ends should be {@link #reset() reset}.
+    * @throws NullPointerException if {@code in} is null
+    */
+   @SuppressWarnings("unchecked")
+   public <T extends GpsdMessage> T decode(ByteBuffer in)
+   {
+      requireNonNull(in, "in must not be null");
+
+      try {
+         return (T) ReportLayout.of(in.get()).decode(in, state);
+      } catch (BufferUnderflowException e) {
+         throw new GpsdParseException("Could not decode report: truncated input", e);
+      }
+   }
+
+   /**
+    * Forgets the reports decoded so far. Must be called when the encoder is reset.
+    */
+   public void reset()
+   {
+      state.clear();
+   }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.codec;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Encodes reports in a compact binary form, for forwarding them to another node, where a {@link BinaryReportDecoder}
+ * decodes them. A TPV report takes about a tenth of the bytes of its JSON form, and is encoded and decoded without
+ * parsing or formatting any text.
+ * <p>
+ * The TPV, SKY, GST, ATT and TOFF reports are supported. Each report is encoded as a bitmap of the fields that are
+ * present, followed by those fields. Decimals are encoded as fixed-point varints, at the precision gpsd reports them
+ * with, and coordinates, times and device names are encoded relative to the previous report of the same device. The
+ * decoded reports are equal to the encoded ones.
+ * <p>
+ * Since reports are encoded relative to the previous ones, an encoder and its decoder form a stream: the decoder must
+ * decode every report the encoder encoded, in the same order. If that is no longer the case, e.g. after a
+ * reconnection, {@link #reset() reset} both of them. An encoder is not thread-safe.
+ */
+public class BinaryReportEncoder
+{
+   private final StreamState state = new StreamState();
+
+   /**
+    * @param type the type of a report
+    *
+    * @return whether reports of the type can be encoded
+    */
+   public static boolean isSupported(Class<? extends GpsdMessage> type)
+   {
+      return ReportLayout.of(type) != null;
+   }
+
+   /**
+    * Encodes a report at the current position of a buffer, and advances the position past it.
+    *
+    * @param report the report
+    * @param out    the buffer
+    *
+    * @return the number of bytes written
+    *
+    * @throws BufferOverflowException  if the report does not fit in the remaining space of the buffer. Neither the
+    *                                  buffer nor the encoder are changed, so the report can be encoded again into a
+    *                                  larger buffer.
+    * @throws IllegalArgumentException if the type of the report is not supported
+    * @throws NullPointerException     if any of the arguments is null
+    */
+   public int encode(GpsdMessage report, ByteBuffer out)
+   {
+      requireNonNull(report, "report must not be null");
+      requireNonNull(out, "out must not be null");
+
+      ReportLayout layout = ReportLayout.of(report.getClass());
+      if (layout == null) {
+         throw new IllegalArgumentException("Cannot encode reports of type " + report.getClass().getName());
+      }
+
+      int start = out.position();
+      layout.encode(report, out, state);
+
+      return out.position() - start;
+   }
+
+   /**
+    * Forgets the reports encoded so far, so that the next report does not depend on them.
+    */
+   public void reset()
+   {
+      state.clear();
+   }
+}
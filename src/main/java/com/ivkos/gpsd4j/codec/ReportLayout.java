@@ -0,0 +1,544 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.codec;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.Satellite;
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+import com.ivkos.gpsd4j.messages.reports.*;
+import com.ivkos.gpsd4j.support.GpsdParseException;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.ivkos.gpsd4j.codec.Varint.*;
+
+/**
+ * The binary layout of a type of report: its tag, and the fields in the order they are encoded. A report is encoded
+ * as its tag, a bitmap of the fields that are present, and then the present fields:
+ * <pre>
+ * [tag: byte][presence bitmap: varint][field]...
+ * </pre>
+ * Decimals are encoded as fixed-point varints at the scale gpsd prints them with, and fall back to the whole double
+ * if they have more digits, so decoding always gives back the same values. The time and the decimals of a report are
+ * encoded as the difference from the previous report of the same device, which is small for a receiver that reports
+ * every second.
+ * <p>
+ * The fields of the reports are read and written directly, like Jackson does when it deserializes them.
+ */
+final class ReportLayout
+{
+   static final int MAX_TAG = 5;
+
+   /**
+    * The presence bitmap is a long, so a report can have at most 64 fields.
+    */
+   static final int MAX_FIELDS = 64;
+
+   private static final Map<Class<?>, ReportLayout> BY_TYPE = new HashMap<>();
+   private static final ReportLayout[] BY_TAG = new ReportLayout[MAX_TAG + 1];
+
+   static {
+      register(new ReportLayout(1, TPVReport.class)
+            .device("device")
+            .time("time")
+            .enumeration("mode", NMEAMode.values())
+            .decimals(1e9, "latitude", "longitude")
+            .decimals(1e3, "timeError", "altitude", "longitudeError", "latitudeError", "altitudeError")
+            .decimals(1e4, "course")
+            .decimals(1e3, "speed", "climbRate")
+            .decimals(1e4, "courseError")
+            .decimals(1e3, "speedError", "climbRateError"));
+
+      register(new ReportLayout(2, SKYReport.class)
+            .device("device")
+            .time("time")
+            .satellites("satellites")
+            .decimals(1e2, "timeDOP", "longitudeDOP", "latitudeDOP", "altitudeDOP", "horizontalDOP",
+                  "sphericalDOP", "hypersphericalDOP"));
+
+      register(new ReportLayout(3, GSTReport.class)
+            .device("device")
+            .time("time")
+            .decimals(1e3, "rms", "major", "minor", "orient", "lat", "lon", "alt"));
+
+      register(new ReportLayout(4, ATTReport.class)
+            .device("device")
+            .time("time")
+            .string("magnetometerStatus")
+            .decimals(1e3, "heading", "pitch", "yaw", "roll", "dip", "pitchSensorStatus", "yawSensorStatus",
+                  "rollSensorStatus", "magneticFieldStrengthScalar", "magneticFieldStrengthX",
+                  "magneticFieldStrengthY", "magneticFieldStrengthZ", "accelerationScalar", "accelerationX",
+                  "accelerationY", "accelerationZ", "gyroX", "gyroY", "waterDepth", "temperature"));
+
+      register(new ReportLayout(5, TOFFReport.class)
+            .device("device")
+            .decimals(1, "gpsClockSeconds", "gpsClockNanoSeconds", "systemClockSeconds", "systemClockNanoSeconds"));
+   }
+
+   private final byte tag;
+   private final Class<? extends GpsdMessage> type;
+   private final Constructor<? extends GpsdMessage> constructor;
+   private final List<FieldCodec> fields = new ArrayList<>();
+
+   private ReportLayout(int tag, Class<? extends GpsdMessage> type)
+   {
+      this.tag = (byte) tag;
+      this.type = type;
+      this.constructor = constructor(type);
+   }
+
+   static ReportLayout of(Class<?> type)
+   {
+      return BY_TYPE.get(type);
+   }
+
+   static ReportLayout of(byte tag)
+   {
+      ReportLayout layout = tag > 0 && tag < BY_TAG.length ? BY_TAG[tag] : null;
+      if (layout == null) throw new GpsdParseException("Could not decode report: unknown tag %d", tag);
+
+      return layout;
+   }
+
+   /**
+    * Encodes a report. If it does not fit in the buffer, neither the buffer nor the state are changed.
+    *
+    * @throws BufferOverflowException if the report does not fit in the buffer
+    */
+   void encode(GpsdMessage report, ByteBuffer out, StreamState state)
+   {
+      Object[] values = new Object[fields.size()];
+      long presence = 0;
+
+      for (int i = 0; i < values.length; i++) {
+         values[i] = fields.get(i).get(report);
+         if (values[i] != null) presence |= 1L << i;
+      }
+
+      int start = out.position();
+      int dictionarySize = state.size();
+
+      state.current = state.anonymous();
+      state.saved.copyFrom(state.current, tag, fields.size());
+
+      try {
+         out.put(tag);
+         Varint.write(out, presence);
+
+         for (int i = 0; i < values.length; i++) {
+            if (values[i] == null) continue;
+
+            FieldCodec field = fields.get(i);
+            field.write(out, values[i], state);
+
+            if (field instanceof DeviceCodec) state.saved.copyFrom(state.current, tag, fields.size());
+         }
+      } catch (BufferOverflowException e) {
+         out.position(start);
+         state.current.copyFrom(state.saved, tag, fields.size());
+         while (state.size() > dictionarySize) state.removeLast();
+
+         throw e;
+      }
+   }
+
+   GpsdMessage decode(ByteBuffer in, StreamState state)
+   {
+      GpsdMessage report = newInstance(constructor);
+      long presence = Varint.read(in);
+
+      if (presence >>> fields.size() != 0) {
+         throw new GpsdParseException("Could not decode report: unknown fields in %s", type.getSimpleName());
+      }
+
+      state.current = state.anonymous();
+      for (int i = 0; i < fields.size(); i++) {
+         if ((presence & 1L << i) != 0) fields.get(i).set(report, fields.get(i).read(in, state));
+      }
+
+      return report;
+   }
+
+   private static void register(ReportLayout layout)
+   {
+      BY_TYPE.put(layout.type, layout);
+      BY_TAG[layout.tag] = layout;
+   }
+
+   private ReportLayout device(String name)
+   {
+      fields.add(new DeviceCodec(field(type, name)));
+      return this;
+   }
+
+   private ReportLayout time(String name)
+   {
+      fields.add(new TimeCodec(field(type, name)));
+      return this;
+   }
+
+   private ReportLayout enumeration(String name, Enum<?>[] values)
+   {
+      fields.add(new EnumCodec(field(type, name), values));
+      return this;
+   }
+
+   private ReportLayout decimals(double scale, String... names)
+   {
+      for (String name : names) fields.add(new DecimalCodec(field(type, name), scale, tag, fields.size()));
+      return this;
+   }
+
+   private ReportLayout string(String name)
+   {
+      fields.add(new StringCodec(field(type, name)));
+      return this;
+   }
+
+   private ReportLayout satellites(String name)
+   {
+      fields.add(new SatellitesCodec(field(type, name)));
+      return this;
+   }
+
+   private static Field field(Class<?> type, String name)
+   {
+      try {
+         Field field = type.getDeclaredField(name);
+         field.setAccessible(true);
+
+         return field;
+      } catch (NoSuchFieldException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static <T> Constructor<T> constructor(Class<T> type)
+   {
+      try {
+         Constructor<T> constructor = type.getDeclaredConstructor();
+         constructor.setAccessible(true);
+
+         return constructor;
+      } catch (NoSuchMethodException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private static <T> T newInstance(Constructor<T> constructor)
+   {
+      try {
+         return constructor.newInstance();
+      } catch (ReflectiveOperationException e) {
+         throw new IllegalStateException(e);
+      }
+   }
+
+   private abstract static class FieldCodec
+   {
+      private final Field field;
+
+      FieldCodec(Field field)
+      {
+         this.field = field;
+      }
+
+      Object get(Object report)
+      {
+         try {
+            return field.get(report);
+         } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+         }
+      }
+
+      void set(Object report, Object value)
+      {
+         try {
+            field.set(report, value);
+         } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+         }
+      }
+
+      abstract void write(ByteBuffer out, Object value, StreamState state);
+
+      abstract Object read(ByteBuffer in, StreamState state);
+   }
+
+   /**
+    * The index of the device in the dictionary. A device seen for the first time gets the next index, and its name
+    * follows.
+    */
+   private static class DeviceCodec extends FieldCodec
+   {
+      DeviceCodec(Field field)
+      {
+         super(field);
+      }
+
+      @Override
+      void write(ByteBuffer out, Object value, StreamState state)
+      {
+         String name = (String) value;
+         int index = state.indexOf(name);
+
+         if (index < 0) {
+            Varint.write(out, state.size());
+            writeString(out, name);
+            index = state.add(name);
+         } else {
+            Varint.write(out, index);
+         }
+
+         state.current = state.device(index);
+      }
+
+      @Override
+      Object read(ByteBuffer in, StreamState state)
+      {
+         int index = readInt(in);
+
+         if (index == state.size()) {
+            state.add(readString(in));
+         } else if (index > state.size()) {
+            throw new GpsdParseException("Could not decode report: unknown device %d", index);
+         }
+
+         state.current = state.device(index);
+         return state.name(index);
+      }
+   }
+
+   /**
+    * The time in ms relative to the previous report of the device, with a flag in the lowest bit that tells whether
+    * the nanoseconds within the millisecond follow.
+    */
+   private static class TimeCodec extends FieldCodec
+   {
+      TimeCodec(Field field)
+      {
+         super(field);
+      }
+
+      @Override
+      void write(ByteBuffer out, Object value, StreamState state)
+      {
+         LocalDateTime time = (LocalDateTime) value;
+         long millis = time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1_000_000;
+         int nanos = time.getNano() % 1_000_000;
+
+         Varint.write(out, zigzag(millis - state.current.time) << 1 | (nanos != 0 ? 1 : 0));
+         if (nanos != 0) Varint.write(out, nanos);
+
+         state.current.time = millis;
+      }
+
+      @Override
+      Object read(ByteBuffer in, StreamState state)
+      {
+         long value = Varint.read(in);
+         long millis = state.current.time + unzigzag(value >>> 1);
+         int nanos = (value & 1) != 0 ? readInt(in) : 0;
+
+         state.current.time = millis;
+
+         return LocalDateTime.ofEpochSecond(Math.floorDiv(millis, 1000L),
+               (int) Math.floorMod(millis, 1000L) * 1_000_000 + nanos, ZoneOffset.UTC);
+      }
+   }
+
+   private static class EnumCodec extends FieldCodec
+   {
+      private final Enum<?>[] values;
+
+      EnumCodec(Field field, Enum<?>[] values)
+      {
+         super(field);
+         this.values = values;
+      }
+
+      @Override
+      void write(ByteBuffer out, Object value, StreamState state)
+      {
+         Varint.write(out, ((Enum<?>) value).ordinal());
+      }
+
+      @Override
+      Object read(ByteBuffer in, StreamState state)
+      {
+         int ordinal = readInt(in);
+         if (ordinal >= values.length) {
+            throw new GpsdParseException("Could not decode report: unknown value %d", ordinal);
+         }
+
+         return values[ordinal];
+      }
+   }
+
+   /**
+    * A decimal relative to the same field of the previous report of the device. Latitudes and longitudes, with a scale
+    * of a billion, change by a few thousand between reports, other fields often do not change at all.
+    */
+   private static class DecimalCodec extends FieldCodec
+   {
+      private final double scale;
+      private final byte tag;
+      private final int index;
+
+      DecimalCodec(Field field, double scale, byte tag, int index)
+      {
+         super(field);
+         this.scale = scale;
+         this.tag = tag;
+         this.index = index;
+      }
+
+      @Override
+      void write(ByteBuffer out, Object value, StreamState state)
+      {
+         double decimal = (Double) value;
+         long[] previous = state.current.fields(tag);
+
+         writeDecimal(out, decimal, scale, previous[index]);
+         this.update(decimal, previous);
+      }
+
+      @Override
+      Object read(ByteBuffer in, StreamState state)
+      {
+         long[] previous = state.current.fields(tag);
+
+         double decimal = readDecimal(in, scale, previous[index]);
+         this.update(decimal, previous);
+
+         return decimal;
+      }
+
+      private void update(double decimal, long[] previous)
+      {
+         long fixed = toFixedPoint(decimal, scale);
+         if (fixed != Long.MIN_VALUE) previous[index] = fixed;
+      }
+   }
+
+   private static class StringCodec extends FieldCodec
+   {
+      StringCodec(Field field)
+      {
+         super(field);
+      }
+
+      @Override
+      void write(ByteBuffer out, Object value, StreamState state)
+      {
+         writeString(out, (String) value);
+      }
+
+      @Override
+      Object read(ByteBuffer in, StreamState state)
+      {
+         return readString(in);
+      }
+   }
+
+   /**
+    * The number of satellites, and for each a bitmap of the present fields and whether it is used, followed by the
+    * present fields.
+    */
+   private static class SatellitesCodec extends FieldCodec
+   {
+      private static final double SCALE = 10;
+
+      private static final int PRN = 1;
+      private static final int AZIMUTH = 1 << 1;
+      private static final int ELEVATION = 1 << 2;
+      private static final int SIGNAL_STRENGTH = 1 << 3;
+      private static final int USED = 1 << 4;
+
+      private static final Constructor<Satellite> constructor = constructor(Satellite.class);
+      private static final Field prn = field(Satellite.class, "PRN");
+      private static final Field azimuth = field(Satellite.class, "azimuth");
+      private static final Field elevation = field(Satellite.class, "elevation");
+      private static final Field signalStrength = field(Satellite.class, "signalStrength");
+      private static final Field used = field(Satellite.class, "used");
+
+      SatellitesCodec(Field field)
+      {
+         super(field);
+      }
+
+      @Override
+      @SuppressWarnings("unchecked")
+      void write(ByteBuffer out, Object value, StreamState state)
+      {
+         List<Satellite> satellites = (List<Satellite>) value;
+         Varint.write(out, satellites.size());
+
+         for (Satellite satellite : satellites) {
+            int presence = (satellite.getPRN() != null ? PRN : 0) |
+                  (satellite.getAzimuth() != null ? AZIMUTH : 0) |
+                  (satellite.getElevation() != null ? ELEVATION : 0) |
+                  (satellite.getSignalStrength() != null ? SIGNAL_STRENGTH : 0) |
+                  (satellite.isUsed() ? USED : 0);
+
+            out.put((byte) presence);
+            if (satellite.getPRN() != null) Varint.write(out, zigzag(satellite.getPRN()));
+            if (satellite.getAzimuth() != null) writeDecimal(out, satellite.getAzimuth(), SCALE, 0);
+            if (satellite.getElevation() != null) writeDecimal(out, satellite.getElevation(), SCALE, 0);
+            if (satellite.getSignalStrength() != null) writeDecimal(out, satellite.getSignalStrength(), SCALE, 0);
+         }
+      }
+
+      @Override
+      Object read(ByteBuffer in, StreamState state)
+      {
+         int count = readInt(in);
+         if (count > in.remaining()) throw new GpsdParseException("Could not decode report: truncated satellites");
+
+         List<Satellite> satellites = new ArrayList<>(count);
+
+         for (int i = 0; i < count; i++) {
+            Satellite satellite = newInstance(constructor);
+            int presence = in.get();
+
+            try {
+               if ((presence & PRN) != 0) prn.set(satellite, (int) unzigzag(Varint.read(in)));
+               if ((presence & AZIMUTH) != 0) azimuth.set(satellite, readDecimal(in, SCALE, 0));
+               if ((presence & ELEVATION) != 0) elevation.set(satellite, readDecimal(in, SCALE, 0));
+               if ((presence & SIGNAL_STRENGTH) != 0) signalStrength.set(satellite, readDecimal(in, SCALE, 0));
+               used.setBoolean(satellite, (presence & USED) != 0);
+            } catch (IllegalAccessException e) {
+               throw new IllegalStateException(e);
+            }
+
+            satellites.add(satellite);
+         }
+
+         return satellites;
+      }
+   }
+}
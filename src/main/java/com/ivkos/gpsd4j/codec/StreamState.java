@@ -0,0 +1,139 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.codec;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What the encoder and the decoder of a stream remember about the reports seen so far: the dictionary of device
+ * names, and the last time and decimal fields of each device, which the next report of the device is encoded relative
+ * to.
+ * Both ends change it in the same way, so they stay in sync as long as the decoder sees every report the encoder
+ * encoded, in the same order.
+ */
+final class StreamState
+{
+   static final class Device
+   {
+      long time;
+
+      /**
+       * The last fixed-point value of each field, by report tag and field index.
+       */
+      private final long[][] fields = new long[ReportLayout.MAX_TAG + 1][];
+
+      long[] fields(byte tag)
+      {
+         long[] values = fields[tag];
+         if (values == null) values = fields[tag] = new long[ReportLayout.MAX_FIELDS];
+
+         return values;
+      }
+
+      void copyFrom(Device other, byte tag, int count)
+      {
+         this.time = other.time;
+         System.arraycopy(other.fields(tag), 0, this.fields(tag), 0, count);
+      }
+   }
+
+   private final Map<String, Integer> indexes = new HashMap<>();
+   private final List<String> names = new ArrayList<>();
+   private final List<Device> devices = new ArrayList<>();
+   private Device anonymous = new Device();
+
+   /**
+    * The device of the report being encoded or decoded.
+    */
+   Device current;
+
+   /**
+    * The state of the current device before the report, so that it can be restored if the report does not fit.
+    */
+   final Device saved = new Device();
+
+   /**
+    * @return the index of a device name in the dictionary, or -1 if it is not in it
+    */
+   int indexOf(String name)
+   {
+      Integer index = indexes.get(name);
+      return index != null ? index : -1;
+   }
+
+   int size()
+   {
+      return names.size();
+   }
+
+   String name(int index)
+   {
+      return names.get(index);
+   }
+
+   Device device(int index)
+   {
+      return devices.get(index);
+   }
+
+   /**
+    * Adds a device name to the dictionary.
+    *
+    * @return the index of the name
+    */
+   int add(String name)
+   {
+      int index = names.size();
+
+      indexes.put(name, index);
+      names.add(name);
+      devices.add(new Device());
+
+      return index;
+   }
+
+   /**
+    * Removes the name added last to the dictionary.
+    */
+   void removeLast()
+   {
+      int last = names.size() - 1;
+
+      indexes.remove(names.remove(last));
+      devices.remove(last);
+   }
+
+   /**
+    * @return the state of reports without a device
+    */
+   Device anonymous()
+   {
+      return anonymous;
+   }
+
+   void clear()
+   {
+      indexes.clear();
+      names.clear();
+      devices.clear();
+      anonymous = new Device();
+      current = null;
+   }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.codec;
+
+import com.ivkos.gpsd4j.support.GpsdParseException;
+
+import java.nio.ByteBuffer;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Primitive encodings of the binary format: variable length integers, zigzag encoding of signed integers, decimals
+ * and strings.
+ */
+final class Varint
+{
+   /**
+    * The largest magnitude of a fixed-point value, so that its zigzag encoding shifted left by one still fits in a
+    * long, and it converts to a double exactly.
+    */
+   static final long MAX_FIXED_POINT = 1L << 53;
+
+   private Varint()
+   {
+   }
+
+   static void write(ByteBuffer out, long value)
+   {
+      while ((value & ~0x7FL) != 0) {
+         out.put((byte) ((value & 0x7F) | 0x80));
+         value >>>= 7;
+      }
+
+      out.put((byte) value);
+   }
+
+   static long read(ByteBuffer in)
+   {
+      long value = 0;
+
+      for (int shift = 0; shift < 64; shift += 7) {
+         byte b = in.get();
+         value |= (long) (b & 0x7F) << shift;
+
+         if ((b & 0x80) == 0) return value;
+      }
+
+      throw new GpsdParseException("Could not decode report: malformed varint");
+   }
+
+   static int readInt(ByteBuffer in)
+   {
+      long value = read(in);
+      if (value < 0 || value > Integer.MAX_VALUE) {
+         throw new GpsdParseException("Could not decode report: %d is out of range", value);
+      }
+
+      return (int) value;
+   }
+
+   static long zigzag(long value)
+   {
+      return (value << 1) ^ (value >> 63);
+   }
+
+   static long unzigzag(long value)
+   {
+      return (value >>> 1) ^ -(value & 1);
+   }
+
+   /**
+    * Converts a value to fixed point.
+    *
+    * @return the fixed-point value, or {@link Long#MIN_VALUE} if it does not convert back to exactly the same value
+    */
+   static long toFixedPoint(double value, double scale)
+   {
+      long fixed = Math.round(value * scale);
+
+      if (Math.abs(fixed) >= MAX_FIXED_POINT || fixed / scale != value) return Long.MIN_VALUE;
+
+      // negative zero does not survive the conversion
+      if (fixed == 0 && Double.doubleToRawLongBits(value) != 0) return Long.MIN_VALUE;
+
+      return fixed;
+   }
+
+   /**
+    * Writes a decimal as a fixed-point value relative to a base, or the whole double if it has more digits than the
+    * scale allows. The lowest bit tells which one follows.
+    */
+   static void writeDecimal(ByteBuffer out, double value, double scale, long base)
+   {
+      long fixed = toFixedPoint(value, scale);
+
+      if (fixed == Long.MIN_VALUE) {
+         write(out, 1);
+         out.putDouble(value);
+      } else {
+         write(out, zigzag(fixed - base) << 1);
+      }
+   }
+
+   static double readDecimal(ByteBuffer in, double scale, long base)
+   {
+      long value = read(in);
+      if ((value & 1) != 0) return in.getDouble();
+
+      return (unzigzag(value >>> 1) + base) / scale;
+   }
+
+   static void writeString(ByteBuffer out, String value)
+   {
+      byte[] bytes = value.getBytes(UTF_8);
+
+      write(out, bytes.length);
+      out.put(bytes);
+   }
+
+   static String readString(ByteBuffer in)
+   {
+      int length = readInt(in);
+      if (length > in.remaining()) throw new GpsdParseException("Could not decode report: truncated string");
+
+      byte[] bytes = new byte[length];
+      in.get(bytes);
+
+      return new String(bytes, UTF_8);
+   }
+}
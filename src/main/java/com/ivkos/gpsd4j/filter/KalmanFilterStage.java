@@ -0,0 +1,402 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+import com.ivkos.gpsd4j.client.ProcessingStage;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.tools.FixClock;
+import com.ivkos.gpsd4j.tools.Geodesy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+/**
+ * A processing stage that smooths the fixes of each device with a constant-velocity Kalman filter, and passes a
+ * {@link SmoothedTPVReport} on right after each TPV report with a position:
+ * <pre>
+ * client.addStage(new KalmanFilterStage())
+ *       .addHandler(SmoothedTPVReport.class, smoothed -&gt; ...);
+ * </pre>
+ * The position and velocity of the device are estimated in a plane tangent to the ellipsoid near the device, each
+ * axis with a filter of its own. The position, speed, course and climb rate of each fix are weighted by their error
+ * estimates, so that precise fixes pull the estimate harder than imprecise ones. Fixes without error estimates are
+ * given conservative defaults.
+ * <p>
+ * Each device keeps a few dozen bytes of state, allocated with its first fix. Filtering a fix allocates nothing but the
+ * smoothed report, one small immutable object per fix. It is not reused, because the handlers get it on other threads
+ * after the stage has moved on to later fixes, and may keep it. A fix that is not newer than the previous one of the
+ * same device is passed on, but not filtered, and a fix after a gap longer than {@link #setMaxGap(long) the maximum
+ * gap} starts the filter over.
+ */
+public class KalmanFilterStage implements ProcessingStage
+{
+   private static final double Z_95 = 1.96;
+
+   private static final double DEFAULT_POSITION_ERROR = 30;
+   private static final double DEFAULT_ALTITUDE_ERROR = 50;
+   private static final double DEFAULT_SPEED_ERROR = 2;
+   private static final double DEFAULT_COURSE_ERROR = 30;
+   private static final double UNKNOWN_VELOCITY_VARIANCE = 100;
+   private static final double MIN_VARIANCE = 1e-4;
+
+   // the tangent plane is moved along with the device before its curvature matters
+   private static final double RECENTER_DISTANCE = 10_000;
+
+   private final Map<String, DeviceFilter> filters = new ConcurrentHashMap<>();
+
+   private double accelerationVariance = 1;
+   private double verticalAccelerationVariance = 0.25;
+   private double maxGap = 10;
+
+   /**
+    * Sets how much the horizontal velocity of the devices is expected to change, as the standard deviation of their
+    * acceleration. Lower values smooth more, but follow turns and stops more slowly. The default is 1 m/s², which
+    * suits road vehicles.
+    *
+    * @param acceleration the standard deviation of the acceleration, in m/s²
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code acceleration} is not positive
+    */
+   public KalmanFilterStage setAcceleration(double acceleration)
+   {
+      if (!(acceleration > 0)) throw new IllegalArgumentException("acceleration must be positive");
+
+      this.accelerationVariance = acceleration * acceleration;
+      return this;
+   }
+
+   /**
+    * Sets how much the climb rate of the devices is expected to change, as the standard deviation of their vertical
+    * acceleration. The default is 0.5 m/s².
+    *
+    * @param acceleration the standard deviation of the vertical acceleration, in m/s²
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code acceleration} is not positive
+    */
+   public KalmanFilterStage setVerticalAcceleration(double acceleration)
+   {
+      if (!(acceleration > 0)) throw new IllegalArgumentException("acceleration must be positive");
+
+      this.verticalAccelerationVariance = acceleration * acceleration;
+      return this;
+   }
+
+   /**
+    * Sets the longest time between two fixes of a device that the filter bridges. After a longer gap, the filter of
+    * the device starts over from the next fix. The default is 10 seconds.
+    *
+    * @param maxGap the longest gap, in ms
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code maxGap} is not positive
+    */
+   public KalmanFilterStage setMaxGap(long maxGap)
+   {
+      if (maxGap <= 0) throw new IllegalArgumentException("maxGap must be positive");
+
+      this.maxGap = maxGap / 1000.0;
+      return this;
+   }
+
+   /**
+    * Forgets the state of a device, e.g. one that has been removed, so that its next fix starts the filter over.
+    *
+    * @param device the name of the device
+    *
+    * @return <tt>true</tt> if the device had any state
+    */
+   public boolean removeDevice(String device)
+   {
+      return this.filters.remove(device) != null;
+   }
+
+   @Override
+   public void process(GpsdMessage message, Consumer<GpsdMessage> next)
+   {
+      next.accept(message);
+
+      if (!(message instanceof TPVReport)) return;
+
+      TPVReport tpv = (TPVReport) message;
+      if (tpv.getDevice() == null || tpv.getTime() == null || tpv.getLatitude() == null ||
+            tpv.getLongitude() == null) {
+         return;
+      }
+
+      DeviceFilter filter = this.filters.computeIfAbsent(tpv.getDevice(), __ -> new DeviceFilter());
+      if (filter.update(tpv, this.accelerationVariance, this.verticalAccelerationVariance, this.maxGap)) {
+         next.accept(filter.smoothed(tpv));
+      }
+   }
+
+   private static double variance(Double error, double defaultError)
+   {
+      double sigma = (error != null ? error : defaultError) / Z_95;
+      return Math.max(sigma * sigma, MIN_VARIANCE);
+   }
+
+   /**
+    * The state of one device: a filter for each of the east, north and up axes of a plane tangent to the ellipsoid at
+    * the origin, which is kept near the device.
+    */
+   private static class DeviceFilter
+   {
+      private final Axis east = new Axis();
+      private final Axis north = new Axis();
+      private final Axis up = new Axis();
+
+      private double originLatitude;
+      private double originLongitude;
+      private double metersPerRadianNorth;
+      private double metersPerRadianEast;
+
+      private final FixClock clock = new FixClock();
+      private double time = Double.NaN;
+      private boolean hasAltitude;
+
+      /**
+       * @return false if the fix is not newer than the previous one
+       */
+      boolean update(TPVReport tpv, double accelerationVariance, double verticalAccelerationVariance,
+                     double maxGap)
+      {
+         double t = this.clock.seconds(tpv.getTime());
+         double dt = t - this.time;
+         if (dt <= 0) return false;
+
+         double latitude = Math.toRadians(tpv.getLatitude());
+         double longitude = Math.toRadians(tpv.getLongitude());
+
+         if (!(dt <= maxGap)) {
+            this.setOrigin(latitude, longitude);
+            this.hasAltitude = false;
+         } else {
+            this.east.predict(dt, accelerationVariance);
+            this.north.predict(dt, accelerationVariance);
+            if (this.hasAltitude) this.up.predict(dt, verticalAccelerationVariance);
+         }
+
+         boolean initialized = dt <= maxGap;
+         this.time = t;
+
+         this.updatePosition(tpv, latitude, longitude, initialized);
+         this.updateVelocity(tpv);
+         this.updateAltitude(tpv);
+
+         if (Math.abs(this.east.x) > RECENTER_DISTANCE || Math.abs(this.north.x) > RECENTER_DISTANCE) {
+            this.setOrigin(this.latitude(), this.longitude());
+            this.east.x = 0;
+            this.north.x = 0;
+         }
+
+         return true;
+      }
+
+      SmoothedTPVReport smoothed(TPVReport tpv)
+      {
+         double ve = this.east.v, vn = this.north.v;
+         double speed = Math.sqrt(ve * ve + vn * vn);
+
+         // the variance of the speed is that of the velocity along the course
+         double speedVariance = speed > 0
+               ? (ve * ve * this.east.pvv + vn * vn * this.north.pvv) / (speed * speed)
+               : Math.max(this.east.pvv, this.north.pvv);
+
+         return new SmoothedTPVReport(tpv, Math.toDegrees(this.latitude()), Math.toDegrees(this.longitude()),
+               this.hasAltitude ? this.up.x : Double.NaN,
+               Z_95 * Math.sqrt(this.north.pxx), Z_95 * Math.sqrt(this.east.pxx),
+               this.hasAltitude ? Z_95 * Math.sqrt(this.up.pxx) : Double.NaN,
+               ve, vn, this.up.v, Z_95 * Math.sqrt(speedVariance));
+      }
+
+      private void updatePosition(TPVReport tpv, double latitude, double longitude, boolean initialized)
+      {
+         double dLongitude = longitude - this.originLongitude;
+         if (dLongitude > Math.PI) dLongitude -= 2 * Math.PI;
+         if (dLongitude < -Math.PI) dLongitude += 2 * Math.PI;
+
+         double x = dLongitude * this.metersPerRadianEast;
+         double y = (latitude - this.originLatitude) * this.metersPerRadianNorth;
+
+         if (initialized) {
+            this.east.updatePosition(x, variance(tpv.getLongitudeError(), DEFAULT_POSITION_ERROR));
+            this.north.updatePosition(y, variance(tpv.getLatitudeError(), DEFAULT_POSITION_ERROR));
+         } else {
+            this.east.reset(x, variance(tpv.getLongitudeError(), DEFAULT_POSITION_ERROR));
+            this.north.reset(y, variance(tpv.getLatitudeError(), DEFAULT_POSITION_ERROR));
+         }
+      }
+
+      private void updateVelocity(TPVReport tpv)
+      {
+         Double speed = tpv.getSpeed();
+         if (speed == null) return;
+
+         double alongVariance = variance(tpv.getSpeedError(), DEFAULT_SPEED_ERROR);
+         if (speed == 0) {
+            this.east.updateVelocity(0, alongVariance);
+            this.north.updateVelocity(0, alongVariance);
+            return;
+         }
+
+         if (tpv.getCourse() == null) return;
+
+         // Math.sin and Math.cos are only fast within 45 degrees of zero, so the course is reduced to that range,
+         // which is exact in degrees
+         double course = tpv.getCourse();
+         double quadrant = Math.rint(course / 90);
+         double reduced = Math.toRadians(course - 90 * quadrant);
+         double sin, cos;
+
+         switch ((int) quadrant & 3) {
+            case 0:
+               sin = Math.sin(reduced);
+               cos = Math.cos(reduced);
+               break;
+            case 1:
+               sin = Math.cos(reduced);
+               cos = -Math.sin(reduced);
+               break;
+            case 2:
+               sin = -Math.sin(reduced);
+               cos = -Math.cos(reduced);
+               break;
+            default:
+               sin = -Math.cos(reduced);
+               cos = Math.sin(reduced);
+         }
+
+         // the error of the speed is along the course, and that of the course across it
+         double acrossSigma = speed * Math.toRadians(tpv.getCourseError() != null
+               ? tpv.getCourseError()
+               : DEFAULT_COURSE_ERROR) / Z_95;
+         double acrossVariance = Math.max(acrossSigma * acrossSigma, MIN_VARIANCE);
+
+         this.east.updateVelocity(speed * sin, alongVariance * sin * sin + acrossVariance * cos * cos);
+         this.north.updateVelocity(speed * cos, alongVariance * cos * cos + acrossVariance * sin * sin);
+      }
+
+      private void updateAltitude(TPVReport tpv)
+      {
+         Double altitude = tpv.getAltitude();
+         if (altitude == null) return;
+
+         double variance = variance(tpv.getAltitudeError(), DEFAULT_ALTITUDE_ERROR);
+         if (this.hasAltitude) {
+            this.up.updatePosition(altitude, variance);
+         } else {
+            this.up.reset(altitude, variance);
+            this.hasAltitude = true;
+         }
+
+         Double climbRate = tpv.getClimbRate();
+         if (climbRate != null) {
+            this.up.updateVelocity(climbRate, variance(tpv.getClimbRateError(), DEFAULT_SPEED_ERROR));
+         }
+      }
+
+      private void setOrigin(double latitude, double longitude)
+      {
+         double degrees = Math.toDegrees(latitude);
+
+         this.originLatitude = latitude;
+         this.originLongitude = longitude;
+         this.metersPerRadianNorth = Math.toDegrees(Geodesy.metersPerDegreeNorth(degrees));
+         this.metersPerRadianEast = Math.max(Math.toDegrees(Geodesy.metersPerDegreeEast(degrees)), 1);
+      }
+
+      private double latitude()
+      {
+         return this.originLatitude + this.north.x / this.metersPerRadianNorth;
+      }
+
+      private double longitude()
+      {
+         double longitude = this.originLongitude + this.east.x / this.metersPerRadianEast;
+         if (longitude > Math.PI) longitude -= 2 * Math.PI;
+         if (longitude < -Math.PI) longitude += 2 * Math.PI;
+
+         return longitude;
+      }
+   }
+
+   /**
+    * A constant-velocity filter of the position and velocity along one axis, and their covariance.
+    */
+   private static class Axis
+   {
+      double x, v;
+      double pxx, pxv, pvv;
+
+      void reset(double position, double variance)
+      {
+         this.x = position;
+         this.v = 0;
+         this.pxx = variance;
+         this.pxv = 0;
+         this.pvv = UNKNOWN_VELOCITY_VARIANCE;
+      }
+
+      /**
+       * Moves the estimate forward in time, with white noise acceleration of the given variance.
+       */
+      void predict(double dt, double accelerationVariance)
+      {
+         double dt2 = dt * dt;
+
+         this.x += this.v * dt;
+         this.pxx += dt * (2 * this.pxv + dt * this.pvv) + dt2 * dt2 / 4 * accelerationVariance;
+         this.pxv += dt * this.pvv + dt2 * dt / 2 * accelerationVariance;
+         this.pvv += dt2 * accelerationVariance;
+      }
+
+      void updatePosition(double position, double variance)
+      {
+         double s = this.pxx + variance;
+         double kx = this.pxx / s, kv = this.pxv / s;
+         double innovation = position - this.x;
+
+         this.x += kx * innovation;
+         this.v += kv * innovation;
+
+         this.pvv -= kv * this.pxv;
+         this.pxv -= kx * this.pxv;
+         this.pxx -= kx * this.pxx;
+      }
+
+      void updateVelocity(double velocity, double variance)
+      {
+         double s = this.pvv + variance;
+         double kx = this.pxv / s, kv = this.pvv / s;
+         double innovation = velocity - this.v;
+
+         this.x += kx * innovation;
+         this.v += kv * innovation;
+
+         this.pxx -= kx * this.pxv;
+         this.pxv -= kx * this.pvv;
+         this.pvv -= kv * this.pvv;
+      }
+   }
+}
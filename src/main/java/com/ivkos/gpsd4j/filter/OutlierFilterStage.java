@@ -0,0 +1,266 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+import com.ivkos.gpsd4j.client.ProcessingStage;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.tools.FixClock;
+import com.ivkos.gpsd4j.tools.Geodesy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A processing stage that rejects or flags implausible fixes, such as the jumps that multipath causes in urban
+ * canyons, before any handler or later stage spends work on them. Add it before the stages that should not see them:
+ * <pre>
+ * client.addStage(new OutlierFilterStage(new OutlierThresholds().setMaxSpeed(50)))
+ *       .addStage(new KalmanFilterStage());
+ * </pre>
+ * A TPV report is taken for an outlier if its mode is below the minimum, if its error estimates are above the
+ * maximum, or if reaching it from the previous fix of the device that was let through would take a speed or an
+ * acceleration above the maximum. The {@link OutlierThresholds thresholds} can be set for each device. Messages other
+ * than TPV reports are passed on as they are.
+ */
+public class OutlierFilterStage implements ProcessingStage
+{
+   // the meters per degree are only recomputed after moving this far north or south
+   private static final double SCALE_STEP = 0.1;
+
+   private final OutlierThresholds defaultThresholds;
+   private final Map<String, OutlierThresholds> deviceThresholds = new ConcurrentHashMap<>();
+   private final Map<String, DeviceState> states = new ConcurrentHashMap<>();
+   private volatile OutlierAction action = OutlierAction.REJECT;
+
+   /**
+    * Creates a new instance with the default thresholds
+    */
+   public OutlierFilterStage()
+   {
+      this(new OutlierThresholds());
+   }
+
+   /**
+    * Creates a new instance
+    *
+    * @param thresholds the thresholds for the devices that have none of their own
+    *
+    * @throws NullPointerException if {@code thresholds} is null
+    */
+   public OutlierFilterStage(OutlierThresholds thresholds)
+   {
+      this.defaultThresholds = requireNonNull(thresholds, "thresholds must not be null");
+   }
+
+   /**
+    * Sets what to do with outliers. The default is to {@link OutlierAction#REJECT reject} them.
+    *
+    * @param action the action
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code action} is null
+    */
+   public OutlierFilterStage setAction(OutlierAction action)
+   {
+      this.action = requireNonNull(action, "action must not be null");
+      return this;
+   }
+
+   /**
+    * Sets the thresholds for one device, instead of those the stage was created with.
+    *
+    * @param device     the name of the device
+    * @param thresholds the thresholds
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code device} or {@code thresholds} is null
+    */
+   public OutlierFilterStage setThresholds(String device, OutlierThresholds thresholds)
+   {
+      requireNonNull(device, "device must not be null");
+      requireNonNull(thresholds, "thresholds must not be null");
+
+      this.deviceThresholds.put(device, thresholds);
+      return this;
+   }
+
+   /**
+    * Removes the thresholds of one device, so that it gets those the stage was created with.
+    *
+    * @param device the name of the device
+    *
+    * @return <tt>true</tt> if the device had thresholds of its own
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public boolean removeThresholds(String device)
+   {
+      requireNonNull(device, "device must not be null");
+
+      return this.deviceThresholds.remove(device) != null;
+   }
+
+   /**
+    * Forgets the previous fix of a device, so that its next fix is not checked for speed and acceleration.
+    *
+    * @param device the name of the device
+    *
+    * @return <tt>true</tt> if there was a previous fix
+    */
+   public boolean removeDevice(String device)
+   {
+      return this.states.remove(device) != null;
+   }
+
+   @Override
+   public void process(GpsdMessage message, Consumer<GpsdMessage> next)
+   {
+      if (!(message instanceof TPVReport)) {
+         next.accept(message);
+         return;
+      }
+
+      TPVReport tpv = (TPVReport) message;
+      String device = tpv.getDevice();
+      OutlierThresholds thresholds = device == null
+            ? this.defaultThresholds
+            : this.deviceThresholds.getOrDefault(device, this.defaultThresholds);
+
+      double latitudeError = orZero(tpv.getLatitudeError());
+      double longitudeError = orZero(tpv.getLongitudeError());
+      double speedError = orZero(tpv.getSpeedError());
+
+      OutlierReason reason = null;
+      double value = Double.NaN;
+      NMEAMode mode = tpv.getMode() != null ? tpv.getMode() : NMEAMode.NotSet;
+
+      if (mode.compareTo(thresholds.getMinMode()) < 0) {
+         reason = OutlierReason.MODE;
+      } else if ((value = Math.max(latitudeError, longitudeError)) > thresholds.getMaxHorizontalError()) {
+         reason = OutlierReason.HORIZONTAL_ERROR;
+      } else if ((value = speedError) > thresholds.getMaxSpeedError()) {
+         reason = OutlierReason.SPEED_ERROR;
+      } else if (device != null && tpv.getTime() != null && tpv.getLatitude() != null &&
+            tpv.getLongitude() != null) {
+         DeviceState state = this.states.computeIfAbsent(device, __ -> new DeviceState());
+
+         double error = Math.sqrt(latitudeError * latitudeError + longitudeError * longitudeError);
+         reason = state.check(tpv, error, speedError, thresholds);
+         value = state.value;
+      }
+
+      if (reason == null) {
+         next.accept(tpv);
+      } else if (this.action == OutlierAction.FLAG) {
+         next.accept(new OutlierReport(reason, value, tpv));
+      }
+   }
+
+   private static double orZero(Double value)
+   {
+      return value != null ? value : 0;
+   }
+
+   /**
+    * The previous fix of a device that was let through
+    */
+   private static class DeviceState
+   {
+      private final FixClock clock = new FixClock();
+
+      private double time = Double.NaN;
+      private double latitude;
+      private double longitude;
+      private double error;
+      private double speed = Double.NaN;
+      private double speedError;
+
+      private double scaleLatitude = Double.NaN;
+      private double metersPerDegreeNorth;
+      private double metersPerDegreeEast;
+
+      /**
+       * The value that exceeded a threshold in the last check
+       */
+      double value;
+
+      /**
+       * Checks the speed and acceleration needed to reach a fix from the previous one, and makes the fix the previous
+       * one if it passes.
+       *
+       * @return the threshold that was exceeded, or null
+       */
+      OutlierReason check(TPVReport tpv, double error, double speedError, OutlierThresholds thresholds)
+      {
+         double time = this.clock.seconds(tpv.getTime());
+         double dt = time - this.time;
+
+         // not newer than the previous one, e.g. reported again in a POLL
+         if (dt <= 0) return null;
+
+         double latitude = tpv.getLatitude();
+         double longitude = tpv.getLongitude();
+         double speed = tpv.getSpeed() != null ? tpv.getSpeed() : Double.NaN;
+
+         if (dt * 1000 <= thresholds.getMaxGap()) {
+            this.value = (this.distance(latitude, longitude) - error - this.error) / dt;
+            if (this.value > thresholds.getMaxSpeed()) return OutlierReason.SPEED;
+
+            this.value = (Math.abs(speed - this.speed) - speedError - this.speedError) / dt;
+            if (this.value > thresholds.getMaxAcceleration()) return OutlierReason.ACCELERATION;
+         }
+
+         this.time = time;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.error = error;
+         this.speed = speed;
+         this.speedError = speedError;
+
+         return null;
+      }
+
+      /**
+       * @return the distance to the previous fix, on a plane tangent to the ellipsoid, which is accurate enough for
+       * the distances a device covers between two fixes
+       */
+      private double distance(double latitude, double longitude)
+      {
+         if (!(Math.abs(latitude - this.scaleLatitude) <= SCALE_STEP)) {
+            this.scaleLatitude = latitude;
+            this.metersPerDegreeNorth = Geodesy.metersPerDegreeNorth(latitude);
+            this.metersPerDegreeEast = Geodesy.metersPerDegreeEast(latitude);
+         }
+
+         double dLongitude = longitude - this.longitude;
+         if (dLongitude > 180) dLongitude -= 360;
+         if (dLongitude < -180) dLongitude += 360;
+
+         double x = dLongitude * this.metersPerDegreeEast;
+         double y = (latitude - this.latitude) * this.metersPerDegreeNorth;
+
+         return Math.sqrt(x * x + y * y);
+      }
+   }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+/**
+ * The reason an {@link OutlierFilterStage} took a fix for an outlier
+ */
+public enum OutlierReason
+{
+   /**
+    * The NMEA mode of the fix is below the minimum
+    */
+   MODE,
+
+   /**
+    * The latitude or longitude error estimate of the fix exceeds the maximum
+    */
+   HORIZONTAL_ERROR,
+
+   /**
+    * The speed error estimate of the fix exceeds the maximum
+    */
+   SPEED_ERROR,
+
+   /**
+    * Reaching the fix from the previous one would take a speed above the maximum
+    */
+   SPEED,
+
+   /**
+    * The change in speed since the previous fix implies an acceleration above the maximum
+    */
+   ACCELERATION
+}
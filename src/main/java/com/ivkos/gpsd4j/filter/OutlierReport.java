@@ -0,0 +1,102 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+import com.ivkos.gpsd4j.messages.DeviceReport;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.time.LocalDateTime;
+
+/**
+ * A fix taken for an outlier by an {@link OutlierFilterStage} that {@link OutlierAction#FLAG flags} outliers. It is
+ * passed on instead of the TPV report, so that the handlers of TPV reports do not see it, but handlers can be added for
+ * it like for the messages gpsd sends:
+ * <pre>
+ * client.addHandler(OutlierReport.class, outlier -&gt; System.out.println(outlier));
+ * </pre>
+ */
+public final class OutlierReport extends GpsdMessage implements DeviceReport
+{
+   public static final String CLASS = "OUTLIER";
+
+   private final OutlierReason reason;
+   private final double value;
+   private final TPVReport tpv;
+
+   OutlierReport(OutlierReason reason, double value, TPVReport tpv)
+   {
+      this.reason = reason;
+      this.value = value;
+      this.tpv = tpv;
+   }
+
+   /**
+    * @return the first threshold the fix exceeded
+    */
+   public OutlierReason getReason()
+   {
+      return reason;
+   }
+
+   /**
+    * @return the value that exceeded the threshold, in meters, meters/sec or meters/sec², or NaN for {@link
+    * OutlierReason#MODE}
+    */
+   public double getValue()
+   {
+      return value;
+   }
+
+   /**
+    * @return Name of the device
+    */
+   @Override
+   public String getDevice()
+   {
+      return tpv.getDevice();
+   }
+
+   /**
+    * @return Time of the fix, UTC. May be null if the fix has no time.
+    */
+   public LocalDateTime getTime()
+   {
+      return tpv.getTime();
+   }
+
+   /**
+    * @return the TPV report of the fix
+    */
+   public TPVReport getTPV()
+   {
+      return tpv;
+   }
+
+   @Override
+   public String getGpsdClass()
+   {
+      return CLASS;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "OutlierReport(reason=" + reason + ", value=" + value + ", device=" + getDevice() + ", time=" +
+            getTime() + ")";
+   }
+}
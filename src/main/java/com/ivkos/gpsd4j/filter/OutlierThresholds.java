@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The thresholds above which an {@link OutlierFilterStage} takes a fix for an outlier. A threshold can be disabled by
+ * setting it to {@link Double#POSITIVE_INFINITY}. Changes take effect with the next fix.
+ */
+public class OutlierThresholds
+{
+   public static final NMEAMode DEFAULT_MIN_MODE = NMEAMode.TwoDimensional;
+   public static final double DEFAULT_MAX_HORIZONTAL_ERROR = 100;
+   public static final double DEFAULT_MAX_SPEED_ERROR = 10;
+   public static final double DEFAULT_MAX_SPEED = 100;
+   public static final double DEFAULT_MAX_ACCELERATION = 15;
+   public static final int DEFAULT_MAX_GAP = 10_000;
+
+   private volatile NMEAMode minMode = DEFAULT_MIN_MODE;
+   private volatile double maxHorizontalError = DEFAULT_MAX_HORIZONTAL_ERROR;
+   private volatile double maxSpeedError = DEFAULT_MAX_SPEED_ERROR;
+   private volatile double maxSpeed = DEFAULT_MAX_SPEED;
+   private volatile double maxAcceleration = DEFAULT_MAX_ACCELERATION;
+   private volatile int maxGap = DEFAULT_MAX_GAP;
+
+   /**
+    * @return The lowest NMEA mode of the fixes that are let through.
+    */
+   public NMEAMode getMinMode()
+   {
+      return minMode;
+   }
+
+   /**
+    * @param minMode The lowest NMEA mode of the fixes that are let through. TPV reports without a mode count as
+    *                {@link NMEAMode#NotSet}.
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code minMode} is null
+    */
+   public OutlierThresholds setMinMode(NMEAMode minMode)
+   {
+      this.minMode = requireNonNull(minMode, "minMode must not be null");
+      return this;
+   }
+
+   /**
+    * @return The largest latitude or longitude error estimate (epy, epx) of the fixes that are let through, in meters.
+    */
+   public double getMaxHorizontalError()
+   {
+      return maxHorizontalError;
+   }
+
+   /**
+    * @param maxHorizontalError The largest latitude or longitude error estimate (epy, epx) of the fixes that are let
+    *                           through, in meters. Fixes without error estimates are let through.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public OutlierThresholds setMaxHorizontalError(double maxHorizontalError)
+   {
+      this.maxHorizontalError = maxHorizontalError;
+      return this;
+   }
+
+   /**
+    * @return The largest speed error estimate (eps) of the fixes that are let through, in meters/sec.
+    */
+   public double getMaxSpeedError()
+   {
+      return maxSpeedError;
+   }
+
+   /**
+    * @param maxSpeedError The largest speed error estimate (eps) of the fixes that are let through, in meters/sec.
+    *                      Fixes without a speed error estimate are let through.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public OutlierThresholds setMaxSpeedError(double maxSpeedError)
+   {
+      this.maxSpeedError = maxSpeedError;
+      return this;
+   }
+
+   /**
+    * @return The highest speed at which a device can have moved from the previous fix let through, in meters/sec.
+    */
+   public double getMaxSpeed()
+   {
+      return maxSpeed;
+   }
+
+   /**
+    * @param maxSpeed The highest speed at which a device can have moved from the previous fix let through, in
+    *                 meters/sec. The distance between the fixes is reduced by their horizontal error estimates, so
+    *                 that noise alone is not taken for movement.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public OutlierThresholds setMaxSpeed(double maxSpeed)
+   {
+      this.maxSpeed = maxSpeed;
+      return this;
+   }
+
+   /**
+    * @return The highest acceleration or deceleration since the previous fix let through, in meters/sec².
+    */
+   public double getMaxAcceleration()
+   {
+      return maxAcceleration;
+   }
+
+   /**
+    * @param maxAcceleration The highest acceleration or deceleration since the previous fix let through, in
+    *                        meters/sec². It is computed from the speeds reported with the fixes, reduced by their
+    *                        error estimates, and is not checked for fixes without a speed.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public OutlierThresholds setMaxAcceleration(double maxAcceleration)
+   {
+      this.maxAcceleration = maxAcceleration;
+      return this;
+   }
+
+   /**
+    * @return The longest time since the previous fix let through, in ms, over which speed and acceleration are
+    * checked.
+    */
+   public int getMaxGap()
+   {
+      return maxGap;
+   }
+
+   /**
+    * @param maxGap The longest time since the previous fix let through, in ms, over which speed and acceleration are
+    *               checked. After a longer gap, e.g. in a tunnel, the device may well be somewhere else, so the next
+    *               fix is only checked against the other thresholds.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public OutlierThresholds setMaxGap(int maxGap)
+   {
+      this.maxGap = maxGap;
+      return this;
+   }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+import com.ivkos.gpsd4j.messages.DeviceReport;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.time.LocalDateTime;
+
+/**
+ * A fix smoothed by a {@link KalmanFilterStage}, passed to the handlers right after the TPV report it was computed
+ * from. It is not sent by gpsd, but handlers can be added for it like for the messages that are:
+ * <pre>
+ * client.addHandler(SmoothedTPVReport.class, smoothed -&gt; System.out.println(smoothed));
+ * </pre>
+ * The error estimates are derived from the covariance of the filter and, like those of gpsd, are in the units of the
+ * estimates they are associated with, at 95% confidence.
+ */
+public final class SmoothedTPVReport extends GpsdMessage implements DeviceReport
+{
+   public static final String CLASS = "SMOOTHED_TPV";
+
+   private final TPVReport tpv;
+   private final double latitude;
+   private final double longitude;
+   private final double altitude;
+   private final double latitudeError;
+   private final double longitudeError;
+   private final double altitudeError;
+   private final double eastVelocity;
+   private final double northVelocity;
+   private final double climbRate;
+   private final double speedError;
+
+   SmoothedTPVReport(TPVReport tpv, double latitude, double longitude, double altitude,
+                     double latitudeError, double longitudeError, double altitudeError,
+                     double eastVelocity, double northVelocity, double climbRate, double speedError)
+   {
+      this.tpv = tpv;
+      this.latitude = latitude;
+      this.longitude = longitude;
+      this.altitude = altitude;
+      this.latitudeError = latitudeError;
+      this.longitudeError = longitudeError;
+      this.altitudeError = altitudeError;
+      this.eastVelocity = eastVelocity;
+      this.northVelocity = northVelocity;
+      this.climbRate = climbRate;
+      this.speedError = speedError;
+   }
+
+   /**
+    * @return Name of the device
+    */
+   @Override
+   public String getDevice()
+   {
+      return tpv.getDevice();
+   }
+
+   /**
+    * @return Time of the fix, UTC
+    */
+   public LocalDateTime getTime()
+   {
+      return tpv.getTime();
+   }
+
+   /**
+    * @return Latitude in degrees: +/- signifies North/South.
+    */
+   public double getLatitude()
+   {
+      return latitude;
+   }
+
+   /**
+    * @return Longitude in degrees: +/- signifies East/West.
+    */
+   public double getLongitude()
+   {
+      return longitude;
+   }
+
+   /**
+    * @return Altitude in meters. Null until the device has reported a 3D fix.
+    */
+   public Double getAltitude()
+   {
+      return Double.isNaN(altitude) ? null : altitude;
+   }
+
+   /**
+    * @return Latitude error estimate in meters, 95% confidence.
+    */
+   public double getLatitudeError()
+   {
+      return latitudeError;
+   }
+
+   /**
+    * @return Longitude error estimate in meters, 95% confidence.
+    */
+   public double getLongitudeError()
+   {
+      return longitudeError;
+   }
+
+   /**
+    * @return Vertical error estimate in meters, 95% confidence. Null if the altitude is null.
+    */
+   public Double getAltitudeError()
+   {
+      return Double.isNaN(altitudeError) ? null : altitudeError;
+   }
+
+   /**
+    * @return Speed over ground, meters per second.
+    */
+   public double getSpeed()
+   {
+      return Math.sqrt(eastVelocity * eastVelocity + northVelocity * northVelocity);
+   }
+
+   /**
+    * @return Course over ground, degrees from true north.
+    */
+   public double getCourse()
+   {
+      // computed on demand, as atan2 costs more than the whole filter
+      double course = Math.toDegrees(Math.atan2(eastVelocity, northVelocity));
+      return course < 0 ? course + 360 : course;
+   }
+
+   /**
+    * @return Velocity towards the east, meters per second.
+    */
+   public double getEastVelocity()
+   {
+      return eastVelocity;
+   }
+
+   /**
+    * @return Velocity towards the north, meters per second.
+    */
+   public double getNorthVelocity()
+   {
+      return northVelocity;
+   }
+
+   /**
+    * @return Climb (positive) or sink (negative) rate, meters per second. Null if the altitude is null.
+    */
+   public Double getClimbRate()
+   {
+      return Double.isNaN(altitude) ? null : climbRate;
+   }
+
+   /**
+    * @return Speed error estimate in meters/sec, 95% confidence.
+    */
+   public double getSpeedError()
+   {
+      return speedError;
+   }
+
+   /**
+    * @return the TPV report the fix was smoothed from
+    */
+   public TPVReport getTPV()
+   {
+      return tpv;
+   }
+
+   @Override
+   public String getGpsdClass()
+   {
+      return CLASS;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "SmoothedTPVReport(device=" + getDevice() + ", time=" + getTime() + ", latitude=" + latitude +
+            ", longitude=" + longitude + ", altitude=" + getAltitude() + ", speed=" + getSpeed() + ", course=" +
+            getCourse() + ")";
+   }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.fleet;
+
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A copy of the latest state of a device in a {@link FleetStateTable}. A row can be filled again and again, so one is
+ * enough for any number of reads from the same thread. Fields that the latest report did not have are {@code NaN}.
+ * <p>
+ * A row is not thread-safe.
+ */
+public class FleetRow
+{
+   int deviceId;
+   long time;
+   byte mode;
+   double latitude;
+   double longitude;
+   double altitude;
+   double speed;
+   double course;
+   double climbRate;
+   double latitudeError;
+   double longitudeError;
+   double altitudeError;
+   short satellitesVisible;
+   short satellitesUsed;
+   long skyTime;
+
+   /**
+    * @return ID of the device
+    */
+   public int getDeviceId()
+   {
+      return deviceId;
+   }
+
+   /**
+    * @return true if a TPV report with a time has been stored for the device
+    */
+   public boolean hasTime()
+   {
+      return time != Long.MIN_VALUE;
+   }
+
+   /**
+    * @return Time of the latest TPV report, in ms since the epoch, or {@link Long#MIN_VALUE} if there is none.
+    */
+   public long getTimeMillis()
+   {
+      return time;
+   }
+
+   /**
+    * @return Time of the latest TPV report, UTC, or null if there is none.
+    */
+   public LocalDateTime getTime()
+   {
+      return hasTime() ? LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneOffset.UTC) : null;
+   }
+
+   /**
+    * @return NMEA mode of the latest TPV report, or null if there is none.
+    */
+   public NMEAMode getMode()
+   {
+      return mode >= 0 ? NMEAMode.values()[mode] : null;
+   }
+
+   /**
+    * @return Latitude in degrees: +/- signifies North/South.
+    */
+   public double getLatitude()
+   {
+      return latitude;
+   }
+
+   /**
+    * @return Longitude in degrees: +/- signifies East/West.
+    */
+   public double getLongitude()
+   {
+      return longitude;
+   }
+
+   /**
+    * @return Altitude in meters.
+    */
+   public double getAltitude()
+   {
+      return altitude;
+   }
+
+   /**
+    * @return Speed over ground, meters per second.
+    */
+   public double getSpeed()
+   {
+      return speed;
+   }
+
+   /**
+    * @return Course over ground, degrees from true north.
+    */
+   public double getCourse()
+   {
+      return course;
+   }
+
+   /**
+    * @return Climb (positive) or sink (negative) rate, meters per second.
+    */
+   public double getClimbRate()
+   {
+      return climbRate;
+   }
+
+   /**
+    * @return Latitude error estimate in meters, 95% confidence.
+    */
+   public double getLatitudeError()
+   {
+      return latitudeError;
+   }
+
+   /**
+    * @return Longitude error estimate in meters, 95% confidence.
+    */
+   public double getLongitudeError()
+   {
+      return longitudeError;
+   }
+
+   /**
+    * @return Estimated vertical error in meters, 95% confidence.
+    */
+   public double getAltitudeError()
+   {
+      return altitudeError;
+   }
+
+   /**
+    * @return Number of satellites in view in the latest SKY report, or 0 if there is none.
+    */
+   public int getSatellitesVisible()
+   {
+      return satellitesVisible;
+   }
+
+   /**
+    * @return Number of satellites used in the solution in the latest SKY report, or 0 if there is none.
+    */
+   public int getSatellitesUsed()
+   {
+      return satellitesUsed;
+   }
+
+   /**
+    * @return Time of the latest SKY report, in ms since the epoch, or {@link Long#MIN_VALUE} if there is none.
+    */
+   public long getSkyTimeMillis()
+   {
+      return skyTime;
+   }
+}
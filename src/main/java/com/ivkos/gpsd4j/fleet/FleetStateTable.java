@@ -0,0 +1,341 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.fleet;
+
+import com.ivkos.gpsd4j.messages.Satellite;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The latest state of a large number of devices, kept outside of the heap. Each device has a row of fixed size in a
+ * direct buffer, indexed by a device ID from zero to the capacity of the table, that holds the fields of its latest
+ * TPV report and the satellite counts of its latest SKY report. However many devices there are, the table adds two
+ * objects to the heap, so it does not lengthen garbage collection pauses.
+ * <p>
+ * Assigning the IDs is up to the application, e.g. from the endpoint and the device name. The handlers returned by
+ * {@link #tpvHandler(int)} and {@link #skyHandler(int)} update the row of a device:
+ * <pre>
+ * FleetStateTable table = new FleetStateTable(200_000);
+ *
+ * client.addHandler(TPVReport.class, "/dev/ttyUSB0", table.tpvHandler(42))
+ *       .addHandler(SKYReport.class, "/dev/ttyUSB0", table.skyHandler(42));
+ * </pre>
+ * Each row is guarded by a sequence lock. Writers take a row by bumping its version to an odd number with a
+ * compare-and-set, and bump it again when done, so there are no monitors and writers to different rows never wait for
+ * each other. Readers copy a row into a {@link FleetRow} and retry if its version changed meanwhile, so they never
+ * block writers and always see a row as a single update left it.
+ */
+public class FleetStateTable
+{
+   static final int STRIDE = 96;
+
+   private static final int TIME = 0;
+   private static final int LATITUDE = 8;
+   private static final int LONGITUDE = 16;
+   private static final int ALTITUDE = 24;
+   private static final int SPEED = 32;
+   private static final int COURSE = 40;
+   private static final int CLIMB_RATE = 48;
+   private static final int LATITUDE_ERROR = 56;
+   private static final int LONGITUDE_ERROR = 64;
+   private static final int ALTITUDE_ERROR = 72;
+   private static final int MODE = 80;
+   private static final int SATELLITES_VISIBLE = 82;
+   private static final int SATELLITES_USED = 84;
+   private static final int SKY_TIME = 88;
+
+   private final int capacity;
+   private final ByteBuffer rows;
+
+   /**
+    * The version of each row: zero if it has never been written, odd while it is being written.
+    */
+   private final AtomicLongArray versions;
+
+   /**
+    * Creates a table. Its rows take {@value #STRIDE} bytes of memory outside of the heap for each device.
+    *
+    * @param capacity the number of devices, so that device IDs are from 0 to {@code capacity - 1}
+    *
+    * @throws IllegalArgumentException if {@code capacity} is not positive, or too large for a single buffer
+    */
+   public FleetStateTable(int capacity)
+   {
+      if (capacity <= 0 || capacity > Integer.MAX_VALUE / STRIDE) {
+         throw new IllegalArgumentException("capacity must be positive and at most " + Integer.MAX_VALUE / STRIDE);
+      }
+
+      this.capacity = capacity;
+      this.rows = ByteBuffer.allocateDirect(capacity * STRIDE).order(ByteOrder.nativeOrder());
+      this.versions = new AtomicLongArray(capacity);
+   }
+
+   /**
+    * @return the number of devices the table holds
+    */
+   public int getCapacity()
+   {
+      return capacity;
+   }
+
+   /**
+    * Stores the fields of a TPV report as the latest state of a device. The satellite counts are kept.
+    *
+    * @param deviceId the ID of the device
+    * @param tpv      the report
+    *
+    * @throws IndexOutOfBoundsException if {@code deviceId} is not within the capacity
+    * @throws NullPointerException      if {@code tpv} is null
+    */
+   public void update(int deviceId, TPVReport tpv)
+   {
+      requireNonNull(tpv, "tpv must not be null");
+
+      int row = offset(deviceId);
+      long version = this.lock(deviceId);
+
+      try {
+         if (version == 1) this.clear(row);
+
+         rows.putLong(row + TIME, toMillis(tpv.getTime()));
+         rows.putDouble(row + LATITUDE, orNaN(tpv.getLatitude()));
+         rows.putDouble(row + LONGITUDE, orNaN(tpv.getLongitude()));
+         rows.putDouble(row + ALTITUDE, orNaN(tpv.getAltitude()));
+         rows.putDouble(row + SPEED, orNaN(tpv.getSpeed()));
+         rows.putDouble(row + COURSE, orNaN(tpv.getCourse()));
+         rows.putDouble(row + CLIMB_RATE, orNaN(tpv.getClimbRate()));
+         rows.putDouble(row + LATITUDE_ERROR, orNaN(tpv.getLatitudeError()));
+         rows.putDouble(row + LONGITUDE_ERROR, orNaN(tpv.getLongitudeError()));
+         rows.putDouble(row + ALTITUDE_ERROR, orNaN(tpv.getAltitudeError()));
+         rows.put(row + MODE, tpv.getMode() != null ? (byte) tpv.getMode().ordinal() : -1);
+      } finally {
+         this.unlock(deviceId, version);
+      }
+   }
+
+   /**
+    * Stores the number of visible and used satellites of a SKY report as the latest state of a device. The other
+    * fields are kept.
+    *
+    * @param deviceId the ID of the device
+    * @param sky      the report
+    *
+    * @throws IndexOutOfBoundsException if {@code deviceId} is not within the capacity
+    * @throws NullPointerException      if {@code sky} is null
+    */
+   public void update(int deviceId, SKYReport sky)
+   {
+      requireNonNull(sky, "sky must not be null");
+
+      List<Satellite> satellites = sky.getSatellites();
+      int used = 0;
+      for (int i = 0; i < satellites.size(); i++) {
+         if (satellites.get(i).isUsed()) used++;
+      }
+
+      int row = offset(deviceId);
+      long version = this.lock(deviceId);
+
+      try {
+         if (version == 1) this.clear(row);
+
+         rows.putShort(row + SATELLITES_VISIBLE, (short) satellites.size());
+         rows.putShort(row + SATELLITES_USED, (short) used);
+         rows.putLong(row + SKY_TIME, toMillis(sky.getTime()));
+      } finally {
+         this.unlock(deviceId, version);
+      }
+   }
+
+   /**
+    * @param deviceId the ID of the device
+    *
+    * @return a handler of TPV reports that updates the row of the device
+    *
+    * @throws IndexOutOfBoundsException if {@code deviceId} is not within the capacity
+    */
+   public Consumer<TPVReport> tpvHandler(int deviceId)
+   {
+      offset(deviceId);
+      return tpv -> this.update(deviceId, tpv);
+   }
+
+   /**
+    * @param deviceId the ID of the device
+    *
+    * @return a handler of SKY reports that updates the row of the device
+    *
+    * @throws IndexOutOfBoundsException if {@code deviceId} is not within the capacity
+    */
+   public Consumer<SKYReport> skyHandler(int deviceId)
+   {
+      offset(deviceId);
+      return sky -> this.update(deviceId, sky);
+   }
+
+   /**
+    * Copies the latest state of a device into a row. The copy is consistent: it never mixes fields of different
+    * updates.
+    *
+    * @param deviceId the ID of the device
+    * @param row      the row to copy into
+    *
+    * @return true if the state was copied, or false if nothing has been stored for the device
+    *
+    * @throws IndexOutOfBoundsException if {@code deviceId} is not within the capacity
+    * @throws NullPointerException      if {@code row} is null
+    */
+   public boolean read(int deviceId, FleetRow row)
+   {
+      requireNonNull(row, "row must not be null");
+
+      int offset = offset(deviceId);
+
+      while (true) {
+         long version = versions.get(deviceId);
+         if (version == 0) return false;
+
+         // being written, try again
+         if ((version & 1) != 0) continue;
+
+         row.deviceId = deviceId;
+         row.time = rows.getLong(offset + TIME);
+         row.latitude = rows.getDouble(offset + LATITUDE);
+         row.longitude = rows.getDouble(offset + LONGITUDE);
+         row.altitude = rows.getDouble(offset + ALTITUDE);
+         row.speed = rows.getDouble(offset + SPEED);
+         row.course = rows.getDouble(offset + COURSE);
+         row.climbRate = rows.getDouble(offset + CLIMB_RATE);
+         row.latitudeError = rows.getDouble(offset + LATITUDE_ERROR);
+         row.longitudeError = rows.getDouble(offset + LONGITUDE_ERROR);
+         row.altitudeError = rows.getDouble(offset + ALTITUDE_ERROR);
+         row.mode = rows.get(offset + MODE);
+         row.satellitesVisible = rows.getShort(offset + SATELLITES_VISIBLE);
+         row.satellitesUsed = rows.getShort(offset + SATELLITES_USED);
+         row.skyTime = rows.getLong(offset + SKY_TIME);
+
+         // A plain read of the version could be reordered before the reads of the fields. A compare-and-set is a
+         // write as well, so the reads above cannot move past it.
+         if (versions.compareAndSet(deviceId, version, version)) return true;
+      }
+   }
+
+   /**
+    * Visits the latest state of each device that has one, in the order of device IDs. The same row is passed for every
+    * device, so it must not be kept after the visitor returns.
+    *
+    * @param visitor the visitor
+    *
+    * @return the number of devices visited
+    *
+    * @throws NullPointerException if {@code visitor} is null
+    */
+   public int scan(Consumer<FleetRow> visitor)
+   {
+      return scan(0, capacity, visitor);
+   }
+
+   /**
+    * Visits the latest state of each device with an ID in {@code [from, to)} that has one. Scans of separate ranges
+    * can run in parallel.
+    *
+    * @param from    the first device ID, inclusive
+    * @param to      the last device ID, exclusive
+    * @param visitor the visitor
+    *
+    * @return the number of devices visited
+    *
+    * @throws IndexOutOfBoundsException if the range is not within the capacity
+    * @throws NullPointerException      if {@code visitor} is null
+    */
+   public int scan(int from, int to, Consumer<FleetRow> visitor)
+   {
+      requireNonNull(visitor, "visitor must not be null");
+      if (from < 0 || to > capacity || from > to) {
+         throw new IndexOutOfBoundsException("Range [" + from + ", " + to + ") of capacity " + capacity);
+      }
+
+      FleetRow row = new FleetRow();
+      int visited = 0;
+
+      for (int deviceId = from; deviceId < to; deviceId++) {
+         if (this.read(deviceId, row)) {
+            visitor.accept(row);
+            visited++;
+         }
+      }
+
+      return visited;
+   }
+
+   private long lock(int deviceId)
+   {
+      while (true) {
+         long version = versions.get(deviceId);
+         if ((version & 1) == 0 && versions.compareAndSet(deviceId, version, version + 1)) return version + 1;
+      }
+   }
+
+   private void unlock(int deviceId, long version)
+   {
+      // a volatile write, so that the writes of the fields are visible before the new version
+      versions.set(deviceId, version + 1);
+   }
+
+   private void clear(int row)
+   {
+      rows.putLong(row + TIME, Long.MIN_VALUE);
+      for (int field = LATITUDE; field <= ALTITUDE_ERROR; field += 8) {
+         rows.putDouble(row + field, Double.NaN);
+      }
+      rows.put(row + MODE, (byte) -1);
+      rows.putShort(row + SATELLITES_VISIBLE, (short) 0);
+      rows.putShort(row + SATELLITES_USED, (short) 0);
+      rows.putLong(row + SKY_TIME, Long.MIN_VALUE);
+   }
+
+   private int offset(int deviceId)
+   {
+      if (deviceId < 0 || deviceId >= capacity) {
+         throw new IndexOutOfBoundsException("Device ID " + deviceId + " of capacity " + capacity);
+      }
+
+      return deviceId * STRIDE;
+   }
+
+   private static long toMillis(LocalDateTime time)
+   {
+      if (time == null) return Long.MIN_VALUE;
+
+      return time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1_000_000;
+   }
+
+   private static double orNaN(Double value)
+   {
+      return value != null ? value : Double.NaN;
+   }
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.geofence;
+
+import java.util.Arrays;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A geofence: an area bounded by a polygon of latitudes and longitudes, identified by a name.
+ * <p>
+ * The edges of the polygon are straight lines in latitude and longitude, which is accurate enough for areas of up to a
+ * few tens of kilometers. A polygon must not cross the antimeridian or enclose a pole. It may be concave, but its
+ * edges should not cross each other.
+ */
+public final class Geofence
+{
+   private final String id;
+   private final double[] latitudes;
+   private final double[] longitudes;
+
+   private final double south;
+   private final double north;
+   private final double west;
+   private final double east;
+
+   /**
+    * Creates a geofence.
+    *
+    * @param id         the name of the geofence
+    * @param latitudes  the latitudes of the vertices of the polygon, in degrees
+    * @param longitudes the longitudes of the vertices of the polygon, in degrees, in the same order
+    *
+    * @throws IllegalArgumentException if there are fewer than three vertices, the arrays are not of the same length, or
+    *                                  a vertex is not valid
+    * @throws NullPointerException     if any argument is null
+    */
+   public Geofence(String id, double[] latitudes, double[] longitudes)
+   {
+      this.id = requireNonNull(id, "id must not be null");
+      requireNonNull(latitudes, "latitudes must not be null");
+      requireNonNull(longitudes, "longitudes must not be null");
+
+      if (latitudes.length != longitudes.length) {
+         throw new IllegalArgumentException("latitudes and longitudes must be of the same length");
+      }
+
+      if (latitudes.length < 3) throw new IllegalArgumentException("A polygon needs at least three vertices");
+
+      double s = 90, n = -90, w = 180, e = -180;
+
+      for (int i = 0; i < latitudes.length; i++) {
+         if (!(Math.abs(latitudes[i]) <= 90)) throw new IllegalArgumentException("Invalid latitude: " + latitudes[i]);
+         if (!(Math.abs(longitudes[i]) <= 180)) {
+            throw new IllegalArgumentException("Invalid longitude: " + longitudes[i]);
+         }
+
+         s = Math.min(s, latitudes[i]);
+         n = Math.max(n, latitudes[i]);
+         w = Math.min(w, longitudes[i]);
+         e = Math.max(e, longitudes[i]);
+      }
+
+      this.latitudes = latitudes.clone();
+      this.longitudes = longitudes.clone();
+      this.south = s;
+      this.north = n;
+      this.west = w;
+      this.east = e;
+   }
+
+   /**
+    * @return the name of the geofence
+    */
+   public String getId()
+   {
+      return id;
+   }
+
+   /**
+    * @return the number of vertices of the polygon
+    */
+   public int getVertexCount()
+   {
+      return latitudes.length;
+   }
+
+   /**
+    * @param index the index of the vertex
+    *
+    * @return the latitude of a vertex of the polygon, in degrees
+    */
+   public double getLatitude(int index)
+   {
+      return latitudes[index];
+   }
+
+   /**
+    * @param index the index of the vertex
+    *
+    * @return the longitude of a vertex of the polygon, in degrees
+    */
+   public double getLongitude(int index)
+   {
+      return longitudes[index];
+   }
+
+   /**
+    * @return the southernmost latitude of the polygon, in degrees
+    */
+   public double getSouth()
+   {
+      return south;
+   }
+
+   /**
+    * @return the northernmost latitude of the polygon, in degrees
+    */
+   public double getNorth()
+   {
+      return north;
+   }
+
+   /**
+    * @return the westernmost longitude of the polygon, in degrees
+    */
+   public double getWest()
+   {
+      return west;
+   }
+
+   /**
+    * @return the easternmost longitude of the polygon, in degrees
+    */
+   public double getEast()
+   {
+      return east;
+   }
+
+   /**
+    * Tests whether a point is inside the polygon. Points exactly on an edge may be either inside or outside.
+    *
+    * @param latitude  the latitude of the point, in degrees
+    * @param longitude the longitude of the point, in degrees
+    *
+    * @return true if the point is inside the polygon
+    */
+   public boolean contains(double latitude, double longitude)
+   {
+      if (latitude < south || latitude > north || longitude < west || longitude > east) return false;
+
+      // count the edges that a ray from the point toward the east crosses
+      boolean inside = false;
+
+      for (int i = 0, j = latitudes.length - 1; i < latitudes.length; j = i++) {
+         double lat1 = latitudes[i], lat2 = latitudes[j];
+
+         if ((lat1 > latitude) != (lat2 > latitude)) {
+            double crossing = longitudes[i] + (latitude - lat1) * (longitudes[j] - longitudes[i]) / (lat2 - lat1);
+            if (longitude < crossing) inside = !inside;
+         }
+      }
+
+      return inside;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "Geofence(id=" + id + ", vertices=" + latitudes.length + ", south=" + south + ", west=" + west +
+            ", north=" + north + ", east=" + east + ")";
+   }
+
+   @Override
+   public boolean equals(Object o)
+   {
+      if (this == o) return true;
+      if (!(o instanceof Geofence)) return false;
+
+      Geofence other = (Geofence) o;
+      return id.equals(other.id) &&
+            Arrays.equals(latitudes, other.latitudes) &&
+            Arrays.equals(longitudes, other.longitudes);
+   }
+
+   @Override
+   public int hashCode()
+   {
+      return id.hashCode() * 31 + Arrays.hashCode(latitudes);
+   }
+}
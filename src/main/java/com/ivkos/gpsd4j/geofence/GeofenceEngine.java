@@ -0,0 +1,363 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.geofence;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.ivkos.gpsd4j.geofence.GeofenceTransition.ENTER;
+import static com.ivkos.gpsd4j.geofence.GeofenceTransition.EXIT;
+import static com.ivkos.gpsd4j.tools.Geodesy.MEAN_EARTH_RADIUS;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Tests the fixes of TPV reports against a set of geofences, and tells when a device enters or exits one. It is a
+ * handler of TPV reports, and publishes a {@link GeofenceEvent} for each transition, e.g. to the handlers of the same
+ * client:
+ * <pre>
+ * GeofenceEngine geofences = new GeofenceEngine(client::publish);
+ * geofences.addFence(new Geofence("depot", latitudes, longitudes));
+ *
+ * client.addHandler(TPVReport.class, geofences)
+ *       .addHandler(GeofenceEvent.class, event -&gt; System.out.println(event));
+ * </pre>
+ * The geofences are kept in a grid of cells, each with the geofences whose bounding box overlaps it, so a fix is only
+ * tested against the few geofences around it however many there are. Geofences much larger than a cell are kept aside
+ * and tested against every fix.
+ * <p>
+ * The first fix of a device inside a geofence is an {@link GeofenceTransition#ENTER ENTER}, and the first one outside
+ * an {@link GeofenceTransition#EXIT EXIT}. A device that is inside a geofence when it is removed exits it with its
+ * next fix. Reports without a device or position are ignored, and so are reports older than the latest one of their
+ * device. Geofences can be added and removed at any time, while reports are being handled.
+ */
+public class GeofenceEngine implements Consumer<TPVReport>
+{
+   /**
+    * The default size of a cell, in meters.
+    */
+   public static final double DEFAULT_CELL_SIZE = 1000;
+
+   /**
+    * The most cells that a geofence is added to. Larger geofences are tested against every fix.
+    */
+   static final int MAX_CELLS_PER_FENCE = 256;
+
+   private static final Geofence[] NONE = new Geofence[0];
+
+   private final Consumer<? super GeofenceEvent> publisher;
+   private final double cellDegrees;
+   private final int longitudeCells;
+
+   private final Map<String, Geofence> fences = new ConcurrentHashMap<>();
+   private final Map<Long, Geofence[]> cells = new ConcurrentHashMap<>();
+   private volatile Geofence[] large = NONE;
+
+   private final Map<String, DeviceState> devices = new ConcurrentHashMap<>();
+
+   /**
+    * Creates an engine without geofences, with cells of {@value #DEFAULT_CELL_SIZE} m.
+    *
+    * @param publisher the consumer of the events, e.g. {@code client::publish}
+    *
+    * @throws NullPointerException if {@code publisher} is null
+    */
+   public GeofenceEngine(Consumer<? super GeofenceEvent> publisher)
+   {
+      this(publisher, DEFAULT_CELL_SIZE);
+   }
+
+   /**
+    * Creates an engine without geofences.
+    *
+    * @param publisher the consumer of the events, e.g. {@code client::publish}
+    * @param cellSize  the size of a cell in meters at the equator, ideally about the size of a typical geofence
+    *
+    * @throws IllegalArgumentException if {@code cellSize} is not at least 1 m
+    * @throws NullPointerException     if {@code publisher} is null
+    */
+   public GeofenceEngine(Consumer<? super GeofenceEvent> publisher, double cellSize)
+   {
+      this.publisher = requireNonNull(publisher, "publisher must not be null");
+      if (!(cellSize >= 1)) throw new IllegalArgumentException("cellSize must be at least 1 m");
+
+      double cellAngle = Math.toDegrees(Math.min(cellSize, MEAN_EARTH_RADIUS) / MEAN_EARTH_RADIUS);
+      this.longitudeCells = (int) Math.ceil(360 / cellAngle);
+      this.cellDegrees = 360.0 / longitudeCells;
+   }
+
+   /**
+    * Adds a geofence, or replaces the one with the same name.
+    *
+    * @param fence the geofence
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws NullPointerException if {@code fence} is null
+    */
+   public synchronized GeofenceEngine addFence(Geofence fence)
+   {
+      requireNonNull(fence, "fence must not be null");
+
+      Geofence previous = fences.put(fence.getId(), fence);
+      if (previous != null) this.unindex(previous);
+
+      this.index(fence);
+
+      return this;
+   }
+
+   /**
+    * Removes a geofence.
+    *
+    * @param id the name of the geofence
+    *
+    * @return the removed geofence, or null if there was none
+    *
+    * @throws NullPointerException if {@code id} is null
+    */
+   public synchronized Geofence removeFence(String id)
+   {
+      requireNonNull(id, "id must not be null");
+
+      Geofence fence = fences.remove(id);
+      if (fence != null) this.unindex(fence);
+
+      return fence;
+   }
+
+   /**
+    * @param id the name of the geofence
+    *
+    * @return the geofence, or null if there is none with this name
+    *
+    * @throws NullPointerException if {@code id} is null
+    */
+   public Geofence getFence(String id)
+   {
+      return fences.get(requireNonNull(id, "id must not be null"));
+   }
+
+   /**
+    * @return an unmodifiable live view of the geofences
+    */
+   public Collection<Geofence> getFences()
+   {
+      return Collections.unmodifiableCollection(fences.values());
+   }
+
+   /**
+    * @param device the name of the device
+    *
+    * @return the geofences the device was inside at its latest fix
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public List<Geofence> getFencesContaining(String device)
+   {
+      DeviceState state = devices.get(requireNonNull(device, "device must not be null"));
+      if (state == null) return Collections.emptyList();
+
+      synchronized (state) {
+         return Collections.unmodifiableList(Arrays.asList(state.inside.clone()));
+      }
+   }
+
+   /**
+    * Tests the fix of a TPV report against the geofences, and publishes an event for each geofence its device entered
+    * or exited since its previous fix.
+    *
+    * @param tpv the report
+    *
+    * @throws NullPointerException if {@code tpv} is null
+    */
+   @Override
+   public void accept(TPVReport tpv)
+   {
+      requireNonNull(tpv, "tpv must not be null");
+
+      String device = tpv.getDevice();
+      Double latitude = tpv.getLatitude();
+      Double longitude = tpv.getLongitude();
+      if (device == null || latitude == null || longitude == null) return;
+
+      Geofence[] inside = this.fencesContaining(latitude, longitude);
+
+      DeviceState state = devices.get(device);
+      if (state == null) state = devices.computeIfAbsent(device, __ -> new DeviceState());
+
+      List<GeofenceEvent> events;
+
+      synchronized (state) {
+         LocalDateTime time = tpv.getTime();
+         if (time != null && state.time != null && time.isBefore(state.time)) return;
+         if (time != null) state.time = time;
+
+         Geofence[] previous = state.inside;
+         if (previous.length == 0 && inside.length == 0) return;
+
+         events = new ArrayList<>();
+         for (Geofence fence : previous) {
+            if (!containsId(inside, fence.getId())) events.add(new GeofenceEvent(EXIT, fence, tpv));
+         }
+
+         for (Geofence fence : inside) {
+            if (!containsId(previous, fence.getId())) events.add(new GeofenceEvent(ENTER, fence, tpv));
+         }
+
+         state.inside = inside;
+      }
+
+      events.forEach(publisher);
+   }
+
+   /**
+    * Forgets the geofences a device was inside, e.g. when it is retired, without publishing any events.
+    *
+    * @param device the name of the device
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public void removeDevice(String device)
+   {
+      devices.remove(requireNonNull(device, "device must not be null"));
+   }
+
+   /**
+    * @return the geofences containing a point. The same empty array is returned when there are none.
+    */
+   Geofence[] fencesContaining(double latitude, double longitude)
+   {
+      Geofence[] candidates = cells.get(this.key(latitude, longitude));
+      Geofence[] others = this.large;
+
+      Geofence[] inside = NONE;
+      int count = 0;
+
+      if (candidates != null) {
+         for (Geofence fence : candidates) {
+            if (fence.contains(latitude, longitude)) {
+               if (count == inside.length) inside = Arrays.copyOf(inside, count + 4);
+               inside[count++] = fence;
+            }
+         }
+      }
+
+      for (Geofence fence : others) {
+         if (fence.contains(latitude, longitude)) {
+            if (count == inside.length) inside = Arrays.copyOf(inside, count + 4);
+            inside[count++] = fence;
+         }
+      }
+
+      return count == inside.length ? inside : Arrays.copyOf(inside, count);
+   }
+
+   private void index(Geofence fence)
+   {
+      int fromRow = this.row(fence.getSouth()), toRow = this.row(fence.getNorth());
+      int fromColumn = this.column(fence.getWest()), toColumn = this.column(fence.getEast());
+
+      if ((long) (toRow - fromRow + 1) * (toColumn - fromColumn + 1) > MAX_CELLS_PER_FENCE) {
+         this.large = append(this.large, fence);
+         return;
+      }
+
+      // each cell is copied on write, so that fixes are tested without locking
+      for (int row = fromRow; row <= toRow; row++) {
+         for (int column = fromColumn; column <= toColumn; column++) {
+            cells.compute(this.key(row, column), (__, cell) -> append(cell != null ? cell : NONE, fence));
+         }
+      }
+   }
+
+   private void unindex(Geofence fence)
+   {
+      int fromRow = this.row(fence.getSouth()), toRow = this.row(fence.getNorth());
+      int fromColumn = this.column(fence.getWest()), toColumn = this.column(fence.getEast());
+
+      if ((long) (toRow - fromRow + 1) * (toColumn - fromColumn + 1) > MAX_CELLS_PER_FENCE) {
+         this.large = without(this.large, fence);
+         return;
+      }
+
+      for (int row = fromRow; row <= toRow; row++) {
+         for (int column = fromColumn; column <= toColumn; column++) {
+            cells.computeIfPresent(this.key(row, column), (__, cell) -> {
+               Geofence[] remaining = without(cell, fence);
+               return remaining.length > 0 ? remaining : null;
+            });
+         }
+      }
+   }
+
+   private long key(double latitude, double longitude)
+   {
+      return this.key(this.row(latitude), this.column(longitude));
+   }
+
+   private long key(int row, int column)
+   {
+      return (long) row * longitudeCells + column;
+   }
+
+   private int row(double latitude)
+   {
+      return (int) Math.floor((latitude + 90) / cellDegrees);
+   }
+
+   private int column(double longitude)
+   {
+      return Math.min(longitudeCells - 1, (int) Math.floor((longitude + 180) / cellDegrees));
+   }
+
+   private static Geofence[] append(Geofence[] fences, Geofence fence)
+   {
+      Geofence[] result = Arrays.copyOf(fences, fences.length + 1);
+      result[fences.length] = fence;
+
+      return result;
+   }
+
+   private static Geofence[] without(Geofence[] fences, Geofence fence)
+   {
+      return Arrays.stream(fences).filter(f -> f != fence).toArray(Geofence[]::new);
+   }
+
+   private static boolean containsId(Geofence[] fences, String id)
+   {
+      for (Geofence fence : fences) {
+         if (fence.getId().equals(id)) return true;
+      }
+
+      return false;
+   }
+
+   private static class DeviceState
+   {
+      Geofence[] inside = NONE;
+      LocalDateTime time;
+   }
+}
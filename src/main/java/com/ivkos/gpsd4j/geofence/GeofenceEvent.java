@@ -0,0 +1,110 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.geofence;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.ivkos.gpsd4j.messages.DeviceReport;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.time.LocalDateTime;
+
+/**
+ * A device entering or exiting a geofence, detected by a {@link GeofenceEngine}. It is not sent by gpsd, but is
+ * published to the handlers of a client like the messages that are, so handlers can be added for it:
+ * <pre>
+ * client.addHandler(GeofenceEvent.class, event -&gt; System.out.println(event));
+ * </pre>
+ */
+public final class GeofenceEvent extends GpsdMessage implements DeviceReport
+{
+   public static final String CLASS = "GEOFENCE";
+
+   private final GeofenceTransition transition;
+   private final Geofence fence;
+   private final TPVReport tpv;
+
+   GeofenceEvent(GeofenceTransition transition, Geofence fence, TPVReport tpv)
+   {
+      this.transition = transition;
+      this.fence = fence;
+      this.tpv = tpv;
+   }
+
+   /**
+    * @return whether the device entered or exited the geofence
+    */
+   public GeofenceTransition getTransition()
+   {
+      return transition;
+   }
+
+   /**
+    * @return the geofence
+    */
+   @JsonIgnore
+   public Geofence getFence()
+   {
+      return fence;
+   }
+
+   /**
+    * @return the name of the geofence
+    */
+   public String getFenceId()
+   {
+      return fence.getId();
+   }
+
+   /**
+    * @return Name of the device
+    */
+   @Override
+   public String getDevice()
+   {
+      return tpv.getDevice();
+   }
+
+   /**
+    * @return Time of the first fix on the other side of the border, UTC. May be null if the fix has no time.
+    */
+   public LocalDateTime getTime()
+   {
+      return tpv.getTime();
+   }
+
+   /**
+    * @return the TPV report of the first fix on the other side of the border
+    */
+   public TPVReport getTPV()
+   {
+      return tpv;
+   }
+
+   @Override
+   public String getGpsdClass()
+   {
+      return CLASS;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "GeofenceEvent(transition=" + transition + ", fence=" + fence.getId() + ", device=" + getDevice() +
+            ", time=" + getTime() + ")";
+   }
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static java.lang.String.format;
+
+/**
+ * The segments of a journal that hold records of one type. Segments are named after the type and their sequence
+ * number, e.g. {@code tpv-0000000000.seg}, and a new one is created when the last one is full.
+ */
+class JournalLog
+{
+   /**
+    * Visits a record in place, without copying it out of the segment.
+    */
+   interface RecordVisitor
+   {
+      void visit(ByteBuffer buffer, int offset);
+   }
+
+   private final Path directory;
+   private final String prefix;
+   private final byte type;
+   private final int recordSize;
+   private final int segmentSize;
+   private final List<JournalSegment> segments = new CopyOnWriteArrayList<>();
+
+   private long lastTime = Long.MIN_VALUE;
+
+   JournalLog(Path directory, String prefix, byte type, int recordSize, int segmentSize) throws IOException
+   {
+      this.directory = directory;
+      this.prefix = prefix;
+      this.type = type;
+      this.recordSize = recordSize;
+      this.segmentSize = segmentSize;
+
+      List<Path> files = new ArrayList<>();
+      try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, prefix + "-*.seg")) {
+         stream.forEach(files::add);
+      }
+
+      // sequence numbers are zero-padded, so the names sort in order
+      files.sort(null);
+
+      for (Path file : files) {
+         this.segments.add(JournalSegment.open(file, type, recordSize));
+      }
+
+      JournalSegment last = this.last();
+      if (last != null && last.count() > 0) this.lastTime = last.time(last.count() - 1);
+   }
+
+   /**
+    * @return the offset in {@link #appendBuffer()} at which the next record must be written, or -1 if its time is
+    * earlier than that of the last record
+    */
+   int prepareAppend(long time) throws IOException
+   {
+      if (time < this.lastTime) return -1;
+
+      JournalSegment last = this.last();
+      if (last == null || last.isFull()) {
+         // a full segment does not change any more, so it only needs to be forced once
+         if (last != null) last.force();
+
+         Path file = directory.resolve(format("%s-%010d.seg", prefix, this.segments.size()));
+         last = JournalSegment.create(file, type, recordSize, segmentSize);
+         this.segments.add(last);
+      }
+
+      return last.nextOffset();
+   }
+
+   ByteBuffer appendBuffer()
+   {
+      return this.last().buffer();
+   }
+
+   void commitAppend()
+   {
+      JournalSegment last = this.last();
+      last.commit();
+      this.lastTime = last.time(last.count() - 1);
+   }
+
+   /**
+    * Visits the records with a time in {@code [from, to)}, in order.
+    *
+    * @return the number of records visited
+    */
+   long scan(long from, long to, RecordVisitor visitor)
+   {
+      long visited = 0;
+
+      for (JournalSegment segment : this.segments) {
+         int count = segment.count();
+         if (count == 0 || segment.time(count - 1) < from) continue;
+         if (segment.time(0) >= to) break;
+
+         ByteBuffer buffer = segment.buffer();
+         for (int record = segment.seek(from, count); record < count; record++) {
+            long time = segment.time(record);
+            if (time >= to) return visited;
+            if (time < from) continue;
+
+            visitor.visit(buffer, segment.offset(record));
+            visited++;
+         }
+      }
+
+      return visited;
+   }
+
+   long count()
+   {
+      long count = 0;
+      for (JournalSegment segment : this.segments) count += segment.count();
+
+      return count;
+   }
+
+   void force()
+   {
+      JournalSegment last = this.last();
+      if (last != null) last.force();
+   }
+
+   private JournalSegment last()
+   {
+      return this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+   }
+}
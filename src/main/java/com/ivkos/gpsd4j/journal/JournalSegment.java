@@ -0,0 +1,238 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.journal;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.lang.String.format;
+import static java.nio.channels.FileChannel.MapMode.READ_WRITE;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * A segment file of a journal, mapped into memory as a whole. It holds fixed size records of one type, ordered by
+ * time, and a sparse index of the time of every {@link #INDEX_INTERVAL}th record:
+ * <pre>
+ * [header: HEADER_SIZE bytes][index: one long per INDEX_INTERVAL records][records]
+ * </pre>
+ * The record count in the header is written after the record itself, so a record is only visible once it is
+ * complete, even after a crash.
+ * <p>
+ * Appends must not be concurrent. Reads may be concurrent with each other and with appends, and see every record
+ * appended before they read {@link #count()}.
+ */
+class JournalSegment
+{
+   static final int MAGIC = 0x47505344; // "GPSD"
+   static final byte VERSION = 1;
+   static final int HEADER_SIZE = 64;
+   static final int INDEX_INTERVAL = 64;
+
+   private static final int MAGIC_OFFSET = 0;
+   private static final int VERSION_OFFSET = 4;
+   private static final int TYPE_OFFSET = 5;
+   private static final int RECORD_SIZE_OFFSET = 8;
+   private static final int CAPACITY_OFFSET = 12;
+   private static final int COUNT_OFFSET = 16;
+
+   private final Path file;
+   private final MappedByteBuffer buffer;
+   private final int recordSize;
+   private final int capacity;
+   private final int recordsOffset;
+   private volatile int count;
+
+   private JournalSegment(Path file, MappedByteBuffer buffer, int recordSize, int capacity, int count)
+   {
+      this.file = file;
+      this.buffer = buffer;
+      this.recordSize = recordSize;
+      this.capacity = capacity;
+      this.recordsOffset = HEADER_SIZE + indexEntries(capacity) * Long.BYTES;
+      this.count = count;
+   }
+
+   /**
+    * Creates an empty segment that fits in {@code segmentSize} bytes.
+    */
+   static JournalSegment create(Path file, byte type, int recordSize, int segmentSize) throws IOException
+   {
+      int capacity = capacity(recordSize, segmentSize);
+      if (capacity < 1) {
+         throw new IllegalArgumentException(format("segmentSize %d is too small for records of %d bytes",
+               segmentSize, recordSize));
+      }
+
+      MappedByteBuffer buffer = map(file, true, size(recordSize, capacity));
+      buffer.putInt(MAGIC_OFFSET, MAGIC);
+      buffer.put(VERSION_OFFSET, VERSION);
+      buffer.put(TYPE_OFFSET, type);
+      buffer.putInt(RECORD_SIZE_OFFSET, recordSize);
+      buffer.putInt(CAPACITY_OFFSET, capacity);
+      buffer.putInt(COUNT_OFFSET, 0);
+
+      return new JournalSegment(file, buffer, recordSize, capacity, 0);
+   }
+
+   /**
+    * Opens an existing segment.
+    *
+    * @throws IOException if the file is not a segment with records of the given type and size
+    */
+   static JournalSegment open(Path file, byte type, int recordSize) throws IOException
+   {
+      MappedByteBuffer buffer = map(file, false, 0);
+
+      if (buffer.capacity() < HEADER_SIZE || buffer.getInt(MAGIC_OFFSET) != MAGIC ||
+            buffer.get(VERSION_OFFSET) != VERSION || buffer.get(TYPE_OFFSET) != type ||
+            buffer.getInt(RECORD_SIZE_OFFSET) != recordSize) {
+         throw new IOException(format("%s is not a journal segment of the expected type or version", file));
+      }
+
+      int capacity = buffer.getInt(CAPACITY_OFFSET);
+      int count = buffer.getInt(COUNT_OFFSET);
+
+      if (buffer.capacity() < size(recordSize, capacity) || count < 0 || count > capacity) {
+         throw new IOException(format("Journal segment %s is corrupt", file));
+      }
+
+      return new JournalSegment(file, buffer, recordSize, capacity, count);
+   }
+
+   Path file()
+   {
+      return file;
+   }
+
+   MappedByteBuffer buffer()
+   {
+      return buffer;
+   }
+
+   int count()
+   {
+      return count;
+   }
+
+   boolean isFull()
+   {
+      return count == capacity;
+   }
+
+   /**
+    * @return the offset of a record in the buffer
+    */
+   int offset(int record)
+   {
+      return recordsOffset + record * recordSize;
+   }
+
+   /**
+    * @return the time of a record, in ms since the epoch. The time is the first field of every record.
+    */
+   long time(int record)
+   {
+      return buffer.getLong(offset(record));
+   }
+
+   /**
+    * @return the offset at which the next record must be written. Call {@link #commit()} once it is written.
+    */
+   int nextOffset()
+   {
+      return offset(count);
+   }
+
+   /**
+    * Makes the record written at {@link #nextOffset()} visible.
+    */
+   void commit()
+   {
+      int record = this.count;
+
+      if (record % INDEX_INTERVAL == 0) {
+         buffer.putLong(HEADER_SIZE + record / INDEX_INTERVAL * Long.BYTES, time(record));
+      }
+
+      buffer.putInt(COUNT_OFFSET, record + 1);
+      this.count = record + 1;
+   }
+
+   /**
+    * Returns the first record whose time may be at or after {@code from}, using the sparse index. Records before it
+    * are all earlier than {@code from}.
+    */
+   int seek(long from, int count)
+   {
+      int low = 0;
+      int high = indexEntries(count) - 1;
+
+      // the last index entry that is earlier than from
+      int found = -1;
+      while (low <= high) {
+         int mid = (low + high) >>> 1;
+
+         if (buffer.getLong(HEADER_SIZE + mid * Long.BYTES) < from) {
+            found = mid;
+            low = mid + 1;
+         } else {
+            high = mid - 1;
+         }
+      }
+
+      return found < 0 ? 0 : found * INDEX_INTERVAL;
+   }
+
+   void force()
+   {
+      buffer.force();
+   }
+
+   private static int indexEntries(int records)
+   {
+      return (records + INDEX_INTERVAL - 1) / INDEX_INTERVAL;
+   }
+
+   private static long size(int recordSize, int capacity)
+   {
+      return HEADER_SIZE + (long) indexEntries(capacity) * Long.BYTES + (long) capacity * recordSize;
+   }
+
+   private static int capacity(int recordSize, int segmentSize)
+   {
+      // each record takes its own size, plus its share of an index entry
+      int capacity = (int) ((segmentSize - HEADER_SIZE) / (recordSize + (double) Long.BYTES / INDEX_INTERVAL));
+      while (capacity > 0 && size(recordSize, capacity) > segmentSize) capacity--;
+
+      return capacity;
+   }
+
+   private static MappedByteBuffer map(Path file, boolean create, long size) throws IOException
+   {
+      try (FileChannel channel = create
+            ? FileChannel.open(file, CREATE_NEW, READ, WRITE)
+            : FileChannel.open(file, READ, WRITE)) {
+         MappedByteBuffer buffer = channel.map(READ_WRITE, 0, create ? size : channel.size());
+         buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+         return buffer;
+      }
+   }
+}
@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.journal;
+
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A journal of the TPV and SKY reports of a receiver, kept on disk and queried by time range.
+ * <p>
+ * Reports are stored in a compact binary form with a fixed layout, in segment files that are mapped into memory. Each
+ * segment has a sparse index of the report times, so a query only touches the pages that hold the requested range.
+ * Queries read the records in place, without copying or parsing them, and can run concurrently with appends.
+ * <p>
+ * Reports are expected in time order, as a receiver produces them. Reports without a time, and reports earlier than
+ * the last one appended, are not stored. Keep one journal per receiver, for example:
+ * <pre>
+ * ReportJournal journal = new ReportJournal(Paths.get("/var/lib/fixes/ttyAMA0"));
+ *
+ * client.addHandler(TPVReport.class, "/dev/ttyAMA0", journal::append)
+ *       .addHandler(SKYReport.class, "/dev/ttyAMA0", journal::append);
+ *
+ * journal.readTPV(from, to, tpv -&gt; System.out.println(tpv.getLatitude() + ", " + tpv.getLongitude()));
+ * </pre>
+ */
+public class ReportJournal implements Closeable
+{
+   /**
+    * The default size of a segment file, in bytes.
+    */
+   public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+   private final Path directory;
+   private final JournalLog tpvLog;
+   private final JournalLog skyLog;
+   private volatile boolean closed = false;
+
+   /**
+    * Opens the journal in a directory with the default segment size, creating the directory if it does not exist.
+    *
+    * @param directory the directory of the journal
+    *
+    * @throws IOException          if the directory cannot be created or holds segments that cannot be read
+    * @throws NullPointerException if {@code directory} is null
+    */
+   public ReportJournal(Path directory) throws IOException
+   {
+      this(directory, DEFAULT_SEGMENT_SIZE);
+   }
+
+   /**
+    * Opens the journal in a directory, creating the directory if it does not exist.
+    *
+    * @param directory   the directory of the journal
+    * @param segmentSize the size of new segment files, in bytes. Existing segments keep their size.
+    *
+    * @throws IOException              if the directory cannot be created or holds segments that cannot be read
+    * @throws IllegalArgumentException if {@code segmentSize} is too small to hold a record
+    * @throws NullPointerException     if {@code directory} is null
+    */
+   public ReportJournal(Path directory, int segmentSize) throws IOException
+   {
+      this.directory = requireNonNull(directory, "directory must not be null");
+
+      if (segmentSize < JournalSegment.HEADER_SIZE + Long.BYTES + SKYRecord.SIZE) {
+         throw new IllegalArgumentException("segmentSize is too small to hold a record");
+      }
+
+      Files.createDirectories(directory);
+
+      this.tpvLog = new JournalLog(directory, "tpv", TPVRecord.TYPE, TPVRecord.SIZE, segmentSize);
+      this.skyLog = new JournalLog(directory, "sky", SKYRecord.TYPE, SKYRecord.SIZE, segmentSize);
+   }
+
+   /**
+    * @return the directory of the journal
+    */
+   public Path getDirectory()
+   {
+      return directory;
+   }
+
+   /**
+    * Appends a TPV report.
+    *
+    * @param tpv the report
+    *
+    * @return true if the report was stored, or false if it has no time or is earlier than the last TPV report stored
+    *
+    * @throws UncheckedIOException  if a new segment file cannot be created
+    * @throws IllegalStateException if the journal is closed
+    * @throws NullPointerException  if {@code tpv} is null
+    */
+   public synchronized boolean append(TPVReport tpv)
+   {
+      requireNonNull(tpv, "tpv must not be null");
+      ensureOpen();
+
+      if (tpv.getTime() == null) return false;
+
+      long time = toMillis(tpv.getTime());
+      int offset = prepareAppend(tpvLog, time);
+      if (offset < 0) return false;
+
+      TPVRecord.write(tpvLog.appendBuffer(), offset, time, tpv);
+      tpvLog.commitAppend();
+
+      return true;
+   }
+
+   /**
+    * Appends a SKY report. Only the first {@link SKYRecord#MAX_SATELLITES} satellites are stored.
+    *
+    * @param sky the report
+    *
+    * @return true if the report was stored, or false if it has no time or is earlier than the last SKY report stored
+    *
+    * @throws UncheckedIOException  if a new segment file cannot be created
+    * @throws IllegalStateException if the journal is closed
+    * @throws NullPointerException  if {@code sky} is null
+    */
+   public synchronized boolean append(SKYReport sky)
+   {
+      requireNonNull(sky, "sky must not be null");
+      ensureOpen();
+
+      if (sky.getTime() == null) return false;
+
+      long time = toMillis(sky.getTime());
+      int offset = prepareAppend(skyLog, time);
+      if (offset < 0) return false;
+
+      SKYRecord.write(skyLog.appendBuffer(), offset, time, sky);
+      skyLog.commitAppend();
+
+      return true;
+   }
+
+   /**
+    * Reads the TPV reports in a time range, in time order. The record passed to the visitor is a view of the journal
+    * that is reused for the next report, so it must not be kept after the visitor returns.
+    *
+    * @param from    the start of the range, inclusive, UTC
+    * @param to      the end of the range, exclusive, UTC
+    * @param visitor the visitor of each report
+    *
+    * @return the number of reports read
+    *
+    * @throws IllegalStateException if the journal is closed
+    * @throws NullPointerException  if any of the arguments is null
+    */
+   public long readTPV(LocalDateTime from, LocalDateTime to, Consumer<TPVRecord> visitor)
+   {
+      requireNonNull(visitor, "visitor must not be null");
+      ensureOpen();
+
+      TPVRecord record = new TPVRecord();
+      return tpvLog.scan(toMillis(from), toMillis(to), (buffer, offset) -> visitor.accept(record.wrap(buffer, offset)));
+   }
+
+   /**
+    * Reads the SKY reports in a time range, in time order. The record passed to the visitor is a view of the journal
+    * that is reused for the next report, so it must not be kept after the visitor returns.
+    *
+    * @param from    the start of the range, inclusive, UTC
+    * @param to      the end of the range, exclusive, UTC
+    * @param visitor the visitor of each report
+    *
+    * @return the number of reports read
+    *
+    * @throws IllegalStateException if the journal is closed
+    * @throws NullPointerException  if any of the arguments is null
+    */
+   public long readSKY(LocalDateTime from, LocalDateTime to, Consumer<SKYRecord> visitor)
+   {
+      requireNonNull(visitor, "visitor must not be null");
+      ensureOpen();
+
+      SKYRecord record = new SKYRecord();
+      return skyLog.scan(toMillis(from), toMillis(to), (buffer, offset) -> visitor.accept(record.wrap(buffer, offset)));
+   }
+
+   /**
+    * @return the number of TPV reports in the journal
+    */
+   public long getTPVCount()
+   {
+      return tpvLog.count();
+   }
+
+   /**
+    * @return the number of SKY reports in the journal
+    */
+   public long getSKYCount()
+   {
+      return skyLog.count();
+   }
+
+   /**
+    * Writes the reports appended so far to the disk. Without it, the operating system writes them in its own time,
+    * which is enough to survive a crash of the process, but not of the machine.
+    *
+    * @throws IllegalStateException if the journal is closed
+    */
+   public synchronized void flush()
+   {
+      ensureOpen();
+
+      tpvLog.force();
+      skyLog.force();
+   }
+
+   /**
+    * Flushes and closes the journal. The segment files stay mapped until the mappings are garbage collected.
+    */
+   @Override
+   public synchronized void close()
+   {
+      if (closed) return;
+
+      flush();
+      closed = true;
+   }
+
+   private static int prepareAppend(JournalLog log, long time)
+   {
+      try {
+         return log.prepareAppend(time);
+      } catch (IOException e) {
+         throw new UncheckedIOException(e);
+      }
+   }
+
+   private void ensureOpen()
+   {
+      if (closed) throw new IllegalStateException("Journal is closed");
+   }
+
+   private static long toMillis(LocalDateTime time)
+   {
+      return requireNonNull(time, "time must not be null").toInstant(ZoneOffset.UTC).toEpochMilli();
+   }
+}
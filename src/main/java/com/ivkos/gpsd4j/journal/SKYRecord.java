@@ -0,0 +1,255 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.journal;
+
+import com.ivkos.gpsd4j.messages.Satellite;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+
+import static com.ivkos.gpsd4j.journal.TPVRecord.putDouble;
+
+/**
+ * A {@link SKYReport} stored in a {@link ReportJournal}. The record is a view of the journal's memory-mapped segment,
+ * so its fields are read in place and not copied. The same instance is reused for each record visited, so it is only
+ * valid during the call to the visitor. Fields that were absent from the report are {@link Double#NaN}.
+ * <p>
+ * Up to {@link #MAX_SATELLITES} satellites are stored, in the order gpsd reported them. Layout, little-endian:
+ * <pre>
+ * 0   time (ms since the epoch)   16  tdop   40  vdop   64  gdop
+ * 8   satellite count             24  xdop   48  hdop   72  satellites, 16 bytes each:
+ *                                 32  ydop   56  pdop       PRN (short), used (byte), pad, az, el, ss (floats)
+ * </pre>
+ */
+public final class SKYRecord
+{
+   /**
+    * The maximum number of satellites stored with each record.
+    */
+   public static final int MAX_SATELLITES = 32;
+
+   static final byte TYPE = 2;
+
+   private static final int TIME = 0;
+   private static final int SATELLITE_COUNT = 8;
+   private static final int TDOP = 16;
+   private static final int XDOP = 24;
+   private static final int YDOP = 32;
+   private static final int VDOP = 40;
+   private static final int HDOP = 48;
+   private static final int PDOP = 56;
+   private static final int GDOP = 64;
+   private static final int SATELLITES = 72;
+
+   private static final int SATELLITE_SIZE = 16;
+   private static final int PRN = 0;
+   private static final int USED = 2;
+   private static final int AZIMUTH = 4;
+   private static final int ELEVATION = 8;
+   private static final int SIGNAL_STRENGTH = 12;
+
+   static final int SIZE = SATELLITES + MAX_SATELLITES * SATELLITE_SIZE;
+
+   private ByteBuffer buffer;
+   private int offset;
+
+   SKYRecord()
+   {
+   }
+
+   SKYRecord wrap(ByteBuffer buffer, int offset)
+   {
+      this.buffer = buffer;
+      this.offset = offset;
+      return this;
+   }
+
+   static void write(ByteBuffer buffer, int offset, long time, SKYReport sky)
+   {
+      List<Satellite> satellites = sky.getSatellites();
+      int count = Math.min(satellites.size(), MAX_SATELLITES);
+
+      buffer.putLong(offset + TIME, time);
+      buffer.put(offset + SATELLITE_COUNT, (byte) count);
+      putDouble(buffer, offset + TDOP, sky.getTimeDOP());
+      putDouble(buffer, offset + XDOP, sky.getLongitudeDOP());
+      putDouble(buffer, offset + YDOP, sky.getLatitudeDOP());
+      putDouble(buffer, offset + VDOP, sky.getAltitudeDOP());
+      putDouble(buffer, offset + HDOP, sky.getHorizontalDOP());
+      putDouble(buffer, offset + PDOP, sky.getSphericalDOP());
+      putDouble(buffer, offset + GDOP, sky.getHypersphericalDOP());
+
+      for (int i = 0; i < count; i++) {
+         Satellite satellite = satellites.get(i);
+         int at = offset + SATELLITES + i * SATELLITE_SIZE;
+
+         buffer.putShort(at + PRN, satellite.getPRN() != null ? satellite.getPRN().shortValue() : -1);
+         buffer.put(at + USED, (byte) (satellite.isUsed() ? 1 : 0));
+         putFloat(buffer, at + AZIMUTH, satellite.getAzimuth());
+         putFloat(buffer, at + ELEVATION, satellite.getElevation());
+         putFloat(buffer, at + SIGNAL_STRENGTH, satellite.getSignalStrength());
+      }
+   }
+
+   private static void putFloat(ByteBuffer buffer, int offset, Double value)
+   {
+      buffer.putFloat(offset, value != null ? value.floatValue() : Float.NaN);
+   }
+
+   /**
+    * @return Time of the report, in ms since the epoch.
+    */
+   public long getTimeMillis()
+   {
+      return buffer.getLong(offset + TIME);
+   }
+
+   /**
+    * @return Time of the report, UTC.
+    */
+   public LocalDateTime getTime()
+   {
+      return LocalDateTime.ofInstant(Instant.ofEpochMilli(getTimeMillis()), ZoneOffset.UTC);
+   }
+
+   /**
+    * @return Time dilution of precision.
+    */
+   public double getTimeDOP()
+   {
+      return buffer.getDouble(offset + TDOP);
+   }
+
+   /**
+    * @return Longitudinal dilution of precision.
+    */
+   public double getLongitudeDOP()
+   {
+      return buffer.getDouble(offset + XDOP);
+   }
+
+   /**
+    * @return Latitudinal dilution of precision.
+    */
+   public double getLatitudeDOP()
+   {
+      return buffer.getDouble(offset + YDOP);
+   }
+
+   /**
+    * @return Altitude dilution of precision.
+    */
+   public double getAltitudeDOP()
+   {
+      return buffer.getDouble(offset + VDOP);
+   }
+
+   /**
+    * @return Horizontal dilution of precision.
+    */
+   public double getHorizontalDOP()
+   {
+      return buffer.getDouble(offset + HDOP);
+   }
+
+   /**
+    * @return Spherical dilution of precision.
+    */
+   public double getSphericalDOP()
+   {
+      return buffer.getDouble(offset + PDOP);
+   }
+
+   /**
+    * @return Hyperspherical dilution of precision.
+    */
+   public double getHypersphericalDOP()
+   {
+      return buffer.getDouble(offset + GDOP);
+   }
+
+   /**
+    * @return Number of satellites stored, at most {@link #MAX_SATELLITES}.
+    */
+   public int getSatelliteCount()
+   {
+      return buffer.get(offset + SATELLITE_COUNT);
+   }
+
+   /**
+    * @param index index of the satellite, less than {@link #getSatelliteCount()}
+    *
+    * @return PRN id of the satellite, or -1 if unknown
+    */
+   public int getPRN(int index)
+   {
+      return buffer.getShort(satellite(index) + PRN);
+   }
+
+   /**
+    * @param index index of the satellite, less than {@link #getSatelliteCount()}
+    *
+    * @return Whether the satellite is used in the current solution
+    */
+   public boolean isUsed(int index)
+   {
+      return buffer.get(satellite(index) + USED) != 0;
+   }
+
+   /**
+    * @param index index of the satellite, less than {@link #getSatelliteCount()}
+    *
+    * @return Azimuth, degrees from true north.
+    */
+   public float getAzimuth(int index)
+   {
+      return buffer.getFloat(satellite(index) + AZIMUTH);
+   }
+
+   /**
+    * @param index index of the satellite, less than {@link #getSatelliteCount()}
+    *
+    * @return Elevation in degrees.
+    */
+   public float getElevation(int index)
+   {
+      return buffer.getFloat(satellite(index) + ELEVATION);
+   }
+
+   /**
+    * @param index index of the satellite, less than {@link #getSatelliteCount()}
+    *
+    * @return Signal strength in dB.
+    */
+   public float getSignalStrength(int index)
+   {
+      return buffer.getFloat(satellite(index) + SIGNAL_STRENGTH);
+   }
+
+   private int satellite(int index)
+   {
+      if (index < 0 || index >= getSatelliteCount()) {
+         throw new IndexOutOfBoundsException("Satellite index: " + index + ", count: " + getSatelliteCount());
+      }
+
+      return offset + SATELLITES + index * SATELLITE_SIZE;
+   }
+}
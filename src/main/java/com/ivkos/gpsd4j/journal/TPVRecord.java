@@ -0,0 +1,229 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.journal;
+
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * A {@link TPVReport} stored in a {@link ReportJournal}. The record is a view of the journal's memory-mapped segment,
+ * so its fields are read in place and not copied. The same instance is reused for each record visited, so it is only
+ * valid during the call to the visitor. Fields that were absent from the report are {@link Double#NaN}.
+ * <p>
+ * Layout, little-endian:
+ * <pre>
+ * 0   time (ms since the epoch)   16  ept    48  epx     80  speed   112 epc
+ * 8   mode (ordinal, -1 if null)  24  lat    56  epy     88  climb
+ *                                 32  lon    64  epv     96  epd
+ *                                 40  alt    72  track   104 eps
+ * </pre>
+ */
+public final class TPVRecord
+{
+   static final byte TYPE = 1;
+   static final int SIZE = 120;
+
+   private static final int TIME = 0;
+   private static final int MODE = 8;
+   private static final int EPT = 16;
+   private static final int LAT = 24;
+   private static final int LON = 32;
+   private static final int ALT = 40;
+   private static final int EPX = 48;
+   private static final int EPY = 56;
+   private static final int EPV = 64;
+   private static final int TRACK = 72;
+   private static final int SPEED = 80;
+   private static final int CLIMB = 88;
+   private static final int EPD = 96;
+   private static final int EPS = 104;
+   private static final int EPC = 112;
+
+   private static final NMEAMode[] MODES = NMEAMode.values();
+
+   private ByteBuffer buffer;
+   private int offset;
+
+   TPVRecord()
+   {
+   }
+
+   TPVRecord wrap(ByteBuffer buffer, int offset)
+   {
+      this.buffer = buffer;
+      this.offset = offset;
+      return this;
+   }
+
+   static void write(ByteBuffer buffer, int offset, long time, TPVReport tpv)
+   {
+      buffer.putLong(offset + TIME, time);
+      buffer.put(offset + MODE, tpv.getMode() != null ? (byte) tpv.getMode().ordinal() : -1);
+      putDouble(buffer, offset + EPT, tpv.getTimeError());
+      putDouble(buffer, offset + LAT, tpv.getLatitude());
+      putDouble(buffer, offset + LON, tpv.getLongitude());
+      putDouble(buffer, offset + ALT, tpv.getAltitude());
+      putDouble(buffer, offset + EPX, tpv.getLongitudeError());
+      putDouble(buffer, offset + EPY, tpv.getLatitudeError());
+      putDouble(buffer, offset + EPV, tpv.getAltitudeError());
+      putDouble(buffer, offset + TRACK, tpv.getCourse());
+      putDouble(buffer, offset + SPEED, tpv.getSpeed());
+      putDouble(buffer, offset + CLIMB, tpv.getClimbRate());
+      putDouble(buffer, offset + EPD, tpv.getCourseError());
+      putDouble(buffer, offset + EPS, tpv.getSpeedError());
+      putDouble(buffer, offset + EPC, tpv.getClimbRateError());
+   }
+
+   static void putDouble(ByteBuffer buffer, int offset, Double value)
+   {
+      buffer.putDouble(offset, value != null ? value : Double.NaN);
+   }
+
+   /**
+    * @return Time of the report, in ms since the epoch.
+    */
+   public long getTimeMillis()
+   {
+      return buffer.getLong(offset + TIME);
+   }
+
+   /**
+    * @return Time of the report, UTC.
+    */
+   public LocalDateTime getTime()
+   {
+      return LocalDateTime.ofInstant(Instant.ofEpochMilli(getTimeMillis()), ZoneOffset.UTC);
+   }
+
+   /**
+    * @return NMEA mode
+    */
+   public NMEAMode getMode()
+   {
+      byte mode = buffer.get(offset + MODE);
+      return mode >= 0 && mode < MODES.length ? MODES[mode] : null;
+   }
+
+   /**
+    * @return Estimated timestamp error (seconds, 95% confidence).
+    */
+   public double getTimeError()
+   {
+      return buffer.getDouble(offset + EPT);
+   }
+
+   /**
+    * @return Latitude in degrees: +/- signifies North/South.
+    */
+   public double getLatitude()
+   {
+      return buffer.getDouble(offset + LAT);
+   }
+
+   /**
+    * @return Longitude in degrees: +/- signifies East/West.
+    */
+   public double getLongitude()
+   {
+      return buffer.getDouble(offset + LON);
+   }
+
+   /**
+    * @return Altitude in meters.
+    */
+   public double getAltitude()
+   {
+      return buffer.getDouble(offset + ALT);
+   }
+
+   /**
+    * @return Longitude error estimate in meters, 95% confidence.
+    */
+   public double getLongitudeError()
+   {
+      return buffer.getDouble(offset + EPX);
+   }
+
+   /**
+    * @return Latitude error estimate in meters, 95% confidence.
+    */
+   public double getLatitudeError()
+   {
+      return buffer.getDouble(offset + EPY);
+   }
+
+   /**
+    * @return Estimated vertical error in meters, 95% confidence.
+    */
+   public double getAltitudeError()
+   {
+      return buffer.getDouble(offset + EPV);
+   }
+
+   /**
+    * @return Course over ground, degrees from true north.
+    */
+   public double getCourse()
+   {
+      return buffer.getDouble(offset + TRACK);
+   }
+
+   /**
+    * @return Speed over ground, meters per second.
+    */
+   public double getSpeed()
+   {
+      return buffer.getDouble(offset + SPEED);
+   }
+
+   /**
+    * @return Climb (positive) or sink (negative) rate, meters per second.
+    */
+   public double getClimbRate()
+   {
+      return buffer.getDouble(offset + CLIMB);
+   }
+
+   /**
+    * @return Direction error estimate in degrees, 95% confidence.
+    */
+   public double getCourseError()
+   {
+      return buffer.getDouble(offset + EPD);
+   }
+
+   /**
+    * @return Speed error estimate in meters/sec, 95% confidence.
+    */
+   public double getSpeedError()
+   {
+      return buffer.getDouble(offset + EPS);
+   }
+
+   /**
+    * @return Climb/sink error estimate in meters/sec, 95% confidence.
+    */
+   public double getClimbRateError()
+   {
+      return buffer.getDouble(offset + EPC);
+   }
+}
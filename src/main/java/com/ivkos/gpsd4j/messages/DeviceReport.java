@@ -0,0 +1,29 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.messages;
+
+/**
+ * A message that concerns a specific device attached to gpsd
+ */
+public interface DeviceReport
+{
+   /**
+    * @return Name of the device, e.g. /dev/ttyAMA0. May be null when gpsd omits it, which it may do when there is
+    * exactly one device.
+    */
+   String getDevice();
+}
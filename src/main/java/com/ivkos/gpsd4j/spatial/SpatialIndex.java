@@ -0,0 +1,522 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.spatial;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+import static com.ivkos.gpsd4j.tools.Geodesy.MEAN_EARTH_RADIUS;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Indexes the latest position of each device, to find the devices near a point without looking at every one of them.
+ * It is a handler of TPV reports, so it can be added to a client directly:
+ * <pre>
+ * SpatialIndex index = new SpatialIndex();
+ * client.addHandler(TPVReport.class, index);
+ *
+ * List&lt;TPVReport&gt; near = index.withinRadius(42.697708, 23.321868, 500);
+ * </pre>
+ * The devices are kept in a grid of cells of about the same size in degrees of latitude and longitude. A query only
+ * looks at the cells that its area overlaps, so it takes about the same time however many devices there are, as long
+ * as the cells are not much smaller than the areas queried, nor hold many more devices than a query returns. A report
+ * only moves its device to another cell when it crosses the border of its cell.
+ * <p>
+ * Reports without a device or position are ignored, and so are reports older than the latest one of their device.
+ * The index is thread-safe. Queries run in parallel with each other, and updates take a short exclusive lock.
+ */
+public class SpatialIndex implements Consumer<TPVReport>
+{
+   /**
+    * The default size of a cell, in meters.
+    */
+   public static final double DEFAULT_CELL_SIZE = 1000;
+
+   private static final double HALF_CIRCUMFERENCE = Math.PI * MEAN_EARTH_RADIUS;
+
+   private final double cellSize;
+   private final double cellDegrees;
+   private final int latitudeCells;
+   private final int longitudeCells;
+
+   private final Map<Long, Cell> cells = new HashMap<>();
+   private final Map<String, Entry> entries = new HashMap<>();
+   private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+   /**
+    * Creates an empty index with cells of {@value #DEFAULT_CELL_SIZE} m.
+    */
+   public SpatialIndex()
+   {
+      this(DEFAULT_CELL_SIZE);
+   }
+
+   /**
+    * Creates an empty index.
+    *
+    * @param cellSize the size of a cell in meters at the equator. A cell spans the same number of degrees of longitude
+    *                 at all latitudes, so it gets narrower toward the poles.
+    *
+    * @throws IllegalArgumentException if {@code cellSize} is not at least 1 m
+    */
+   public SpatialIndex(double cellSize)
+   {
+      if (!(cellSize >= 1)) throw new IllegalArgumentException("cellSize must be at least 1 m");
+
+      // a whole number of cells around the equator, so that ranges of cells wrap around the antimeridian exactly
+      double cellAngle = Math.toDegrees(Math.min(cellSize, HALF_CIRCUMFERENCE) / MEAN_EARTH_RADIUS);
+      this.longitudeCells = (int) Math.ceil(360 / cellAngle);
+      this.cellDegrees = 360.0 / longitudeCells;
+      this.latitudeCells = (int) Math.ceil(180 / cellDegrees);
+      this.cellSize = cellSize;
+   }
+
+   /**
+    * Moves the device of a TPV report to its position.
+    *
+    * @param tpv the report
+    *
+    * @throws NullPointerException if {@code tpv} is null
+    */
+   @Override
+   public void accept(TPVReport tpv)
+   {
+      requireNonNull(tpv, "tpv must not be null");
+
+      String device = tpv.getDevice();
+      Double latitude = tpv.getLatitude();
+      Double longitude = tpv.getLongitude();
+      if (device == null || latitude == null || longitude == null) return;
+      if (Math.abs(latitude) > 90 || Math.abs(longitude) > 180) return;
+
+      long key = this.keyOf(latitude, longitude);
+
+      lock.writeLock().lock();
+      try {
+         Entry entry = entries.get(device);
+
+         if (entry == null) {
+            entry = new Entry();
+            entries.put(device, entry);
+         } else if (isOlder(tpv, entry.tpv)) {
+            return;
+         }
+
+         if (entry.cell == null || entry.key != key) {
+            if (entry.cell != null) entry.cell.remove(entry);
+
+            entry.key = key;
+            this.cellOf(key).add(entry);
+         }
+
+         entry.tpv = tpv;
+         entry.cell.set(entry.slot, latitude, longitude);
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * Removes a device from the index.
+    *
+    * @param device the name of the device
+    *
+    * @return the latest report of the device, or null if it was not in the index
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public TPVReport remove(String device)
+   {
+      requireNonNull(device, "device must not be null");
+
+      lock.writeLock().lock();
+      try {
+         Entry entry = entries.remove(device);
+         if (entry == null) return null;
+
+         entry.cell.remove(entry);
+         return entry.tpv;
+      } finally {
+         lock.writeLock().unlock();
+      }
+   }
+
+   /**
+    * @param device the name of the device
+    *
+    * @return the latest report of the device, or null if it is not in the index
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public TPVReport get(String device)
+   {
+      requireNonNull(device, "device must not be null");
+
+      lock.readLock().lock();
+      try {
+         Entry entry = entries.get(device);
+         return entry != null ? entry.tpv : null;
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return the number of devices in the index
+    */
+   public int size()
+   {
+      lock.readLock().lock();
+      try {
+         return entries.size();
+      } finally {
+         lock.readLock().unlock();
+      }
+   }
+
+   /**
+    * @return the size of a cell in meters at the equator
+    */
+   public double getCellSize()
+   {
+      return cellSize;
+   }
+
+   /**
+    * Finds the devices within a distance of a point.
+    *
+    * @param latitude  the latitude of the point, in degrees
+    * @param longitude the longitude of the point, in degrees
+    * @param radius    the distance in meters
+    *
+    * @return the latest reports of the devices, nearest first
+    *
+    * @throws IllegalArgumentException if the point is not valid, or {@code radius} is negative
+    */
+   public List<TPVReport> withinRadius(double latitude, double longitude, double radius)
+   {
+      checkPoint(latitude, longitude);
+      if (!(radius >= 0)) throw new IllegalArgumentException("radius must not be negative");
+
+      List<Hit> hits = new ArrayList<>();
+
+      lock.readLock().lock();
+      try {
+         this.collect(latitude, longitude, radius, hits);
+      } finally {
+         lock.readLock().unlock();
+      }
+
+      return sorted(hits, hits.size());
+   }
+
+   /**
+    * Finds the devices nearest to a point.
+    *
+    * @param latitude  the latitude of the point, in degrees
+    * @param longitude the longitude of the point, in degrees
+    * @param k         the number of devices to find
+    *
+    * @return the latest reports of the {@code k} nearest devices, or of all devices if there are fewer, nearest first
+    *
+    * @throws IllegalArgumentException if the point is not valid, or {@code k} is not positive
+    */
+   public List<TPVReport> nearest(double latitude, double longitude, int k)
+   {
+      checkPoint(latitude, longitude);
+      if (k <= 0) throw new IllegalArgumentException("k must be positive");
+
+      List<Hit> hits = new ArrayList<>();
+
+      lock.readLock().lock();
+      try {
+         // The k nearest devices are the k nearest of those within any radius that has at least k devices, so
+         // search ever larger circles until one does. Each circle looks at about four times the cells of the last.
+         double radius = k <= entries.size() ? cellSize : HALF_CIRCUMFERENCE;
+
+         while (true) {
+            hits.clear();
+            this.collect(latitude, longitude, radius, hits);
+
+            if (hits.size() >= k || radius >= HALF_CIRCUMFERENCE) break;
+            radius = Math.min(radius * 2, HALF_CIRCUMFERENCE);
+         }
+      } finally {
+         lock.readLock().unlock();
+      }
+
+      return sorted(hits, k);
+   }
+
+   /**
+    * Finds the devices within a box of latitudes and longitudes. If {@code west} is greater than {@code east}, the box
+    * crosses the antimeridian.
+    *
+    * @param south the southern latitude of the box, in degrees
+    * @param west  the western longitude of the box, in degrees
+    * @param north the northern latitude of the box, in degrees
+    * @param east  the eastern longitude of the box, in degrees
+    *
+    * @return the latest reports of the devices, in no particular order
+    *
+    * @throws IllegalArgumentException if a corner of the box is not valid, or {@code south} is greater than
+    *                                  {@code north}
+    */
+   public List<TPVReport> withinBox(double south, double west, double north, double east)
+   {
+      checkPoint(south, west);
+      checkPoint(north, east);
+      if (south > north) throw new IllegalArgumentException("south must not be greater than north");
+
+      boolean crossing = west > east;
+      List<TPVReport> result = new ArrayList<>();
+
+      lock.readLock().lock();
+      try {
+         this.visit(south, north, west, crossing ? east + 360 : east, cell -> {
+            double[] points = cell.points;
+
+            for (int i = 0, p = 0; i < cell.size; i++, p += Cell.STRIDE) {
+               double latitude = points[p + Cell.LATITUDE];
+               double longitude = points[p + Cell.LONGITUDE];
+
+               boolean inside = latitude >= south && latitude <= north &&
+                     (crossing ? longitude >= west || longitude <= east : longitude >= west && longitude <= east);
+
+               if (inside) result.add(cell.entries[i].tpv);
+            }
+         });
+      } finally {
+         lock.readLock().unlock();
+      }
+
+      return result;
+   }
+
+   private void collect(double latitude, double longitude, double radius, List<Hit> hits)
+   {
+      double angle = radius / MEAN_EARTH_RADIUS;
+      double latitudeSpan = Math.toDegrees(angle);
+      double south = latitude - latitudeSpan;
+      double north = latitude + latitudeSpan;
+
+      // the widest longitude of a circle that does not reach a pole
+      double longitudeSpan = south <= -90 || north >= 90 || angle >= Math.PI / 2
+                             ? 180
+                             : Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(latitude))));
+
+      // Compare the squared chord between the points on a unit sphere instead of the distance, which would take a few
+      // trigonometric functions per device. It grows with the distance, so it also orders the devices the same way.
+      double lat = Math.toRadians(latitude);
+      double lon = Math.toRadians(longitude);
+      double cosLat = Math.cos(lat);
+      double x = cosLat * Math.cos(lon);
+      double y = cosLat * Math.sin(lon);
+      double z = Math.sin(lat);
+
+      double chord = 2 * Math.sin(Math.min(angle, Math.PI) / 2);
+      double limit = chord * chord;
+
+      this.visit(south, north, longitude - longitudeSpan, longitude + longitudeSpan, cell -> {
+         double[] points = cell.points;
+
+         for (int i = 0, p = 0; i < cell.size; i++, p += Cell.STRIDE) {
+            double dx = points[p + Cell.X] - x;
+            double dy = points[p + Cell.Y] - y;
+            double dz = points[p + Cell.Z] - z;
+            double squaredChord = dx * dx + dy * dy + dz * dz;
+
+            if (squaredChord <= limit) hits.add(new Hit(cell.entries[i].tpv, squaredChord));
+         }
+      });
+   }
+
+   /**
+    * Visits the cells in use that overlap a box, which may extend beyond the antimeridian and the poles.
+    */
+   private void visit(double south, double north, double west, double east, Consumer<Cell> visitor)
+   {
+      int fromRow = this.rowOf(Math.max(-90, south));
+      int toRow = this.rowOf(Math.min(90, north));
+
+      int fromColumn = (int) Math.floor((west + 180) / cellDegrees);
+      int toColumn = (int) Math.floor((east + 180) / cellDegrees);
+      if (toColumn - fromColumn + 1 >= longitudeCells) {
+         fromColumn = 0;
+         toColumn = longitudeCells - 1;
+      }
+
+      // with more cells in the box than cells in use, it is faster to look at every cell in use
+      if ((long) (toRow - fromRow + 1) * (toColumn - fromColumn + 1) > cells.size()) {
+         cells.values().forEach(visitor);
+         return;
+      }
+
+      for (int row = fromRow; row <= toRow; row++) {
+         for (int column = fromColumn; column <= toColumn; column++) {
+            Cell cell = cells.get(this.key(row, Math.floorMod(column, longitudeCells)));
+            if (cell != null) visitor.accept(cell);
+         }
+      }
+   }
+
+   private Cell cellOf(long key)
+   {
+      Cell cell = cells.get(key);
+      if (cell == null) {
+         cell = new Cell(key);
+         cells.put(key, cell);
+      }
+
+      return cell;
+   }
+
+   private long keyOf(double latitude, double longitude)
+   {
+      int column = Math.floorMod((int) Math.floor((longitude + 180) / cellDegrees), longitudeCells);
+      return this.key(this.rowOf(latitude), column);
+   }
+
+   private int rowOf(double latitude)
+   {
+      return Math.min(latitudeCells - 1, (int) Math.floor((latitude + 90) / cellDegrees));
+   }
+
+   private long key(int row, int column)
+   {
+      // not row << 32 | column, whose hash code is row ^ column, the same for many cells
+      return (long) row * longitudeCells + column;
+   }
+
+   private void removeCell(Cell cell)
+   {
+      cells.remove(cell.key);
+   }
+
+   private static boolean isOlder(TPVReport tpv, TPVReport latest)
+   {
+      return tpv.getTime() != null && latest.getTime() != null && tpv.getTime().isBefore(latest.getTime());
+   }
+
+   private static void checkPoint(double latitude, double longitude)
+   {
+      if (!(Math.abs(latitude) <= 90)) throw new IllegalArgumentException("Invalid latitude: " + latitude);
+      if (!(Math.abs(longitude) <= 180)) throw new IllegalArgumentException("Invalid longitude: " + longitude);
+   }
+
+   private static List<TPVReport> sorted(List<Hit> hits, int limit)
+   {
+      hits.sort(Comparator.comparingDouble(hit -> hit.squaredChord));
+
+      List<TPVReport> result = new ArrayList<>(Math.min(limit, hits.size()));
+      for (int i = 0; i < hits.size() && i < limit; i++) result.add(hits.get(i).tpv);
+
+      return result;
+   }
+
+   private static class Entry
+   {
+      TPVReport tpv;
+      long key;
+
+      Cell cell;
+      int slot;
+   }
+
+   /**
+    * The entries in a cell, with their positions side by side in an array, so that a query reads them in order.
+    */
+   private class Cell
+   {
+      static final int X = 0;
+      static final int Y = 1;
+      static final int Z = 2;
+      static final int LATITUDE = 3;
+      static final int LONGITUDE = 4;
+      static final int STRIDE = 5;
+
+      final long key;
+      Entry[] entries = new Entry[4];
+      double[] points = new double[4 * STRIDE];
+      int size;
+
+      Cell(long key)
+      {
+         this.key = key;
+      }
+
+      void add(Entry entry)
+      {
+         if (size == entries.length) {
+            entries = Arrays.copyOf(entries, size * 2);
+            points = Arrays.copyOf(points, size * 2 * STRIDE);
+         }
+
+         entry.cell = this;
+         entry.slot = size;
+         entries[size++] = entry;
+      }
+
+      void set(int slot, double latitude, double longitude)
+      {
+         double lat = Math.toRadians(latitude);
+         double lon = Math.toRadians(longitude);
+         double cosLat = Math.cos(lat);
+         int p = slot * STRIDE;
+
+         // the position on a unit sphere
+         points[p + X] = cosLat * Math.cos(lon);
+         points[p + Y] = cosLat * Math.sin(lon);
+         points[p + Z] = Math.sin(lat);
+         points[p + LATITUDE] = latitude;
+         points[p + LONGITUDE] = longitude;
+      }
+
+      void remove(Entry entry)
+      {
+         Entry last = entries[--size];
+         entries[entry.slot] = last;
+         System.arraycopy(points, size * STRIDE, points, entry.slot * STRIDE, STRIDE);
+         last.slot = entry.slot;
+         entries[size] = null;
+
+         entry.cell = null;
+         if (size == 0) SpatialIndex.this.removeCell(this);
+      }
+   }
+
+   private static class Hit
+   {
+      final TPVReport tpv;
+      final double squaredChord;
+
+      Hit(TPVReport tpv, double squaredChord)
+      {
+         this.tpv = tpv;
+         this.squaredChord = squaredChord;
+      }
+   }
+}
@@ -30,9 +30,11 @@ import org.reflections.Reflections;
 import java.lang.reflect.Field;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 
 import static java.lang.String.format;
+import static java.util.Collections.unmodifiableList;
 import static java.util.Collections.unmodifiableMap;
 import static java.util.stream.Collectors.toMap;
 
@@ -42,7 +44,7 @@ public class SerializationHelper
    private static final String GPSDMESSAGE_CLASS_FIELD_NAME = "CLASS";
 
    private static final Map<String, Class<? extends GpsdMessage>> gpsdClassNameToClassMap;
-   private static final Map<Class<?>, List<Class<?>>> classToClassHierarchyListMap = new HashMap<>();
+   private static final Map<Class<?>, List<Class<?>>> classToClassHierarchyListMap = new ConcurrentHashMap<>();
 
    static {
       Reflections reflections = new Reflections(GpsdMessage.class.getPackage().getName());
@@ -155,28 +157,33 @@ public class SerializationHelper
    }
 
    /**
-    * Returns a list consisting of the class of the object and its superclasses, excluding {@link Object}
+    * Returns a list consisting of the class of the object and its superclasses, excluding {@link Object}. The list is
+    * computed once per class and shared by all callers, so it cannot be modified.
     *
     * @param obj the object
     *
-    * @return a list of classes
+    * @return an unmodifiable list of classes
     */
    public static List<Class<?>> getClassHierarchy(Object obj)
    {
-      Class objClass = obj.getClass();
+      Class<?> objClass = obj.getClass();
 
+      // this is called for every dispatched message, so avoid the locking of computeIfAbsent when already cached
       List<Class<?>> classes = classToClassHierarchyListMap.get(objClass);
       if (classes != null) return classes;
 
-      List<Class<?>> result = new LinkedList<>();
+      return classToClassHierarchyListMap.computeIfAbsent(objClass, SerializationHelper::computeClassHierarchy);
+   }
 
-      while (objClass != null && objClass != Object.class) {
-         result.add(objClass);
-         objClass = objClass.getSuperclass();
-      }
+   private static List<Class<?>> computeClassHierarchy(Class<?> clazz)
+   {
+      List<Class<?>> result = new ArrayList<>();
 
-      classToClassHierarchyListMap.put(objClass, result);
+      while (clazz != null && clazz != Object.class) {
+         result.add(clazz);
+         clazz = clazz.getSuperclass();
+      }
 
-      return result;
+      return unmodifiableList(result);
    }
 }
@@ -0,0 +1,348 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.tools;
+
+import static com.ivkos.gpsd4j.tools.Geodesy.*;
+
+/**
+ * Converts WGS84 latitude, longitude and altitude to Earth-centered, Earth-fixed (ECEF) coordinates, to local
+ * east-north-up (ENU) coordinates around an origin, and to Universal Transverse Mercator (UTM) coordinates. Latitudes
+ * and longitudes are in degrees, and everything else in meters. Altitudes are heights above the ellipsoid, not above
+ * sea level as reported in the {@code alt} field of TPV reports by older versions of gpsd.
+ * <p>
+ * Like those of {@link Geodesy}, each method has a batch version that works on arrays, one element per point. Where a
+ * conversion is a linear transform, like the rotation of ECEF into ENU coordinates, it is done in a separate loop of
+ * plain arithmetic, which the JIT compiler can turn into vector instructions.
+ */
+public class CoordinateConverter
+{
+   /**
+    * The scale factor on the central meridian of a UTM zone
+    */
+   public static final double UTM_SCALE_FACTOR = 0.9996;
+
+   /**
+    * The easting of the central meridian of a UTM zone, in meters
+    */
+   public static final double UTM_FALSE_EASTING = 500_000;
+
+   /**
+    * The northing of the equator in the southern hemisphere, in meters
+    */
+   public static final double UTM_FALSE_NORTHING_SOUTH = 10_000_000;
+
+   private static final double A = WGS84_SEMI_MAJOR_AXIS;
+   private static final double B = WGS84_SEMI_MINOR_AXIS;
+   private static final double E2 = WGS84_FLATTENING * (2 - WGS84_FLATTENING);
+   private static final double EP2 = E2 / (1 - E2);
+
+   // Krüger series, as in Karney, Transverse Mercator with an accuracy of a few nanometers, J. Geodesy 85 (2011)
+   private static final double N = WGS84_FLATTENING / (2 - WGS84_FLATTENING);
+   private static final double RECTIFYING_RADIUS = A / (1 + N) * (1 + N * N / 4 + N * N * N * N / 64);
+   private static final double ALPHA1 = N / 2 - 2 * N * N / 3 + 5 * N * N * N / 16 + 41 * N * N * N * N / 180;
+   private static final double ALPHA2 = 13 * N * N / 48 - 3 * N * N * N / 5 + 557 * N * N * N * N / 1440;
+   private static final double ALPHA3 = 61 * N * N * N / 240 - 103 * N * N * N * N / 140;
+   private static final double ALPHA4 = 49561 * N * N * N * N / 161280;
+   private static final double TWO_SQRT_N = 2 * Math.sqrt(N) / (1 + N);
+
+   private CoordinateConverter() {}
+
+   /**
+    * Converts a point to ECEF coordinates.
+    *
+    * @param latitude  the latitude of the point
+    * @param longitude the longitude of the point
+    * @param altitude  the height of the point above the ellipsoid
+    * @param result    the array to store the X, Y and Z coordinates in, in this order
+    */
+   public static void toEcef(double latitude, double longitude, double altitude, double[] result)
+   {
+      double lat = Math.toRadians(latitude), lon = Math.toRadians(longitude);
+      double sinLat = Math.sin(lat), cosLat = Math.cos(lat);
+
+      // the radius of curvature in the prime vertical
+      double n = A / Math.sqrt(1 - E2 * sinLat * sinLat);
+
+      result[0] = (n + altitude) * cosLat * Math.cos(lon);
+      result[1] = (n + altitude) * cosLat * Math.sin(lon);
+      result[2] = (n * (1 - E2) + altitude) * sinLat;
+   }
+
+   /**
+    * Converts points to ECEF coordinates. See {@link #toEcef(double, double, double, double[])}.
+    *
+    * @param latitudes  the latitudes of the points
+    * @param longitudes the longitudes of the points
+    * @param altitudes  the heights of the points above the ellipsoid
+    * @param x          the array to store the X coordinates in
+    * @param y          the array to store the Y coordinates in
+    * @param z          the array to store the Z coordinates in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void toEcef(double[] latitudes, double[] longitudes, double[] altitudes,
+                             double[] x, double[] y, double[] z)
+   {
+      int n = x.length;
+      checkLength(n, latitudes, longitudes, altitudes, y, z);
+
+      for (int i = 0; i < n; i++) {
+         double lat = Math.toRadians(latitudes[i]), lon = Math.toRadians(longitudes[i]);
+         double sinLat = Math.sin(lat), cosLat = Math.cos(lat);
+         double radius = A / Math.sqrt(1 - E2 * sinLat * sinLat);
+
+         x[i] = (radius + altitudes[i]) * cosLat * Math.cos(lon);
+         y[i] = (radius + altitudes[i]) * cosLat * Math.sin(lon);
+         z[i] = (radius * (1 - E2) + altitudes[i]) * sinLat;
+      }
+   }
+
+   /**
+    * Converts ECEF coordinates to latitude, longitude and height above the ellipsoid, with the closed-form method of
+    * Heikkinen, which is accurate to well within a millimeter near the surface of the Earth.
+    *
+    * @param x      the X coordinate
+    * @param y      the Y coordinate
+    * @param z      the Z coordinate
+    * @param result the array to store the latitude, longitude and altitude in, in this order
+    */
+   public static void fromEcef(double x, double y, double z, double[] result)
+   {
+      double p = Math.sqrt(x * x + y * y);
+      if (p < 1e-6) {
+         // on the polar axis, where rounding would take the square roots below out of their domain
+         result[0] = Math.copySign(90, z);
+         result[1] = Math.toDegrees(Math.atan2(y, x));
+         result[2] = Math.abs(z) - B;
+         return;
+      }
+
+      double f = 54 * B * B * z * z;
+      double g = p * p + (1 - E2) * z * z - E2 * (A * A - B * B);
+      double c = E2 * E2 * f * p * p / (g * g * g);
+      double s = Math.cbrt(1 + c + Math.sqrt(c * c + 2 * c));
+      double k = s + 1 + 1 / s;
+      double bigP = f / (3 * k * k * g * g);
+      double q = Math.sqrt(1 + 2 * E2 * E2 * bigP);
+      double r0 = -bigP * E2 * p / (1 + q) +
+            Math.sqrt(A * A / 2 * (1 + 1 / q) - bigP * (1 - E2) * z * z / (q * (1 + q)) - bigP * p * p / 2);
+      double t = p - E2 * r0;
+      double u = Math.sqrt(t * t + z * z);
+      double v = Math.sqrt(t * t + (1 - E2) * z * z);
+      double z0 = B * B * z / (A * v);
+
+      result[0] = Math.toDegrees(Math.atan2(z + EP2 * z0, p));
+      result[1] = Math.toDegrees(Math.atan2(y, x));
+      result[2] = u * (1 - B * B / (A * v));
+   }
+
+   /**
+    * Converts ECEF coordinates to latitudes, longitudes and heights above the ellipsoid. See {@link
+    * #fromEcef(double, double, double, double[])}.
+    *
+    * @param x          the X coordinates
+    * @param y          the Y coordinates
+    * @param z          the Z coordinates
+    * @param latitudes  the array to store the latitudes in
+    * @param longitudes the array to store the longitudes in
+    * @param altitudes  the array to store the altitudes in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void fromEcef(double[] x, double[] y, double[] z,
+                               double[] latitudes, double[] longitudes, double[] altitudes)
+   {
+      int n = latitudes.length;
+      checkLength(n, x, y, z, longitudes, altitudes);
+
+      double[] result = new double[3];
+      for (int i = 0; i < n; i++) {
+         fromEcef(x[i], y[i], z[i], result);
+         latitudes[i] = result[0];
+         longitudes[i] = result[1];
+         altitudes[i] = result[2];
+      }
+   }
+
+   /**
+    * Converts a point to ENU coordinates: meters east, north and up of an origin, in the plane tangent to the
+    * ellipsoid at the origin.
+    *
+    * @param latitude        the latitude of the point
+    * @param longitude       the longitude of the point
+    * @param altitude        the height of the point above the ellipsoid
+    * @param originLatitude  the latitude of the origin
+    * @param originLongitude the longitude of the origin
+    * @param originAltitude  the height of the origin above the ellipsoid
+    * @param result          the array to store the east, north and up coordinates in, in this order
+    */
+   public static void toEnu(double latitude, double longitude, double altitude,
+                            double originLatitude, double originLongitude, double originAltitude, double[] result)
+   {
+      toEcef(originLatitude, originLongitude, originAltitude, result);
+      double x0 = result[0], y0 = result[1], z0 = result[2];
+
+      toEcef(latitude, longitude, altitude, result);
+      double dx = result[0] - x0, dy = result[1] - y0, dz = result[2] - z0;
+
+      double lat = Math.toRadians(originLatitude), lon = Math.toRadians(originLongitude);
+      double sinLat = Math.sin(lat), cosLat = Math.cos(lat);
+      double sinLon = Math.sin(lon), cosLon = Math.cos(lon);
+
+      result[0] = -sinLon * dx + cosLon * dy;
+      result[1] = -sinLat * cosLon * dx - sinLat * sinLon * dy + cosLat * dz;
+      result[2] = cosLat * cosLon * dx + cosLat * sinLon * dy + sinLat * dz;
+   }
+
+   /**
+    * Converts points to ENU coordinates around the same origin. See {@link #toEnu(double, double, double, double,
+    * double, double, double[])}.
+    *
+    * @param latitudes       the latitudes of the points
+    * @param longitudes      the longitudes of the points
+    * @param altitudes       the heights of the points above the ellipsoid
+    * @param originLatitude  the latitude of the origin
+    * @param originLongitude the longitude of the origin
+    * @param originAltitude  the height of the origin above the ellipsoid
+    * @param east            the array to store the east coordinates in
+    * @param north           the array to store the north coordinates in
+    * @param up              the array to store the up coordinates in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void toEnu(double[] latitudes, double[] longitudes, double[] altitudes,
+                            double originLatitude, double originLongitude, double originAltitude,
+                            double[] east, double[] north, double[] up)
+   {
+      toEcef(latitudes, longitudes, altitudes, east, north, up);
+      rotateToEnu(east, north, up, originLatitude, originLongitude, originAltitude);
+   }
+
+   /**
+    * @return the UTM zone of a point, from 1 to 60, including the exceptions around Norway and Svalbard
+    */
+   public static int utmZone(double latitude, double longitude)
+   {
+      if (latitude >= 56 && latitude < 64 && longitude >= 3 && longitude < 12) return 32;
+
+      if (latitude >= 72 && latitude < 84 && longitude >= 0 && longitude < 42) {
+         if (longitude < 9) return 31;
+         if (longitude < 21) return 33;
+         if (longitude < 33) return 35;
+         return 37;
+      }
+
+      return Math.min(60, (int) Math.floor((longitude + 180) / 6) + 1);
+   }
+
+   /**
+    * Converts a point to UTM coordinates in its own zone. Points in the southern hemisphere have a northing relative to
+    * {@link #UTM_FALSE_NORTHING_SOUTH}.
+    *
+    * @param latitude  the latitude of the point, from -80 to 84 degrees
+    * @param longitude the longitude of the point
+    * @param result    the array to store the easting and northing in, in this order
+    *
+    * @return the UTM zone
+    */
+   public static int toUtm(double latitude, double longitude, double[] result)
+   {
+      int zone = utmZone(latitude, longitude);
+      toUtm(latitude, longitude, zone, result);
+
+      return zone;
+   }
+
+   /**
+    * Converts points to UTM coordinates in the same zone, e.g. for a track that crosses the border of two zones. Points
+    * in the southern hemisphere have a northing relative to {@link #UTM_FALSE_NORTHING_SOUTH}.
+    *
+    * @param latitudes  the latitudes of the points
+    * @param longitudes the longitudes of the points
+    * @param zone       the UTM zone
+    * @param eastings   the array to store the eastings in
+    * @param northings  the array to store the northings in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length, or {@code zone} is not from 1 to 60
+    */
+   public static void toUtm(double[] latitudes, double[] longitudes, int zone, double[] eastings, double[] northings)
+   {
+      int n = eastings.length;
+      checkLength(n, latitudes, longitudes, northings);
+      if (zone < 1 || zone > 60) throw new IllegalArgumentException("zone must be from 1 to 60");
+
+      double[] result = new double[2];
+      for (int i = 0; i < n; i++) {
+         toUtm(latitudes[i], longitudes[i], zone, result);
+         eastings[i] = result[0];
+         northings[i] = result[1];
+      }
+   }
+
+   private static void toUtm(double latitude, double longitude, int zone, double[] result)
+   {
+      double sinLat = Math.sin(Math.toRadians(latitude));
+      double deltaLon = Math.toRadians(longitude - (zone * 6 - 183));
+
+      double t = Math.sinh(atanh(sinLat) - TWO_SQRT_N * atanh(TWO_SQRT_N * sinLat));
+      double xi = Math.atan2(t, Math.cos(deltaLon));
+      double eta = atanh(Math.sin(deltaLon) / Math.sqrt(1 + t * t));
+
+      double easting = eta +
+            ALPHA1 * Math.cos(2 * xi) * Math.sinh(2 * eta) +
+            ALPHA2 * Math.cos(4 * xi) * Math.sinh(4 * eta) +
+            ALPHA3 * Math.cos(6 * xi) * Math.sinh(6 * eta) +
+            ALPHA4 * Math.cos(8 * xi) * Math.sinh(8 * eta);
+
+      double northing = xi +
+            ALPHA1 * Math.sin(2 * xi) * Math.cosh(2 * eta) +
+            ALPHA2 * Math.sin(4 * xi) * Math.cosh(4 * eta) +
+            ALPHA3 * Math.sin(6 * xi) * Math.cosh(6 * eta) +
+            ALPHA4 * Math.sin(8 * xi) * Math.cosh(8 * eta);
+
+      result[0] = UTM_FALSE_EASTING + UTM_SCALE_FACTOR * RECTIFYING_RADIUS * easting;
+      result[1] = (latitude < 0 ? UTM_FALSE_NORTHING_SOUTH : 0) + UTM_SCALE_FACTOR * RECTIFYING_RADIUS * northing;
+   }
+
+   /**
+    * Rotates ECEF coordinates, in place, into ENU coordinates around an origin.
+    */
+   private static void rotateToEnu(double[] x, double[] y, double[] z,
+                                   double originLatitude, double originLongitude, double originAltitude)
+   {
+      double[] origin = new double[3];
+      toEcef(originLatitude, originLongitude, originAltitude, origin);
+      double x0 = origin[0], y0 = origin[1], z0 = origin[2];
+
+      double lat = Math.toRadians(originLatitude), lon = Math.toRadians(originLongitude);
+      double sinLat = Math.sin(lat), cosLat = Math.cos(lat);
+      double sinLon = Math.sin(lon), cosLon = Math.cos(lon);
+
+      for (int i = 0; i < x.length; i++) {
+         double dx = x[i] - x0, dy = y[i] - y0, dz = z[i] - z0;
+
+         x[i] = -sinLon * dx + cosLon * dy;
+         y[i] = -sinLat * cosLon * dx - sinLat * sinLon * dy + cosLat * dz;
+         z[i] = cosLat * cosLon * dx + cosLat * sinLon * dy + sinLat * dz;
+      }
+   }
+
+   private static double atanh(double x)
+   {
+      return 0.5 * (Math.log1p(x) - Math.log1p(-x));
+   }
+}
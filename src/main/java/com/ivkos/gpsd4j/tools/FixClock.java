@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.tools;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+
+/**
+ * Converts the times of the fixes of one device to seconds since the epoch, without allocating. The fixes of a device
+ * rarely cross midnight, so the start of the day, which takes a few long divisions, is only computed for the first
+ * fix of each day. An instance is meant to be used by one thread for one device.
+ */
+public final class FixClock
+{
+   private LocalDate day;
+   private long dayStart;
+
+   /**
+    * @param time the time of a fix, UTC
+    *
+    * @return the time in seconds since the epoch
+    */
+   public double seconds(LocalDateTime time)
+   {
+      LocalDate date = time.toLocalDate();
+      if (!date.equals(this.day)) {
+         this.day = date;
+         this.dayStart = date.toEpochDay() * 86_400;
+      }
+
+      return this.dayStart + time.toLocalTime().toSecondOfDay() + time.getNano() / 1e9;
+   }
+}
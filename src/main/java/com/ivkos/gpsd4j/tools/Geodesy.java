@@ -0,0 +1,386 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.tools;
+
+/**
+ * Distances, bearings and destinations between points given by latitude and longitude in degrees.
+ * <p>
+ * The haversine methods treat the Earth as a sphere of {@link #MEAN_EARTH_RADIUS mean radius}, which is fast and
+ * within 0.5% of the actual distance. The Vincenty methods work on the WGS84 ellipsoid and are accurate to well within
+ * a millimeter, but take a few iterations.
+ * <p>
+ * Each method has a batch version that works on arrays, one element per point, for processing millions of points.
+ * The batch versions do not allocate for each point, and are plain counted loops over the arrays, which the JIT
+ * compiler inlines and unrolls.
+ */
+public class Geodesy
+{
+   /**
+    * The mean radius of the Earth, in meters
+    */
+   public static final double MEAN_EARTH_RADIUS = 6_371_008.8;
+
+   /**
+    * The semi-major axis of the WGS84 ellipsoid, in meters
+    */
+   public static final double WGS84_SEMI_MAJOR_AXIS = 6_378_137.0;
+
+   /**
+    * The flattening of the WGS84 ellipsoid
+    */
+   public static final double WGS84_FLATTENING = 1 / 298.257223563;
+
+   /**
+    * The semi-minor axis of the WGS84 ellipsoid, in meters
+    */
+   public static final double WGS84_SEMI_MINOR_AXIS = WGS84_SEMI_MAJOR_AXIS * (1 - WGS84_FLATTENING);
+
+   private static final double WGS84_ECCENTRICITY_SQUARED = WGS84_FLATTENING * (2 - WGS84_FLATTENING);
+
+   private static final int VINCENTY_MAX_ITERATIONS = 200;
+   private static final double VINCENTY_TOLERANCE = 1e-12;
+
+   private Geodesy() {}
+
+   /**
+    * @return the great-circle distance between two points, in meters
+    */
+   public static double haversineDistance(double latitude1, double longitude1, double latitude2, double longitude2)
+   {
+      double lat1 = Math.toRadians(latitude1);
+      double lat2 = Math.toRadians(latitude2);
+      double sinLat = Math.sin((lat2 - lat1) / 2);
+      double sinLon = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+      double a = sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon;
+
+      return 2 * MEAN_EARTH_RADIUS * Math.asin(Math.min(1, Math.sqrt(a)));
+   }
+
+   /**
+    * Computes {@link #haversineDistance(double, double, double, double)} for each pair of points.
+    *
+    * @param latitudes1  the latitudes of the first points
+    * @param longitudes1 the longitudes of the first points
+    * @param latitudes2  the latitudes of the second points
+    * @param longitudes2 the longitudes of the second points
+    * @param distances   the array to store the distances in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void haversineDistances(double[] latitudes1, double[] longitudes1, double[] latitudes2,
+                                         double[] longitudes2, double[] distances)
+   {
+      int n = distances.length;
+      checkLength(n, latitudes1, longitudes1, latitudes2, longitudes2);
+
+      for (int i = 0; i < n; i++) {
+         distances[i] = haversineDistance(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+      }
+   }
+
+   /**
+    * @return the distance between two points on the WGS84 ellipsoid, in meters, or {@code NaN} for nearly antipodal
+    * points, for which the method does not converge
+    */
+   public static double vincentyDistance(double latitude1, double longitude1, double latitude2, double longitude2)
+   {
+      double a = WGS84_SEMI_MAJOR_AXIS, b = WGS84_SEMI_MINOR_AXIS, f = WGS84_FLATTENING;
+
+      double L = Math.toRadians(longitude2 - longitude1);
+      double tanU1 = (1 - f) * Math.tan(Math.toRadians(latitude1));
+      double tanU2 = (1 - f) * Math.tan(Math.toRadians(latitude2));
+      double cosU1 = 1 / Math.sqrt(1 + tanU1 * tanU1), sinU1 = tanU1 * cosU1;
+      double cosU2 = 1 / Math.sqrt(1 + tanU2 * tanU2), sinU2 = tanU2 * cosU2;
+
+      double lambda = L, lambdaPrevious;
+      double sinSigma, cosSigma, sigma, cosSqAlpha, cos2SigmaM;
+      int iterations = 0;
+
+      do {
+         double sinLambda = Math.sin(lambda), cosLambda = Math.cos(lambda);
+         double t1 = cosU2 * sinLambda, t2 = cosU1 * sinU2 - sinU1 * cosU2 * cosLambda;
+
+         sinSigma = Math.sqrt(t1 * t1 + t2 * t2);
+         if (sinSigma == 0) return 0; // the same point
+
+         cosSigma = sinU1 * sinU2 + cosU1 * cosU2 * cosLambda;
+         sigma = Math.atan2(sinSigma, cosSigma);
+
+         double sinAlpha = cosU1 * cosU2 * sinLambda / sinSigma;
+         cosSqAlpha = 1 - sinAlpha * sinAlpha;
+
+         // on the equator
+         cos2SigmaM = cosSqAlpha != 0 ? cosSigma - 2 * sinU1 * sinU2 / cosSqAlpha : 0;
+
+         double C = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+         lambdaPrevious = lambda;
+         lambda = L + (1 - C) * f * sinAlpha *
+               (sigma + C * sinSigma * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+         if (++iterations > VINCENTY_MAX_ITERATIONS) return Double.NaN;
+      } while (Math.abs(lambda - lambdaPrevious) > VINCENTY_TOLERANCE);
+
+      double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+      double A = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+      double B = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+      double deltaSigma = B * sinSigma * (cos2SigmaM + B / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM) -
+            B / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+
+      return b * A * (sigma - deltaSigma);
+   }
+
+   /**
+    * Computes {@link #vincentyDistance(double, double, double, double)} for each pair of points.
+    *
+    * @param latitudes1  the latitudes of the first points
+    * @param longitudes1 the longitudes of the first points
+    * @param latitudes2  the latitudes of the second points
+    * @param longitudes2 the longitudes of the second points
+    * @param distances   the array to store the distances in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void vincentyDistances(double[] latitudes1, double[] longitudes1, double[] latitudes2,
+                                        double[] longitudes2, double[] distances)
+   {
+      int n = distances.length;
+      checkLength(n, latitudes1, longitudes1, latitudes2, longitudes2);
+
+      for (int i = 0; i < n; i++) {
+         distances[i] = vincentyDistance(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+      }
+   }
+
+   /**
+    * @return the initial bearing of the great circle from the first point to the second, in degrees from true north,
+    * from 0 to 360
+    */
+   public static double initialBearing(double latitude1, double longitude1, double latitude2, double longitude2)
+   {
+      double lat1 = Math.toRadians(latitude1);
+      double lat2 = Math.toRadians(latitude2);
+      double deltaLon = Math.toRadians(longitude2 - longitude1);
+
+      double y = Math.sin(deltaLon) * Math.cos(lat2);
+      double x = Math.cos(lat1) * Math.sin(lat2) - Math.sin(lat1) * Math.cos(lat2) * Math.cos(deltaLon);
+
+      return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+   }
+
+   /**
+    * Computes {@link #initialBearing(double, double, double, double)} for each pair of points.
+    *
+    * @param latitudes1  the latitudes of the first points
+    * @param longitudes1 the longitudes of the first points
+    * @param latitudes2  the latitudes of the second points
+    * @param longitudes2 the longitudes of the second points
+    * @param bearings    the array to store the bearings in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void initialBearings(double[] latitudes1, double[] longitudes1, double[] latitudes2,
+                                      double[] longitudes2, double[] bearings)
+   {
+      int n = bearings.length;
+      checkLength(n, latitudes1, longitudes1, latitudes2, longitudes2);
+
+      for (int i = 0; i < n; i++) {
+         bearings[i] = initialBearing(latitudes1[i], longitudes1[i], latitudes2[i], longitudes2[i]);
+      }
+   }
+
+   /**
+    * Computes the point reached by following a great circle from a point, on a sphere of mean radius.
+    *
+    * @param latitude  the latitude of the starting point
+    * @param longitude the longitude of the starting point
+    * @param bearing   the initial bearing, in degrees from true north
+    * @param distance  the distance to travel, in meters
+    * @param result    the array to store the latitude and longitude of the destination in, in this order
+    */
+   public static void destination(double latitude, double longitude, double bearing, double distance, double[] result)
+   {
+      double lat = Math.toRadians(latitude);
+      double theta = Math.toRadians(bearing);
+      double delta = distance / MEAN_EARTH_RADIUS;
+
+      double sinLat = Math.sin(lat), cosLat = Math.cos(lat);
+      double sinDelta = Math.sin(delta), cosDelta = Math.cos(delta);
+
+      double sinLat2 = sinLat * cosDelta + cosLat * sinDelta * Math.cos(theta);
+      double lat2 = Math.asin(sinLat2);
+      double lon2 = Math.toRadians(longitude) +
+            Math.atan2(Math.sin(theta) * sinDelta * cosLat, cosDelta - sinLat * sinLat2);
+
+      result[0] = Math.toDegrees(lat2);
+      result[1] = normalizeLongitude(Math.toDegrees(lon2));
+   }
+
+   /**
+    * Computes {@link #destination(double, double, double, double, double[])} for each starting point.
+    *
+    * @param latitudes             the latitudes of the starting points
+    * @param longitudes            the longitudes of the starting points
+    * @param bearings              the initial bearings
+    * @param distances             the distances to travel
+    * @param destinationLatitudes  the array to store the latitudes of the destinations in
+    * @param destinationLongitudes the array to store the longitudes of the destinations in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void destinations(double[] latitudes, double[] longitudes, double[] bearings, double[] distances,
+                                   double[] destinationLatitudes, double[] destinationLongitudes)
+   {
+      int n = destinationLatitudes.length;
+      checkLength(n, latitudes, longitudes, bearings, distances, destinationLongitudes);
+
+      double[] result = new double[2];
+      for (int i = 0; i < n; i++) {
+         destination(latitudes[i], longitudes[i], bearings[i], distances[i], result);
+         destinationLatitudes[i] = result[0];
+         destinationLongitudes[i] = result[1];
+      }
+   }
+
+   /**
+    * Computes the point reached by following a geodesic from a point on the WGS84 ellipsoid.
+    *
+    * @param latitude  the latitude of the starting point
+    * @param longitude the longitude of the starting point
+    * @param bearing   the initial bearing, in degrees from true north
+    * @param distance  the distance to travel, in meters
+    * @param result    the array to store the latitude and longitude of the destination in, in this order
+    */
+   public static void vincentyDestination(double latitude, double longitude, double bearing, double distance,
+                                          double[] result)
+   {
+      double a = WGS84_SEMI_MAJOR_AXIS, b = WGS84_SEMI_MINOR_AXIS, f = WGS84_FLATTENING;
+
+      double alpha1 = Math.toRadians(bearing);
+      double sinAlpha1 = Math.sin(alpha1), cosAlpha1 = Math.cos(alpha1);
+
+      double tanU1 = (1 - f) * Math.tan(Math.toRadians(latitude));
+      double cosU1 = 1 / Math.sqrt(1 + tanU1 * tanU1), sinU1 = tanU1 * cosU1;
+      double sigma1 = Math.atan2(tanU1, cosAlpha1);
+      double sinAlpha = cosU1 * sinAlpha1;
+      double cosSqAlpha = 1 - sinAlpha * sinAlpha;
+
+      double uSq = cosSqAlpha * (a * a - b * b) / (b * b);
+      double A = 1 + uSq / 16384 * (4096 + uSq * (-768 + uSq * (320 - 175 * uSq)));
+      double B = uSq / 1024 * (256 + uSq * (-128 + uSq * (74 - 47 * uSq)));
+
+      double sigma = distance / (b * A), sigmaPrevious;
+      double sinSigma, cosSigma, cos2SigmaM;
+      int iterations = 0;
+
+      do {
+         cos2SigmaM = Math.cos(2 * sigma1 + sigma);
+         sinSigma = Math.sin(sigma);
+         cosSigma = Math.cos(sigma);
+
+         double deltaSigma = B * sinSigma * (cos2SigmaM + B / 4 * (cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM) -
+               B / 6 * cos2SigmaM * (-3 + 4 * sinSigma * sinSigma) * (-3 + 4 * cos2SigmaM * cos2SigmaM)));
+
+         sigmaPrevious = sigma;
+         sigma = distance / (b * A) + deltaSigma;
+      } while (Math.abs(sigma - sigmaPrevious) > VINCENTY_TOLERANCE && ++iterations < VINCENTY_MAX_ITERATIONS);
+
+      double t = sinU1 * sinSigma - cosU1 * cosSigma * cosAlpha1;
+      double lat2 = Math.atan2(sinU1 * cosSigma + cosU1 * sinSigma * cosAlpha1,
+            (1 - f) * Math.sqrt(sinAlpha * sinAlpha + t * t));
+      double lambda = Math.atan2(sinSigma * sinAlpha1, cosU1 * cosSigma - sinU1 * sinSigma * cosAlpha1);
+      double C = f / 16 * cosSqAlpha * (4 + f * (4 - 3 * cosSqAlpha));
+      double L = lambda - (1 - C) * f * sinAlpha *
+            (sigma + C * sinSigma * (cos2SigmaM + C * cosSigma * (-1 + 2 * cos2SigmaM * cos2SigmaM)));
+
+      result[0] = Math.toDegrees(lat2);
+      result[1] = normalizeLongitude(longitude + Math.toDegrees(L));
+   }
+
+   /**
+    * Computes {@link #vincentyDestination(double, double, double, double, double[])} for each starting point.
+    *
+    * @param latitudes             the latitudes of the starting points
+    * @param longitudes            the longitudes of the starting points
+    * @param bearings              the initial bearings
+    * @param distances             the distances to travel
+    * @param destinationLatitudes  the array to store the latitudes of the destinations in
+    * @param destinationLongitudes the array to store the longitudes of the destinations in
+    *
+    * @throws IllegalArgumentException if the arrays are not of the same length
+    */
+   public static void vincentyDestinations(double[] latitudes, double[] longitudes, double[] bearings,
+                                           double[] distances, double[] destinationLatitudes,
+                                           double[] destinationLongitudes)
+   {
+      int n = destinationLatitudes.length;
+      checkLength(n, latitudes, longitudes, bearings, distances, destinationLongitudes);
+
+      double[] result = new double[2];
+      for (int i = 0; i < n; i++) {
+         vincentyDestination(latitudes[i], longitudes[i], bearings[i], distances[i], result);
+         destinationLatitudes[i] = result[0];
+         destinationLongitudes[i] = result[1];
+      }
+   }
+
+   /**
+    * Returns the length of a degree of latitude on the WGS84 ellipsoid, from the meridional radius of curvature. Over
+    * short distances around the latitude, it converts differences in latitude to meters north and back.
+    *
+    * @param latitude the latitude, in degrees
+    *
+    * @return the length of a degree of latitude at the latitude, in meters
+    */
+   public static double metersPerDegreeNorth(double latitude)
+   {
+      double sin = Math.sin(Math.toRadians(latitude));
+      double w = 1 - WGS84_ECCENTRICITY_SQUARED * sin * sin;
+
+      return Math.toRadians(WGS84_SEMI_MAJOR_AXIS * (1 - WGS84_ECCENTRICITY_SQUARED) / (w * Math.sqrt(w)));
+   }
+
+   /**
+    * Returns the length of a degree of longitude on the WGS84 ellipsoid, from the radius of the parallel. Over short
+    * distances around the latitude, it converts differences in longitude to meters east and back. It is zero at the
+    * poles.
+    *
+    * @param latitude the latitude, in degrees
+    *
+    * @return the length of a degree of longitude at the latitude, in meters
+    */
+   public static double metersPerDegreeEast(double latitude)
+   {
+      double radians = Math.toRadians(latitude);
+      double sin = Math.sin(radians);
+
+      return Math.toRadians(WGS84_SEMI_MAJOR_AXIS / Math.sqrt(1 - WGS84_ECCENTRICITY_SQUARED * sin * sin)
+            * Math.cos(radians));
+   }
+
+   static void checkLength(int length, double[]... arrays)
+   {
+      for (double[] array : arrays) {
+         if (array.length != length) throw new IllegalArgumentException("The arrays must be of the same length");
+      }
+   }
+
+   private static double normalizeLongitude(double longitude)
+   {
+      return (longitude + 540) % 360 - 180;
+   }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.track;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * The latest fixes of a device, kept in ring buffers of primitive arrays: one array per field, indexed by the
+ * position of the fix in the ring. When the ring is full, each new fix replaces the oldest one. Compared to keeping
+ * the {@link TPVReport}s, this takes a fraction of the memory and leaves nothing for the garbage collector.
+ * <p>
+ * Fixes are kept in strict time order, so that a time window is found by binary search and no two fixes share a
+ * time to interpolate between. A fix that is not later than the latest one is not added. Fields that were absent from the report are {@link Double#NaN}.
+ * <p>
+ * A track can be added to and read from different threads. Reading is done with a {@link TrackCursor}, which can be
+ * reused, so that iterating a track does not allocate. The position of the device at any time since the oldest fix
+ * can be worked out into a reusable {@link TrackPosition}, in time logarithmic in the capacity.
+ */
+public class Track
+{
+   private final int capacity;
+
+   private final long[] times;
+   private final double[] latitudes;
+   private final double[] longitudes;
+   private final double[] altitudes;
+   private final double[] speeds;
+   private final double[] courses;
+   private final double[] climbRates;
+   private final double[] latitudeErrors;
+   private final double[] longitudeErrors;
+   private final double[] altitudeErrors;
+   private final double[] speedErrors;
+   private final double[] courseErrors;
+
+   /**
+    * The number of fixes ever added. The sequence number of the latest fix is {@code count - 1}, and it is stored at
+    * {@code (count - 1) % capacity}.
+    */
+   private long count = 0;
+
+   /**
+    * Creates an empty track.
+    *
+    * @param capacity the number of fixes to keep
+    *
+    * @throws IllegalArgumentException if {@code capacity} is not positive
+    */
+   public Track(int capacity)
+   {
+      if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+
+      this.capacity = capacity;
+      this.times = new long[capacity];
+      this.latitudes = new double[capacity];
+      this.longitudes = new double[capacity];
+      this.altitudes = new double[capacity];
+      this.speeds = new double[capacity];
+      this.courses = new double[capacity];
+      this.climbRates = new double[capacity];
+      this.latitudeErrors = new double[capacity];
+      this.longitudeErrors = new double[capacity];
+      this.altitudeErrors = new double[capacity];
+      this.speedErrors = new double[capacity];
+      this.courseErrors = new double[capacity];
+   }
+
+   /**
+    * Adds the fix of a TPV report.
+    *
+    * @param tpv the report
+    *
+    * @return true if the fix was added, or false if the report has no time or position, or is not later than the
+    * latest fix
+    *
+    * @throws NullPointerException if {@code tpv} is null
+    */
+   public synchronized boolean add(TPVReport tpv)
+   {
+      requireNonNull(tpv, "tpv must not be null");
+
+      LocalDateTime time = tpv.getTime();
+      if (time == null || tpv.getLatitude() == null || tpv.getLongitude() == null) return false;
+
+      long millis = toMillis(time);
+      if (count > 0 && millis <= times[index(count - 1)]) return false;
+
+      int i = index(count);
+      times[i] = millis;
+      latitudes[i] = tpv.getLatitude();
+      longitudes[i] = tpv.getLongitude();
+      altitudes[i] = orNaN(tpv.getAltitude());
+      speeds[i] = orNaN(tpv.getSpeed());
+      courses[i] = orNaN(tpv.getCourse());
+      climbRates[i] = orNaN(tpv.getClimbRate());
+      latitudeErrors[i] = orNaN(tpv.getLatitudeError());
+      longitudeErrors[i] = orNaN(tpv.getLongitudeError());
+      altitudeErrors[i] = orNaN(tpv.getAltitudeError());
+      speedErrors[i] = orNaN(tpv.getSpeedError());
+      courseErrors[i] = orNaN(tpv.getCourseError());
+
+      count++;
+      return true;
+   }
+
+   /**
+    * @return the number of fixes the track keeps
+    */
+   public int getCapacity()
+   {
+      return capacity;
+   }
+
+   /**
+    * @return the number of fixes in the track
+    */
+   public synchronized int size()
+   {
+      return (int) Math.min(count, capacity);
+   }
+
+   /**
+    * Positions a cursor before the first fix at or after {@code from}. The cursor then returns the fixes up to, but
+    * not including, {@code to}, including those added while iterating. Fixes that are replaced by newer ones before
+    * the cursor reaches them are skipped.
+    *
+    * @param from   the start of the window, in ms since the epoch, inclusive
+    * @param to     the end of the window, in ms since the epoch, exclusive
+    * @param cursor the cursor to position
+    *
+    * @return the cursor
+    *
+    * @throws NullPointerException if {@code cursor} is null
+    */
+   public synchronized TrackCursor select(long from, long to, TrackCursor cursor)
+   {
+      requireNonNull(cursor, "cursor must not be null");
+
+      // the first fix that is not earlier than from
+      long low = oldest();
+      long high = count;
+      while (low < high) {
+         long mid = (low + high) >>> 1;
+
+         if (times[index(mid)] < from) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+
+      return cursor.position(this, low, to);
+   }
+
+   /**
+    * Positions a cursor before the first fix at or after {@code from}. See {@link #select(long, long, TrackCursor)}.
+    *
+    * @param from   the start of the window, inclusive, UTC
+    * @param to     the end of the window, exclusive, UTC
+    * @param cursor the cursor to position
+    *
+    * @return the cursor
+    *
+    * @throws NullPointerException if any of the arguments is null
+    */
+   public TrackCursor select(LocalDateTime from, LocalDateTime to, TrackCursor cursor)
+   {
+      return select(toMillis(requireNonNull(from, "from must not be null")),
+            toMillis(requireNonNull(to, "to must not be null")), cursor);
+   }
+
+   /**
+    * Positions a cursor before the oldest fix of the track.
+    *
+    * @param cursor the cursor to position
+    *
+    * @return the cursor
+    *
+    * @throws NullPointerException if {@code cursor} is null
+    */
+   public synchronized TrackCursor selectAll(TrackCursor cursor)
+   {
+      requireNonNull(cursor, "cursor must not be null");
+
+      return cursor.position(this, oldest(), Long.MAX_VALUE);
+   }
+
+   /**
+    * Works out the position of the device at a time, by interpolating between the fixes around it, or by dead
+    * reckoning from the latest fix if it is after it. See {@link TrackPosition}.
+    *
+    * @param time     the time, in ms since the epoch
+    * @param position the position to set
+    *
+    * @return true if the position was set, or false if the track is empty or the time is before its oldest fix
+    *
+    * @throws NullPointerException if {@code position} is null
+    */
+   public synchronized boolean positionAt(long time, TrackPosition position)
+   {
+      requireNonNull(position, "position must not be null");
+
+      // the first fix that is later than time
+      long oldest = oldest();
+      long low = oldest;
+      long high = count;
+      while (low < high) {
+         long mid = (low + high) >>> 1;
+
+         if (times[index(mid)] <= time) {
+            low = mid + 1;
+         } else {
+            high = mid;
+         }
+      }
+
+      if (low == oldest) return false;
+
+      int i = index(low - 1);
+
+      if (low < count) {
+         int j = index(low);
+         position.interpolate(time,
+               times[i], latitudes[i], longitudes[i], altitudes[i], speeds[i], courses[i], climbRates[i],
+               times[j], latitudes[j], longitudes[j], altitudes[j], speeds[j], courses[j], climbRates[j]);
+         return true;
+      }
+
+      // without a speed and course, the device keeps the velocity it had since the fix before
+      double latitudeRate = 0, longitudeRate = 0;
+      if ((Double.isNaN(speeds[i]) || Double.isNaN(courses[i])) && low - 1 > oldest) {
+         int h = index(low - 2);
+         long millis = times[i] - times[h];
+
+         if (millis > 0) {
+            double dLongitude = longitudes[i] - longitudes[h];
+            if (dLongitude > 180) {
+               dLongitude -= 360;
+            } else if (dLongitude < -180) {
+               dLongitude += 360;
+            }
+
+            latitudeRate = (latitudes[i] - latitudes[h]) / millis;
+            longitudeRate = dLongitude / millis;
+         }
+      }
+
+      position.extrapolate(time, times[i], latitudes[i], longitudes[i], altitudes[i], speeds[i], courses[i],
+            climbRates[i], latitudeRate, longitudeRate);
+      return true;
+   }
+
+   /**
+    * Works out the position of the device at a time. See {@link #positionAt(long, TrackPosition)}.
+    *
+    * @param time     the time, UTC
+    * @param position the position to set
+    *
+    * @return true if the position was set, or false if the track is empty or the time is before its oldest fix
+    *
+    * @throws NullPointerException if any of the arguments is null
+    */
+   public boolean positionAt(LocalDateTime time, TrackPosition position)
+   {
+      return positionAt(toMillis(requireNonNull(time, "time must not be null")), position);
+   }
+
+   /**
+    * Copies the fix at the cursor's position into the cursor, and advances it.
+    *
+    * @return false if there are no more fixes in the cursor's window
+    */
+   synchronized boolean read(TrackCursor cursor)
+   {
+      // skip the fixes that were replaced since the cursor was positioned
+      long sequence = Math.max(cursor.sequence, oldest());
+      if (sequence >= count) return false;
+
+      int i = index(sequence);
+      if (times[i] >= cursor.to) return false;
+
+      cursor.time = times[i];
+      cursor.latitude = latitudes[i];
+      cursor.longitude = longitudes[i];
+      cursor.altitude = altitudes[i];
+      cursor.speed = speeds[i];
+      cursor.course = courses[i];
+      cursor.climbRate = climbRates[i];
+      cursor.latitudeError = latitudeErrors[i];
+      cursor.longitudeError = longitudeErrors[i];
+      cursor.altitudeError = altitudeErrors[i];
+      cursor.speedError = speedErrors[i];
+      cursor.courseError = courseErrors[i];
+      cursor.sequence = sequence + 1;
+
+      return true;
+   }
+
+   static long toMillis(LocalDateTime time)
+   {
+      // unlike going through an Instant, this does not allocate
+      return time.toEpochSecond(ZoneOffset.UTC) * 1000 + time.getNano() / 1_000_000;
+   }
+
+   private long oldest()
+   {
+      return Math.max(0, count - capacity);
+   }
+
+   private int index(long sequence)
+   {
+      return (int) (sequence % capacity);
+   }
+
+   private static double orNaN(Double value)
+   {
+      return value != null ? value : Double.NaN;
+   }
+}
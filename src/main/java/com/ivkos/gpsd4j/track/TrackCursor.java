@@ -0,0 +1,178 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.track;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Iterates the fixes in a window of a {@link Track}, without allocating. Each call to {@link #next()} copies the next
+ * fix into the cursor, where its fields can be read until the following call. A cursor can be positioned again and
+ * again, so one is enough for any number of queries from the same thread:
+ * <pre>
+ * TrackCursor cursor = new TrackCursor();
+ *
+ * track.select(from, to, cursor);
+ * while (cursor.next()) {
+ *    System.out.println(cursor.getLatitude() + ", " + cursor.getLongitude());
+ * }
+ * </pre>
+ * A cursor is not thread-safe, but any number of cursors may read the same track.
+ */
+public class TrackCursor
+{
+   private Track track;
+   long sequence;
+   long to;
+
+   long time;
+   double latitude;
+   double longitude;
+   double altitude;
+   double speed;
+   double course;
+   double climbRate;
+   double latitudeError;
+   double longitudeError;
+   double altitudeError;
+   double speedError;
+   double courseError;
+
+   TrackCursor position(Track track, long sequence, long to)
+   {
+      this.track = track;
+      this.sequence = sequence;
+      this.to = to;
+      return this;
+   }
+
+   /**
+    * Advances the cursor to the next fix.
+    *
+    * @return true if the cursor is at the next fix, or false if there are no more fixes in the window, or the cursor
+    * has not been positioned
+    */
+   public boolean next()
+   {
+      return track != null && track.read(this);
+   }
+
+   /**
+    * @return Time of the fix, in ms since the epoch.
+    */
+   public long getTimeMillis()
+   {
+      return time;
+   }
+
+   /**
+    * @return Time of the fix, UTC.
+    */
+   public LocalDateTime getTime()
+   {
+      return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneOffset.UTC);
+   }
+
+   /**
+    * @return Latitude in degrees: +/- signifies North/South.
+    */
+   public double getLatitude()
+   {
+      return latitude;
+   }
+
+   /**
+    * @return Longitude in degrees: +/- signifies East/West.
+    */
+   public double getLongitude()
+   {
+      return longitude;
+   }
+
+   /**
+    * @return Altitude in meters.
+    */
+   public double getAltitude()
+   {
+      return altitude;
+   }
+
+   /**
+    * @return Speed over ground, meters per second.
+    */
+   public double getSpeed()
+   {
+      return speed;
+   }
+
+   /**
+    * @return Course over ground, degrees from true north.
+    */
+   public double getCourse()
+   {
+      return course;
+   }
+
+   /**
+    * @return Climb (positive) or sink (negative) rate, meters per second.
+    */
+   public double getClimbRate()
+   {
+      return climbRate;
+   }
+
+   /**
+    * @return Latitude error estimate in meters, 95% confidence.
+    */
+   public double getLatitudeError()
+   {
+      return latitudeError;
+   }
+
+   /**
+    * @return Longitude error estimate in meters, 95% confidence.
+    */
+   public double getLongitudeError()
+   {
+      return longitudeError;
+   }
+
+   /**
+    * @return Estimated vertical error in meters, 95% confidence.
+    */
+   public double getAltitudeError()
+   {
+      return altitudeError;
+   }
+
+   /**
+    * @return Speed error estimate in meters/sec, 95% confidence.
+    */
+   public double getSpeedError()
+   {
+      return speedError;
+   }
+
+   /**
+    * @return Direction error estimate in degrees, 95% confidence.
+    */
+   public double getCourseError()
+   {
+      return courseError;
+   }
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.track;
+
+import com.ivkos.gpsd4j.tools.Geodesy;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * The position of a device at an arbitrary time, worked out from the fixes in its {@link Track}, e.g. to match the
+ * frames of a camera that runs faster than the receiver. A position can be reused for any number of queries, so that
+ * they do not allocate:
+ * <pre>
+ * TrackPosition position = new TrackPosition();
+ *
+ * if (track.positionAt(frameTime, position) &amp;&amp; position.getExtrapolatedMillis() &lt; 2000) {
+ *    System.out.println(position.getLatitude() + ", " + position.getLongitude());
+ * }
+ * </pre>
+ * Between two fixes, the position is interpolated linearly, and the course along the shorter arc. After the latest
+ * fix, the position is dead-reckoned from it with its speed, course and climb rate, or with the velocity between the
+ * latest two fixes if it has no speed or course. A position that was absent from the fixes it was worked out from is
+ * {@link Double#NaN}.
+ * <p>
+ * A position is not thread-safe. It keeps the trigonometry of the latest dead reckoning, so that repeated queries after
+ * the same fix are cheap.
+ */
+public class TrackPosition
+{
+   long time;
+   long extrapolatedMillis;
+   double latitude;
+   double longitude;
+   double altitude;
+   double speed;
+   double course;
+   double climbRate;
+
+   private double scaleLatitude = Double.NaN;
+   private double metersPerDegreeNorth;
+   private double metersPerDegreeEast;
+
+   private double sinCourse = Double.NaN;
+   private double cosCourse;
+   private double cachedCourse = Double.NaN;
+
+   /**
+    * Sets the position at a time between two fixes, or at the earlier one.
+    */
+   void interpolate(long time, long time0, double latitude0, double longitude0, double altitude0, double speed0,
+                    double course0, double climbRate0, long time1, double latitude1, double longitude1,
+                    double altitude1, double speed1, double course1, double climbRate1)
+   {
+      double f = time1 > time0 ? (double) (time - time0) / (time1 - time0) : 0;
+
+      this.time = time;
+      this.extrapolatedMillis = 0;
+      this.latitude = latitude0 + (latitude1 - latitude0) * f;
+      this.longitude = normalizeLongitude(longitude0 + wrap(longitude1 - longitude0) * f);
+      this.altitude = altitude0 + (altitude1 - altitude0) * f;
+      this.speed = speed0 + (speed1 - speed0) * f;
+      this.climbRate = climbRate0 + (climbRate1 - climbRate0) * f;
+
+      double course = course0 + wrap(course1 - course0) * f;
+      this.course = course < 0 ? course + 360 : course >= 360 ? course - 360 : course;
+   }
+
+   /**
+    * Sets the position at a time after the latest fix, moving on from it with its speed and course, or with the
+    * velocity from the fix before it, in degrees per ms, if it has no speed or course.
+    */
+   void extrapolate(long time, long time0, double latitude0, double longitude0, double altitude0, double speed0,
+                    double course0, double climbRate0, double latitudeRate, double longitudeRate)
+   {
+      long millis = time - time0;
+      double seconds = millis / 1000.0;
+
+      this.time = time;
+      this.extrapolatedMillis = millis;
+      this.speed = speed0;
+      this.course = course0;
+      this.climbRate = climbRate0;
+      this.altitude = Double.isNaN(climbRate0) ? altitude0 : altitude0 + climbRate0 * seconds;
+
+      if (!Double.isNaN(speed0) && !Double.isNaN(course0)) {
+         if (!(Math.abs(latitude0 - this.scaleLatitude) <= 0.01)) this.scaleAt(latitude0);
+
+         if (course0 != this.cachedCourse) {
+            double radians = Math.toRadians(course0);
+            this.cachedCourse = course0;
+            this.sinCourse = Math.sin(radians);
+            this.cosCourse = Math.cos(radians);
+         }
+
+         double distance = speed0 * seconds;
+         this.latitude = latitude0 + distance * this.cosCourse / this.metersPerDegreeNorth;
+         this.longitude = normalizeLongitude(longitude0 + distance * this.sinCourse / this.metersPerDegreeEast);
+      } else {
+         this.latitude = latitude0 + latitudeRate * millis;
+         this.longitude = normalizeLongitude(longitude0 + longitudeRate * millis);
+      }
+
+      // past a pole, the position is of no use anyway, but should still be a valid one
+      this.latitude = Math.max(-90, Math.min(90, this.latitude));
+   }
+
+   /**
+    * @return Time of the position, in ms since the epoch.
+    */
+   public long getTimeMillis()
+   {
+      return time;
+   }
+
+   /**
+    * @return Time of the position, UTC.
+    */
+   public LocalDateTime getTime()
+   {
+      return LocalDateTime.ofInstant(Instant.ofEpochMilli(time), ZoneOffset.UTC);
+   }
+
+   /**
+    * @return How long after the latest fix the position is, in ms, or zero if it is not after the latest fix.
+    */
+   public long getExtrapolatedMillis()
+   {
+      return extrapolatedMillis;
+   }
+
+   /**
+    * @return True if the position is after the latest fix, and so was dead-reckoned.
+    */
+   public boolean isExtrapolated()
+   {
+      return extrapolatedMillis > 0;
+   }
+
+   /**
+    * @return Latitude in degrees: +/- signifies North/South.
+    */
+   public double getLatitude()
+   {
+      return latitude;
+   }
+
+   /**
+    * @return Longitude in degrees: +/- signifies East/West.
+    */
+   public double getLongitude()
+   {
+      return longitude;
+   }
+
+   /**
+    * @return Altitude in meters.
+    */
+   public double getAltitude()
+   {
+      return altitude;
+   }
+
+   /**
+    * @return Speed over ground, meters per second.
+    */
+   public double getSpeed()
+   {
+      return speed;
+   }
+
+   /**
+    * @return Course over ground, degrees from true north.
+    */
+   public double getCourse()
+   {
+      return course;
+   }
+
+   /**
+    * @return Climb (positive) or sink (negative) rate, meters per second.
+    */
+   public double getClimbRate()
+   {
+      return climbRate;
+   }
+
+   private void scaleAt(double latitude)
+   {
+      this.scaleLatitude = latitude;
+      this.metersPerDegreeNorth = Geodesy.metersPerDegreeNorth(latitude);
+      this.metersPerDegreeEast = Geodesy.metersPerDegreeEast(latitude);
+   }
+
+   /**
+    * @return the difference of two angles, in degrees, within 180 degrees of zero
+    */
+   private static double wrap(double difference)
+   {
+      return difference > 180 ? difference - 360 : difference < -180 ? difference + 360 : difference;
+   }
+
+   private static double normalizeLongitude(double longitude)
+   {
+      return longitude >= -180 && longitude <= 180 ? longitude : Math.IEEEremainder(longitude, 360);
+   }
+}
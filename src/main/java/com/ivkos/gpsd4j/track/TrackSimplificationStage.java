@@ -0,0 +1,335 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.track;
+
+import com.ivkos.gpsd4j.client.ProcessingStage;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.tools.FixClock;
+import com.ivkos.gpsd4j.tools.Geodesy;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A processing stage that thins out the fixes of each device, passing on only those needed to reconstruct its track
+ * within a tolerance, e.g. before storing the track or sending it over a metered link:
+ * <pre>
+ * client.addStage(new TrackSimplificationStage().setTolerance(5))
+ *       .addHandler(TPVReport.class, uplink::send);
+ * </pre>
+ * Every fix that is dropped is within the tolerance of where the device would be at the time of the fix, moving at
+ * constant speed in a straight line between the fixes before and after it that are passed on. Unlike the
+ * perpendicular distance to the line, this keeps the timing of the track, so that stops and changes of speed along a
+ * straight road are kept too.
+ * <p>
+ * The fixes are simplified with an opening window: the fixes after the last fix that was passed on are held back for
+ * as long as a line to the newest fix passes close enough to all of them. Once it does not, the fix before the newest
+ * one is passed on, and the window starts over from it. A fix is therefore passed on one fix late, and a device that
+ * keeps moving in a straight line, or stays still, has a fix passed on every {@link #setMaxWindow(int) max window}
+ * fixes. Checking a fix takes time proportional to the window, and each device keeps the window in primitive arrays.
+ * <p>
+ * The distances are horizontal. Other messages, and TPV reports without a time or position, are passed on as they
+ * are. A fix that is not later than the one before it is dropped.
+ */
+public class TrackSimplificationStage implements ProcessingStage
+{
+   private static final double DEFAULT_TOLERANCE = 10;
+   private static final int DEFAULT_MAX_WINDOW = 64;
+
+   private final Map<String, DeviceWindow> windows = new ConcurrentHashMap<>();
+
+   private volatile double tolerance = DEFAULT_TOLERANCE;
+   private volatile int maxWindow = DEFAULT_MAX_WINDOW;
+
+   /**
+    * Sets how far the reconstructed track may be from a fix that is dropped. The default is 10 meters.
+    *
+    * @param tolerance the distance, in meters
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code tolerance} is negative
+    */
+   public TrackSimplificationStage setTolerance(double tolerance)
+   {
+      if (!(tolerance >= 0)) throw new IllegalArgumentException("tolerance must not be negative");
+
+      this.tolerance = tolerance;
+      return this;
+   }
+
+   /**
+    * Sets the number of fixes that can be held back for a device before one is passed on regardless. This bounds
+    * both the time it takes to check a fix and the delay before a fix is passed on. The default is 64 fixes.
+    *
+    * @param maxWindow the number of fixes
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code maxWindow} is not positive
+    */
+   public TrackSimplificationStage setMaxWindow(int maxWindow)
+   {
+      if (maxWindow <= 0) throw new IllegalArgumentException("maxWindow must be positive");
+
+      this.maxWindow = maxWindow;
+      return this;
+   }
+
+   /**
+    * Forgets the state of a device, so that its next fix is passed on and starts a new window. The fixes held back
+    * for the device are dropped.
+    *
+    * @param device the name of the device
+    *
+    * @return <tt>true</tt> if the device had any state
+    */
+   public boolean removeDevice(String device)
+   {
+      return this.windows.remove(device) != null;
+   }
+
+   /**
+    * Passes on the newest fix held back for a device, so that its track ends where the device was last seen. The
+    * window starts over from that fix, so it is not passed on twice.
+    * <p>
+    * A fix is only passed on once the next one shows it is needed, so the last fixes of a device are held back until
+    * it reports again. Call this when no more fixes are expected for a while, e.g. from a {@link
+    * com.ivkos.gpsd4j.client.GpsdClient#setStallHandler(Consumer) stall handler} when the device stops reporting, or
+    * before the client is stopped.
+    * <p>
+    * The fix is passed to the stages and handlers after this one, the same way as the last fix of the device that
+    * went through this stage, but on the calling thread. So that it is not handled at the same time as a fix that is
+    * still going through the pipeline, only flush a device that is not reporting.
+    *
+    * @param device the name of the device
+    *
+    * @return <tt>true</tt> if a fix was held back for the device and passed on
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public boolean flush(String device)
+   {
+      requireNonNull(device, "device must not be null");
+
+      DeviceWindow window = this.windows.get(device);
+      if (window == null) return false;
+
+      TPVReport flushed;
+      Consumer<GpsdMessage> next;
+      synchronized (window) {
+         flushed = window.flush();
+         next = window.next;
+      }
+
+      if (flushed == null) return false;
+
+      next.accept(flushed);
+      return true;
+   }
+
+   /**
+    * Passes on the newest fix held back for each device. See {@link #flush(String)}.
+    *
+    * @return the number of fixes passed on
+    */
+   public int flushAll()
+   {
+      int flushed = 0;
+      for (String device : this.windows.keySet()) {
+         if (this.flush(device)) flushed++;
+      }
+
+      return flushed;
+   }
+
+   @Override
+   public void process(GpsdMessage message, Consumer<GpsdMessage> next)
+   {
+      if (!(message instanceof TPVReport)) {
+         next.accept(message);
+         return;
+      }
+
+      TPVReport tpv = (TPVReport) message;
+      if (tpv.getDevice() == null || tpv.getTime() == null || tpv.getLatitude() == null ||
+            tpv.getLongitude() == null) {
+         next.accept(message);
+         return;
+      }
+
+      DeviceWindow window = this.windows.computeIfAbsent(tpv.getDevice(), __ -> new DeviceWindow());
+
+      // flush() may be called from another thread
+      TPVReport passed;
+      synchronized (window) {
+         passed = window.add(tpv, this.tolerance, this.maxWindow);
+         window.next = next;
+      }
+
+      if (passed != null) next.accept(passed);
+   }
+
+   /**
+    * The last fix of a device that was passed on, and the fixes held back after it, relative to it
+    */
+   private static class DeviceWindow
+   {
+      private final FixClock clock = new FixClock();
+
+      private boolean started;
+      private double anchorTime;
+      private double anchorLatitude;
+      private double anchorLongitude;
+
+      // the fixes held back, in seconds and meters east and north of the anchor
+      private double[] times = new double[0];
+      private double[] easts = new double[0];
+      private double[] norths = new double[0];
+      private int size;
+      private TPVReport latest;
+
+      // where the fixes of the device went last, and where a flushed fix goes
+      private Consumer<GpsdMessage> next;
+
+      private double scaleLatitude = Double.NaN;
+      private double metersPerDegreeNorth;
+      private double metersPerDegreeEast;
+
+      /**
+       * @return the fix to pass on, or null
+       */
+      TPVReport add(TPVReport tpv, double tolerance, int maxWindow)
+      {
+         double time = this.clock.seconds(tpv.getTime());
+         double latitude = tpv.getLatitude();
+         double longitude = tpv.getLongitude();
+
+         if (!this.started) {
+            this.started = true;
+            this.anchorAt(time, latitude, longitude, maxWindow);
+            return tpv;
+         }
+
+         double t = time - this.anchorTime;
+         if (t <= (this.size > 0 ? this.times[this.size - 1] : 0)) return null;
+
+         double east = this.east(longitude);
+         double north = (latitude - this.anchorLatitude) * this.metersPerDegreeNorth;
+
+         if (this.size < maxWindow && this.size < this.times.length && this.covers(t, east, north, tolerance)) {
+            this.hold(t, east, north, tpv);
+            return null;
+         }
+
+         // the window ends with the fix before this one, which the next window starts from
+         TPVReport passed = this.latest;
+         double passedTime = this.anchorTime + this.times[this.size - 1];
+         this.anchorAt(passedTime, passed.getLatitude(), passed.getLongitude(), maxWindow);
+
+         this.hold(time - this.anchorTime, this.east(longitude),
+               (latitude - this.anchorLatitude) * this.metersPerDegreeNorth, tpv);
+
+         return passed;
+      }
+
+      /**
+       * @return the newest fix held back, which the window now starts from, or null if none is held back
+       */
+      TPVReport flush()
+      {
+         if (this.size == 0) return null;
+
+         TPVReport flushed = this.latest;
+         this.anchorAt(this.anchorTime + this.times[this.size - 1], flushed.getLatitude(), flushed.getLongitude(),
+               this.times.length);
+
+         return flushed;
+      }
+
+      /**
+       * @return true if the line from the anchor to a fix passes within the tolerance of all fixes held back
+       */
+      private boolean covers(double t, double east, double north, double tolerance)
+      {
+         double toleranceSquared = tolerance * tolerance;
+         double eastSpeed = east / t;
+         double northSpeed = north / t;
+
+         // the latest fixes are the likeliest to stray from the line
+         for (int i = this.size - 1; i >= 0; i--) {
+            double dEast = this.easts[i] - eastSpeed * this.times[i];
+            double dNorth = this.norths[i] - northSpeed * this.times[i];
+
+            if (dEast * dEast + dNorth * dNorth > toleranceSquared) return false;
+         }
+
+         return true;
+      }
+
+      private void hold(double t, double east, double north, TPVReport tpv)
+      {
+         this.times[this.size] = t;
+         this.easts[this.size] = east;
+         this.norths[this.size] = north;
+         this.size++;
+         this.latest = tpv;
+      }
+
+      private void anchorAt(double time, double latitude, double longitude, int maxWindow)
+      {
+         this.anchorTime = time;
+         this.anchorLatitude = latitude;
+         this.anchorLongitude = longitude;
+         this.size = 0;
+         this.latest = null;
+
+         if (this.times.length != maxWindow) {
+            this.times = new double[maxWindow];
+            this.easts = new double[maxWindow];
+            this.norths = new double[maxWindow];
+         }
+
+         if (!(Math.abs(latitude - this.scaleLatitude) <= 0.01)) this.scaleAt(latitude);
+      }
+
+      private double east(double longitude)
+      {
+         double dLongitude = longitude - this.anchorLongitude;
+
+         // across the antimeridian
+         if (dLongitude > 180) {
+            dLongitude -= 360;
+         } else if (dLongitude < -180) {
+            dLongitude += 360;
+         }
+
+         return dLongitude * this.metersPerDegreeEast;
+      }
+
+      private void scaleAt(double latitude)
+      {
+         this.scaleLatitude = latitude;
+         this.metersPerDegreeNorth = Geodesy.metersPerDegreeNorth(latitude);
+         this.metersPerDegreeEast = Geodesy.metersPerDegreeEast(latitude);
+      }
+   }
+}
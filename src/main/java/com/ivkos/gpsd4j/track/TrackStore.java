@@ -0,0 +1,138 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.track;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Keeps a {@link Track} of the latest fixes of each device. It is a handler of TPV reports, so it can be added to a
+ * client directly:
+ * <pre>
+ * TrackStore tracks = new TrackStore(3600);
+ * client.addHandler(TPVReport.class, tracks);
+ *
+ * Track track = tracks.getTrack("/dev/ttyAMA0");
+ * </pre>
+ * Reports without a device are ignored.
+ */
+public class TrackStore implements Consumer<TPVReport>
+{
+   private final int capacity;
+   private final Map<String, Track> tracks = new ConcurrentHashMap<>();
+
+   /**
+    * Creates an empty store.
+    *
+    * @param capacity the number of fixes to keep for each device
+    *
+    * @throws IllegalArgumentException if {@code capacity} is not positive
+    */
+   public TrackStore(int capacity)
+   {
+      if (capacity <= 0) throw new IllegalArgumentException("capacity must be positive");
+
+      this.capacity = capacity;
+   }
+
+   /**
+    * Adds the fix of a TPV report to the track of its device. See {@link Track#add(TPVReport)}.
+    *
+    * @param tpv the report
+    *
+    * @throws NullPointerException if {@code tpv} is null
+    */
+   @Override
+   public void accept(TPVReport tpv)
+   {
+      requireNonNull(tpv, "tpv must not be null");
+
+      String device = tpv.getDevice();
+      if (device == null) return;
+
+      Track track = tracks.get(device);
+      if (track == null) track = tracks.computeIfAbsent(device, __ -> new Track(capacity));
+
+      track.add(tpv);
+   }
+
+   /**
+    * @param device the name of the device
+    *
+    * @return the track of the device, or null if no fix has been received from it
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public Track getTrack(String device)
+   {
+      return tracks.get(requireNonNull(device, "device must not be null"));
+   }
+
+   /**
+    * Works out the position of a device at a time. See {@link Track#positionAt(long, TrackPosition)}.
+    *
+    * @param device   the name of the device
+    * @param time     the time, in ms since the epoch
+    * @param position the position to set
+    *
+    * @return true if the position was set, or false if no fix has been received from the device, or the time is
+    * before its oldest fix
+    *
+    * @throws NullPointerException if {@code device} or {@code position} is null
+    */
+   public boolean positionAt(String device, long time, TrackPosition position)
+   {
+      Track track = getTrack(device);
+      return track != null && track.positionAt(time, requireNonNull(position, "position must not be null"));
+   }
+
+   /**
+    * @return an unmodifiable live view of the tracks, keyed by device name
+    */
+   public Map<String, Track> getTracks()
+   {
+      return Collections.unmodifiableMap(tracks);
+   }
+
+   /**
+    * @return the number of fixes kept for each device
+    */
+   public int getCapacity()
+   {
+      return capacity;
+   }
+
+   /**
+    * Removes the track of a device.
+    *
+    * @param device the name of the device
+    *
+    * @return the removed track, or null if there was none
+    *
+    * @throws NullPointerException if {@code device} is null
+    */
+   public Track removeTrack(String device)
+   {
+      return tracks.remove(requireNonNull(device, "device must not be null"));
+   }
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.trip;
+
+import com.ivkos.gpsd4j.client.ProcessingStage;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.tools.FixClock;
+import com.ivkos.gpsd4j.tools.Geodesy;
+
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static com.ivkos.gpsd4j.trip.TripTransition.*;
+
+/**
+ * A processing stage that keeps an odometer for each device and splits its track into trips and stops. It passes a
+ * {@link TripSegmentEvent} on right after the fix that ends a trip or a stop:
+ * <pre>
+ * client.addStage(new TripDetectionStage().setStopDuration(120_000))
+ *       .addHandler(TripSegmentEvent.class, event -&gt; ...);
+ * </pre>
+ * A device moves while its speed is above the {@link #setStopSpeed(double) stop speed}, and has stopped once it has
+ * not moved for the {@link #setStopDuration(long) stop duration}. Shorter halts, e.g. at traffic lights, are part of
+ * the trip. A stop that lasts for the {@link #setDwellDuration(long) dwell duration} is reported as it reaches it, as
+ * well as when it ends. The speed reported with a fix is used if there is one, and the speed implied by the distance
+ * from the previous fix otherwise.
+ * <p>
+ * The odometer only counts the distance travelled while moving, so that the noise of the fixes of a stopped device
+ * does not add up. Each device keeps a constant amount of state, and each fix takes constant time.
+ */
+public class TripDetectionStage implements ProcessingStage
+{
+   private static final double DEFAULT_STOP_SPEED = 0.5;
+   private static final long DEFAULT_STOP_DURATION = 60_000;
+   private static final long DEFAULT_DWELL_DURATION = 600_000;
+
+   // longer hops, e.g. across a gap in the fixes, are measured along the geodesic
+   private static final double MAX_PLANAR_HOP = 0.01;
+
+   private final Map<String, DeviceTrip> trips = new ConcurrentHashMap<>();
+
+   private volatile double stopSpeed = DEFAULT_STOP_SPEED;
+   private volatile double stopDuration = DEFAULT_STOP_DURATION / 1000.0;
+   private volatile double dwellDuration = DEFAULT_DWELL_DURATION / 1000.0;
+
+   /**
+    * Sets the speed at or below which a device is not moving. The default is 0.5 m/s.
+    *
+    * @param stopSpeed the speed, in m/s
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code stopSpeed} is negative
+    */
+   public TripDetectionStage setStopSpeed(double stopSpeed)
+   {
+      if (!(stopSpeed >= 0)) throw new IllegalArgumentException("stopSpeed must not be negative");
+
+      this.stopSpeed = stopSpeed;
+      return this;
+   }
+
+   /**
+    * Sets how long a device must not move for it to have stopped. The default is 60 seconds.
+    *
+    * @param stopDuration the duration, in ms
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code stopDuration} is negative
+    */
+   public TripDetectionStage setStopDuration(long stopDuration)
+   {
+      if (stopDuration < 0) throw new IllegalArgumentException("stopDuration must not be negative");
+
+      this.stopDuration = stopDuration / 1000.0;
+      return this;
+   }
+
+   /**
+    * Sets how long a stop must last for the device to be dwelling. The default is 10 minutes.
+    *
+    * @param dwellDuration the duration, in ms
+    *
+    * @return a reference to this, so the API can be used fluently
+    *
+    * @throws IllegalArgumentException if {@code dwellDuration} is negative
+    */
+   public TripDetectionStage setDwellDuration(long dwellDuration)
+   {
+      if (dwellDuration < 0) throw new IllegalArgumentException("dwellDuration must not be negative");
+
+      this.dwellDuration = dwellDuration / 1000.0;
+      return this;
+   }
+
+   /**
+    * Returns the distance a device has travelled since its first fix was seen, or since its odometer was reset.
+    *
+    * @param device the name of the device
+    *
+    * @return the distance, in meters, or zero if no fix of the device has been seen
+    */
+   public double getOdometer(String device)
+   {
+      DeviceTrip trip = this.trips.get(device);
+      return trip != null ? trip.odometer : 0;
+   }
+
+   /**
+    * Forgets the state of a device, including its odometer, so that its next fix starts over.
+    *
+    * @param device the name of the device
+    *
+    * @return <tt>true</tt> if the device had any state
+    */
+   public boolean removeDevice(String device)
+   {
+      return this.trips.remove(device) != null;
+   }
+
+   @Override
+   public void process(GpsdMessage message, Consumer<GpsdMessage> next)
+   {
+      next.accept(message);
+
+      if (!(message instanceof TPVReport)) return;
+
+      TPVReport tpv = (TPVReport) message;
+      if (tpv.getDevice() == null || tpv.getTime() == null || tpv.getLatitude() == null ||
+            tpv.getLongitude() == null) {
+         return;
+      }
+
+      DeviceTrip trip = this.trips.computeIfAbsent(tpv.getDevice(), __ -> new DeviceTrip());
+
+      TripSegmentEvent event = trip.update(tpv, this.stopSpeed, this.stopDuration, this.dwellDuration);
+      if (event != null) next.accept(event);
+   }
+
+   /**
+    * The odometer of a device, its current segment, and the halt it may be in
+    */
+   private static class DeviceTrip
+   {
+      private final FixClock clock = new FixClock();
+
+      volatile double odometer;
+
+      // the previous fix
+      private LocalDateTime lastTime;
+      private double time = Double.NaN;
+      private double latitude;
+      private double longitude;
+      private boolean wasMoving;
+
+      private boolean stopped;
+      private LocalDateTime segmentStartTime;
+      private double segmentStart;
+      private double segmentStartLatitude;
+      private double segmentStartLongitude;
+      private double segmentDistance;
+      private double segmentMovingTime;
+      private boolean dwelling;
+
+      // the first fix of a halt that is not yet long enough to be a stop, NaN if moving
+      private LocalDateTime haltTime;
+      private double halt = Double.NaN;
+      private double haltLatitude;
+      private double haltLongitude;
+
+      private double scaleLatitude = Double.NaN;
+      private double metersPerDegreeNorth;
+      private double metersPerDegreeEast;
+
+      /**
+       * @return the event of the segment that the fix ended, or null
+       */
+      TripSegmentEvent update(TPVReport tpv, double stopSpeed, double stopDuration, double dwellDuration)
+      {
+         double time = this.clock.seconds(tpv.getTime());
+         double latitude = tpv.getLatitude();
+         double longitude = tpv.getLongitude();
+
+         if (Double.isNaN(this.time)) {
+            boolean moving = tpv.getSpeed() != null && tpv.getSpeed() > stopSpeed;
+            this.startSegment(!moving, tpv.getTime(), time, latitude, longitude);
+            this.moveTo(tpv.getTime(), time, latitude, longitude, moving);
+            return null;
+         }
+
+         double dt = time - this.time;
+         if (dt <= 0) return null;
+
+         double hop = this.distance(latitude, longitude);
+         double speed = tpv.getSpeed() != null ? tpv.getSpeed() : hop / dt;
+         boolean moving = speed > stopSpeed;
+
+         // the hop that ends a movement is still travelled
+         if (moving || this.wasMoving) {
+            this.odometer += hop;
+            this.segmentDistance += hop;
+            this.segmentMovingTime += dt;
+         }
+
+         TripSegmentEvent event;
+         if (!this.stopped) {
+            event = this.updateTrip(tpv, time, latitude, longitude, moving, stopDuration);
+         } else if (moving) {
+            event = this.endStop(STARTED, tpv, this.lastTime, this.latitude, this.longitude);
+
+            // the trip starts from the last fix of the stop
+            this.startSegment(false, this.lastTime, this.time, this.latitude, this.longitude);
+            this.segmentDistance = hop;
+            this.segmentMovingTime = dt;
+         } else if (!this.dwelling && time - this.segmentStart >= dwellDuration) {
+            this.dwelling = true;
+            event = this.endStop(DWELLING, tpv, tpv.getTime(), latitude, longitude);
+         } else {
+            event = null;
+         }
+
+         this.moveTo(tpv.getTime(), time, latitude, longitude, moving);
+         return event;
+      }
+
+      private TripSegmentEvent updateTrip(TPVReport tpv, double time, double latitude, double longitude,
+                                          boolean moving, double stopDuration)
+      {
+         if (moving) {
+            this.halt = Double.NaN;
+            return null;
+         }
+
+         if (Double.isNaN(this.halt)) {
+            this.haltTime = tpv.getTime();
+            this.halt = time;
+            this.haltLatitude = latitude;
+            this.haltLongitude = longitude;
+         }
+
+         if (time - this.halt < stopDuration) return null;
+
+         // the trip ended where the halt started
+         TripSegmentEvent event = new TripSegmentEvent(STOPPED, tpv,
+               this.segmentStartTime, this.segmentStartLatitude, this.segmentStartLongitude,
+               this.haltTime, this.haltLatitude, this.haltLongitude,
+               this.segmentDistance, this.segmentMovingTime, this.odometer);
+
+         this.startSegment(true, this.haltTime, this.halt, this.haltLatitude, this.haltLongitude);
+         return event;
+      }
+
+      private TripSegmentEvent endStop(TripTransition transition, TPVReport tpv, LocalDateTime endTime,
+                                       double endLatitude, double endLongitude)
+      {
+         return new TripSegmentEvent(transition, tpv,
+               this.segmentStartTime, this.segmentStartLatitude, this.segmentStartLongitude,
+               endTime, endLatitude, endLongitude, 0, 0, this.odometer);
+      }
+
+      private void moveTo(LocalDateTime lastTime, double time, double latitude, double longitude, boolean moving)
+      {
+         this.lastTime = lastTime;
+         this.time = time;
+         this.latitude = latitude;
+         this.longitude = longitude;
+         this.wasMoving = moving;
+      }
+
+      private void startSegment(boolean stopped, LocalDateTime startTime, double start, double latitude,
+                                double longitude)
+      {
+         this.stopped = stopped;
+         this.segmentStartTime = startTime;
+         this.segmentStart = start;
+         this.segmentStartLatitude = latitude;
+         this.segmentStartLongitude = longitude;
+         this.segmentDistance = 0;
+         this.segmentMovingTime = 0;
+         this.dwelling = false;
+         this.halt = Double.NaN;
+      }
+
+      /**
+       * @return the distance from the previous fix. Hops between consecutive fixes are short enough to be measured
+       * on the plane tangent to the ellipsoid, with its radii of curvature at the latitude of the fixes.
+       */
+      private double distance(double latitude, double longitude)
+      {
+         double dLatitude = latitude - this.latitude;
+         double dLongitude = longitude - this.longitude;
+
+         if (Math.abs(dLatitude) > MAX_PLANAR_HOP || Math.abs(dLongitude) > MAX_PLANAR_HOP) {
+            double distance = Geodesy.vincentyDistance(this.latitude, this.longitude, latitude, longitude);
+            return Double.isNaN(distance)
+                  ? Geodesy.haversineDistance(this.latitude, this.longitude, latitude, longitude)
+                  : distance;
+         }
+
+         if (!(Math.abs(latitude - this.scaleLatitude) <= MAX_PLANAR_HOP)) this.scaleAt(latitude);
+
+         double x = dLongitude * this.metersPerDegreeEast;
+         double y = dLatitude * this.metersPerDegreeNorth;
+
+         return Math.sqrt(x * x + y * y);
+      }
+
+      private void scaleAt(double latitude)
+      {
+         this.scaleLatitude = latitude;
+         this.metersPerDegreeNorth = Geodesy.metersPerDegreeNorth(latitude);
+         this.metersPerDegreeEast = Geodesy.metersPerDegreeEast(latitude);
+      }
+   }
+}
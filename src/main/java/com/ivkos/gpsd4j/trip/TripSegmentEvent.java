@@ -0,0 +1,195 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.trip;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.ivkos.gpsd4j.messages.DeviceReport;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+
+/**
+ * A segment of the track of a device, either a trip or a stop, detected by a {@link TripDetectionStage} when it ends.
+ * It is not sent by gpsd, but handlers can be added for it like for the messages that are:
+ * <pre>
+ * client.addHandler(TripSegmentEvent.class, event -&gt; System.out.println(event));
+ * </pre>
+ */
+public final class TripSegmentEvent extends GpsdMessage implements DeviceReport
+{
+   public static final String CLASS = "TRIP";
+
+   private final TripTransition transition;
+   private final TPVReport tpv;
+   private final LocalDateTime startTime;
+   private final double startLatitude;
+   private final double startLongitude;
+   private final LocalDateTime endTime;
+   private final double endLatitude;
+   private final double endLongitude;
+   private final double distance;
+   private final double movingTime;
+   private final double odometer;
+
+   TripSegmentEvent(TripTransition transition, TPVReport tpv,
+                    LocalDateTime startTime, double startLatitude, double startLongitude,
+                    LocalDateTime endTime, double endLatitude, double endLongitude,
+                    double distance, double movingTime, double odometer)
+   {
+      this.transition = transition;
+      this.tpv = tpv;
+      this.startTime = startTime;
+      this.startLatitude = startLatitude;
+      this.startLongitude = startLongitude;
+      this.endTime = endTime;
+      this.endLatitude = endLatitude;
+      this.endLongitude = endLongitude;
+      this.distance = distance;
+      this.movingTime = movingTime;
+      this.odometer = odometer;
+   }
+
+   /**
+    * @return the transition of the device that ended the segment
+    */
+   public TripTransition getTransition()
+   {
+      return transition;
+   }
+
+   /**
+    * @return whether the segment is a trip, rather than a stop
+    */
+   @JsonIgnore
+   public boolean isTrip()
+   {
+      return transition == TripTransition.STOPPED;
+   }
+
+   /**
+    * @return Name of the device
+    */
+   @Override
+   public String getDevice()
+   {
+      return tpv.getDevice();
+   }
+
+   /**
+    * @return Time of the first fix of the segment, UTC
+    */
+   public LocalDateTime getStartTime()
+   {
+      return startTime;
+   }
+
+   /**
+    * @return Latitude of the first fix of the segment, in degrees
+    */
+   public double getStartLatitude()
+   {
+      return startLatitude;
+   }
+
+   /**
+    * @return Longitude of the first fix of the segment, in degrees
+    */
+   public double getStartLongitude()
+   {
+      return startLongitude;
+   }
+
+   /**
+    * @return Time of the last fix of the segment, UTC
+    */
+   public LocalDateTime getEndTime()
+   {
+      return endTime;
+   }
+
+   /**
+    * @return Latitude of the last fix of the segment, in degrees
+    */
+   public double getEndLatitude()
+   {
+      return endLatitude;
+   }
+
+   /**
+    * @return Longitude of the last fix of the segment, in degrees
+    */
+   public double getEndLongitude()
+   {
+      return endLongitude;
+   }
+
+   /**
+    * @return the time from the first to the last fix of the segment
+    */
+   public Duration getDuration()
+   {
+      return Duration.between(startTime, endTime);
+   }
+
+   /**
+    * @return the distance travelled during the segment, in meters. Zero for stops.
+    */
+   public double getDistance()
+   {
+      return distance;
+   }
+
+   /**
+    * @return the time spent moving during the segment, in seconds, which excludes the halts too short to be stops.
+    * Zero for stops.
+    */
+   public double getMovingTime()
+   {
+      return movingTime;
+   }
+
+   /**
+    * @return the distance the device has travelled in total by the end of the segment, in meters
+    */
+   public double getOdometer()
+   {
+      return odometer;
+   }
+
+   /**
+    * @return the TPV report of the fix that ended the segment
+    */
+   public TPVReport getTPV()
+   {
+      return tpv;
+   }
+
+   @Override
+   public String getGpsdClass()
+   {
+      return CLASS;
+   }
+
+   @Override
+   public String toString()
+   {
+      return "TripSegmentEvent(transition=" + transition + ", device=" + getDevice() + ", startTime=" + startTime +
+            ", endTime=" + endTime + ", distance=" + distance + ", movingTime=" + movingTime + ")";
+   }
+}
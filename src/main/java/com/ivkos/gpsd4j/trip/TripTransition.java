@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.trip;
+
+/**
+ * The transition of a device that a {@link TripSegmentEvent} reports
+ */
+public enum TripTransition
+{
+   /**
+    * The device has stopped. The event describes the trip that ended.
+    */
+   STOPPED,
+
+   /**
+    * The device has been stopped for longer than the dwell duration. The event describes the stop so far.
+    */
+   DWELLING,
+
+   /**
+    * The device has started moving after a stop. The event describes the stop that ended.
+    */
+   STARTED
+}
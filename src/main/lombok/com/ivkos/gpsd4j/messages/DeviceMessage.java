@@ -27,7 +27,7 @@ import java.time.LocalDateTime;
 
 @ToString
 @EqualsAndHashCode(callSuper = false)
-public class DeviceMessage extends GpsdCommandMessage
+public class DeviceMessage extends GpsdCommandMessage implements DeviceReport
 {
    public static final String CLASS = "DEVICE";
 
@@ -121,6 +121,17 @@ public class DeviceMessage extends GpsdCommandMessage
       this._native = nativeMode ? 1 : 0;
    }
 
+   /**
+    * The effect of this call is equivalent to that of calling {@link #getPath()}.
+    *
+    * @return name of the device
+    */
+   @Override
+   public String getDevice()
+   {
+      return path;
+   }
+
    @Override
    public String getGpsdClass()
    {
@@ -17,6 +17,7 @@
 package com.ivkos.gpsd4j.messages.reports;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.ivkos.gpsd4j.messages.DeviceReport;
 import com.ivkos.gpsd4j.messages.GpsdMessage;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -35,7 +36,7 @@ import java.time.LocalDateTime;
 @Getter
 @ToString
 @EqualsAndHashCode(callSuper = false)
-public class ATTReport extends GpsdMessage
+public class ATTReport extends GpsdMessage implements DeviceReport
 {
    public static final String CLASS = "ATT";
 
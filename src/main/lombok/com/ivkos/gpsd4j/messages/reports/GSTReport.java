@@ -16,6 +16,7 @@
 
 package com.ivkos.gpsd4j.messages.reports;
 
+import com.ivkos.gpsd4j.messages.DeviceReport;
 import com.ivkos.gpsd4j.messages.GpsdMessage;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -29,7 +30,7 @@ import java.time.LocalDateTime;
 @Getter
 @ToString
 @EqualsAndHashCode(callSuper = false)
-public class GSTReport extends GpsdMessage
+public class GSTReport extends GpsdMessage implements DeviceReport
 {
    public static final String CLASS = "GST";
 
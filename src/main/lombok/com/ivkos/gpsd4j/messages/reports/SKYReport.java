@@ -17,6 +17,7 @@
 package com.ivkos.gpsd4j.messages.reports;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.ivkos.gpsd4j.messages.DeviceReport;
 import com.ivkos.gpsd4j.messages.GpsdMessage;
 import com.ivkos.gpsd4j.messages.Satellite;
 import lombok.EqualsAndHashCode;
@@ -44,7 +45,7 @@ import static lombok.AccessLevel.NONE;
 @Getter
 @ToString
 @EqualsAndHashCode(callSuper = false)
-public class SKYReport extends GpsdMessage
+public class SKYReport extends GpsdMessage implements DeviceReport
 {
    public static final String CLASS = "SKY";
 
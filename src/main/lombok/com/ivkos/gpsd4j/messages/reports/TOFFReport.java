@@ -17,6 +17,7 @@
 package com.ivkos.gpsd4j.messages.reports;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.ivkos.gpsd4j.messages.DeviceReport;
 import com.ivkos.gpsd4j.messages.GpsdMessage;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
@@ -36,7 +37,7 @@ import lombok.ToString;
 @Getter
 @ToString
 @EqualsAndHashCode(callSuper = false)
-public class TOFFReport extends GpsdMessage
+public class TOFFReport extends GpsdMessage implements DeviceReport
 {
    public static final String CLASS = "TOFF";
 
@@ -17,6 +17,7 @@
 package com.ivkos.gpsd4j.messages.reports;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.ivkos.gpsd4j.messages.DeviceReport;
 import com.ivkos.gpsd4j.messages.GpsdMessage;
 import com.ivkos.gpsd4j.messages.enums.NMEAMode;
 import lombok.EqualsAndHashCode;
@@ -33,7 +34,7 @@ import java.time.LocalDateTime;
 @Getter
 @ToString
 @EqualsAndHashCode(callSuper = false)
-public class TPVReport extends GpsdMessage
+public class TPVReport extends GpsdMessage implements DeviceReport
 {
    public static final String CLASS = "TPV";
 
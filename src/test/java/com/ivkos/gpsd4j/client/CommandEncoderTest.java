@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.PollMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import com.ivkos.gpsd4j.messages.WatchMessage;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class CommandEncoderTest
+{
+   @Test
+   public void statelessCommandsAreEncodedOnce() throws Exception
+   {
+      byte[] poll = CommandEncoder.encode(new PollMessage());
+      byte[] version = CommandEncoder.encode(new VersionMessage());
+
+      assertEquals("?POLL;\n", new String(poll, UTF_8));
+      assertEquals("?VERSION;\n", new String(version, UTF_8));
+
+      assertSame(poll, CommandEncoder.encode(new PollMessage()));
+      assertSame(version, CommandEncoder.encode(new VersionMessage()));
+   }
+
+   @Test
+   public void watchCommandsAreEncodedOnce() throws Exception
+   {
+      for (boolean enable : new boolean[] { false, true }) {
+         for (boolean report : new boolean[] { false, true }) {
+            byte[] encoded = CommandEncoder.encodeWatch(enable, report);
+
+            WatchMessage watch = new WatchMessage();
+            watch.setEnabled(enable);
+            watch.setDumpJson(report);
+
+            assertSame(encoded, CommandEncoder.encodeWatch(enable, report));
+            assertArrayEquals(CommandEncoder.encode(watch), encoded);
+         }
+      }
+
+      assertNotSame(CommandEncoder.encodeWatch(true, true), CommandEncoder.encodeWatch(true, false));
+   }
+
+   @Test
+   public void commandsWithStateAreEncodedEachTime() throws Exception
+   {
+      WatchMessage watch = new WatchMessage();
+      watch.setEnabled(true);
+      watch.setDevice("/dev/ttyAMA0");
+
+      byte[] encoded = CommandEncoder.encode(watch);
+      String command = new String(encoded, UTF_8);
+
+      assertTrue(command, command.startsWith("?WATCH={"));
+      assertTrue(command, command.contains("\"device\":\"/dev/ttyAMA0\""));
+      assertTrue(command, command.endsWith("};\n"));
+
+      assertNotSame(encoded, CommandEncoder.encode(watch));
+   }
+}
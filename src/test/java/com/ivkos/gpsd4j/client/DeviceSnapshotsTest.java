@@ -0,0 +1,150 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.PollMessage;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+import static org.junit.Assert.*;
+
+public class DeviceSnapshotsTest
+{
+   private static final String TIME = "\"time\":\"2017-05-01T12:00:00.000Z\"";
+
+   private static final String TPV = "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," + TIME + "," +
+         "\"lat\":42.6977,\"lon\":23.3219}";
+   private static final String SKY = "{\"class\":\"SKY\",\"device\":\"/dev/ttyAMA0\"," + TIME + "}";
+   private static final String ATT = "{\"class\":\"ATT\",\"device\":\"/dev/ttyAMA0\"," + TIME + ",\"heading\":14.0}";
+   private static final String DEVICE = "{\"class\":\"DEVICE\",\"path\":\"/dev/ttyAMA0\",\"driver\":\"NMEA0183\"}";
+
+   private static final String POLL = "{\"class\":\"POLL\"," + TIME + ",\"active\":1," +
+         "\"tpv\":[{\"class\":\"TPV\",\"device\":\"/dev/ttyUSB0\",\"mode\":2," + TIME + "}]," +
+         "\"sky\":[{\"class\":\"SKY\",\"device\":\"/dev/ttyUSB0\"," + TIME + "}]}";
+
+   private final DeviceSnapshots snapshots = new DeviceSnapshots();
+
+   @Test
+   public void keepsTheLatestReportsOfEachDevice()
+   {
+      update(TPV);
+      update(SKY);
+      update(ATT);
+      update(DEVICE);
+
+      DeviceSnapshot snapshot = snapshots.get("/dev/ttyAMA0");
+      assertEquals("/dev/ttyAMA0", snapshot.getDevice());
+      assertEquals(42.6977, snapshot.getTPV().getLatitude(), 0);
+      assertEquals("/dev/ttyAMA0", snapshot.getSKY().getDevice());
+      assertEquals(14.0, snapshot.getATT().getHeading(), 0);
+      assertEquals("NMEA0183", snapshot.getDeviceInfo().getDriver());
+
+      // a newer report replaces the previous one and keeps the rest
+      update(TPV.replace("42.6977", "42.6978"));
+      assertEquals(42.6978, snapshots.get("/dev/ttyAMA0").getTPV().getLatitude(), 0);
+      assertSame(snapshot.getSKY(), snapshots.get("/dev/ttyAMA0").getSKY());
+
+      // the previous snapshot is left as it was
+      assertEquals(42.6977, snapshot.getTPV().getLatitude(), 0);
+   }
+
+   @Test
+   public void takesDeviceInfoFromDevicesMessages()
+   {
+      update("{\"class\":\"DEVICES\",\"devices\":[" + DEVICE + "," +
+            "{\"class\":\"DEVICE\",\"path\":\"/dev/ttyUSB0\",\"driver\":\"u-blox\"}]}");
+
+      assertEquals("NMEA0183", snapshots.get("/dev/ttyAMA0").getDeviceInfo().getDriver());
+      assertEquals("u-blox", snapshots.get("/dev/ttyUSB0").getDeviceInfo().getDriver());
+      assertNull(snapshots.get("/dev/ttyUSB0").getTPV());
+   }
+
+   @Test
+   public void setsTheServerVersionOnEverySnapshot()
+   {
+      update(TPV);
+      update(StandInServer.VERSION);
+      update(POLL);
+
+      assertEquals("3.16", snapshots.get("/dev/ttyAMA0").getVersion().getRelease());
+      assertEquals("3.16", snapshots.get("/dev/ttyUSB0").getVersion().getRelease());
+   }
+
+   @Test
+   public void takesTheReportsEmbeddedInPolls()
+   {
+      update(POLL);
+
+      DeviceSnapshot snapshot = snapshots.get("/dev/ttyUSB0");
+      assertNotNull(snapshot.getTPV());
+      assertNotNull(snapshot.getSKY());
+      assertNull(snapshots.get("/dev/ttyAMA0"));
+   }
+
+   @Test
+   public void ignoresMessagesWithoutADevice()
+   {
+      update("{\"class\":\"TPV\",\"mode\":1," + TIME + "}");
+      update("{\"class\":\"SKY\"," + TIME + "}");
+      update("{\"class\":\"DEVICE\",\"driver\":\"NMEA0183\"}");
+      update(StandInServer.VERSION);
+
+      assertTrue(snapshots.getAll().isEmpty());
+   }
+
+   @Test
+   public void theWarmUpPollIsConsumedWithoutBeingDispatched() throws Exception
+   {
+      BlockingQueue<GpsdMessage> dispatched = new LinkedBlockingQueue<>();
+
+      try (StandInServer server = new StandInServer()) {
+         // messages are handled in order, so the POLL has been handled once the TPV after it is dispatched
+         server.setResponder(line -> line.equals("?POLL;") ? POLL + "\n" + TPV : null);
+
+         GpsdClient client = new GpsdClient(server.getEndpoint(), new GpsdClientOptions()
+               .setReconnectOnDisconnect(false))
+               .addHandler(dispatched::add)
+               .start();
+
+         try {
+            assertEquals("?POLL;", server.received.poll(5, TimeUnit.SECONDS));
+
+            GpsdMessage message;
+            do {
+               message = dispatched.poll(2, TimeUnit.SECONDS);
+               assertNotNull("TPV not dispatched", message);
+               assertFalse("POLL dispatched", message instanceof PollMessage);
+            } while (!"TPV".equals(message.getGpsdClass()));
+
+            assertNotNull(client.getSnapshot("/dev/ttyUSB0").getTPV());
+            assertNotNull(client.getSnapshot("/dev/ttyAMA0").getTPV());
+         } finally {
+            client.stop();
+         }
+      }
+   }
+
+   private void update(String json)
+   {
+      snapshots.update(deserialize(json));
+   }
+}
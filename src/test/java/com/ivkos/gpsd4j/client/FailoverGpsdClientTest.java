@@ -0,0 +1,343 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.DeviceMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.lang.String.format;
+import static org.junit.Assert.*;
+
+public class FailoverGpsdClientTest
+{
+   private static final String POLL = "{\"class\":\"POLL\",\"time\":\"2017-05-01T12:00:00.000Z\",\"active\":1," +
+         "\"tpv\":[],\"sky\":[]}";
+
+   private final GpsdClientOptions options = new GpsdClientOptions()
+         .setConnectTimeout(500)
+         .setReconnectInterval(50)
+         .setMaxReconnectInterval(100)
+         .setReconnectJitter(false);
+
+   private final List<StandInServer> servers = new ArrayList<>();
+   private FailoverGpsdClient client;
+
+   private final BlockingQueue<String> delivered = new LinkedBlockingQueue<>();
+   private final BlockingQueue<GpsdEndpoint> failovers = new LinkedBlockingQueue<>();
+
+   @Before
+   public void setUp() throws Exception
+   {
+      for (int i = 0; i < 3; i++) servers.add(new StandInServer());
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (client != null) client.stop();
+      for (StandInServer server : servers) server.close();
+   }
+
+   @Test
+   public void deliversFromTheFirstEndpointAndFailsOverInOrder() throws Exception
+   {
+      start(false, 3);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertEquals(0, server(1).getConnectionCount());
+      assertEquals(server(0).getEndpoint(), client.getActiveEndpoint());
+
+      sendFromAll(1);
+      assertEquals("1@0", next());
+
+      server(0).down();
+
+      assertEquals(server(1).getEndpoint(), failovers.poll(2, TimeUnit.SECONDS));
+      assertEquals(server(1).getEndpoint(), client.getActiveEndpoint());
+      assertTrue(server(1).awaitConnections(1, 2000));
+
+      // the failed endpoint is no longer connected to, and the one after the next is not connected to yet
+      server(0).up();
+      Thread.sleep(200);
+      assertEquals(0, server(0).getConnectionCount());
+      assertEquals(0, server(2).getConnectionCount());
+
+      sendFromAll(2);
+      assertEquals("2@1", next());
+      assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+   }
+
+   @Test
+   public void promotesAConnectedHotStandby() throws Exception
+   {
+      start(true, 2);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertTrue(server(1).awaitConnections(1, 2000));
+
+      // the standby's reports are not delivered
+      sendFromAll(1);
+      assertEquals("1@0", next());
+      assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+
+      server(0).down();
+
+      assertEquals(server(1).getEndpoint(), failovers.poll(2, TimeUnit.SECONDS));
+      assertNull(failovers.poll(100, TimeUnit.MILLISECONDS));
+
+      sendFromAll(2);
+      assertEquals("2@1", next());
+
+      // the failed endpoint becomes the standby and reconnects once it is back
+      server(0).up();
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertEquals(server(1).getEndpoint(), client.getActiveEndpoint());
+   }
+
+   @Test
+   public void passesOverAHotStandbyThatIsNotConnected() throws Exception
+   {
+      start(true, 3);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertTrue(server(1).awaitConnections(1, 2000));
+
+      // the standby loses its connection and keeps backing off
+      server(1).down();
+      Thread.sleep(100);
+
+      server(0).down();
+
+      assertEquals(server(2).getEndpoint(), failovers.poll(2, TimeUnit.SECONDS));
+      assertTrue(server(2).awaitConnections(1, 2000));
+
+      sendFromAll(1);
+      assertEquals("1@2", next());
+
+      // the failed endpoint is the new standby, and the passed over one is no longer connected to
+      server(0).up();
+      server(1).up();
+      assertTrue(server(0).awaitConnections(1, 2000));
+      Thread.sleep(200);
+      assertEquals(0, server(1).getConnectionCount());
+   }
+
+   @Test
+   public void failsOverWhenTheActiveConnectionStalls() throws Exception
+   {
+      options.setStallTimeout(200).setProbeInterval(50);
+
+      // healthy servers answer the liveness probes, so only the one that goes quiet stalls
+      for (StandInServer server : servers) server.setResponder(line -> line.equals("?POLL;") ? POLL : null);
+
+      start(true, 2);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertTrue(server(1).awaitConnections(1, 2000));
+
+      long quietAt = System.currentTimeMillis();
+      server(0).setQuiet(true);
+
+      assertEquals(server(1).getEndpoint(), failovers.poll(2, TimeUnit.SECONDS));
+      assertTrue(System.currentTimeMillis() - quietAt < 1000);
+
+      sendFromAll(1);
+      assertEquals("1@1", next());
+   }
+
+   @Test
+   public void reportsFromBothEndpointsAreDeliveredOnceAroundASwitch() throws Exception
+   {
+      start(true, 2);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertTrue(server(1).awaitConnections(1, 2000));
+
+      // the active server is ahead of the standby
+      for (int second = 1; second <= 4; second++) server(0).send(tpv(second, 0));
+      for (int second = 1; second <= 3; second++) server(1).send(tpv(second, 1));
+
+      for (int second = 1; second <= 4; second++) assertEquals(second + "@0", next());
+
+      server(0).down();
+      assertEquals(server(1).getEndpoint(), failovers.poll(2, TimeUnit.SECONDS));
+
+      // the standby catches up, repeating what the active server has already reported
+      for (int second = 3; second <= 6; second++) server(1).send(tpv(second, 1));
+
+      assertEquals("5@1", next());
+      assertEquals("6@1", next());
+      assertNull(delivered.poll(200, TimeUnit.MILLISECONDS));
+   }
+
+   @Test
+   public void reportsGoingBackInTimeAreDeliveredOutsideASwitch() throws Exception
+   {
+      start(false, 2);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+
+      // e.g. the server's clock has been set back
+      server(0).send(tpv(5, 0));
+      server(0).send(tpv(3, 0));
+      server(0).send(tpv(3, 0));
+
+      assertEquals("5@0", next());
+      assertEquals("3@0", next());
+      assertEquals("3@0", next());
+   }
+
+   @Test
+   public void aLaggingServerIsOnlyHeldBackForTheDeduplicationWindow() throws Exception
+   {
+      start(true, 2, 300);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertTrue(server(1).awaitConnections(1, 2000));
+
+      for (int second = 1; second <= 4; second++) server(0).send(tpv(second, 0));
+      for (int second = 1; second <= 4; second++) assertEquals(second + "@0", next());
+
+      server(0).down();
+      assertEquals(server(1).getEndpoint(), failovers.poll(2, TimeUnit.SECONDS));
+
+      server(1).send(tpv(2, 1));
+      assertNull(delivered.poll(100, TimeUnit.MILLISECONDS));
+
+      Thread.sleep(300);
+
+      // the new active server is still behind, but its reports are no longer taken for repeats
+      server(1).send(tpv(3, 1));
+      assertEquals("3@1", next());
+   }
+
+   @Test
+   public void watchAndDeviceSettingsAreSetOnEveryConnection() throws Exception
+   {
+      start(true, 3);
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+      assertTrue(server(1).awaitConnections(1, 2000));
+
+      DeviceMessage device = new DeviceMessage();
+      device.setPath("/dev/ttyAMA0");
+      device.setCycle(0.2);
+
+      client.setDeviceSettings(device).watch();
+
+      // both the active connection and the standby are configured
+      for (int i = 0; i < 2; i++) {
+         assertTrue(awaitReceived(i, "?DEVICE=").contains("/dev/ttyAMA0"));
+         awaitReceived(i, "?WATCH=");
+      }
+
+      // the connection opened as the new standby after a switch is configured before anything else
+      server(0).down();
+      assertEquals(server(1).getEndpoint(), failovers.poll(2, TimeUnit.SECONDS));
+      assertTrue(server(2).awaitConnections(1, 2000));
+
+      assertTrue(server(2).received.poll(2, TimeUnit.SECONDS).startsWith("?DEVICE="));
+      assertTrue(server(2).received.poll(2, TimeUnit.SECONDS).startsWith("?WATCH="));
+   }
+
+   @Test
+   public void deviceHandlersOnlyHandleTheirDevice() throws Exception
+   {
+      BlockingQueue<String> devices = new LinkedBlockingQueue<>();
+
+      start(false, 1);
+      client.addHandler(TPVReport.class, "/dev/ttyUSB0", tpv -> devices.add(tpv.getDevice()));
+
+      assertTrue(server(0).awaitConnections(1, 2000));
+
+      server(0).send(tpv(1, 0));
+      server(0).send(tpv(2, 0).replace("/dev/ttyAMA0", "/dev/ttyUSB0"));
+
+      assertEquals("1@0", next());
+      assertEquals("2@0", next());
+      assertEquals("/dev/ttyUSB0", devices.poll(2, TimeUnit.SECONDS));
+      assertNull(devices.poll(100, TimeUnit.MILLISECONDS));
+   }
+
+   private void start(boolean hotStandby, int endpointCount)
+   {
+      start(hotStandby, endpointCount, 5000);
+   }
+
+   private void start(boolean hotStandby, int endpointCount, int deduplicationWindow)
+   {
+      List<GpsdEndpoint> endpoints = new ArrayList<>();
+      for (int i = 0; i < endpointCount; i++) endpoints.add(server(i).getEndpoint());
+
+      client = new FailoverGpsdClient(endpoints, options)
+            .setHotStandby(hotStandby)
+            .setDeduplicationWindow(deduplicationWindow)
+            .setFailoverHandler(failovers::add)
+            .addHandler(TPVReport.class, tpv -> delivered.add(tpv.getTime().getSecond() + "@" +
+                  tpv.getLatitude().intValue()))
+            .start();
+   }
+
+   private StandInServer server(int index)
+   {
+      return servers.get(index);
+   }
+
+   /**
+    * Sends the same report from every server, each marked with the server's index as its latitude.
+    */
+   private void sendFromAll(int second)
+   {
+      for (int i = 0; i < servers.size(); i++) server(i).send(tpv(second, i));
+   }
+
+   private static String tpv(int second, int server)
+   {
+      return format("{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+            "\"time\":\"2017-05-01T12:00:%02d.000Z\",\"lat\":%d.0,\"lon\":23.0}", second, server);
+   }
+
+   /**
+    * @return the first line received by a server since the last call that starts with a prefix
+    */
+   private String awaitReceived(int server, String prefix) throws InterruptedException
+   {
+      String line;
+      do {
+         line = server(server).received.poll(2, TimeUnit.SECONDS);
+         assertNotNull("nothing starting with " + prefix + " received", line);
+      } while (!line.startsWith(prefix));
+
+      return line;
+   }
+
+   private String next() throws InterruptedException
+   {
+      String report = delivered.poll(2, TimeUnit.SECONDS);
+      assertNotNull("nothing delivered", report);
+      return report;
+   }
+}
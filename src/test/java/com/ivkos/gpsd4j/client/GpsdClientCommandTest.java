@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.PollMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.ivkos.gpsd4j.client.ConnectionState.CONNECTED;
+import static org.junit.Assert.*;
+
+public class GpsdClientCommandTest
+{
+   private StandInServer server;
+   private GpsdClient client;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      server = new StandInServer();
+      client = new GpsdClient("localhost", server.getPort(), new GpsdClientOptions().setReconnectOnDisconnect(false));
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      client.stop();
+      server.close();
+   }
+
+   @Test
+   public void commandsQueuedInOneTickAreWrittenAtOnce() throws Exception
+   {
+      // the state handler runs on the event loop, so the flush cannot happen before all three are queued
+      client.setConnectionStateHandler(change -> {
+         if (change.getCurrent() != CONNECTED) return;
+
+         client.sendCommand(new VersionMessage())
+               .sendCommand("?DEVICES;\n")
+               .sendCommand(new PollMessage(), poll -> {});
+      }).start();
+
+      String read = server.reads.poll(2, TimeUnit.SECONDS);
+      assertNotNull(read);
+      assertTrue(read, read.startsWith("?VERSION;\n?DEVICES;\n?POLL;\n"));
+   }
+
+   @Test
+   public void pipelinedResponsesOfTheSameTypeAreCorrelatedInOrder() throws Exception
+   {
+      AtomicInteger answered = new AtomicInteger();
+      server.setResponder(line -> {
+         if (!line.equals("?VERSION;")) return null;
+         return StandInServer.VERSION.replace("3.16\",\"rev", answered.incrementAndGet() + "\",\"rev");
+      });
+
+      BlockingQueue<VersionMessage> greetings = new LinkedBlockingQueue<>();
+      client.addHandler(VersionMessage.class, greetings::add).start();
+      assertNotNull(greetings.poll(2, TimeUnit.SECONDS));
+
+      BlockingQueue<String> handled = new LinkedBlockingQueue<>();
+      for (int i = 1; i <= 5; i++) {
+         String handler = String.valueOf(i);
+         client.sendCommand(new VersionMessage(), version -> handled.add(handler + "=" + version.getRelease()));
+      }
+
+      for (int i = 1; i <= 5; i++) assertEquals(i + "=" + i, handled.poll(2, TimeUnit.SECONDS));
+      assertNull(handled.poll(100, TimeUnit.MILLISECONDS));
+   }
+}
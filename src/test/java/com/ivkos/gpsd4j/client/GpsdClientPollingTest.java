@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.PollMessage;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class GpsdClientPollingTest
+{
+   private static final int POLLING_THRESHOLD = 100; // ms
+   private static final int POLLING_INTERVAL = 150; // ms
+
+   private static final String POLL = "{\"class\":\"POLL\",\"time\":\"2017-05-01T12:00:00.000Z\",\"active\":2," +
+         "\"tpv\":[" +
+         "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3,\"time\":\"2017-05-01T12:00:00.000Z\"," +
+         "\"lat\":42.6977,\"lon\":23.3219}," +
+         "{\"class\":\"TPV\",\"device\":\"/dev/ttyUSB0\",\"mode\":3,\"time\":\"2017-05-01T12:00:00.000Z\"," +
+         "\"lat\":42.6978,\"lon\":23.3220}]," +
+         "\"sky\":[{\"class\":\"SKY\",\"device\":\"/dev/ttyAMA0\",\"time\":\"2017-05-01T12:00:00.000Z\"}]}";
+
+   private StandInServer server;
+   private GpsdClient client;
+
+   private final BlockingQueue<TPVReport> tpvs = new LinkedBlockingQueue<>();
+   private final BlockingQueue<TPVReport> usbTpvs = new LinkedBlockingQueue<>();
+   private final BlockingQueue<SKYReport> skys = new LinkedBlockingQueue<>();
+   private final BlockingQueue<PollMessage> polls = new LinkedBlockingQueue<>();
+
+   @Before
+   public void setUp() throws Exception
+   {
+      server = new StandInServer();
+      server.setResponder(line -> line.equals("?POLL;") ? POLL : null);
+
+      GpsdClientOptions options = new GpsdClientOptions()
+            .setPollingThreshold(POLLING_THRESHOLD)
+            .setReportInterval(POLLING_INTERVAL)
+            .setReconnectOnDisconnect(false);
+
+      client = new GpsdClient("localhost", server.getPort(), options)
+            .addHandler(TPVReport.class, tpvs::add)
+            .addHandler(TPVReport.class, "/dev/ttyUSB0", usbTpvs::add)
+            .addHandler(SKYReport.class, skys::add)
+            .addHandler(PollMessage.class, polls::add)
+            .start();
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      client.stop();
+      server.close();
+   }
+
+   @Test
+   public void pollsPeriodicallyAndFansTheReportsOut() throws Exception
+   {
+      String watch = awaitReceived("?WATCH=");
+      assertTrue(watch, watch.contains("\"enable\":true"));
+      assertTrue(watch, watch.contains("\"json\":false"));
+
+      long firstPollAt = System.currentTimeMillis();
+      awaitReceived("?POLL;");
+      awaitReceived("?POLL;");
+      awaitReceived("?POLL;");
+
+      // the first poll is sent right away, the others an interval apart
+      assertTrue(System.currentTimeMillis() - firstPollAt >= POLLING_INTERVAL);
+
+      for (int i = 0; i < 3; i++) {
+         assertEquals(new HashSet<>(asList("/dev/ttyAMA0", "/dev/ttyUSB0")),
+               new HashSet<>(asList(next(tpvs).getDevice(), next(tpvs).getDevice())));
+
+         assertEquals("/dev/ttyUSB0", next(usbTpvs).getDevice());
+         assertEquals("/dev/ttyAMA0", next(skys).getDevice());
+      }
+
+      // the POLL responses themselves only carry the reports
+      assertNull(polls.poll());
+   }
+
+   @Test
+   public void loweringTheIntervalSwitchesBackToStreaming() throws Exception
+   {
+      awaitReceived("?POLL;");
+
+      client.setReportInterval(POLLING_THRESHOLD / 2);
+
+      String watch = awaitReceived("?WATCH=");
+      assertTrue(watch, watch.contains("\"enable\":true"));
+      assertTrue(watch, watch.contains("\"json\":true"));
+
+      // a poll may have been under way while switching, but none follows
+      Thread.sleep(POLLING_INTERVAL);
+      server.received.clear();
+      Thread.sleep(2 * POLLING_INTERVAL);
+      assertFalse(server.received.contains("?POLL;"));
+
+      // streamed reports reach the handlers directly
+      tpvs.clear();
+      server.send("{\"class\":\"TPV\",\"device\":\"/dev/ttyUSB0\",\"mode\":3,\"time\":\"2017-05-01T12:00:01.000Z\"}");
+      assertEquals("/dev/ttyUSB0", next(tpvs).getDevice());
+   }
+
+   /**
+    * @return the first line received from the client since the last call that starts with a prefix
+    */
+   private String awaitReceived(String prefix) throws InterruptedException
+   {
+      String line;
+      do {
+         line = server.received.poll(2, TimeUnit.SECONDS);
+         assertNotNull("nothing starting with " + prefix + " received", line);
+      } while (!line.startsWith(prefix));
+
+      return line;
+   }
+
+   private static <T> T next(BlockingQueue<T> queue) throws InterruptedException
+   {
+      T item = queue.poll(2, TimeUnit.SECONDS);
+      assertNotNull("nothing received", item);
+      return item;
+   }
+}
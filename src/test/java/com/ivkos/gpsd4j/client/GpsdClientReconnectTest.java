@@ -0,0 +1,271 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.DeviceMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import com.ivkos.gpsd4j.messages.WatchMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.ivkos.gpsd4j.client.ConnectionState.*;
+import static org.junit.Assert.*;
+
+public class GpsdClientReconnectTest
+{
+   private static final int INTERVAL = 50; // ms
+   private static final int MAX_INTERVAL = 200; // ms
+
+   private final GpsdClientOptions options = new GpsdClientOptions()
+         .setConnectTimeout(500)
+         .setReconnectInterval(INTERVAL)
+         .setMaxReconnectInterval(MAX_INTERVAL)
+         .setReconnectBackoffMultiplier(2)
+         .setReconnectJitter(false);
+
+   private StandInServer server;
+   private Socket refusingPort;
+   private GpsdClient client;
+   private final BlockingQueue<ConnectionStateChange> changes = new LinkedBlockingQueue<>();
+
+   @Before
+   public void setUp() throws Exception
+   {
+      server = new StandInServer();
+
+      // bound but not listening, so connections to it are refused, and nothing else can take the port
+      refusingPort = new Socket();
+      refusingPort.bind(new InetSocketAddress("localhost", 0));
+
+      client = new GpsdClient("localhost", server.getPort(), options)
+            .setConnectionStateHandler(changes::add);
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      client.stop();
+      server.close();
+      refusingPort.close();
+   }
+
+   @Test
+   public void backoffGrowsExponentiallyUpToTheCap() throws Exception
+   {
+      ReconnectBackoff backoff = new ReconnectBackoff(new GpsdClientOptions()
+            .setReconnectInterval(100)
+            .setMaxReconnectInterval(1000)
+            .setReconnectJitter(false));
+
+      assertEquals(100, backoff.delay(0));
+      assertEquals(200, backoff.delay(1));
+      assertEquals(400, backoff.delay(2));
+      assertEquals(800, backoff.delay(3));
+      assertEquals(1000, backoff.delay(4));
+      assertEquals(1000, backoff.delay(100));
+   }
+
+   @Test
+   public void jitterStaysWithinTheCurrentInterval() throws Exception
+   {
+      ReconnectBackoff backoff = new ReconnectBackoff(new GpsdClientOptions()
+            .setReconnectInterval(100)
+            .setMaxReconnectInterval(1000)
+            .setReconnectJitter(true));
+
+      long sum = 0;
+      for (int i = 0; i < 1000; i++) {
+         long delay = backoff.delay(3);
+         assertTrue(delay >= 1 && delay <= 800);
+         sum += delay;
+      }
+
+      // uniformly distributed, so the mean should be far from both ends
+      assertTrue(sum / 1000 > 200 && sum / 1000 < 600);
+   }
+
+   @Test
+   public void backsOffWhileConnectionsAreRefused() throws Exception
+   {
+      client = refusedClient(options);
+      client.start();
+
+      expect(STOPPED, CONNECTING);
+
+      // every failed attempt doubles the delay until it reaches the cap
+      List<Long> delays = new ArrayList<>();
+      for (int i = 1; i <= 4; i++) {
+         if (i > 1) expect(BACKING_OFF, CONNECTING);
+
+         ConnectionStateChange failed = expect(CONNECTING, BACKING_OFF);
+         assertEquals(i, failed.getAttempt());
+         delays.add(failed.getDelay());
+      }
+
+      assertEquals(Arrays.asList(2L * INTERVAL, 4L * INTERVAL, (long) MAX_INTERVAL, (long) MAX_INTERVAL), delays);
+   }
+
+   @Test
+   public void reconnectsWhenTheServerFlaps() throws Exception
+   {
+      BlockingQueue<VersionMessage> versions = new LinkedBlockingQueue<>();
+      client.addHandler(VersionMessage.class, versions::add);
+      client.start();
+
+      expect(STOPPED, CONNECTING);
+      expect(CONNECTING, CONNECTED);
+      assertNotNull(versions.poll(5, TimeUnit.SECONDS));
+
+      server.down();
+
+      ConnectionStateChange lost = expect(CONNECTED, BACKING_OFF);
+      assertEquals(0, lost.getAttempt());
+      assertEquals(INTERVAL, lost.getDelay());
+
+      // the server keeps resetting the connections the client makes
+      expect(BACKING_OFF, CONNECTING);
+      next(BACKING_OFF);
+      assertTrue(versions.isEmpty());
+
+      server.up();
+
+      // greeted on a connection that lasts
+      assertNotNull(versions.poll(5, TimeUnit.SECONDS));
+      assertTrue(server.awaitConnections(1, 5000));
+      assertEquals(CONNECTED, client.getConnectionState());
+   }
+
+   @Test
+   public void stopCancelsAPendingReconnect() throws Exception
+   {
+      client = refusedClient(options);
+      client.start();
+
+      expect(STOPPED, CONNECTING);
+      expect(CONNECTING, BACKING_OFF);
+
+      client.stop();
+
+      next(STOPPED);
+      assertEquals(STOPPED, client.getConnectionState());
+
+      // no more attempts after the client has stopped
+      assertNull(changes.poll(3 * MAX_INTERVAL, TimeUnit.MILLISECONDS));
+   }
+
+   @Test
+   public void givesUpAfterTheMaximumNumberOfAttempts() throws Exception
+   {
+      client = refusedClient(new GpsdClientOptions()
+            .setReconnectAttempts(2)
+            .setReconnectInterval(10)
+            .setReconnectJitter(false));
+
+      client.start();
+
+      expect(STOPPED, CONNECTING);
+      assertEquals(1, expect(CONNECTING, BACKING_OFF).getAttempt());
+      expect(BACKING_OFF, CONNECTING);
+      assertEquals(2, expect(CONNECTING, BACKING_OFF).getAttempt());
+      expect(BACKING_OFF, CONNECTING);
+      expect(CONNECTING, STOPPING);
+      expect(STOPPING, STOPPED);
+   }
+
+   @Test
+   public void replaysSessionStateRightAfterReconnecting() throws Exception
+   {
+      DeviceMessage device = new DeviceMessage();
+      device.setPath("/dev/ttyAMA0");
+      device.setCycle(0.2);
+
+      WatchMessage watch = new WatchMessage();
+      watch.setDumpJson(true);
+
+      client.setDeviceSettings(device)
+            .setWatch(watch)
+            .start();
+
+      next(CONNECTED);
+
+      String deviceCommand = server.received.poll(5, TimeUnit.SECONDS);
+      String watchCommand = server.received.poll(5, TimeUnit.SECONDS);
+
+      assertTrue(deviceCommand, deviceCommand.startsWith("?DEVICE="));
+      assertTrue(deviceCommand, deviceCommand.contains("/dev/ttyAMA0"));
+      assertTrue(watchCommand, watchCommand.startsWith("?WATCH="));
+
+      // followed by the POLL that warms the snapshots
+      assertEquals("?POLL;", server.received.poll(5, TimeUnit.SECONDS));
+
+      // setting the same state again on the same connection is redundant
+      client.setWatch(watch).setDeviceSettings(device);
+      assertNull(server.received.poll(3 * INTERVAL, TimeUnit.MILLISECONDS));
+
+      // the connection drops, and the server is back before the client tries again
+      server.down();
+      next(BACKING_OFF);
+      server.up();
+      next(CONNECTED);
+
+      assertEquals(deviceCommand, server.received.poll(5, TimeUnit.SECONDS));
+      assertEquals(watchCommand, server.received.poll(5, TimeUnit.SECONDS));
+      assertEquals("?POLL;", server.received.poll(5, TimeUnit.SECONDS));
+   }
+
+   private GpsdClient refusedClient(GpsdClientOptions options)
+   {
+      client.stop();
+
+      return new GpsdClient("localhost", refusingPort.getLocalPort(), options)
+            .setConnectionStateHandler(changes::add);
+   }
+
+   private ConnectionStateChange expect(ConnectionState previous, ConnectionState current) throws Exception
+   {
+      ConnectionStateChange change = changes.poll(5, TimeUnit.SECONDS);
+
+      assertNotNull("No transition from " + previous + " to " + current, change);
+      assertEquals(previous, change.getPrevious());
+      assertEquals(current, change.getCurrent());
+
+      return change;
+   }
+
+   /**
+    * Skips transitions until one to the given state
+    */
+   private ConnectionStateChange next(ConnectionState current) throws Exception
+   {
+      while (true) {
+         ConnectionStateChange change = changes.poll(5, TimeUnit.SECONDS);
+
+         assertNotNull("No transition to " + current, change);
+         if (change.getCurrent() == current) return change;
+      }
+   }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.*;
+import com.ivkos.gpsd4j.messages.reports.*;
+import com.ivkos.gpsd4j.simulator.GpsdSimulator;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class GpsdClientSimulatorTest
+{
+   private GpsdSimulator simulator;
+   private GpsdClient client;
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (client != null) client.stop();
+      if (simulator != null) simulator.stop();
+   }
+
+   @Test
+   public void streamsAllReportTypesFromAllDevices() throws Exception
+   {
+      simulator = new GpsdSimulator()
+            .setDeviceCount(3)
+            .setRate(20)
+            .setReports("TPV", "SKY", "ATT", "GST", "TOFF")
+            .start();
+
+      Set<String> seen = ConcurrentHashMap.newKeySet();
+      CountDownLatch allSeen = new CountDownLatch(15);
+
+      client = new GpsdClient("localhost", simulator.getPort())
+            .setWatch(jsonWatch())
+            .addHandler(message -> {
+               if (message instanceof DeviceReport && !(message instanceof DeviceMessage)) {
+                  String key = message.getGpsdClass() + " " + ((DeviceReport) message).getDevice();
+                  if (seen.add(key)) allSeen.countDown();
+               }
+            })
+            .start();
+
+      assertTrue("Seen only " + seen, allSeen.await(5, TimeUnit.SECONDS));
+   }
+
+   @Test
+   public void answersCommands() throws Exception
+   {
+      simulator = new GpsdSimulator().setDeviceCount(2).start();
+
+      BlockingQueue<GpsdMessage> responses = new LinkedBlockingQueue<>();
+      CountDownLatch connected = new CountDownLatch(1);
+
+      client = new GpsdClient("localhost", simulator.getPort())
+            .setSuccessfulConnectionHandler(__ -> connected.countDown())
+            .start();
+
+      assertTrue(connected.await(5, TimeUnit.SECONDS));
+
+      client.sendCommand(new VersionMessage(), responses::add);
+      assertEquals(GpsdSimulator.RELEASE, ((VersionMessage) responses.poll(5, TimeUnit.SECONDS)).getRelease());
+
+      DeviceMessage device = new DeviceMessage();
+      device.setPath(simulator.getDevices().get(1));
+      device.setCycle(0.5);
+
+      client.sendCommand(device, responses::add);
+      DeviceMessage deviceResponse = (DeviceMessage) responses.poll(5, TimeUnit.SECONDS);
+      assertEquals(device.getPath(), deviceResponse.getPath());
+      assertEquals(0.5, deviceResponse.getCycle(), 0);
+
+      client.watch();
+      client.sendCommand(new PollMessage(), responses::add);
+      PollMessage poll = (PollMessage) responses.poll(5, TimeUnit.SECONDS);
+      assertEquals(2, (int) poll.getActiveCount());
+      assertEquals(2, poll.getTPVList().size());
+   }
+
+   @Test
+   public void survivesSplitLinesAndGarbage() throws Exception
+   {
+      simulator = new GpsdSimulator()
+            .setRate(50)
+            .setReports("TPV")
+            .setSplitLines(true)
+            .start();
+
+      AtomicInteger valid = new AtomicInteger();
+      CountDownLatch received = new CountDownLatch(40);
+
+      client = new GpsdClient("localhost", simulator.getPort())
+            .setWatch(jsonWatch())
+            .addHandler(TPVReport.class, tpv -> {
+               if (tpv.getLatitude() != null && tpv.getTime() != null) valid.incrementAndGet();
+               received.countDown();
+            })
+            .start();
+
+      Thread.sleep(200);
+      simulator.injectGarbage();
+
+      assertTrue(received.await(5, TimeUnit.SECONDS));
+      assertTrue(valid.get() >= 40);
+   }
+
+   @Test
+   public void recoversFromStallsAndDisconnects() throws Exception
+   {
+      simulator = new GpsdSimulator().setRate(20).start();
+
+      BlockingQueue<ConnectionStateChange> changes = new LinkedBlockingQueue<>();
+
+      client = new GpsdClient("localhost", simulator.getPort(), new GpsdClientOptions()
+            .setStallTimeout(300)
+            .setProbeInterval(100)
+            .setReconnectInterval(50)
+            .setReconnectJitter(false))
+            .setWatch(jsonWatch())
+            .setConnectionStateHandler(changes::add)
+            .start();
+
+      awaitConnected(changes);
+
+      // the watchdog drops the stalled connection and the client reconnects
+      simulator.stall(1000);
+      awaitConnected(changes);
+
+      simulator.disconnectAll();
+      awaitConnected(changes);
+
+      assertEquals(1, simulator.getConnectionCount());
+   }
+
+   private static WatchMessage jsonWatch()
+   {
+      WatchMessage watch = new WatchMessage();
+      watch.setDumpJson(true);
+      return watch;
+   }
+
+   private static void awaitConnected(BlockingQueue<ConnectionStateChange> changes) throws Exception
+   {
+      while (true) {
+         ConnectionStateChange change = changes.poll(5, TimeUnit.SECONDS);
+
+         assertNotNull("Not connected", change);
+         if (change.getCurrent() == ConnectionState.CONNECTED) return;
+      }
+   }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import io.netty.channel.epoll.Epoll;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.SocketAddress;
+import io.vertx.core.parsetools.RecordParser;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+public class GpsdEndpointTest
+{
+   @Test
+   public void describesTcpEndpoints() throws Exception
+   {
+      GpsdEndpoint endpoint = GpsdEndpoint.tcp("localhost", GpsdEndpoint.DEFAULT_PORT);
+
+      assertFalse(endpoint.isDomainSocket());
+      assertEquals("localhost", endpoint.getHost());
+      assertEquals(2947, endpoint.getPort());
+      assertNull(endpoint.getPath());
+      assertEquals("localhost:2947", endpoint.toString());
+
+      SocketAddress address = endpoint.toSocketAddress();
+      assertEquals("localhost", address.host());
+      assertEquals(2947, address.port());
+
+      assertEquals(GpsdEndpoint.tcp("localhost", 2947), endpoint);
+      assertEquals(GpsdEndpoint.tcp("localhost", 2947).hashCode(), endpoint.hashCode());
+      assertNotEquals(GpsdEndpoint.tcp("localhost", 2948), endpoint);
+   }
+
+   @Test
+   public void describesDomainSocketEndpoints() throws Exception
+   {
+      GpsdEndpoint endpoint = GpsdEndpoint.domainSocket(GpsdEndpoint.DEFAULT_SOCKET_PATH);
+
+      assertTrue(endpoint.isDomainSocket());
+      assertNull(endpoint.getHost());
+      assertEquals(-1, endpoint.getPort());
+      assertEquals("/var/run/gpsd.sock", endpoint.getPath());
+      assertEquals("unix:/var/run/gpsd.sock", endpoint.toString());
+      assertEquals("/var/run/gpsd.sock", endpoint.toSocketAddress().path());
+
+      assertEquals(GpsdEndpoint.domainSocket("/var/run/gpsd.sock"), endpoint);
+      assertNotEquals(GpsdEndpoint.domainSocket("/tmp/gpsd.sock"), endpoint);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void rejectsNullHost() throws Exception
+   {
+      GpsdEndpoint.tcp(null, 2947);
+   }
+
+   @Test(expected = NullPointerException.class)
+   public void rejectsNullPath() throws Exception
+   {
+      GpsdEndpoint.domainSocket(null);
+   }
+
+   @Test
+   public void connectsOverDomainSocket() throws Exception
+   {
+      assumeTrue(System.getProperty("os.name").startsWith("Linux") && Epoll.isAvailable());
+
+      Path directory = Files.createTempDirectory("gpsd4j");
+      Path socket = directory.resolve("gpsd.sock");
+      BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+      Vertx vertx = Vertx.vertx(new VertxOptions().setPreferNativeTransport(true));
+      GpsdClient client = new GpsdClient(GpsdEndpoint.domainSocket(socket.toString()), new GpsdClientOptions());
+
+      try {
+         CompletableFuture<NetServer> listening = new CompletableFuture<>();
+         vertx.createNetServer()
+               .connectHandler(connection -> {
+                  connection.handler(RecordParser.newDelimited("\n", line -> received.add(line.toString())));
+                  connection.write(Buffer.buffer(StandInServer.VERSION + "\n"));
+               })
+               .listen(SocketAddress.domainSocketAddress(socket.toString()), res -> {
+                  if (res.succeeded()) {
+                     listening.complete(res.result());
+                  } else {
+                     listening.completeExceptionally(res.cause());
+                  }
+               });
+         listening.get(5, TimeUnit.SECONDS);
+
+         BlockingQueue<VersionMessage> versions = new LinkedBlockingQueue<>();
+         client.addHandler(VersionMessage.class, versions::add).start();
+
+         VersionMessage version = versions.poll(5, TimeUnit.SECONDS);
+         assertNotNull(version);
+         assertEquals("3.16", version.getRelease());
+
+         client.watch();
+         assertNotNull(poll(received, "?WATCH="));
+      } finally {
+         client.stop();
+
+         CompletableFuture<Void> closed = new CompletableFuture<>();
+         vertx.close(__ -> closed.complete(null));
+         closed.get(5, TimeUnit.SECONDS);
+
+         Files.deleteIfExists(socket);
+         Files.delete(directory);
+      }
+   }
+
+   @Test
+   public void failsFastWithoutNativeTransport() throws Exception
+   {
+      // the client and its dependencies loaded anew, as if netty-transport-native-epoll was not on the classpath
+      ClassLoader loader = new WithoutNativeTransport(getClass().getClassLoader());
+
+      Class<?> endpointClass = loader.loadClass(GpsdEndpoint.class.getName());
+      Object endpoint = endpointClass.getMethod("domainSocket", String.class).invoke(null, "/var/run/gpsd.sock");
+      Object client = loader.loadClass(GpsdClient.class.getName()).getConstructor(endpointClass).newInstance(endpoint);
+
+      // Vert.x loads its factories through the context class loader
+      Thread thread = Thread.currentThread();
+      ClassLoader contextLoader = thread.getContextClassLoader();
+      thread.setContextClassLoader(loader);
+
+      try {
+         client.getClass().getMethod("start").invoke(client);
+         fail("Started without the native transport");
+      } catch (InvocationTargetException e) {
+         assertEquals(IllegalStateException.class.getName(), e.getCause().getClass().getName());
+         assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("native transport"));
+      } finally {
+         thread.setContextClassLoader(contextLoader);
+      }
+
+      assertEquals("STOPPED", client.getClass().getMethod("getConnectionState").invoke(client).toString());
+   }
+
+   private static String poll(BlockingQueue<String> queue, String prefix) throws InterruptedException
+   {
+      // the client may send commands of its own first
+      while (true) {
+         String line = queue.poll(5, TimeUnit.SECONDS);
+         if (line == null || line.startsWith(prefix)) return line;
+      }
+   }
+
+   /**
+    * Loads the classes of the client, Vert.x and Netty itself, so that their state is separate from the tests', but
+    * cannot load Netty's epoll transport.
+    */
+   private static class WithoutNativeTransport extends ClassLoader
+   {
+      WithoutNativeTransport(ClassLoader parent)
+      {
+         super(parent);
+      }
+
+      @Override
+      protected synchronized Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException
+      {
+         if (name.startsWith("io.netty.channel.epoll.")) throw new ClassNotFoundException(name);
+
+         if (!name.startsWith("com.ivkos.gpsd4j.") && !name.startsWith("io.vertx.") &&
+               !name.startsWith("io.netty.")) {
+            return super.loadClass(name, resolve);
+         }
+
+         Class<?> loaded = findLoadedClass(name);
+         if (loaded == null) {
+            byte[] bytes = readClass(name);
+            loaded = defineClass(name, bytes, 0, bytes.length);
+         }
+
+         if (resolve) resolveClass(loaded);
+         return loaded;
+      }
+
+      private byte[] readClass(String name) throws ClassNotFoundException
+      {
+         try (InputStream in = getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+            if (in == null) throw new ClassNotFoundException(name);
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] chunk = new byte[8192];
+            for (int n; (n = in.read(chunk)) > 0; ) bytes.write(chunk, 0, n);
+
+            return bytes.toByteArray();
+         } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+         }
+      }
+   }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.function.Consumer;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+import static org.junit.Assert.*;
+
+public class HandlerRegistryTest
+{
+   private final HandlerRegistry registry = new HandlerRegistry();
+
+   @Test
+   public void noSubscriptionsWithoutReportHandlers() throws Exception
+   {
+      registry.add(VersionMessage.class, version -> {});
+
+      assertNull(registry.subscribedDevices());
+   }
+
+   @Test
+   public void subscriptionsNarrowToTheDevicesOfTheHandlers() throws Exception
+   {
+      registry.add(TPVReport.class, "/dev/ttyAMA0", tpv -> {});
+      registry.add(SKYReport.class, "/dev/ttyUSB0", sky -> {});
+
+      assertEquals(new HashSet<>(Arrays.asList("/dev/ttyAMA0", "/dev/ttyUSB0")), registry.subscribedDevices());
+   }
+
+   @Test
+   public void handlerForAllDevicesWidensSubscriptions() throws Exception
+   {
+      Consumer<GpsdMessage> generic = message -> {};
+
+      registry.add(TPVReport.class, "/dev/ttyAMA0", tpv -> {});
+      registry.add(GpsdMessage.class, generic);
+
+      assertTrue(registry.subscribedDevices().isEmpty());
+
+      assertTrue(registry.remove(generic));
+      assertEquals(1, registry.subscribedDevices().size());
+   }
+
+   @Test
+   public void deviceHandlersOnlyReceiveTheirDevice() throws Exception
+   {
+      int[] received = { 0 };
+      Consumer<TPVReport> handler = tpv -> received[0]++;
+
+      registry.add(TPVReport.class, "/dev/ttyAMA0", handler);
+
+      GpsdMessage ama = tpv("/dev/ttyAMA0");
+      GpsdMessage usb = tpv("/dev/ttyUSB0");
+
+      registry.forEachHandler(ama, h -> h.accept(ama));
+      registry.forEachHandler(usb, h -> h.accept(usb));
+      assertEquals(1, received[0]);
+
+      assertTrue(registry.remove(TPVReport.class, handler));
+      assertNull(registry.subscribedDevices());
+   }
+
+   private static GpsdMessage tpv(String device) throws Exception
+   {
+      return deserialize("{\"class\":\"TPV\",\"device\":\"" + device + "\",\"mode\":3}");
+   }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.PollMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class NioGpsdClientTest
+{
+   private static final String POLL = "{\"class\":\"POLL\",\"time\":\"2017-05-01T12:00:00.000Z\",\"active\":1," +
+         "\"tpv\":[],\"sky\":[]}";
+
+   private StandInServer server;
+   private NioGpsdClient client;
+
+   @Before
+   public void setUp() throws Exception
+   {
+      server = new StandInServer();
+      client = new NioGpsdClient(server.getEndpoint(), new GpsdClientOptions().setReconnectOnDisconnect(false));
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      client.stop();
+      server.close();
+   }
+
+   @Test
+   public void roundTripsHandlersCommandsAndWatch() throws Exception
+   {
+      server.setResponder(line -> line.equals("?POLL;") ? POLL : null);
+
+      BlockingQueue<NioGpsdClient> connections = new LinkedBlockingQueue<>();
+      BlockingQueue<VersionMessage> versions = new LinkedBlockingQueue<>();
+      BlockingQueue<GpsdMessage> messages = new LinkedBlockingQueue<>();
+      BlockingQueue<PollMessage> polls = new LinkedBlockingQueue<>();
+
+      client.setSuccessfulConnectionHandler(connections::add)
+            .addHandler(VersionMessage.class, versions::add)
+            .addHandler(messages::add)
+            .start();
+
+      assertSame(client, connections.poll(2, TimeUnit.SECONDS));
+
+      VersionMessage version = versions.poll(2, TimeUnit.SECONDS);
+      assertNotNull(version);
+      assertEquals("3.16", version.getRelease());
+      assertTrue(messages.poll(2, TimeUnit.SECONDS) instanceof VersionMessage);
+
+      client.watch();
+      String watch = server.received.poll(2, TimeUnit.SECONDS);
+      assertNotNull(watch);
+      assertTrue(watch, watch.startsWith("?WATCH={"));
+      assertTrue(watch, watch.contains("\"enable\":true"));
+      assertTrue(watch, watch.contains("\"json\":true"));
+
+      client.sendCommand("?DEVICES;\n");
+      assertEquals("?DEVICES;", server.received.poll(2, TimeUnit.SECONDS));
+
+      client.sendCommand(new PollMessage(), polls::add);
+      assertEquals("?POLL;", server.received.poll(2, TimeUnit.SECONDS));
+
+      PollMessage poll = polls.poll(2, TimeUnit.SECONDS);
+      assertNotNull(poll);
+      assertEquals(Integer.valueOf(1), poll.getActiveCount());
+
+      // the response handler runs once, and the generic handler sees the response too
+      assertTrue(messages.poll(2, TimeUnit.SECONDS) instanceof PollMessage);
+      assertNull(polls.poll(100, TimeUnit.MILLISECONDS));
+   }
+
+   @Test
+   public void reassemblesLinesLongerThanTheReadBuffer() throws Exception
+   {
+      StringBuilder release = new StringBuilder();
+      for (int i = 0; i < 3000; i++) release.append("3.16-");
+
+      BlockingQueue<VersionMessage> versions = new LinkedBlockingQueue<>();
+      client.addHandler(VersionMessage.class, versions::add).start();
+
+      assertNotNull(versions.poll(2, TimeUnit.SECONDS));
+
+      // a long line, and several short lines with mixed line endings in one write
+      server.send("{\"class\":\"VERSION\",\"release\":\"" + release + "\",\"rev\":\"3.16\"," +
+            "\"proto_major\":3,\"proto_minor\":11}\r\n" + StandInServer.VERSION + "\r\n\r\n" + StandInServer.VERSION);
+
+      VersionMessage longVersion = versions.poll(2, TimeUnit.SECONDS);
+      assertNotNull(longVersion);
+      assertEquals(release.toString(), longVersion.getRelease());
+
+      assertEquals("3.16", versions.poll(2, TimeUnit.SECONDS).getRelease());
+      assertEquals("3.16", versions.poll(2, TimeUnit.SECONDS).getRelease());
+      assertNull(versions.poll(100, TimeUnit.MILLISECONDS));
+   }
+
+   @Test(expected = IllegalStateException.class)
+   public void rejectsCommandsWhileNotConnected()
+   {
+      client.watch();
+   }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.PollMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.*;
+
+public class PendingResponsesTest
+{
+   private final PendingResponses pending = new PendingResponses();
+
+   @Test
+   public void responsesOfTheSameTypeGoToHandlersInOrder() throws Exception
+   {
+      List<String> handled = new ArrayList<>();
+
+      pending.expect(VersionMessage.class, (Consumer<VersionMessage>) __ -> handled.add("first"));
+      pending.expect(VersionMessage.class, (Consumer<VersionMessage>) __ -> handled.add("second"));
+      pending.expect(VersionMessage.class, (Consumer<VersionMessage>) __ -> handled.add("third"));
+
+      for (int i = 0; i < 3; i++) pending.poll(new VersionMessage()).accept(new VersionMessage());
+
+      assertEquals(asList("first", "second", "third"), handled);
+      assertNull(pending.poll(new VersionMessage()));
+   }
+
+   @Test
+   public void responsesOfDifferentTypesAreCorrelatedIndependently() throws Exception
+   {
+      List<String> handled = new ArrayList<>();
+
+      pending.expect(VersionMessage.class, (Consumer<VersionMessage>) __ -> handled.add("version 1"));
+      pending.expect(PollMessage.class, (Consumer<PollMessage>) __ -> handled.add("poll"));
+      pending.expect(VersionMessage.class, (Consumer<VersionMessage>) __ -> handled.add("version 2"));
+
+      pending.poll(new PollMessage()).accept(new PollMessage());
+      pending.poll(new VersionMessage()).accept(new VersionMessage());
+      pending.poll(new VersionMessage()).accept(new VersionMessage());
+
+      assertEquals(asList("poll", "version 1", "version 2"), handled);
+   }
+
+   @Test
+   public void unexpectedMessagesHaveNoHandler() throws Exception
+   {
+      assertNull(pending.poll(new VersionMessage()));
+
+      pending.expect(PollMessage.class, (Consumer<GpsdMessage>) __ -> {});
+      assertNull(pending.poll(new VersionMessage()));
+   }
+
+   @Test
+   public void clearForgetsAwaitedResponses() throws Exception
+   {
+      pending.expect(VersionMessage.class, (Consumer<GpsdMessage>) __ -> {});
+      pending.expect(PollMessage.class, (Consumer<GpsdMessage>) __ -> {});
+
+      assertEquals(2, pending.clear());
+      assertNull(pending.poll(new VersionMessage()));
+      assertEquals(0, pending.clear());
+   }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.simulator.GpsdSimulator;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.stream.Collectors.toList;
+import static org.junit.Assert.*;
+
+public class SessionReplayTest
+{
+   private static final String TPV = "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+         "\"time\":\"2017-09-01T10:00:0%d.000Z\",\"lat\":42.697708,\"lon\":23.321868}";
+
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   private GpsdSimulator simulator;
+   private GpsdClient client;
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (client != null) client.stop();
+      if (simulator != null) simulator.stop();
+   }
+
+   @Test
+   public void replaysRecordedSessionThroughHandlers() throws Exception
+   {
+      simulator = new GpsdSimulator().setRate(50).setReports("TPV", "SKY").start();
+
+      Path file = folder.getRoot().toPath().resolve("session.gpsd");
+      List<LocalDateTime> live = new CopyOnWriteArrayList<>();
+      CountDownLatch received = new CountDownLatch(20);
+
+      try (SessionRecorder recorder = new SessionRecorder(file)) {
+         client = new GpsdClient("localhost", simulator.getPort())
+               .setSessionRecorder(recorder)
+               .setSuccessfulConnectionHandler(GpsdClient::watch)
+               .addHandler(TPVReport.class, tpv -> {
+                  live.add(tpv.getTime());
+                  received.countDown();
+               })
+               .start();
+
+         assertTrue(received.await(5, TimeUnit.SECONDS));
+         client.stop();
+      }
+
+      List<String> lines = Files.readAllLines(file, UTF_8);
+      long recordedReports = lines.stream().filter(line -> line.contains("\"class\":\"TPV\"")).count();
+      assertTrue(recordedReports >= 20);
+
+      List<LocalDateTime> replayed = new CopyOnWriteArrayList<>();
+      client = new GpsdClient("localhost", simulator.getPort())
+            .addHandler(TPVReport.class, tpv -> replayed.add(tpv.getTime()));
+
+      long count = new SessionReplayer(file)
+            .setSpeed(SessionReplayer.AS_FAST_AS_POSSIBLE)
+            .replay(client);
+
+      assertEquals(lines.size(), count);
+      assertEquals(recordedReports, replayed.size());
+      assertEquals(live.subList(0, 20), replayed.subList(0, 20));
+      assertEquals(ConnectionState.STOPPED, client.getConnectionState());
+   }
+
+   @Test
+   public void keepsRecordedTimingScaledBySpeed() throws Exception
+   {
+      Path file = write(
+            "1504260000000 " + String.format(TPV, 0),
+            "1504260000400 " + String.format(TPV, 1),
+            "1504260000800 " + String.format(TPV, 2));
+
+      // otherwise the first line is handled late while the decoder warms up
+      deserialize(String.format(TPV, 0));
+
+      List<Long> receivedAt = new CopyOnWriteArrayList<>();
+      client = new GpsdClient("localhost", 2947)
+            .addHandler(TPVReport.class, tpv -> receivedAt.add(System.nanoTime()));
+
+      long start = System.nanoTime();
+      new SessionReplayer(file).setSpeed(2).replay(client);
+      long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+      assertEquals(3, receivedAt.size());
+      assertTrue("Took " + elapsed + " ms", elapsed >= 400 && elapsed < 800);
+
+      long gap = TimeUnit.NANOSECONDS.toMillis(receivedAt.get(1) - receivedAt.get(0));
+      assertTrue("Gap of " + gap + " ms", gap >= 150);
+   }
+
+   @Test
+   public void rejectsFilesThatAreNotRecordedSessions() throws Exception
+   {
+      Path file = write(String.format(TPV, 0));
+      client = new GpsdClient("localhost", 2947);
+
+      try {
+         new SessionReplayer(file).replay(client);
+         fail("Expected IOException");
+      } catch (IOException expected) {
+      }
+
+      assertEquals(ConnectionState.STOPPED, client.getConnectionState());
+   }
+
+   private Path write(String... lines) throws IOException
+   {
+      Path file = folder.newFile().toPath();
+      Files.write(file, Arrays.stream(lines).collect(toList()), UTF_8);
+
+      return file;
+   }
+}
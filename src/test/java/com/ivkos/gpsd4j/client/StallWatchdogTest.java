@@ -0,0 +1,162 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.PollMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.ivkos.gpsd4j.client.ConnectionState.*;
+import static org.junit.Assert.*;
+
+public class StallWatchdogTest
+{
+   private static final int STALL_TIMEOUT = 300; // ms
+   private static final int PROBE_INTERVAL = 50; // ms
+
+   // the watchdog checks every quarter of the timeout, and the stall handler runs on a worker
+   private static final int BUDGET = STALL_TIMEOUT + STALL_TIMEOUT / 4 + 200; // ms
+
+   private static final String POLL = "{\"class\":\"POLL\",\"time\":\"2017-05-01T12:00:00.000Z\",\"active\":1," +
+         "\"tpv\":[],\"sky\":[]}";
+   private static final String TPV = "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\",\"mode\":3," +
+         "\"time\":\"2017-05-01T12:00:00.000Z\",\"lat\":42.6977,\"lon\":23.3219}";
+
+   private final GpsdClientOptions options = new GpsdClientOptions()
+         .setStallTimeout(STALL_TIMEOUT)
+         .setProbeInterval(PROBE_INTERVAL)
+         .setReconnectInterval(50)
+         .setReconnectJitter(false);
+
+   private StandInServer server;
+   private GpsdClient client;
+
+   private final BlockingQueue<StallEvent> stalls = new LinkedBlockingQueue<>();
+   private final BlockingQueue<GpsdMessage> messages = new LinkedBlockingQueue<>();
+   private final BlockingQueue<ConnectionStateChange> changes = new LinkedBlockingQueue<>();
+
+   @Before
+   public void setUp() throws Exception
+   {
+      server = new StandInServer();
+      server.setResponder(line -> line.equals("?POLL;") ? POLL : null);
+   }
+
+   @After
+   public void tearDown() throws Exception
+   {
+      if (client != null) client.stop();
+      server.close();
+   }
+
+   @Test
+   public void probesKeepAHealthyConnectionAliveWithoutReachingHandlers() throws Exception
+   {
+      start(options.setReconnectOnStall(false));
+
+      // gpsd answers the probes, so the connection does not stall although no device reports anything
+      Thread.sleep(2 * STALL_TIMEOUT);
+
+      int probes = 0;
+      for (String line; (line = server.received.poll()) != null; ) {
+         if (line.equals("?POLL;")) probes++;
+      }
+
+      assertTrue("probes sent: " + probes, probes >= STALL_TIMEOUT / PROBE_INTERVAL);
+      assertTrue(client.getLastProbeLatency() >= 0);
+      assertNull(stalls.poll());
+
+      for (GpsdMessage message; (message = messages.poll()) != null; ) {
+         assertFalse("probe response reached a handler", message instanceof PollMessage);
+      }
+   }
+
+   @Test
+   public void deviceThatStopsReportingStalls() throws Exception
+   {
+      start(options.setReconnectOnStall(false));
+
+      long sentAt = System.currentTimeMillis();
+      server.send(TPV);
+
+      StallEvent stall = stalls.poll(BUDGET, TimeUnit.MILLISECONDS);
+      assertNotNull("no stall within " + BUDGET + " ms", stall);
+      assertTrue(System.currentTimeMillis() - sentAt < BUDGET);
+
+      assertFalse(stall.isConnectionStall());
+      assertEquals("/dev/ttyAMA0", stall.getDevice());
+      assertTrue(stall.getSilentFor() >= STALL_TIMEOUT);
+
+      // reported once, and the connection itself is still alive thanks to the probes
+      assertNull(stalls.poll(STALL_TIMEOUT, TimeUnit.MILLISECONDS));
+   }
+
+   @Test
+   public void quietConnectionStallsAndForcesAReconnect() throws Exception
+   {
+      start(options.setReconnectOnStall(true));
+
+      long quietAt = System.currentTimeMillis();
+      server.setQuiet(true);
+
+      StallEvent stall = stalls.poll(BUDGET, TimeUnit.MILLISECONDS);
+      assertNotNull("no stall within " + BUDGET + " ms", stall);
+      assertTrue(System.currentTimeMillis() - quietAt < BUDGET);
+
+      assertTrue(stall.isConnectionStall());
+      assertNull(stall.getDevice());
+      assertTrue(stall.getSilentFor() >= STALL_TIMEOUT);
+
+      server.setQuiet(false);
+
+      assertEquals(BACKING_OFF, next().getCurrent());
+      assertEquals(CONNECTING, next().getCurrent());
+      assertEquals(CONNECTED, next().getCurrent());
+      assertTrue(server.awaitConnections(1, 1000));
+   }
+
+   private void start(GpsdClientOptions options) throws Exception
+   {
+      BlockingQueue<VersionMessage> versions = new LinkedBlockingQueue<>();
+
+      client = new GpsdClient("localhost", server.getPort(), options)
+            .setStallHandler(stalls::add)
+            .setConnectionStateHandler(changes::add)
+            .addHandler(VersionMessage.class, versions::add)
+            .addHandler(messages::add);
+
+      client.start();
+
+      assertNotNull(versions.poll(2, TimeUnit.SECONDS));
+      assertEquals(CONNECTING, next().getCurrent());
+      assertEquals(CONNECTED, next().getCurrent());
+   }
+
+   private ConnectionStateChange next() throws InterruptedException
+   {
+      ConnectionStateChange change = changes.poll(2, TimeUnit.SECONDS);
+      assertNotNull("no state change", change);
+      return change;
+   }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.client;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * A stand-in gpsd server for tests of the client's connection handling. It greets each connection with a VERSION,
+ * records the lines it receives, answers them through a responder, and sends lines to all connections on demand.
+ * <p>
+ * It can be taken down, dropping all connections and resetting new ones as soon as they are accepted, and brought
+ * back up. It keeps listening on the same port throughout, so the port is never released to anyone else. It can also
+ * go quiet, keeping its connections but sending nothing, as if it hung.
+ */
+final class StandInServer implements Closeable
+{
+   static final String VERSION = "{\"class\":\"VERSION\",\"release\":\"3.16\",\"rev\":\"3.16\"," +
+         "\"proto_major\":3,\"proto_minor\":11}";
+
+   final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+
+   // what each read from a connection returned, to tell how the client batched its writes
+   final BlockingQueue<String> reads = new LinkedBlockingQueue<>();
+
+   private final ServerSocket serverSocket;
+   private final List<Socket> connections = new ArrayList<>();
+
+   private volatile Function<String, String> responder = __ -> null;
+   private boolean down = false;
+   private boolean quiet = false;
+
+   StandInServer() throws IOException
+   {
+      serverSocket = new ServerSocket();
+      serverSocket.bind(new InetSocketAddress("localhost", 0));
+
+      Thread acceptor = new Thread(this::accept, "stand-in-gpsd");
+      acceptor.setDaemon(true);
+      acceptor.start();
+   }
+
+   int getPort()
+   {
+      return serverSocket.getLocalPort();
+   }
+
+   GpsdEndpoint getEndpoint()
+   {
+      return GpsdEndpoint.tcp("localhost", getPort());
+   }
+
+   /**
+    * @param responder returns the lines to answer a received line with, without the trailing newline, or null
+    */
+   void setResponder(Function<String, String> responder)
+   {
+      this.responder = responder;
+   }
+
+   /**
+    * Drops all connections, and resets those made until the server is brought back up.
+    */
+   synchronized void down() throws IOException
+   {
+      down = true;
+
+      for (Socket socket : connections) reset(socket);
+      connections.clear();
+   }
+
+   synchronized void up()
+   {
+      down = false;
+   }
+
+   /**
+    * @param quiet whether to stop sending anything, including the greeting and responses, while keeping connections
+    */
+   synchronized void setQuiet(boolean quiet)
+   {
+      this.quiet = quiet;
+   }
+
+   synchronized int getConnectionCount()
+   {
+      return connections.size();
+   }
+
+   /**
+    * Waits until the server has a number of connections.
+    *
+    * @return false if it did not within the timeout
+    */
+   boolean awaitConnections(int count, long timeout) throws InterruptedException
+   {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+      while (getConnectionCount() != count) {
+         if (System.nanoTime() > deadline) return false;
+         Thread.sleep(5);
+      }
+
+      return true;
+   }
+
+   /**
+    * Sends lines to all connections, unless the server is quiet.
+    *
+    * @param lines the lines, without the trailing newline
+    */
+   synchronized void send(String lines)
+   {
+      if (quiet) return;
+
+      for (Socket socket : connections) write(socket, lines);
+   }
+
+   @Override
+   public synchronized void close() throws IOException
+   {
+      serverSocket.close();
+
+      for (Socket socket : connections) socket.close();
+      connections.clear();
+   }
+
+   private void accept()
+   {
+      while (!serverSocket.isClosed()) {
+         try {
+            Socket socket = serverSocket.accept();
+
+            synchronized (this) {
+               if (down) {
+                  reset(socket);
+                  continue;
+               }
+
+               connections.add(socket);
+               if (!quiet) write(socket, VERSION);
+            }
+
+            Thread reader = new Thread(() -> read(socket), "stand-in-gpsd-reader");
+            reader.setDaemon(true);
+            reader.start();
+         } catch (IOException ignored) {
+         }
+      }
+   }
+
+   private void read(Socket socket)
+   {
+      try (InputStream in = socket.getInputStream()) {
+         ByteArrayOutputStream line = new ByteArrayOutputStream();
+         byte[] chunk = new byte[8192];
+
+         int length;
+         while ((length = in.read(chunk)) >= 0) {
+            reads.add(new String(chunk, 0, length, UTF_8));
+
+            for (int i = 0; i < length; i++) {
+               if (chunk[i] != '\n') {
+                  line.write(chunk[i]);
+                  continue;
+               }
+
+               handleLine(socket, line.toString("UTF-8"));
+               line.reset();
+            }
+         }
+      } catch (IOException ignored) {
+      } finally {
+         synchronized (this) {
+            connections.remove(socket);
+         }
+      }
+   }
+
+   private void handleLine(Socket socket, String line)
+   {
+      received.add(line);
+
+      String response = responder.apply(line);
+      if (response == null) return;
+
+      synchronized (this) {
+         if (!quiet && connections.contains(socket)) write(socket, response);
+      }
+   }
+
+   private static void write(Socket socket, String lines)
+   {
+      try {
+         socket.getOutputStream().write((lines + "\n").getBytes(UTF_8));
+         socket.getOutputStream().flush();
+      } catch (IOException ignored) {
+         // the reader notices the connection is gone
+      }
+   }
+
+   private static void reset(Socket socket) throws IOException
+   {
+      // closing with a zero linger time resets the connection instead of closing it gracefully
+      socket.setSoLinger(true, 0);
+      socket.close();
+   }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.codec;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.GpsdParseException;
+import org.junit.Test;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+import static com.ivkos.gpsd4j.support.SerializationHelper.serialize;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.*;
+
+public class BinaryReportCodecTest
+{
+   private static final List<String> REPORTS = Arrays.asList(
+         "{\"class\":\"TPV\",\"device\":\"/dev/pts/1\",\"time\":\"2005-06-08T10:34:48.283Z\",\"ept\":0.005," +
+               "\"lat\":46.498293369,\"lon\":7.567411672,\"alt\":1343.127,\"eph\":36.000,\"epv\":32.321," +
+               "\"track\":10.3788,\"speed\":0.091,\"climb\":-0.085,\"mode\":3}",
+         "{\"class\":\"SKY\",\"device\":\"/dev/pts/1\",\"time\":\"2005-07-08T11:28:07.114Z\",\"xdop\":1.55," +
+               "\"hdop\":1.24,\"pdop\":1.99,\"satellites\":[{\"PRN\":23,\"el\":6,\"az\":84,\"ss\":0,\"used\":false}," +
+               "{\"PRN\":8,\"el\":66,\"az\":189,\"ss\":44,\"used\":true},{\"PRN\":10,\"el\":51.5,\"az\":304}]}",
+         "{\"class\":\"GST\",\"device\":\"/dev/ttyUSB0\",\"time\":\"2010-12-07T10:23:07.096Z\",\"rms\":2.440," +
+               "\"major\":1.660,\"minor\":1.120,\"orient\":68.989,\"lat\":1.600,\"lon\":1.200,\"alt\":2.520}",
+         "{\"class\":\"ATT\",\"device\":\"/dev/pts/1\",\"time\":\"2005-07-08T11:28:07.114Z\",\"heading\":14223.00," +
+               "\"mag_st\":\"N\",\"pitch\":169.00,\"roll\":-43.00,\"dip\":13641.000,\"mag_x\":2454.000}",
+         "{\"class\":\"TOFF\",\"device\":\"/dev/ttyUSB0\",\"real_sec\":1330212592,\"real_nsec\":343182," +
+               "\"clock_sec\":1330212592,\"clock_nsec\":343184}",
+         // more digits than gpsd prints, sub-millisecond time, no device
+         "{\"class\":\"TPV\",\"time\":\"2005-06-08T10:34:48.283456789Z\",\"lat\":46.4982933691234," +
+               "\"lon\":-0.0,\"track\":1.0E-7,\"mode\":2}");
+
+   private final BinaryReportEncoder encoder = new BinaryReportEncoder();
+   private final BinaryReportDecoder decoder = new BinaryReportDecoder();
+
+   @Test
+   public void decodedReportsEqualTheEncodedOnes() throws Exception
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(4096);
+
+      // twice, so that the second time device names and times are encoded relative to the first
+      for (int round = 0; round < 2; round++) {
+         for (String json : REPORTS) {
+            GpsdMessage report = deserialize(json);
+
+            buffer.clear();
+            encoder.encode(report, buffer);
+            buffer.flip();
+
+            assertEquals(json, report, decoder.decode(buffer));
+            assertFalse(buffer.hasRemaining());
+         }
+      }
+   }
+
+   @Test
+   public void tracksAreMuchSmallerThanJson() throws Exception
+   {
+      List<TPVReport> track = track(100);
+      ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+
+      int jsonSize = 0;
+      for (TPVReport tpv : track) {
+         jsonSize += serialize(tpv).getBytes(UTF_8).length;
+         encoder.encode(tpv, buffer);
+      }
+
+      buffer.flip();
+      int binarySize = buffer.remaining();
+
+      for (TPVReport tpv : track) assertEquals(tpv, decoder.decode(buffer));
+      assertTrue(binarySize + " bytes vs " + jsonSize + " bytes of JSON", binarySize * 8 < jsonSize);
+   }
+
+   @Test
+   public void reportThatDoesNotFitChangesNothing() throws Exception
+   {
+      List<TPVReport> track = track(2);
+      ByteBuffer small = ByteBuffer.allocate(8);
+
+      try {
+         encoder.encode(track.get(0), small);
+         fail("Expected BufferOverflowException");
+      } catch (BufferOverflowException expected) {
+      }
+
+      assertEquals(0, small.position());
+
+      ByteBuffer buffer = ByteBuffer.allocate(1024);
+      encoder.encode(track.get(0), buffer);
+      encoder.encode(track.get(1), buffer);
+      buffer.flip();
+
+      assertEquals(track.get(0), decoder.decode(buffer));
+      assertEquals(track.get(1), decoder.decode(buffer));
+   }
+
+   @Test(expected = GpsdParseException.class)
+   public void truncatedInputIsRejected() throws Exception
+   {
+      ByteBuffer buffer = ByteBuffer.allocate(1024);
+      encoder.encode(track(1).get(0), buffer);
+      buffer.flip();
+      buffer.limit(buffer.limit() - 3);
+
+      decoder.decode(buffer);
+   }
+
+   static List<TPVReport> track(int length)
+   {
+      List<TPVReport> track = new ArrayList<>();
+
+      for (int i = 0; i < length; i++) {
+         track.add(deserialize(String.format(Locale.ROOT, "{\"class\":\"TPV\",\"device\":\"/dev/ttyAMA0\"," +
+                     "\"mode\":3,\"time\":\"2017-09-01T10:%02d:%02d.000Z\",\"ept\":0.005,\"lat\":%.9f," +
+                     "\"lon\":%.9f,\"alt\":%.3f,\"epx\":3.100,\"epy\":3.400,\"epv\":7.900,\"track\":121.4000," +
+                     "\"speed\":%.3f,\"climb\":0.100,\"eps\":0.600}",
+               i / 60, i % 60, 42.697708 + i * 0.000091, 23.321868 - i * 0.000127, 550.2 + i * 0.01,
+               12.3 + i % 7 * 0.01)));
+      }
+
+      return track;
+   }
+}
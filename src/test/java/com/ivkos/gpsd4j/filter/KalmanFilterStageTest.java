@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+import com.ivkos.gpsd4j.client.GpsdClient;
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import com.ivkos.gpsd4j.messages.WatchMessage;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.simulator.GpsdSimulator;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import com.ivkos.gpsd4j.tools.Geodesy;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class KalmanFilterStageTest
+{
+   private final List<GpsdMessage> passed = new ArrayList<>();
+
+   @Test
+   public void smoothsANoisyTrack() throws Exception
+   {
+      KalmanFilterStage stage = new KalmanFilterStage();
+      Random random = new Random(42);
+
+      double[] truth = new double[2];
+      double rawError = 0, smoothedError = 0, speedError = 0, courseError = 0;
+
+      // 15 m/s to the north-east, with 5 m of noise on each axis
+      for (int second = 0; second < 300; second++) {
+         Geodesy.vincentyDestination(42.6, 23.2, 45, 15.0 * second, truth);
+         double latitude = truth[0] + random.nextGaussian() * 5 / 111_000;
+         double longitude = truth[1] + random.nextGaussian() * 5 / 82_000;
+         double speed = 15 + random.nextGaussian() * 0.3;
+         double course = 45 + random.nextGaussian() * 2;
+
+         stage.process(tpv("bus", second * 1000, latitude, longitude, 9.8, speed, course, 0.6, 4), passed::add);
+
+         assertEquals(2, passed.size());
+         SmoothedTPVReport smoothed = (SmoothedTPVReport) passed.get(1);
+         passed.clear();
+
+         if (second < 10) continue;
+
+         rawError += square(Geodesy.vincentyDistance(truth[0], truth[1], latitude, longitude));
+         smoothedError += square(Geodesy.vincentyDistance(truth[0], truth[1],
+               smoothed.getLatitude(), smoothed.getLongitude()));
+         speedError += square(smoothed.getSpeed() - 15);
+         courseError += square(smoothed.getCourse() - 45);
+
+         assertTrue(smoothed.getLatitudeError() < 9.8);
+      }
+
+      // less than half the error of the raw fixes
+      assertTrue("raw " + rawError + ", smoothed " + smoothedError, smoothedError < rawError / 4);
+
+      // better than the measured speed and course
+      assertTrue(Math.sqrt(speedError / 290) < 0.3);
+      assertTrue(Math.sqrt(courseError / 290) < 2);
+   }
+
+   @Test
+   public void passesEverythingOnAndSmoothsOnlyNewFixes() throws Exception
+   {
+      KalmanFilterStage stage = new KalmanFilterStage();
+
+      VersionMessage version = new VersionMessage();
+      stage.process(version, passed::add);
+      assertSame(version, passed.remove(0));
+
+      TPVReport noFix = TpvBuilder.tpv("bus").mode(1).build();
+      stage.process(noFix, passed::add);
+      assertSame(noFix, passed.remove(0));
+
+      TPVReport first = tpv("bus", 0, 42.6, 23.2, 10, 0, 0, 1, 4);
+      stage.process(first, passed::add);
+      assertSame(first, passed.remove(0));
+
+      SmoothedTPVReport smoothed = (SmoothedTPVReport) passed.remove(0);
+      assertSame(first, smoothed.getTPV());
+      assertEquals("bus", smoothed.getDevice());
+      assertEquals(42.6, smoothed.getLatitude(), 1e-9);
+      assertEquals(23.2, smoothed.getLongitude(), 1e-9);
+
+      // not newer than the previous fix
+      TPVReport duplicate = tpv("bus", 0, 42.6, 23.2, 10, 0, 0, 1, 4);
+      stage.process(duplicate, passed::add);
+      assertSame(duplicate, passed.remove(0));
+      assertTrue(passed.isEmpty());
+   }
+
+   @Test
+   public void startsOverAfterAGap() throws Exception
+   {
+      KalmanFilterStage stage = new KalmanFilterStage().setMaxGap(5000);
+
+      stage.process(tpv("bus", 0, 42.6, 23.2, 10, 0, 0, 1, 4), passed::add);
+      stage.process(tpv("bus", 1000, 42.6, 23.2, 10, 0, 0, 1, 4), passed::add);
+      stage.process(tpv("bus", 7000, 42.7, 23.3, 10, 0, 0, 1, 4), passed::add);
+
+      SmoothedTPVReport smoothed = (SmoothedTPVReport) passed.get(5);
+      assertEquals(42.7, smoothed.getLatitude(), 1e-9);
+      assertEquals(23.3, smoothed.getLongitude(), 1e-9);
+      assertEquals(10, smoothed.getLatitudeError(), 1e-9);
+
+      assertTrue(stage.removeDevice("bus"));
+      assertFalse(stage.removeDevice("bus"));
+   }
+
+   @Test
+   public void smoothsTheFixesOfAClient() throws Exception
+   {
+      GpsdSimulator simulator = new GpsdSimulator().setRate(20).start();
+      BlockingQueue<SmoothedTPVReport> smoothed = new LinkedBlockingQueue<>();
+      AtomicInteger skyReports = new AtomicInteger();
+
+      WatchMessage watch = new WatchMessage();
+      watch.setDumpJson(true);
+
+      GpsdClient client = new GpsdClient("localhost", simulator.getPort())
+            .setWatch(watch)
+            .addStage((message, next) -> {
+               if (!(message instanceof SKYReport)) next.accept(message);
+            })
+            .addStage(new KalmanFilterStage())
+            .addHandler(SmoothedTPVReport.class, smoothed::add)
+            .addHandler(SKYReport.class, __ -> skyReports.incrementAndGet());
+
+      try {
+         client.start();
+
+         for (int i = 0; i < 3; i++) {
+            SmoothedTPVReport report = smoothed.poll(5, TimeUnit.SECONDS);
+            assertNotNull(report);
+            assertEquals(report.getTPV().getLatitude(), report.getLatitude(), 0.01);
+         }
+
+         assertEquals(0, skyReports.get());
+      } finally {
+         client.stop();
+         simulator.stop();
+      }
+   }
+
+   private static double square(double x)
+   {
+      return x * x;
+   }
+
+   private static TPVReport tpv(String device, int millis, double latitude, double longitude, double error,
+                                double speed, double course, double speedError, double courseError)
+   {
+      return TpvBuilder.tpv(device).mode(2).atMillis(millis)
+            .position(latitude, longitude)
+            .error(error)
+            .speed(speed)
+            .course(course)
+            .speedError(speedError)
+            .courseError(courseError)
+            .build();
+   }
+}
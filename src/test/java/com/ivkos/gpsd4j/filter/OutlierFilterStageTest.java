@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.filter;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.VersionMessage;
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class OutlierFilterStageTest
+{
+   // about 11 m
+   private static final double STEP = 0.0001;
+
+   private final List<GpsdMessage> passed = new ArrayList<>();
+
+   @Test
+   public void rejectsJumps() throws Exception
+   {
+      OutlierFilterStage stage = new OutlierFilterStage();
+
+      assertPassed(stage, tpv("bus", 0, 42.6, 10, 11, 0.5));
+      assertPassed(stage, tpv("bus", 1, 42.6 + STEP, 10, 11, 0.5));
+
+      // 500 m away in a second
+      assertRejected(stage, tpv("bus", 2, 42.6 + 0.0045, 10, 11, 0.5));
+
+      // checked against the last fix that was let through
+      assertPassed(stage, tpv("bus", 3, 42.6 + 3 * STEP, 10, 11, 0.5));
+
+      // from 11 to 40 m/s in a second
+      assertRejected(stage, tpv("bus", 4, 42.6 + 4 * STEP, 10, 40, 0.5));
+      assertPassed(stage, tpv("bus", 5, 42.6 + 5 * STEP, 10, 11, 0.5));
+
+      // a tunnel
+      assertPassed(stage, tpv("bus", 60, 42.61, 10, 11, 0.5));
+   }
+
+   @Test
+   public void doesNotTakeNoiseForMovement() throws Exception
+   {
+      OutlierFilterStage stage = new OutlierFilterStage(new OutlierThresholds().setMaxSpeed(20));
+
+      // 30 m in a second, but within the errors of the fixes
+      assertPassed(stage, tpv("bus", 0, 42.6, 20, 0, 0.5));
+      assertPassed(stage, tpv("bus", 1, 42.6 + 3 * STEP, 20, 0, 0.5));
+   }
+
+   @Test
+   public void rejectsByModeAndErrorEstimates() throws Exception
+   {
+      OutlierFilterStage stage = new OutlierFilterStage(new OutlierThresholds().setMinMode(NMEAMode.ThreeDimensional));
+
+      assertRejected(stage, tpv("bus", 0, 42.6, 10, 11, 0.5));
+      assertRejected(stage, TpvBuilder.tpv("bus").build());
+
+      stage = new OutlierFilterStage();
+      assertRejected(stage, tpv("bus", 0, 42.6, 150, 11, 0.5));
+      assertRejected(stage, tpv("bus", 0, 42.6, 10, 11, 15));
+      assertPassed(stage, tpv("bus", 0, 42.6, 10, 11, 0.5));
+
+      VersionMessage version = new VersionMessage();
+      assertPassed(stage, version);
+   }
+
+   @Test
+   public void flagsOutliersAndHonorsDeviceThresholds() throws Exception
+   {
+      OutlierFilterStage stage = new OutlierFilterStage()
+            .setAction(OutlierAction.FLAG)
+            .setThresholds("plane", new OutlierThresholds().setMaxSpeed(300));
+
+      stage.process(tpv("bus", 0, 42.6, 10, 11, 0.5), passed::add);
+      stage.process(tpv("plane", 0, 42.6, 10, 200, 0.5), passed::add);
+      passed.clear();
+
+      TPVReport jump = tpv("bus", 1, 42.6 + 0.002, 10, 11, 0.5);
+      stage.process(jump, passed::add);
+
+      OutlierReport outlier = (OutlierReport) passed.remove(0);
+      assertEquals(OutlierReason.SPEED, outlier.getReason());
+      assertEquals(200, outlier.getValue(), 10);
+      assertSame(jump, outlier.getTPV());
+      assertEquals("bus", outlier.getDevice());
+
+      assertPassed(stage, tpv("plane", 1, 42.6 + 0.002, 10, 200, 0.5));
+
+      assertTrue(stage.removeThresholds("plane"));
+      assertTrue(passed.isEmpty());
+   }
+
+   private void assertPassed(OutlierFilterStage stage, GpsdMessage message)
+   {
+      stage.process(message, passed::add);
+
+      assertEquals(1, passed.size());
+      assertSame(message, passed.remove(0));
+   }
+
+   private void assertRejected(OutlierFilterStage stage, GpsdMessage message)
+   {
+      stage.process(message, passed::add);
+      assertTrue(passed.isEmpty());
+   }
+
+   private static TPVReport tpv(String device, int second, double latitude, double error, double speed,
+                                double speedError)
+   {
+      return TpvBuilder.tpv(device).mode(2).at(second)
+            .position(latitude, 23.3)
+            .error(error)
+            .speed(speed)
+            .speedError(speedError)
+            .build();
+   }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.fleet;
+
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+import static com.ivkos.gpsd4j.support.TpvBuilder.START;
+import static org.junit.Assert.*;
+
+public class FleetStateTableTest
+{
+   private final FleetRow row = new FleetRow();
+
+   @Test
+   public void keepsTheLatestStateOfEachDevice() throws Exception
+   {
+      FleetStateTable table = new FleetStateTable(1000);
+      table.update(7, tpv(1));
+      table.update(7, tpv(2));
+      table.skyHandler(7).accept(deserialize("{\"class\":\"SKY\",\"device\":\"/dev/ttyAMA0\"," +
+            "\"time\":\"2017-09-01T10:00:02.000Z\",\"satellites\":[{\"PRN\":5,\"used\":true}," +
+            "{\"PRN\":7,\"used\":false},{\"PRN\":13,\"used\":true}]}"));
+
+      assertTrue(table.read(7, row));
+      assertEquals(7, row.getDeviceId());
+      assertEquals(START.plusSeconds(2), row.getTime());
+      assertEquals(NMEAMode.ThreeDimensional, row.getMode());
+      assertEquals(2, row.getLatitude(), 0);
+      assertEquals(2, row.getSpeed(), 0);
+      assertTrue(Double.isNaN(row.getClimbRate()));
+      assertEquals(3, row.getSatellitesVisible());
+      assertEquals(2, row.getSatellitesUsed());
+
+      assertFalse(table.read(8, row));
+   }
+
+   @Test
+   public void leavesMissingFieldsEmpty() throws Exception
+   {
+      FleetStateTable table = new FleetStateTable(10);
+      table.update(3, (SKYReport) deserialize("{\"class\":\"SKY\",\"device\":\"/dev/ttyAMA0\",\"satellites\":[]}"));
+
+      assertTrue(table.read(3, row));
+      assertFalse(row.hasTime());
+      assertNull(row.getMode());
+      assertTrue(Double.isNaN(row.getLatitude()));
+      assertEquals(Long.MIN_VALUE, row.getSkyTimeMillis());
+   }
+
+   @Test
+   public void scansRowsInRange() throws Exception
+   {
+      FleetStateTable table = new FleetStateTable(100);
+      for (int deviceId = 0; deviceId < 100; deviceId += 3) table.update(deviceId, tpv(deviceId));
+
+      List<Integer> ids = new ArrayList<>();
+      assertEquals(34, table.scan(r -> ids.add(r.getDeviceId())));
+      assertEquals(Integer.valueOf(99), ids.get(33));
+
+      assertEquals(3, table.scan(10, 20, r -> assertEquals(r.getDeviceId(), r.getLatitude(), 0)));
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void rejectsDeviceIdsOutOfRange() throws Exception
+   {
+      new FleetStateTable(10).update(10, tpv(1));
+   }
+
+   @Test
+   public void readersNeverSeeTornRows() throws Exception
+   {
+      FleetStateTable table = new FleetStateTable(4);
+
+      List<TPVReport> reports = new ArrayList<>();
+      for (int i = 1; i <= 64; i++) reports.add(tpv(i));
+
+      AtomicBoolean done = new AtomicBoolean();
+      Thread[] writers = new Thread[2];
+      for (int w = 0; w < writers.length; w++) {
+         int offset = w * 32;
+         writers[w] = new Thread(() -> {
+            for (int i = 0; !done.get(); i++) table.update(i & 3, reports.get(offset + (i & 31)));
+         });
+         writers[w].start();
+      }
+
+      try {
+         for (int i = 0; i < 200_000; i++) {
+            if (!table.read(i & 3, row)) continue;
+
+            // every report has the same value in all of these fields
+            double value = row.getLatitude();
+            assertEquals(value, row.getLongitude(), 0);
+            assertEquals(value, row.getAltitude(), 0);
+            assertEquals(value, row.getSpeed(), 0);
+            assertEquals(value, row.getCourse(), 0);
+            assertEquals(START.plusSeconds((long) value), row.getTime());
+         }
+      } finally {
+         done.set(true);
+         for (Thread writer : writers) writer.join();
+      }
+   }
+
+   private static TPVReport tpv(int second)
+   {
+      return TpvBuilder.tpv("/dev/ttyAMA0").mode(3).at(second)
+            .position(second, second)
+            .altitude(second)
+            .speed(second)
+            .course(second)
+            .build();
+   }
+}
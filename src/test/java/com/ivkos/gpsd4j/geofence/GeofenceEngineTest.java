@@ -0,0 +1,198 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.geofence;
+
+import com.ivkos.gpsd4j.client.GpsdClient;
+import com.ivkos.gpsd4j.messages.WatchMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.simulator.GpsdSimulator;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import org.junit.Test;
+
+import java.util.*;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static com.ivkos.gpsd4j.geofence.GeofenceTransition.ENTER;
+import static com.ivkos.gpsd4j.geofence.GeofenceTransition.EXIT;
+import static org.junit.Assert.*;
+
+public class GeofenceEngineTest
+{
+   private final List<GeofenceEvent> events = new ArrayList<>();
+
+   @Test
+   public void testsPointsAgainstConcavePolygons() throws Exception
+   {
+      // an L: the south-western 2x2 square without its north-eastern quarter
+      Geofence fence = new Geofence("L", new double[] { 0, 0, 1, 1, 2, 2 }, new double[] { 0, 2, 2, 1, 1, 0 });
+
+      assertTrue(fence.contains(0.5, 0.5));
+      assertTrue(fence.contains(0.5, 1.5));
+      assertTrue(fence.contains(1.5, 0.5));
+      assertFalse(fence.contains(1.5, 1.5));
+      assertFalse(fence.contains(-0.5, 0.5));
+      assertEquals(2, fence.getNorth(), 0);
+   }
+
+   @Test
+   public void publishesTransitions() throws Exception
+   {
+      GeofenceEngine engine = new GeofenceEngine(events::add)
+            .addFence(square("depot", 42.69, 23.32, 0.01))
+            .addFence(square("yard", 42.695, 23.325, 0.01));
+
+      engine.accept(tpv("bus", 0, 42.68, 23.31));
+      assertTrue(events.isEmpty());
+
+      engine.accept(tpv("bus", 1, 42.693, 23.323));
+      assertEvents("ENTER depot");
+
+      engine.accept(tpv("bus", 2, 42.698, 23.328));
+      assertEvents("ENTER yard");
+
+      engine.accept(tpv("bus", 3, 42.702, 23.332));
+      assertEvents("EXIT depot");
+
+      // older than the latest one
+      engine.accept(tpv("bus", 2, 42.68, 23.31));
+      assertTrue(events.isEmpty());
+
+      engine.accept(tpv("bus", 4, 42.68, 23.31));
+      assertEvents("EXIT yard");
+      assertTrue(engine.getFencesContaining("bus").isEmpty());
+   }
+
+   @Test
+   public void exitsRemovedFencesAndKeepsReplacedOnes() throws Exception
+   {
+      GeofenceEngine engine = new GeofenceEngine(events::add)
+            .addFence(square("depot", 42.69, 23.32, 0.01));
+
+      engine.accept(tpv("bus", 0, 42.695, 23.325));
+      assertEvents("ENTER depot");
+
+      engine.addFence(square("depot", 42.69, 23.32, 0.02));
+      engine.accept(tpv("bus", 1, 42.705, 23.335));
+      assertTrue(events.isEmpty());
+
+      assertNotNull(engine.removeFence("depot"));
+      engine.accept(tpv("bus", 2, 42.705, 23.335));
+      assertEvents("EXIT depot");
+   }
+
+   @Test
+   public void findsTheSameFencesAsALinearScan() throws Exception
+   {
+      Random random = new Random(42);
+      GeofenceEngine engine = new GeofenceEngine(events::add, 500);
+      List<Geofence> fences = new ArrayList<>();
+
+      for (int i = 0; i < 2000; i++) {
+         // mostly small fences, and a few that are too large for the grid
+         double size = i % 100 == 0 ? 0.5 : 0.002 + random.nextDouble() * 0.01;
+         Geofence fence = polygon("fence-" + i, 42.5 + random.nextDouble() * 0.4, 23.1 + random.nextDouble() * 0.4,
+               size, 3 + random.nextInt(10), random);
+         fences.add(fence);
+         engine.addFence(fence);
+      }
+
+      for (int i = 0; i < 300; i++) engine.removeFence("fence-" + random.nextInt(2000));
+      fences.removeIf(fence -> engine.getFence(fence.getId()) == null);
+
+      for (int i = 0; i < 5000; i++) {
+         double latitude = 42.5 + random.nextDouble() * 0.4;
+         double longitude = 23.1 + random.nextDouble() * 0.4;
+
+         Set<Geofence> expected = new HashSet<>();
+         for (Geofence fence : fences) if (fence.contains(latitude, longitude)) expected.add(fence);
+
+         assertEquals(expected, new HashSet<>(Arrays.asList(engine.fencesContaining(latitude, longitude))));
+      }
+   }
+
+   @Test
+   public void publishesEventsToTheHandlersOfAClient() throws Exception
+   {
+      GpsdSimulator simulator = new GpsdSimulator().setRate(20).setReports("TPV").start();
+      BlockingQueue<GeofenceEvent> received = new LinkedBlockingQueue<>();
+
+      WatchMessage watch = new WatchMessage();
+      watch.setDumpJson(true);
+
+      GpsdClient client = new GpsdClient("localhost", simulator.getPort()).setWatch(watch);
+      GeofenceEngine engine = new GeofenceEngine(client::publish)
+            .addFence(square("downtown", 42.69, 23.31, 0.02));
+
+      try {
+         client.addHandler(TPVReport.class, engine)
+               .addHandler(GeofenceEvent.class, simulator.getDevices().get(0), received::add)
+               .start();
+
+         GeofenceEvent event = received.poll(5, TimeUnit.SECONDS);
+         assertNotNull(event);
+         assertEquals(ENTER, event.getTransition());
+         assertEquals("downtown", event.getFenceId());
+         assertEquals(simulator.getDevices().get(0), event.getDevice());
+      } finally {
+         client.stop();
+         simulator.stop();
+      }
+   }
+
+   private void assertEvents(String... expected)
+   {
+      List<String> actual = new ArrayList<>();
+      for (GeofenceEvent event : events) {
+         assertEquals("bus", event.getDevice());
+         actual.add(event.getTransition() + " " + event.getFenceId());
+      }
+
+      events.clear();
+      assertEquals(Arrays.asList(expected), actual);
+   }
+
+   private static Geofence square(String id, double south, double west, double size)
+   {
+      return new Geofence(id,
+            new double[] { south, south, south + size, south + size },
+            new double[] { west, west + size, west + size, west });
+   }
+
+   private static Geofence polygon(String id, double latitude, double longitude, double size, int vertices,
+                                   Random random)
+   {
+      double[] latitudes = new double[vertices];
+      double[] longitudes = new double[vertices];
+
+      // a star-shaped polygon around the point, which may be concave
+      for (int i = 0; i < vertices; i++) {
+         double angle = 2 * Math.PI * i / vertices;
+         double radius = size * (0.3 + random.nextDouble() * 0.7);
+         latitudes[i] = latitude + radius * Math.sin(angle);
+         longitudes[i] = longitude + radius * Math.cos(angle);
+      }
+
+      return new Geofence(id, latitudes, longitudes);
+   }
+
+   private static TPVReport tpv(String device, int second, double latitude, double longitude)
+   {
+      return TpvBuilder.tpv(device).mode(2).at(second).position(latitude, longitude).build();
+   }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.journal;
+
+import com.ivkos.gpsd4j.messages.enums.NMEAMode;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+import static com.ivkos.gpsd4j.support.TpvBuilder.START;
+import static com.ivkos.gpsd4j.support.TpvBuilder.START_MILLIS;
+import static org.junit.Assert.*;
+
+public class ReportJournalTest
+{
+   @Rule
+   public TemporaryFolder folder = new TemporaryFolder();
+
+   @Test
+   public void readsTimeRangesAcrossSegments() throws Exception
+   {
+      Path directory = folder.getRoot().toPath();
+
+      // small segments, so that the reports span several of them and their indexes
+      try (ReportJournal journal = new ReportJournal(directory, 16 * 1024)) {
+         for (int i = 0; i < 1000; i++) assertTrue(journal.append(tpv(i)));
+
+         assertEquals(1000, journal.getTPVCount());
+         assertTrue(directory.toFile().list().length > 5);
+
+         List<Long> seconds = new ArrayList<>();
+         long read = journal.readTPV(START.plusSeconds(250), START.plusSeconds(750),
+               tpv -> seconds.add((tpv.getTimeMillis() - START_MILLIS) / 1000));
+
+         assertEquals(500, read);
+         assertEquals(250, (long) seconds.get(0));
+         assertEquals(749, (long) seconds.get(seconds.size() - 1));
+
+         assertEquals(0, journal.readTPV(START.minusDays(1), START, tpv -> fail()));
+         assertEquals(1000, journal.readTPV(START, START.plusDays(1), tpv -> {}));
+      }
+   }
+
+   @Test
+   public void storesTheFieldsOfReports() throws Exception
+   {
+      try (ReportJournal journal = new ReportJournal(folder.getRoot().toPath())) {
+         journal.append(tpv(0));
+         journal.append((SKYReport) deserialize("{\"class\":\"SKY\",\"device\":\"/dev/ttyAMA0\"," +
+               "\"time\":\"2017-09-01T10:00:00.000Z\",\"hdop\":1.24,\"pdop\":1.99,\"satellites\":[" +
+               "{\"PRN\":8,\"el\":66,\"az\":189,\"ss\":44,\"used\":true}," +
+               "{\"PRN\":23,\"el\":6,\"az\":84,\"ss\":0,\"used\":false}]}"));
+
+         journal.readTPV(START, START.plusSeconds(1), tpv -> {
+            assertEquals(START, tpv.getTime());
+            assertEquals(NMEAMode.ThreeDimensional, tpv.getMode());
+            assertEquals(42.697708, tpv.getLatitude(), 0);
+            assertEquals(23.321868, tpv.getLongitude(), 0);
+            assertEquals(12.3, tpv.getSpeed(), 0);
+            assertTrue(Double.isNaN(tpv.getClimbRateError()));
+         });
+
+         assertEquals(1, journal.readSKY(START, START.plusSeconds(1), sky -> {
+            assertEquals(1.24, sky.getHorizontalDOP(), 0);
+            assertTrue(Double.isNaN(sky.getTimeDOP()));
+            assertEquals(2, sky.getSatelliteCount());
+            assertEquals(8, sky.getPRN(0));
+            assertTrue(sky.isUsed(0));
+            assertEquals(189, sky.getAzimuth(0), 0);
+            assertFalse(sky.isUsed(1));
+         }));
+      }
+   }
+
+   @Test
+   public void keepsReportsAfterReopening() throws Exception
+   {
+      Path directory = folder.getRoot().toPath();
+
+      try (ReportJournal journal = new ReportJournal(directory, 16 * 1024)) {
+         for (int i = 0; i < 300; i++) journal.append(tpv(i));
+      }
+
+      try (ReportJournal journal = new ReportJournal(directory, 16 * 1024)) {
+         assertEquals(300, journal.getTPVCount());
+
+         // appends continue where the journal left off, and stay in time order
+         assertFalse(journal.append(tpv(298)));
+         assertTrue(journal.append(tpv(300)));
+
+         assertEquals(301, journal.readTPV(START, START.plusDays(1), tpv -> {}));
+      }
+   }
+
+   private static TPVReport tpv(int second)
+   {
+      return TpvBuilder.tpv("/dev/ttyAMA0").mode(3).at(second).position(42.697708, 23.321868).speed(12.3).build();
+   }
+}
@@ -0,0 +1,629 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.simulator;
+
+import io.vertx.core.Context;
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.DecodeException;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.core.net.NetServer;
+import io.vertx.core.net.NetSocket;
+import io.vertx.core.parsetools.RecordParser;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import static java.util.Arrays.asList;
+
+/**
+ * A stand-in gpsd server for integration and load tests. It answers WATCH, POLL, DEVICES, VERSION and DEVICE
+ * commands, and streams synthetic reports from a configurable number of devices at a configurable rate to the clients
+ * that are watching. Each device drives in a circle, so consecutive fixes differ.
+ * <p>
+ * Faults can be injected while it is running: lines split across writes, garbage, stalls of the whole server or of
+ * single devices, and dropped connections.
+ * <p>
+ * Everything runs on a single Vert.x context, so no state is shared between threads. Methods called from other
+ * threads hand their work over to that context.
+ */
+public class GpsdSimulator
+{
+   public static final String DEVICE_PREFIX = "/dev/ttySIM";
+   public static final String RELEASE = "3.17";
+
+   private static final DateTimeFormatter TIME_FORMAT =
+         DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'").withZone(ZoneOffset.UTC);
+
+   private static final double BASE_LAT = 42.697708;
+   private static final double BASE_LON = 23.321868;
+   private static final double RADIUS = 0.001; // degrees, roughly 100 m
+
+   private int deviceCount = 1;
+   private double rate = 1; // cycles per second per device
+   private Set<String> reports = new LinkedHashSet<>(asList("TPV", "SKY"));
+   private volatile boolean splitLines = false;
+
+   private final List<Device> devices = new ArrayList<>();
+   private final Set<Session> sessions = new LinkedHashSet<>();
+
+   private Vertx vertx;
+   private Context context;
+   private NetServer server;
+   private long timerId = -1;
+   private long stalledUntil = 0;
+   private double cyclesDue = 0;
+   private long cycles = 0;
+
+   /**
+    * @param deviceCount the number of simulated devices
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdSimulator setDeviceCount(int deviceCount)
+   {
+      if (deviceCount < 1) throw new IllegalArgumentException("deviceCount must be positive");
+
+      this.deviceCount = deviceCount;
+      return this;
+   }
+
+   /**
+    * @param rate the number of report cycles per second of each device, above 1000 several cycles are sent per ms
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdSimulator setRate(double rate)
+   {
+      if (rate <= 0) throw new IllegalArgumentException("rate must be positive");
+
+      this.rate = rate;
+      return this;
+   }
+
+   /**
+    * @param reportClasses the reports sent in each cycle, any of TPV, SKY, ATT, GST and TOFF
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdSimulator setReports(String... reportClasses)
+   {
+      Set<String> known = new HashSet<>(asList("TPV", "SKY", "ATT", "GST", "TOFF"));
+
+      for (String reportClass : reportClasses) {
+         if (!known.contains(reportClass)) throw new IllegalArgumentException("Unknown report " + reportClass);
+      }
+
+      this.reports = new LinkedHashSet<>(asList(reportClasses));
+      return this;
+   }
+
+   /**
+    * @param splitLines whether to split every write in two at a random position, sent a few ms apart
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdSimulator setSplitLines(boolean splitLines)
+   {
+      this.splitLines = splitLines;
+      return this;
+   }
+
+   /**
+    * Starts listening on a random free port and waits until the server is ready.
+    *
+    * @return a reference to this, so the API can be used fluently
+    */
+   public GpsdSimulator start()
+   {
+      for (int i = 0; i < deviceCount; i++) {
+         devices.add(new Device(DEVICE_PREFIX + i, i));
+      }
+
+      this.vertx = Vertx.vertx();
+      this.context = vertx.getOrCreateContext();
+
+      CompletableFuture<Void> listening = new CompletableFuture<>();
+
+      context.runOnContext(__ -> {
+         this.server = vertx.createNetServer()
+               .connectHandler(this::handleConnection)
+               .listen(0, "localhost", res -> {
+                  if (res.failed()) {
+                     listening.completeExceptionally(res.cause());
+                     return;
+                  }
+
+                  long period = Math.max(1, (long) (1000 / rate));
+                  this.timerId = vertx.setPeriodic(period, id -> this.tick(period));
+
+                  listening.complete(null);
+               });
+      });
+
+      listening.join();
+      return this;
+   }
+
+   /**
+    * Closes all connections and stops the server.
+    */
+   public void stop()
+   {
+      CompletableFuture<Void> closed = new CompletableFuture<>();
+      vertx.close(__ -> closed.complete(null));
+      closed.join();
+   }
+
+   /**
+    * @return the port the server listens on
+    */
+   public int getPort()
+   {
+      return server.actualPort();
+   }
+
+   /**
+    * @return the paths of the simulated devices
+    */
+   public List<String> getDevices()
+   {
+      List<String> paths = new ArrayList<>();
+      for (Device device : devices) paths.add(device.path);
+      return paths;
+   }
+
+   /**
+    * @return the number of report cycles emitted so far, counting one per device
+    */
+   public long getCycles()
+   {
+      return call(() -> cycles);
+   }
+
+   /**
+    * @return the number of open client connections
+    */
+   public int getConnectionCount()
+   {
+      return call(sessions::size);
+   }
+
+   /**
+    * Sends a line that is not JSON and a truncated JSON object to every client.
+    */
+   public void injectGarbage()
+   {
+      run(() -> {
+         Buffer garbage = Buffer.buffer("this is not json\n{\"class\":\"TPV\",\"device\":\"/dev/tt\n");
+         for (Session session : sessions) session.write(garbage);
+      });
+   }
+
+   /**
+    * Stops sending anything, including responses to commands, for a while, as if the server hung.
+    *
+    * @param duration the duration of the stall, in ms
+    */
+   public void stall(long duration)
+   {
+      run(() -> this.stalledUntil = System.currentTimeMillis() + duration);
+   }
+
+   /**
+    * Stops sending reports from a device for a while, as if the receiver stopped producing fixes.
+    *
+    * @param path     the device
+    * @param duration the duration of the stall, in ms
+    */
+   public void stallDevice(String path, long duration)
+   {
+      run(() -> {
+         for (Device device : devices) {
+            if (device.path.equals(path)) device.stalledUntil = System.currentTimeMillis() + duration;
+         }
+      });
+   }
+
+   /**
+    * Drops all client connections. Clients may connect again right away.
+    */
+   public void disconnectAll()
+   {
+      run(() -> {
+         for (Session session : new ArrayList<>(sessions)) session.socket.close();
+      });
+   }
+
+   private void handleConnection(NetSocket socket)
+   {
+      Session session = new Session(socket);
+      sessions.add(session);
+
+      socket.closeHandler(__ -> sessions.remove(session));
+      socket.handler(RecordParser.newDelimited("\n", line -> handleCommand(session, line.toString().trim())));
+
+      session.write(Buffer.buffer(version().encode() + "\n"));
+   }
+
+   private void handleCommand(Session session, String line)
+   {
+      if (line.isEmpty()) return;
+
+      if (!line.startsWith("?") || !line.endsWith(";")) {
+         session.write(error("Unrecognized request '" + line + "'"));
+         return;
+      }
+
+      String command = line.substring(1, line.length() - 1);
+      String name = command;
+      JsonObject params = null;
+
+      int eq = command.indexOf('=');
+      if (eq >= 0) {
+         name = command.substring(0, eq);
+         try {
+            params = new JsonObject(command.substring(eq + 1));
+         } catch (DecodeException e) {
+            session.write(error("Invalid " + name + ": " + e.getMessage()));
+            return;
+         }
+      }
+
+      switch (name) {
+         case "VERSION":
+            session.write(lines(version()));
+            break;
+         case "WATCH":
+            if (params != null) session.applyWatch(params);
+            session.write(lines(devicesMessage(), session.watchMessage()));
+            break;
+         case "POLL":
+            session.write(lines(poll(session)));
+            break;
+         case "DEVICES":
+            session.write(lines(devicesMessage()));
+            break;
+         case "DEVICE":
+            handleDevice(session, params);
+            break;
+         default:
+            session.write(error("Unrecognized request '" + name + "'"));
+      }
+   }
+
+   private void handleDevice(Session session, JsonObject params)
+   {
+      String path = params != null ? params.getString("path") : null;
+      Device device = path == null ? devices.get(0) : null;
+
+      for (Device candidate : devices) {
+         if (candidate.path.equals(path)) device = candidate;
+      }
+
+      if (device == null) {
+         session.write(error("Can't open " + path + "."));
+         return;
+      }
+
+      if (params != null) {
+         if (params.containsKey("cycle")) device.cycle = params.getDouble("cycle");
+         if (params.containsKey("bps")) device.bps = params.getInteger("bps");
+         if (params.containsKey("native")) device.nativeMode = params.getInteger("native");
+      }
+
+      session.write(lines(device.deviceMessage()));
+   }
+
+   private void tick(long period)
+   {
+      long now = System.currentTimeMillis();
+      if (now < stalledUntil) return;
+
+      cyclesDue += rate * period / 1000.0;
+      int cyclesNow = (int) cyclesDue;
+      cyclesDue -= cyclesNow;
+
+      for (int c = 0; c < cyclesNow; c++) {
+         String time = TIME_FORMAT.format(Instant.ofEpochMilli(now));
+
+         for (Device device : devices) {
+            if (now < device.stalledUntil) continue;
+
+            device.advance(1.0 / rate);
+            cycles++;
+
+            for (Session session : sessions) {
+               if (session.isStreaming(device.path)) {
+                  session.pending.appendString(device.cycle(reports, time));
+               }
+            }
+         }
+      }
+
+      for (Session session : sessions) {
+         if (session.pending.length() > 0) {
+            session.write(session.pending);
+            session.pending = Buffer.buffer();
+         }
+      }
+   }
+
+   private JsonObject poll(Session session)
+   {
+      String time = TIME_FORMAT.format(Instant.now());
+
+      JsonArray tpv = new JsonArray();
+      JsonArray sky = new JsonArray();
+
+      if (session.enable) {
+         for (Device device : devices) {
+            tpv.add(device.tpv(time));
+            sky.add(device.sky(time));
+         }
+      }
+
+      return new JsonObject()
+            .put("class", "POLL")
+            .put("time", time)
+            .put("active", session.enable ? devices.size() : 0)
+            .put("tpv", tpv)
+            .put("gst", new JsonArray())
+            .put("sky", sky);
+   }
+
+   private JsonObject devicesMessage()
+   {
+      JsonArray list = new JsonArray();
+      for (Device device : devices) list.add(device.deviceMessage());
+
+      return new JsonObject().put("class", "DEVICES").put("devices", list);
+   }
+
+   private static JsonObject version()
+   {
+      return new JsonObject()
+            .put("class", "VERSION")
+            .put("release", RELEASE)
+            .put("rev", "simulator")
+            .put("proto_major", 3)
+            .put("proto_minor", 12);
+   }
+
+   private static Buffer error(String message)
+   {
+      return lines(new JsonObject().put("class", "ERROR").put("message", message));
+   }
+
+   private static Buffer lines(JsonObject... messages)
+   {
+      Buffer buffer = Buffer.buffer();
+      for (JsonObject message : messages) buffer.appendString(message.encode()).appendString("\n");
+      return buffer;
+   }
+
+   private void run(Runnable action)
+   {
+      call(() -> {
+         action.run();
+         return null;
+      });
+   }
+
+   private <T> T call(Supplier<T> action)
+   {
+      CompletableFuture<T> result = new CompletableFuture<>();
+      context.runOnContext(__ -> result.complete(action.get()));
+
+      try {
+         return result.get(5, TimeUnit.SECONDS);
+      } catch (Exception e) {
+         throw new IllegalStateException("Simulator did not respond", e);
+      }
+   }
+
+   private final class Session
+   {
+      private final NetSocket socket;
+      private Buffer pending = Buffer.buffer();
+      private Buffer splitRemainder;
+
+      private boolean enable = false;
+      private boolean json = false;
+      private String device = null;
+
+      Session(NetSocket socket)
+      {
+         this.socket = socket;
+      }
+
+      void applyWatch(JsonObject params)
+      {
+         enable = params.getBoolean("enable", true);
+
+         // like gpsd, enabling watch mode without choosing a format means JSON
+         json = params.getBoolean("json", enable && !params.getBoolean("nmea", false) || json);
+
+         if (params.containsKey("device")) {
+            String path = params.getString("device");
+            device = path == null || path.isEmpty() ? null : path;
+         }
+      }
+
+      boolean isStreaming(String path)
+      {
+         return enable && json && (device == null || device.equals(path));
+      }
+
+      JsonObject watchMessage()
+      {
+         JsonObject watch = new JsonObject()
+               .put("class", "WATCH")
+               .put("enable", enable)
+               .put("json", json)
+               .put("nmea", false)
+               .put("raw", 0)
+               .put("scaled", false)
+               .put("timing", false)
+               .put("split24", false)
+               .put("pps", false);
+
+         if (device != null) watch.put("device", device);
+
+         return watch;
+      }
+
+      void write(Buffer data)
+      {
+         if (System.currentTimeMillis() < stalledUntil) return;
+
+         // the second half of a split write is still pending, keep the order
+         if (splitRemainder != null) {
+            splitRemainder.appendBuffer(data);
+            return;
+         }
+
+         if (!splitLines || data.length() < 2) {
+            socket.write(data);
+            return;
+         }
+
+         int cut = 1 + ThreadLocalRandom.current().nextInt(data.length() - 1);
+         socket.write(data.getBuffer(0, cut));
+
+         splitRemainder = data.getBuffer(cut, data.length());
+         vertx.setTimer(5, __ -> {
+            Buffer remainder = splitRemainder;
+            splitRemainder = null;
+            if (sessions.contains(this)) socket.write(remainder);
+         });
+      }
+   }
+
+   private static final class Device
+   {
+      private final String path;
+      private final double phase;
+      private final String activated = TIME_FORMAT.format(Instant.now());
+
+      private double angle = 0;
+      private double cycle = 1;
+      private int bps = 9600;
+      private int nativeMode = 0;
+      private long stalledUntil = 0;
+
+      private double lat;
+      private double lon;
+      private double track;
+
+      Device(String path, int index)
+      {
+         this.path = path;
+         this.phase = index * 0.7;
+         this.advance(0);
+      }
+
+      /**
+       * Moves the device along its circle, one lap per minute.
+       */
+      void advance(double seconds)
+      {
+         angle += 2 * Math.PI * seconds / 60;
+
+         double a = angle + phase;
+         lat = BASE_LAT + RADIUS * Math.sin(a) + phase * 0.01;
+         lon = BASE_LON + RADIUS * Math.cos(a);
+         track = (Math.toDegrees(-a) % 360 + 360) % 360;
+      }
+
+      String cycle(Set<String> reports, String time)
+      {
+         StringBuilder sb = new StringBuilder(512);
+
+         for (String report : reports) {
+            switch (report) {
+               case "TPV":
+                  sb.append(tpv(time).encode());
+                  break;
+               case "SKY":
+                  sb.append(sky(time).encode());
+                  break;
+               case "ATT":
+                  sb.append(new JsonObject().put("class", "ATT").put("device", path).put("time", time)
+                        .put("heading", track).put("pitch", 1.5).put("roll", -0.5).put("yaw", track).encode());
+                  break;
+               case "GST":
+                  sb.append(new JsonObject().put("class", "GST").put("device", path).put("time", time)
+                        .put("rms", 2.1).put("major", 3.4).put("minor", 2.2).put("orient", 45.0)
+                        .put("lat", 2.5).put("lon", 2.8).put("alt", 4.9).encode());
+                  break;
+               case "TOFF":
+                  long nanos = System.nanoTime();
+                  long millis = System.currentTimeMillis();
+                  sb.append(new JsonObject().put("class", "TOFF").put("device", path)
+                        .put("real_sec", millis / 1000).put("real_nsec", (millis % 1000) * 1000000)
+                        .put("clock_sec", millis / 1000).put("clock_nsec", nanos % 1000000000).encode());
+                  break;
+            }
+            sb.append('\n');
+         }
+
+         return sb.toString();
+      }
+
+      JsonObject tpv(String time)
+      {
+         return new JsonObject()
+               .put("class", "TPV").put("device", path).put("mode", 3).put("time", time).put("ept", 0.005)
+               .put("lat", lat).put("lon", lon).put("alt", 550.2)
+               .put("epx", 3.1).put("epy", 3.4).put("epv", 7.9)
+               .put("track", track).put("speed", 2 * Math.PI * 111000 * RADIUS / 60).put("climb", 0.0)
+               .put("eps", 0.6);
+      }
+
+      JsonObject sky(String time)
+      {
+         JsonArray satellites = new JsonArray();
+         for (int prn = 1; prn <= 8; prn++) {
+            satellites.add(new JsonObject()
+                  .put("PRN", prn).put("el", 10.0 * prn).put("az", 45.0 * prn)
+                  .put("ss", 20.0 + prn).put("used", prn <= 6));
+         }
+
+         return new JsonObject()
+               .put("class", "SKY").put("device", path).put("time", time)
+               .put("xdop", 0.8).put("ydop", 0.9).put("vdop", 1.4).put("tdop", 1.1)
+               .put("hdop", 1.2).put("gdop", 2.1).put("pdop", 1.8)
+               .put("satellites", satellites);
+      }
+
+      JsonObject deviceMessage()
+      {
+         return new JsonObject()
+               .put("class", "DEVICE").put("path", path).put("activated", activated)
+               .put("driver", "Simulator").put("bps", bps).put("parity", "N").put("stopbits", 1)
+               .put("native", nativeMode).put("cycle", cycle).put("mincycle", 0.1);
+      }
+   }
+}
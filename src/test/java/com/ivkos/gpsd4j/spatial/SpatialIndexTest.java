@@ -0,0 +1,149 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.spatial;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class SpatialIndexTest
+{
+   private final Random random = new Random(42);
+
+   @Test
+   public void findsTheSameDevicesAsALinearScan() throws Exception
+   {
+      SpatialIndex index = new SpatialIndex(500);
+      List<TPVReport> reports = new ArrayList<>();
+
+      // a city, and a cluster across the antimeridian
+      for (int i = 0; i < 2000; i++) {
+         TPVReport tpv = i % 2 == 0
+                         ? tpv("city-" + i, 42.69 + random.nextDouble() * 0.05, 23.30 + random.nextDouble() * 0.05)
+                         : tpv("pacific-" + i, -16.5 + random.nextDouble() * 0.05, wrap(179.98 + random.nextDouble() * 0.04));
+         reports.add(tpv);
+         index.accept(tpv);
+      }
+
+      for (int query = 0; query < 50; query++) {
+         double latitude = query % 2 == 0 ? 42.69 + random.nextDouble() * 0.05 : -16.5 + random.nextDouble() * 0.05;
+         double longitude = query % 2 == 0 ? 23.30 + random.nextDouble() * 0.05 : wrap(179.98 + random.nextDouble() * 0.04);
+         double radius = 50 + random.nextDouble() * 2000;
+
+         List<TPVReport> expected = reports.stream()
+               .filter(tpv -> distance(tpv, latitude, longitude) <= radius)
+               .sorted(Comparator.comparingDouble(tpv -> distance(tpv, latitude, longitude)))
+               .collect(Collectors.toList());
+         assertEquals(expected, index.withinRadius(latitude, longitude, radius));
+
+         int k = 1 + random.nextInt(20);
+         assertEquals(expected(reports, latitude, longitude, k), index.nearest(latitude, longitude, k));
+      }
+   }
+
+   @Test
+   public void findsTheNearestDevicesFarAway() throws Exception
+   {
+      SpatialIndex index = new SpatialIndex(100);
+      index.accept(tpv("sofia", 42.697708, 23.321868));
+      index.accept(tpv("tokyo", 35.6895, 139.6917));
+      index.accept(tpv("lima", -12.0464, -77.0428));
+
+      assertEquals(asDevices("tokyo", "sofia"), devices(index.nearest(60, 150, 2)));
+      assertEquals(asDevices("lima", "sofia", "tokyo"), devices(index.nearest(-10, -70, 5)));
+   }
+
+   @Test
+   public void findsDevicesWithinBoxes() throws Exception
+   {
+      SpatialIndex index = new SpatialIndex();
+      index.accept(tpv("fiji", -17.7, 178.1));
+      index.accept(tpv("samoa", -13.8, -171.8));
+      index.accept(tpv("sofia", 42.697708, 23.321868));
+
+      assertEquals(asDevices("fiji", "samoa"), sortedDevices(index.withinBox(-20, 170, -10, -170)));
+      assertEquals(asDevices("sofia"), devices(index.withinBox(40, 20, 45, 25)));
+      assertEquals(3, index.withinBox(-90, -180, 90, 180).size());
+   }
+
+   @Test
+   public void movesDevicesBetweenCells() throws Exception
+   {
+      SpatialIndex index = new SpatialIndex();
+      index.accept(tpv("bus", 42.697708, 23.321868));
+      index.accept(tpv("bus", 42.797708, 23.321868));
+
+      assertEquals(1, index.size());
+      assertTrue(index.withinRadius(42.697708, 23.321868, 1000).isEmpty());
+      assertEquals(1, index.withinRadius(42.797708, 23.321868, 1000).size());
+
+      assertNotNull(index.remove("bus"));
+      assertTrue(index.withinRadius(42.797708, 23.321868, 1000).isEmpty());
+      assertNull(index.get("bus"));
+   }
+
+   private static List<TPVReport> expected(List<TPVReport> reports, double latitude, double longitude, int k)
+   {
+      return reports.stream()
+            .sorted(Comparator.comparingDouble(tpv -> distance(tpv, latitude, longitude)))
+            .limit(k)
+            .collect(Collectors.toList());
+   }
+
+   private static double distance(TPVReport tpv, double latitude, double longitude)
+   {
+      double lat1 = Math.toRadians(latitude), lat2 = Math.toRadians(tpv.getLatitude());
+      double sinLat = Math.sin((lat2 - lat1) / 2);
+      double sinLon = Math.sin(Math.toRadians(tpv.getLongitude() - longitude) / 2);
+
+      return 2 * 6_371_008.8 * Math.asin(Math.sqrt(sinLat * sinLat + Math.cos(lat1) * Math.cos(lat2) * sinLon * sinLon));
+   }
+
+   private static double wrap(double longitude)
+   {
+      return longitude > 180 ? longitude - 360 : longitude;
+   }
+
+   private static List<String> asDevices(String... devices)
+   {
+      return Arrays.asList(devices);
+   }
+
+   private static List<String> devices(List<TPVReport> reports)
+   {
+      return reports.stream().map(TPVReport::getDevice).collect(Collectors.toList());
+   }
+
+   private static List<String> sortedDevices(List<TPVReport> reports)
+   {
+      return reports.stream().map(TPVReport::getDevice).sorted().collect(Collectors.toList());
+   }
+
+   private static TPVReport tpv(String device, double latitude, double longitude)
+   {
+      return TpvBuilder.tpv(device).mode(2).position(latitude, longitude).build();
+   }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.support;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+
+import static com.ivkos.gpsd4j.support.SerializationHelper.deserialize;
+
+/**
+ * Builds TPV reports for tests. The reports are serialized the way gpsd sends them and parsed back, so they go through
+ * the same deserialization as reports received from a server. Times are given relative to {@link #START}, and only the
+ * fields that are set appear in the report.
+ */
+public final class TpvBuilder
+{
+   public static final LocalDateTime START = LocalDateTime.of(2017, 9, 1, 10, 0);
+   public static final long START_MILLIS = START.toInstant(ZoneOffset.UTC).toEpochMilli();
+
+   private static final DateTimeFormatter ISO = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
+
+   private final StringBuilder json = new StringBuilder(256);
+
+   private TpvBuilder(String device)
+   {
+      json.append("{\"class\":\"TPV\",\"device\":\"").append(device).append('"');
+   }
+
+   /**
+    * @param device the device that reports the fix
+    *
+    * @return a builder for a TPV report from the device
+    */
+   public static TpvBuilder tpv(String device)
+   {
+      return new TpvBuilder(device);
+   }
+
+   public TpvBuilder mode(int mode)
+   {
+      return field("mode", mode);
+   }
+
+   /**
+    * @param second seconds since {@link #START}
+    */
+   public TpvBuilder at(int second)
+   {
+      return atMillis(second * 1000L);
+   }
+
+   /**
+    * @param millis milliseconds since {@link #START}
+    */
+   public TpvBuilder atMillis(long millis)
+   {
+      json.append(",\"time\":\"").append(ISO.format(START.plusNanos(millis * 1_000_000L))).append('"');
+      return this;
+   }
+
+   public TpvBuilder position(double latitude, double longitude)
+   {
+      return field("lat", latitude).field("lon", longitude);
+   }
+
+   public TpvBuilder altitude(double altitude)
+   {
+      return field("alt", altitude);
+   }
+
+   public TpvBuilder speed(double speed)
+   {
+      return field("speed", speed);
+   }
+
+   public TpvBuilder course(double course)
+   {
+      return field("track", course);
+   }
+
+   public TpvBuilder climbRate(double climbRate)
+   {
+      return field("climb", climbRate);
+   }
+
+   /**
+    * @param error the expected horizontal error in both longitude and latitude, in meters
+    */
+   public TpvBuilder error(double error)
+   {
+      return field("epx", error).field("epy", error);
+   }
+
+   public TpvBuilder speedError(double speedError)
+   {
+      return field("eps", speedError);
+   }
+
+   public TpvBuilder courseError(double courseError)
+   {
+      return field("epd", courseError);
+   }
+
+   public TPVReport build()
+   {
+      return deserialize(json.toString() + '}');
+   }
+
+   private TpvBuilder field(String name, Number value)
+   {
+      json.append(",\"").append(name).append("\":").append(value);
+      return this;
+   }
+}
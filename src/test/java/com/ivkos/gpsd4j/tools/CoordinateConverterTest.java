@@ -0,0 +1,131 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.tools;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CoordinateConverterTest
+{
+   private static final double MILLIMETER = 1e-3;
+
+   private final double[] result = new double[3];
+
+   @Test
+   public void toEcef() throws Exception
+   {
+      CoordinateConverter.toEcef(0, 0, 0, result);
+      assertArrayEquals(new double[] { Geodesy.WGS84_SEMI_MAJOR_AXIS, 0, 0 }, result, MILLIMETER);
+
+      CoordinateConverter.toEcef(0, 90, 100, result);
+      assertArrayEquals(new double[] { 0, Geodesy.WGS84_SEMI_MAJOR_AXIS + 100, 0 }, result, MILLIMETER);
+
+      CoordinateConverter.toEcef(90, 0, 0, result);
+      assertArrayEquals(new double[] { 0, 0, Geodesy.WGS84_SEMI_MINOR_AXIS }, result, MILLIMETER);
+   }
+
+   @Test
+   public void fromEcefIsTheInverseOfToEcef() throws Exception
+   {
+      Random random = new Random(42);
+
+      for (int i = 0; i < 10_000; i++) {
+         double latitude = random.nextDouble() * 180 - 90;
+         double longitude = random.nextDouble() * 360 - 180;
+         double altitude = random.nextDouble() * 20_000 - 1000;
+
+         CoordinateConverter.toEcef(latitude, longitude, altitude, result);
+         CoordinateConverter.fromEcef(result[0], result[1], result[2], result);
+
+         assertEquals(latitude, result[0], 1e-9);
+         assertEquals(longitude, result[1], 1e-9);
+         assertEquals(altitude, result[2], MILLIMETER);
+      }
+
+      CoordinateConverter.toEcef(-90, 0, 10, result);
+      CoordinateConverter.fromEcef(result[0], result[1], result[2], result);
+      assertArrayEquals(new double[] { -90, 0, 10 }, result, 1e-9);
+   }
+
+   @Test
+   public void toEnu() throws Exception
+   {
+      CoordinateConverter.toEnu(42.697708, 23.321868, 650, 42.697708, 23.321868, 550, result);
+      assertArrayEquals(new double[] { 0, 0, 100 }, result, MILLIMETER);
+
+      // 1 km north along the meridian, which curves 7.8 cm below the tangent plane
+      double[] north = new double[2];
+      Geodesy.vincentyDestination(42.697708, 23.321868, 0, 1000, north);
+      CoordinateConverter.toEnu(north[0], north[1], 0, 42.697708, 23.321868, 0, result);
+      assertArrayEquals(new double[] { 0, 1000, -0.078 }, result, 1e-3);
+
+      double[] east = new double[1], northing = new double[1], up = new double[1];
+      CoordinateConverter.toEnu(new double[] { north[0] }, new double[] { north[1] }, new double[1],
+            42.697708, 23.321868, 0, east, northing, up);
+      assertArrayEquals(new double[] { result[0], result[1], result[2] },
+            new double[] { east[0], northing[0], up[0] }, 1e-9);
+   }
+
+   @Test
+   public void toUtm() throws Exception
+   {
+      assertEquals(31, CoordinateConverter.toUtm(0, 0, result));
+      assertEquals(166_021.4431, result[0], MILLIMETER);
+      assertEquals(0, result[1], MILLIMETER);
+
+      // on the central meridian, the northing is the scaled length of the meridian arc from the equator
+      assertEquals(31, CoordinateConverter.toUtm(45, 3, result));
+      assertEquals(CoordinateConverter.UTM_FALSE_EASTING, result[0], MILLIMETER);
+      assertEquals(CoordinateConverter.UTM_SCALE_FACTOR * 4_984_944.378, result[1], MILLIMETER);
+
+      double[] south = new double[2];
+      CoordinateConverter.toUtm(-45, 3, south);
+      assertEquals(CoordinateConverter.UTM_FALSE_NORTHING_SOUTH - result[1], south[1], MILLIMETER);
+   }
+
+   @Test
+   public void utmZones() throws Exception
+   {
+      assertEquals(30, CoordinateConverter.utmZone(51.5, -0.1));
+      assertEquals(34, CoordinateConverter.utmZone(42.697708, 23.321868));
+      assertEquals(32, CoordinateConverter.utmZone(60.4, 5.3));
+      assertEquals(33, CoordinateConverter.utmZone(78.2, 15.6));
+      assertEquals(60, CoordinateConverter.utmZone(0, 180));
+   }
+
+   @Test
+   public void utmBatchUsesTheGivenZone() throws Exception
+   {
+      double[] eastings = new double[3], northings = new double[3];
+      CoordinateConverter.toUtm(new double[] { 0, 0, 0 }, new double[] { 3, 9, -3 }, 31, eastings, northings);
+
+      // 9 E and 3 W are in other zones, but forced into zone 31 they mirror around its central meridian
+      assertEquals(CoordinateConverter.UTM_FALSE_EASTING, eastings[0], MILLIMETER);
+      assertEquals(2 * CoordinateConverter.UTM_FALSE_EASTING, eastings[1] + eastings[2], MILLIMETER);
+      assertArrayEquals(new double[3], northings, MILLIMETER);
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void utmBatchRejectsInvalidZones() throws Exception
+   {
+      CoordinateConverter.toUtm(new double[1], new double[1], 61, new double[1], new double[1]);
+   }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.tools;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GeodesyTest
+{
+   // Flinders Peak to Buninyong, the example of Vincenty's paper
+   private static final double FLINDERS_LATITUDE = -dms(37, 57, 3.72030);
+   private static final double FLINDERS_LONGITUDE = dms(144, 25, 29.52440);
+   private static final double BUNINYONG_LATITUDE = -dms(37, 39, 10.15610);
+   private static final double BUNINYONG_LONGITUDE = dms(143, 55, 35.38390);
+   private static final double FLINDERS_TO_BUNINYONG = 54_972.271;
+   private static final double FLINDERS_TO_BUNINYONG_BEARING = dms(306, 52, 5.37);
+
+   @Test
+   public void haversineDistance() throws Exception
+   {
+      // Nashville to Los Angeles, 2887.2599506 km on a sphere of 6372.8 km
+      double expected = 2_887_259.9506071106 * Geodesy.MEAN_EARTH_RADIUS / 6_372_800;
+      assertEquals(expected, Geodesy.haversineDistance(36.12, -86.67, 33.94, -118.40), 1e-6);
+
+      double haversine = Geodesy.haversineDistance(FLINDERS_LATITUDE, FLINDERS_LONGITUDE,
+            BUNINYONG_LATITUDE, BUNINYONG_LONGITUDE);
+      assertEquals(FLINDERS_TO_BUNINYONG, haversine, FLINDERS_TO_BUNINYONG * 0.005);
+   }
+
+   @Test
+   public void vincentyDistance() throws Exception
+   {
+      assertEquals(FLINDERS_TO_BUNINYONG, Geodesy.vincentyDistance(FLINDERS_LATITUDE, FLINDERS_LONGITUDE,
+            BUNINYONG_LATITUDE, BUNINYONG_LONGITUDE), 1e-3);
+
+      // a quarter of the equator
+      assertEquals(Math.PI / 2 * Geodesy.WGS84_SEMI_MAJOR_AXIS, Geodesy.vincentyDistance(0, 0, 0, 90), 1e-3);
+      assertEquals(0, Geodesy.vincentyDistance(10, 20, 10, 20), 0);
+      assertEquals(Double.NaN, Geodesy.vincentyDistance(0, 0, 0.5, 179.7), 0);
+   }
+
+   @Test
+   public void vincentyDestination() throws Exception
+   {
+      double[] result = new double[2];
+      Geodesy.vincentyDestination(FLINDERS_LATITUDE, FLINDERS_LONGITUDE, FLINDERS_TO_BUNINYONG_BEARING,
+            FLINDERS_TO_BUNINYONG, result);
+
+      // the example is on GRS80; a ten-thousandth of an arc second is about 3 mm
+      assertEquals(BUNINYONG_LATITUDE, result[0], 1e-4 / 3600);
+      assertEquals(BUNINYONG_LONGITUDE, result[1], 1e-4 / 3600);
+   }
+
+   @Test
+   public void metersPerDegree() throws Exception
+   {
+      // the lengths of a degree on WGS84 at the equator and at 45 degrees, from the radii of curvature there
+      assertEquals(110_574.3, Geodesy.metersPerDegreeNorth(0), 0.1);
+      assertEquals(111_319.5, Geodesy.metersPerDegreeEast(0), 0.1);
+      assertEquals(111_131.8, Geodesy.metersPerDegreeNorth(45), 0.1);
+      assertEquals(78_846.8, Geodesy.metersPerDegreeEast(45), 0.1);
+      assertEquals(0, Geodesy.metersPerDegreeEast(90), 1e-9);
+
+      // over short distances they agree with the geodesic
+      assertEquals(Geodesy.vincentyDistance(42.6, 23.3, 42.601, 23.3), Geodesy.metersPerDegreeNorth(42.6) * 0.001,
+            1e-3);
+      assertEquals(Geodesy.vincentyDistance(42.6, 23.3, 42.6, 23.301), Geodesy.metersPerDegreeEast(42.6) * 0.001,
+            1e-3);
+   }
+
+   @Test
+   public void initialBearing() throws Exception
+   {
+      // Baghdad to Osaka, about 60 degrees
+      assertEquals(60.16, Geodesy.initialBearing(35, 45, 35, 135), 0.01);
+      assertEquals(0, Geodesy.initialBearing(0, 0, 1, 0), 1e-9);
+      assertEquals(270, Geodesy.initialBearing(0, 0, 0, -1), 1e-9);
+   }
+
+   @Test
+   public void destinationIsTheInverseOfDistanceAndBearing() throws Exception
+   {
+      double[] result = new double[2];
+
+      Geodesy.destination(0, 0, 90, Math.PI / 2 * Geodesy.MEAN_EARTH_RADIUS, result);
+      assertArrayEquals(new double[] { 0, 90 }, result, 1e-9);
+
+      Geodesy.destination(42.697708, 23.321868,
+            Geodesy.initialBearing(42.697708, 23.321868, 35.6895, 139.6917),
+            Geodesy.haversineDistance(42.697708, 23.321868, 35.6895, 139.6917), result);
+      assertArrayEquals(new double[] { 35.6895, 139.6917 }, result, 1e-9);
+   }
+
+   @Test
+   public void batchesMatchTheScalarMethods() throws Exception
+   {
+      Random random = new Random(42);
+      int n = 1000;
+
+      double[] lat1 = new double[n], lon1 = new double[n], lat2 = new double[n], lon2 = new double[n];
+      for (int i = 0; i < n; i++) {
+         lat1[i] = random.nextDouble() * 160 - 80;
+         lon1[i] = random.nextDouble() * 360 - 180;
+         lat2[i] = lat1[i] + random.nextDouble() - 0.5;
+         lon2[i] = lon1[i] + random.nextDouble() - 0.5;
+      }
+
+      double[] haversine = new double[n], vincenty = new double[n], bearings = new double[n];
+      Geodesy.haversineDistances(lat1, lon1, lat2, lon2, haversine);
+      Geodesy.vincentyDistances(lat1, lon1, lat2, lon2, vincenty);
+      Geodesy.initialBearings(lat1, lon1, lat2, lon2, bearings);
+
+      double[] destinationLat = new double[n], destinationLon = new double[n];
+      Geodesy.vincentyDestinations(lat1, lon1, bearings, vincenty, destinationLat, destinationLon);
+
+      for (int i = 0; i < n; i++) {
+         assertEquals(Geodesy.haversineDistance(lat1[i], lon1[i], lat2[i], lon2[i]), haversine[i], 0);
+         assertEquals(Geodesy.vincentyDistance(lat1[i], lon1[i], lat2[i], lon2[i]), vincenty[i], 0);
+         assertEquals(vincenty[i], Geodesy.vincentyDistance(lat1[i], lon1[i], destinationLat[i], destinationLon[i]),
+               1e-3);
+      }
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void batchesRejectArraysOfDifferentLengths() throws Exception
+   {
+      Geodesy.haversineDistances(new double[2], new double[2], new double[2], new double[1], new double[2]);
+   }
+
+   private static double dms(int degrees, int minutes, double seconds)
+   {
+      return degrees + minutes / 60.0 + seconds / 3600;
+   }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.track;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.SKYReport;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import com.ivkos.gpsd4j.tools.Geodesy;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static com.ivkos.gpsd4j.support.TpvBuilder.START;
+import static org.junit.Assert.*;
+
+public class TrackSimplificationStageTest
+{
+   // roughly, at 42.6 degrees
+   private static final double METERS_PER_DEGREE_NORTH = 111_100;
+   private static final double METERS_PER_DEGREE_EAST = 81_900;
+
+   private final List<GpsdMessage> passed = new ArrayList<>();
+
+   @Test
+   public void keepsOneFixPerWindowOfAStraightLine() throws Exception
+   {
+      TrackSimplificationStage stage = new TrackSimplificationStage().setMaxWindow(10);
+
+      for (int t = 0; t < 100; t++) {
+         stage.process(tpv(t, 0, t * 10), passed::add);
+      }
+
+      assertEquals(10, passed.size());
+      for (int i = 0; i < passed.size(); i++) {
+         assertEquals(START.plusSeconds(i * 10), ((TPVReport) passed.get(i)).getTime());
+      }
+   }
+
+   @Test
+   public void keepsTheCornersAndStops() throws Exception
+   {
+      TrackSimplificationStage stage = new TrackSimplificationStage().setTolerance(5);
+
+      // east for 30 s, a 10 s stop, north, and a turn
+      for (int t = 0; t < 30; t++) stage.process(tpv(t, t * 10, 0), passed::add);
+      for (int t = 30; t < 40; t++) stage.process(tpv(t, 290, 0), passed::add);
+      for (int t = 40; t < 70; t++) stage.process(tpv(t, 290, (t - 39) * 10), passed::add);
+      stage.process(tpv(70, 300, 300), passed::add);
+
+      assertEquals(4, passed.size());
+      assertEquals(START, ((TPVReport) passed.get(0)).getTime());
+      assertEquals(START.plusSeconds(29), ((TPVReport) passed.get(1)).getTime());
+      assertEquals(START.plusSeconds(39), ((TPVReport) passed.get(2)).getTime());
+      assertEquals(START.plusSeconds(69), ((TPVReport) passed.get(3)).getTime());
+   }
+
+   @Test
+   public void flushPassesOnTheLatestFixHeldBack() throws Exception
+   {
+      TrackSimplificationStage stage = new TrackSimplificationStage();
+
+      for (int t = 0; t < 10; t++) stage.process(tpv(t, 0, t * 10), passed::add);
+      assertEquals(1, passed.size());
+
+      // the fix goes where the fixes of the device went
+      assertTrue(stage.flush("car"));
+      assertEquals(2, passed.size());
+      assertEquals(START.plusSeconds(9), ((TPVReport) passed.get(1)).getTime());
+
+      // nothing is held back any more, and the window starts over from the flushed fix
+      assertFalse(stage.flush("car"));
+      assertEquals(0, stage.flushAll());
+      assertFalse(stage.flush("bus"));
+
+      stage.process(tpv(9, 0, 90), passed::add);
+      for (int t = 10; t < 20; t++) stage.process(tpv(t, 0, t * 10), passed::add);
+      assertEquals(2, passed.size());
+
+      assertEquals(1, stage.flushAll());
+      assertEquals(START.plusSeconds(19), ((TPVReport) passed.get(2)).getTime());
+   }
+
+   @Test
+   public void reconstructsNoisyTrackWithinTolerance() throws Exception
+   {
+      double tolerance = 8;
+      TrackSimplificationStage stage = new TrackSimplificationStage().setTolerance(tolerance);
+      Random random = new Random(42);
+
+      List<TPVReport> fixes = new ArrayList<>();
+      double east = 0, north = 0, course = 0, speed = 10;
+      for (int t = 0; t < 2000; t++) {
+         course += random.nextGaussian() * 0.05;
+         speed = Math.max(0, Math.min(30, speed + random.nextGaussian()));
+         east += speed * Math.sin(course);
+         north += speed * Math.cos(course);
+
+         TPVReport fix = tpv(t, east + random.nextGaussian() * 2, north + random.nextGaussian() * 2);
+         fixes.add(fix);
+         stage.process(fix, passed::add);
+      }
+
+      assertTrue(passed.size() < fixes.size() / 3);
+
+      // every fix dropped between two that were passed on is within the tolerance of the line between them
+      int j = 0;
+      for (int i = 1; i < passed.size(); i++) {
+         TPVReport from = (TPVReport) passed.get(i - 1);
+         TPVReport to = (TPVReport) passed.get(i);
+         double span = Duration.between(from.getTime(), to.getTime()).toMillis();
+
+         while (fixes.get(j) != to) {
+            TPVReport fix = fixes.get(j++);
+            double f = Duration.between(from.getTime(), fix.getTime()).toMillis() / span;
+
+            double latitude = from.getLatitude() + (to.getLatitude() - from.getLatitude()) * f;
+            double longitude = from.getLongitude() + (to.getLongitude() - from.getLongitude()) * f;
+
+            assertTrue(Geodesy.vincentyDistance(latitude, longitude, fix.getLatitude(), fix.getLongitude()) <
+                  tolerance + 0.01);
+         }
+      }
+   }
+
+   @Test
+   public void passesOtherMessagesOn() throws Exception
+   {
+      TrackSimplificationStage stage = new TrackSimplificationStage();
+
+      SKYReport sky = new SKYReport();
+      stage.process(sky, passed::add);
+
+      TPVReport noFix = TpvBuilder.tpv("car").mode(1).build();
+      stage.process(noFix, passed::add);
+
+      assertEquals(2, passed.size());
+      assertSame(sky, passed.get(0));
+      assertSame(noFix, passed.get(1));
+      assertFalse(stage.removeDevice("car"));
+
+      // a repeated fix is dropped
+      stage.process(tpv(0, 0, 0), passed::add);
+      stage.process(tpv(0, 0, 0), passed::add);
+      assertEquals(3, passed.size());
+
+      assertTrue(stage.removeDevice("car"));
+      stage.process(tpv(0, 0, 0), passed::add);
+      assertEquals(4, passed.size());
+   }
+
+   private static TPVReport tpv(int second, double east, double north)
+   {
+      return TpvBuilder.tpv("car").mode(2).at(second)
+            .position(42.6 + north / METERS_PER_DEGREE_NORTH, 23.3 + east / METERS_PER_DEGREE_EAST)
+            .build();
+   }
+}
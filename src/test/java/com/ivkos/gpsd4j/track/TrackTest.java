@@ -0,0 +1,225 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.track;
+
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import com.ivkos.gpsd4j.tools.Geodesy;
+import org.junit.Test;
+
+
+import static com.ivkos.gpsd4j.support.TpvBuilder.START;
+import static com.ivkos.gpsd4j.support.TpvBuilder.START_MILLIS;
+import static org.junit.Assert.*;
+
+public class TrackTest
+{
+   private final TrackCursor cursor = new TrackCursor();
+
+   @Test
+   public void keepsTheLatestFixesInTimeOrder() throws Exception
+   {
+      Track track = new Track(100);
+      for (int i = 0; i < 250; i++) assertTrue(track.add(tpv(i)));
+
+      assertEquals(100, track.size());
+
+      track.selectAll(cursor);
+      for (int i = 150; i < 250; i++) {
+         assertTrue(cursor.next());
+         assertEquals(START_MILLIS + i * 1000L, cursor.getTimeMillis());
+         assertEquals(42 + i * 0.0001, cursor.getLatitude(), 1e-9);
+      }
+
+      assertFalse(cursor.next());
+   }
+
+   @Test
+   public void selectsTimeWindows() throws Exception
+   {
+      Track track = new Track(100);
+      for (int i = 0; i < 250; i++) track.add(tpv(i));
+
+      assertEquals(30, count(track.select(START.plusSeconds(200), START.plusSeconds(230), cursor)));
+      track.select(START.plusSeconds(200), START.plusSeconds(230), cursor).next();
+      assertEquals(START.plusSeconds(200), cursor.getTime());
+
+      // partly before the oldest fix kept
+      assertEquals(10, count(track.select(START, START.plusSeconds(160), cursor)));
+
+      assertEquals(0, count(track.select(START.plusSeconds(250), START.plusSeconds(300), cursor)));
+      assertEquals(0, count(new TrackCursor()));
+   }
+
+   @Test
+   public void skipsFixesThatAreReplacedWhileIterating() throws Exception
+   {
+      Track track = new Track(10);
+      for (int i = 0; i < 10; i++) track.add(tpv(i));
+
+      track.selectAll(cursor);
+      assertTrue(cursor.next());
+      assertEquals(START_MILLIS, cursor.getTimeMillis());
+
+      for (int i = 10; i < 15; i++) track.add(tpv(i));
+
+      assertTrue(cursor.next());
+      assertEquals(START_MILLIS + 5000, cursor.getTimeMillis());
+      assertEquals(9, count(cursor));
+   }
+
+   @Test
+   public void rejectsFixesOutOfOrderOrWithoutPosition() throws Exception
+   {
+      Track track = new Track(10);
+
+      assertTrue(track.add(tpv(5)));
+      assertFalse(track.add(tpv(4)));
+      assertFalse(track.add(TpvBuilder.tpv("/dev/ttyAMA0").mode(1).at(10).build()));
+
+      assertEquals(1, track.size());
+
+      track.selectAll(cursor).next();
+      assertTrue(Double.isNaN(cursor.getClimbRate()));
+   }
+
+   @Test
+   public void rejectsAFixAtTheSameTimeAsTheLatestOne() throws Exception
+   {
+      Track track = new Track(10);
+
+      assertTrue(track.add(tpv(5)));
+      assertFalse(track.add(tpv(5)));
+      assertTrue(track.add(tpv(6)));
+
+      assertEquals(2, track.size());
+
+      track.selectAll(cursor);
+      assertTrue(cursor.next());
+      assertEquals(START_MILLIS + 5000, cursor.getTimeMillis());
+      assertTrue(cursor.next());
+      assertEquals(START_MILLIS + 6000, cursor.getTimeMillis());
+   }
+
+   @Test
+   public void interpolatesBetweenFixes() throws Exception
+   {
+      Track track = new Track(10);
+      TrackPosition position = new TrackPosition();
+
+      assertFalse(track.positionAt(START_MILLIS, position));
+
+      track.add(fix(0, 42.0, 179.9999, 100, 10, 350, 1));
+      track.add(fix(2, 42.0002, -179.9999, 110, 14, 10, 3));
+
+      assertTrue(track.positionAt(START_MILLIS + 500, position));
+      assertEquals(START_MILLIS + 500, position.getTimeMillis());
+      assertFalse(position.isExtrapolated());
+      assertEquals(42.00005, position.getLatitude(), 1e-9);
+      assertEquals(179.99995, position.getLongitude(), 1e-9);
+      assertEquals(102.5, position.getAltitude(), 1e-9);
+      assertEquals(11, position.getSpeed(), 1e-9);
+      assertEquals(355, position.getCourse(), 1e-9);
+      assertEquals(1.5, position.getClimbRate(), 1e-9);
+
+      // across the antimeridian, and at a fix
+      track.positionAt(START_MILLIS + 1500, position);
+      assertEquals(-179.99995, position.getLongitude(), 1e-9);
+      assertEquals(5, position.getCourse(), 1e-9);
+
+      track.positionAt(START.plusSeconds(2), position);
+      assertEquals(-179.9999, position.getLongitude(), 1e-12);
+      assertFalse(position.isExtrapolated());
+
+      assertFalse(track.positionAt(START_MILLIS - 1, position));
+   }
+
+   @Test
+   public void deadReckonsAfterTheLatestFix() throws Exception
+   {
+      Track track = new Track(10);
+      TrackPosition position = new TrackPosition();
+
+      track.add(fix(0, 42, 23, 100, 10, 90, -1));
+
+      assertTrue(track.positionAt(START_MILLIS + 2000, position));
+      assertTrue(position.isExtrapolated());
+      assertEquals(2000, position.getExtrapolatedMillis());
+      assertEquals(42, position.getLatitude(), 1e-9);
+      assertEquals(20, Geodesy.vincentyDistance(42, 23, position.getLatitude(), position.getLongitude()), 0.01);
+      assertEquals(98, position.getAltitude(), 1e-9);
+
+      track.add(fix(1, 42, 23, 100, 10, 0, -1));
+      track.positionAt(START_MILLIS + 3000, position);
+      assertEquals(20, Geodesy.vincentyDistance(42, 23, position.getLatitude(), position.getLongitude()), 0.01);
+      assertEquals(0, Geodesy.initialBearing(42, 23, position.getLatitude(), position.getLongitude()), 0.01);
+
+      // without a speed, the velocity since the fix before is kept
+      track.add(TpvBuilder.tpv("/dev/ttyAMA0").mode(2).at(2).position(42.0001, 23.0001).build());
+      track.positionAt(START_MILLIS + 4000, position);
+      assertEquals(42.0003, position.getLatitude(), 1e-9);
+      assertEquals(23.0003, position.getLongitude(), 1e-9);
+      assertTrue(Double.isNaN(position.getAltitude()));
+   }
+
+   @Test
+   public void storeKeepsATrackPerDevice() throws Exception
+   {
+      TrackStore store = new TrackStore(10);
+      store.accept(tpv(0));
+      store.accept(TpvBuilder.tpv("/dev/ttyUSB0").mode(3).at(0).position(1.0, 2.0).build());
+
+      assertEquals(2, store.getTracks().size());
+      assertEquals(1, store.getTrack("/dev/ttyUSB0").size());
+      assertNull(store.getTrack("/dev/ttyS0"));
+
+      TrackPosition position = new TrackPosition();
+      assertTrue(store.positionAt("/dev/ttyUSB0", START_MILLIS + 1000, position));
+      assertEquals(1.0, position.getLatitude(), 0);
+      assertFalse(store.positionAt("/dev/ttyS0", START_MILLIS, position));
+   }
+
+   private static int count(TrackCursor cursor)
+   {
+      int count = 0;
+      while (cursor.next()) count++;
+
+      return count;
+   }
+
+   private static TPVReport fix(int second, double latitude, double longitude, double altitude, double speed,
+                                double course, double climbRate)
+   {
+      return TpvBuilder.tpv("/dev/ttyAMA0").mode(3).at(second)
+            .position(latitude, longitude)
+            .altitude(altitude)
+            .speed(speed)
+            .course(course)
+            .climbRate(climbRate)
+            .build();
+   }
+
+   private static TPVReport tpv(int second)
+   {
+      return TpvBuilder.tpv("/dev/ttyAMA0").mode(3).at(second)
+            .position(42 + second * 0.0001, 23.321868)
+            .altitude(550.2)
+            .speed(12.3)
+            .course(121.4)
+            .build();
+   }
+}
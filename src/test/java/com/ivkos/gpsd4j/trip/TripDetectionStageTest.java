@@ -0,0 +1,172 @@
+/*
+ * Copyright 2017 Ivaylo Stoyanov <me@ivkos.com>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.ivkos.gpsd4j.trip;
+
+import com.ivkos.gpsd4j.messages.GpsdMessage;
+import com.ivkos.gpsd4j.messages.reports.TPVReport;
+import com.ivkos.gpsd4j.support.TpvBuilder;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static com.ivkos.gpsd4j.support.TpvBuilder.START;
+import static org.junit.Assert.*;
+
+public class TripDetectionStageTest
+{
+   // roughly, at 42.6 degrees
+   private static final double METERS_PER_DEGREE = 111_100;
+
+   private final List<TripSegmentEvent> events = new ArrayList<>();
+
+   @Test
+   public void splitsTrackIntoTripsAndStops() throws Exception
+   {
+      TripDetectionStage stage = new TripDetectionStage();
+
+      // parked, with a few meters of noise
+      for (int t = 0; t < 30; t++) {
+         process(stage, tpv("car", t, t % 2 == 0 ? 2 : -2, 0.1));
+      }
+
+      assertEquals(0, stage.getOdometer("car"), 0);
+      assertTrue(events.isEmpty());
+
+      // 1 km, a red light, and another km
+      double north = 0;
+      for (int t = 30; t < 130; t++) {
+         north += 10;
+         process(stage, tpv("car", t, north, 10));
+      }
+
+      TripSegmentEvent started = events.remove(0);
+      assertEquals(TripTransition.STARTED, started.getTransition());
+      assertFalse(started.isTrip());
+      assertEquals(START, started.getStartTime());
+      assertEquals(START.plusSeconds(29), started.getEndTime());
+      assertEquals("car", started.getDevice());
+
+      for (int t = 130; t < 150; t++) {
+         process(stage, tpv("car", t, north, 0));
+      }
+
+      for (int t = 150; t < 250; t++) {
+         north += 10;
+         process(stage, tpv("car", t, north, 10));
+      }
+
+      assertTrue(events.isEmpty());
+
+      // parked again
+      for (int t = 250; t < 1000; t++) {
+         process(stage, tpv("car", t, north, 0));
+
+         if (t == 309) {
+            assertTrue(events.isEmpty());
+         }
+         else if (t == 310) {
+            TripSegmentEvent stopped = events.remove(0);
+            assertEquals(TripTransition.STOPPED, stopped.getTransition());
+            assertTrue(stopped.isTrip());
+            assertEquals(START.plusSeconds(29), stopped.getStartTime());
+            assertEquals(START.plusSeconds(250), stopped.getEndTime());
+            assertEquals(42.6 + 2000 / METERS_PER_DEGREE, stopped.getEndLatitude(), 1e-7);
+            assertEquals(2000, stopped.getDistance(), 10);
+            assertEquals(202, stopped.getMovingTime(), 1e-6);
+            assertEquals(221, stopped.getDuration().getSeconds());
+         }
+         else if (t == 850) {
+            TripSegmentEvent dwelling = events.remove(0);
+            assertEquals(TripTransition.DWELLING, dwelling.getTransition());
+            assertEquals(START.plusSeconds(250), dwelling.getStartTime());
+            assertEquals(600, dwelling.getDuration().getSeconds());
+         }
+
+         assertTrue(events.isEmpty());
+      }
+
+      process(stage, tpv("car", 1000, north + 10, 10));
+
+      TripSegmentEvent restarted = events.remove(0);
+      assertEquals(TripTransition.STARTED, restarted.getTransition());
+      assertEquals(START.plusSeconds(250), restarted.getStartTime());
+      assertEquals(START.plusSeconds(999), restarted.getEndTime());
+      assertEquals(2010, restarted.getOdometer(), 10);
+
+      assertEquals(2010, stage.getOdometer("car"), 10);
+      assertTrue(stage.removeDevice("car"));
+      assertEquals(0, stage.getOdometer("car"), 0);
+   }
+
+   @Test
+   public void derivesSpeedWhenNoneIsReported() throws Exception
+   {
+      TripDetectionStage stage = new TripDetectionStage().setStopDuration(10_000);
+
+      for (int t = 0; t < 20; t++) {
+         process(stage, tpv("car", t, t * 5, Double.NaN));
+      }
+
+      for (int t = 20; t < 40; t++) {
+         process(stage, tpv("car", t, 95, Double.NaN));
+      }
+
+      // without a speed, the first fix can only be taken as stopped
+      assertEquals(TripTransition.STARTED, events.remove(0).getTransition());
+
+      TripSegmentEvent stopped = events.remove(0);
+      assertEquals(TripTransition.STOPPED, stopped.getTransition());
+      assertEquals(START.plusSeconds(20), stopped.getEndTime());
+      assertEquals(95, stopped.getDistance(), 1);
+      assertEquals(95, stage.getOdometer("car"), 1);
+      assertTrue(events.isEmpty());
+   }
+
+   @Test
+   public void passesEveryMessageOn() throws Exception
+   {
+      TripDetectionStage stage = new TripDetectionStage();
+      List<GpsdMessage> passed = new ArrayList<>();
+
+      TPVReport noFix = TpvBuilder.tpv("car").mode(1).build();
+      stage.process(noFix, passed::add);
+
+      assertEquals(1, passed.size());
+      assertSame(noFix, passed.get(0));
+      assertFalse(stage.removeDevice("car"));
+   }
+
+   private void process(TripDetectionStage stage, TPVReport tpv)
+   {
+      List<GpsdMessage> passed = new ArrayList<>();
+      stage.process(tpv, passed::add);
+
+      assertSame(tpv, passed.get(0));
+      for (int i = 1; i < passed.size(); i++) {
+         events.add((TripSegmentEvent) passed.get(i));
+      }
+   }
+
+   private static TPVReport tpv(String device, int second, double north, double speed)
+   {
+      TpvBuilder tpv = TpvBuilder.tpv(device).mode(2).at(second).position(42.6 + north / METERS_PER_DEGREE, 23.3);
+      if (!Double.isNaN(speed)) tpv.speed(speed);
+
+      return tpv.build();
+   }
+}